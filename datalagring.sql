@@ -24,7 +24,7 @@ CREATE TABLE "genres"
 
 CREATE TABLE "instruments"
 (
-	"instrument_name" varchar(100) PRIMARY KEY,
+	"instrument_name" varchar(100) PRIMARY KEY
 );
 
 CREATE TABLE "levels"
@@ -42,13 +42,13 @@ CREATE TABLE "extra_costs"
 CREATE TABLE "student"
 (
   "student_id" serial PRIMARY KEY,
-  "person_id" serial NOT NULL REFERENCES "person" UNIQUE,
+  "person_id" int NOT NULL REFERENCES "person" UNIQUE,
   "siblings" BIT
 );
 
 CREATE TABLE "contact_details_parents"
 (
-  "student_id" serial NOT NULL REFERENCES "student" ON DELETE CASCADE,
+  "student_id" int NOT NULL REFERENCES "student" ON DELETE CASCADE,
   "contact" varchar(100) NOT NULL,
   PRIMARY KEY ("student_id")
 );
@@ -57,21 +57,21 @@ CREATE TABLE "contact_details_parents"
 CREATE TABLE "instructor"
 (
   "instructor_id" serial PRIMARY KEY,
-  "person_id" serial NOT NULL REFERENCES "person" UNIQUE,
+  "person_id" int NOT NULL REFERENCES "person" UNIQUE,
   "employment_id" varchar(10) UNIQUE NOT NULL
 );
 
 CREATE TABLE "teach_ensemble"
 (
-  "genre_id" serial NOT NULL REFERENCES "genres" ON DELETE CASCADE,
-  "instructor_id" serial NOT NULL REFERENCES "instructor" ON DELETE CASCADE,
+  "genre_id" int NOT NULL REFERENCES "genres" ON DELETE CASCADE,
+  "instructor_id" int NOT NULL REFERENCES "instructor" ON DELETE CASCADE,
   PRIMARY KEY("genre_id", "instructor_id")
 );
 
 CREATE TABLE "teach_instrument"
 (	
   "instrument_id" varchar(100) NOT NULL REFERENCES "instruments" ON DELETE CASCADE,
-  "instructor_id" serial NOT NULL REFERENCES "instructor" ON DELETE CASCADE,
+  "instructor_id" int NOT NULL REFERENCES "instructor" ON DELETE CASCADE,
   PRIMARY KEY("instrument_id", "instructor_id")
 );
 
@@ -81,15 +81,14 @@ CREATE TABLE "renting_instrument"
     "available_instrument_amount" int ,
 	"instrument_type" varchar(100) REFERENCES "instruments" ON DELETE SET NULL,
 	"instrument_name" varchar(100) UNIQUE,
-	"rental_cost" int,
-    "instrument_type" varchar(100) REFERENCES "instruments" ON DELETE SET NULL
+	"rental_cost" int
 );
 
 CREATE TABLE "rented_instrument"
 (
 	"rented_id" serial PRIMARY KEY,
-	"instrument_id" serial NOT NULL REFERENCES "renting_instrument" ON DELETE CASCADE,
-	"student_id" serial NOT NULL REFERENCES "student" ON DELETE CASCADE,
+	"instrument_id" int NOT NULL REFERENCES "renting_instrument" ON DELETE CASCADE,
+	"student_id" int NOT NULL REFERENCES "student" ON DELETE CASCADE,
     "date" date,
 	"currently_renting" bit
 );
@@ -97,20 +96,20 @@ CREATE TABLE "rented_instrument"
 CREATE TABLE "lesson"
 (
 	"lesson_id" serial PRIMARY KEY,
-    "level" varchar(100) REFERENCES "levels" ON DELETE SET NULL
-	"instructor_id" serial REFERENCES "instructor" ON DELETE SET NULL
+    "level" varchar(100) REFERENCES "levels" ON DELETE SET NULL,
+	"instructor_id" int REFERENCES "instructor" ON DELETE SET NULL
 );
 
 CREATE TABLE "individual_lesson"
 (
-	"lesson_id" serial REFERENCES "lesson" ON DELETE CASCADE,
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
     PRIMARY KEY ("lesson_id"),
     "instrument_id" varchar(100) REFERENCES "instruments" ON DELETE SET NULL
 );
 
 CREATE TABLE "group_lesson"
 (
-	"lesson_id" serial REFERENCES "lesson" ON DELETE CASCADE,
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
     PRIMARY KEY ("lesson_id"),
     "minimum_students" int,
     "maximum_students" int,
@@ -119,25 +118,25 @@ CREATE TABLE "group_lesson"
 
 CREATE TABLE "ensemble"
 (
-	"lesson_id" serial REFERENCES "lesson" ON DELETE CASCADE,
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
     PRIMARY KEY ("lesson_id"),
     "minimum_students" int,
     "maximum_students" int,
-    "genre_id" serial REFERENCES "genres" ON DELETE SET NULL
+    "genre_id" int REFERENCES "genres" ON DELETE SET NULL
 );
 
 CREATE TABLE "student_list"
 (
 	"list_id" serial PRIMARY KEY,
-	"lesson_id" serial REFERENCES "lesson" ON DELETE CASCADE,
-   	"student_id" serial REFERENCES "student" ON DELETE CASCADE,
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+   	"student_id" int REFERENCES "student" ON DELETE CASCADE,
 	UNIQUE ("lesson_id","student_id")	
 );
 
 CREATE TABLE "application"
 (
-	"lesson_id" serial REFERENCES "lesson" ON DELETE CASCADE,
-	"student_id" serial REFERENCES "student" ON DELETE CASCADE,
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+	"student_id" int REFERENCES "student" ON DELETE CASCADE,
 	PRIMARY KEY ("lesson_id","student_id"),
     "skill" varchar(500),
     "audition_required" bit,
@@ -147,48 +146,53 @@ CREATE TABLE "application"
 CREATE TABLE "timeslot"
 (
 	"timeslot_id" serial PRIMARY KEY,
-    "lesson_id" serial REFERENCES "lesson" ON DELETE SET NULL,
+    "lesson_id" int REFERENCES "lesson" ON DELETE SET NULL,
     "date" date
 );
 
 CREATE TABLE "available_instructor"
 (
-	"instructor_id" serial REFERENCES "instructor" ON DELETE CASCADE,
-	"timeslot_id" serial REFERENCES "timeslot" ON DELETE CASCADE,
+	"instructor_id" int REFERENCES "instructor" ON DELETE CASCADE,
+	"timeslot_id" int REFERENCES "timeslot" ON DELETE CASCADE,
 	PRIMARY KEY ("instructor_id","timeslot_id"),
     "instructor_available" bit
 );
 
 CREATE TABLE "lesson_costs"
 (
-	"level_id" varchar(100) REFERENCES "levels" ON DELETE CASCADE,
+	"level_id" varchar(100) PRIMARY KEY REFERENCES "levels" ON DELETE CASCADE,
 	"lesson_cost" int
 );
 
 CREATE TABLE "instructor_payment"
 (
-	"instructor_id" serial REFERENCES "instructor" ON DELETE CASCADE,
-	"timeslot_id" serial REFERENCES "timeslot" ON DELETE CASCADE,
+	"instructor_id" int REFERENCES "instructor" ON DELETE CASCADE,
+	"timeslot_id" int REFERENCES "timeslot" ON DELETE CASCADE,
 
 	PRIMARY KEY ("instructor_id", "timeslot_id"),
     "payment" int,
-    "cost_id" serial REFERENCES "extra_costs" ON DELETE SET NULL,
-	"timeslot_id" serial REFERENCES "timeslot" ON DELETE SET NULL,
-    "lesson_cost" varchar(100) REFERENCES "lesson_cost" ON DELETE SET NULL
+    "cost_id" int REFERENCES "extra_costs" ON DELETE SET NULL,
+    "lesson_cost" varchar(100) REFERENCES "lesson_costs" ON DELETE SET NULL
 );
 
 
 CREATE TABLE "student_payment"
 (
-	"student_id" serial REFERENCES "student" ON DELETE CASCADE,
-    "timeslot_id" serial REFERENCES "timeslot" ON DELETE CASCADE,
+	"student_id" int REFERENCES "student" ON DELETE CASCADE,
+    "timeslot_id" int REFERENCES "timeslot" ON DELETE CASCADE,
 
 	PRIMARY KEY ("student_id","timeslot_id"),
     "costs_of_lessons" int,
     "discount_siblings" float,
-    "cost_id" serial REFERENCES "extra_costs" ON DELETE SET NULL,
-	"timeslot_id" serial REFERENCES "timeslot" ON DELETE SET NULL,
-    "lesson_cost" varchar(100) REFERENCES "lesson_cost" ON DELETE SET NULL
+    "cost_id" int REFERENCES "extra_costs" ON DELETE SET NULL,
+    "lesson_cost" varchar(100) REFERENCES "lesson_costs" ON DELETE SET NULL
 );
 
+CREATE INDEX "rented_instrument_student_renting_idx"
+  ON "rented_instrument" ("student_id", "currently_renting");
 
+CREATE INDEX "rented_instrument_active_idx"
+  ON "rented_instrument" ("student_id", "instrument_id") WHERE "currently_renting" = B'1';
+
+CREATE INDEX "renting_instrument_available_type_idx"
+  ON "renting_instrument" ("instrument_type") WHERE "available_instrument_amount" > 0;
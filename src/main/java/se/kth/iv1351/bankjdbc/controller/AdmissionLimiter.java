@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import se.kth.iv1351.bankjdbc.model.BusyException;
+
+/**
+ * Limits the number of concurrent operations of one kind, such as reads or
+ * rentals, so that a saturated database is not given more work than it can
+ * finish. Operations over the limit wait, first come first served, in a bounded
+ * queue. An operation finding the queue full, or still waiting when its queue
+ * time budget runs out, is rejected at once with a <code>BusyException</code>.
+ * <p>
+ * The limit adapts to the observed latency, by additive increase and
+ * multiplicative decrease. Every operation finishing within the latency target
+ * while the limit is reached raises the limit by one divided by the limit, that
+ * is by one for a whole limit of operations. An operation taking longer cuts the
+ * limit by a tenth, once for all operations started before the previous cut.
+ * <p>
+ * The settings are read from the system properties
+ * <code>bankdb.admission.&lt;kind&gt;.limit</code> (the initial limit),
+ * <code>.maxLimit</code>, <code>.queue</code> (the maximum number of waiting
+ * operations), <code>.queueMillis</code> (the queue time budget) and
+ * <code>.targetMillis</code> (the latency target). The limit never exceeds the
+ * number of calls the DAO executes at the same time, since further callers would
+ * only wait inside the DAO, where their latency says nothing about the load.
+ */
+class AdmissionLimiter {
+    private static final String PROPERTY_PREFIX = "bankdb.admission.";
+    private static final int DEFAULT_MAX_LIMIT = 64;
+    private static final int DEFAULT_MAX_QUEUED = 256;
+    private static final long DEFAULT_QUEUE_MILLIS = 1000;
+    private static final long DEFAULT_TARGET_MILLIS = 250;
+    private static final int MIN_LIMIT = 1;
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final String kind;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long queueBudgetNanos;
+    private final long latencyTargetNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    /**
+     * Creates an instance with the settings of the system properties of the
+     * specified kind of operations.
+     *
+     * @param kind               The kind of operations, used in the property names
+     *                           and in the message of a rejection.
+     * @param initialLimit       The limit used if no initial limit is configured.
+     * @param maxConcurrentCalls The number of calls the DAO executes at the same
+     *                           time, which neither the initial nor the maximum
+     *                           limit may exceed.
+     * @return The new instance.
+     */
+    static AdmissionLimiter configured(String kind, int initialLimit, int maxConcurrentCalls) {
+        String prefix = PROPERTY_PREFIX + kind + ".";
+        int maxLimit = Math.min(Integer.getInteger(prefix + "maxLimit", DEFAULT_MAX_LIMIT),
+                                maxConcurrentCalls);
+        return new AdmissionLimiter(kind,
+                                    Math.min(Integer.getInteger(prefix + "limit", initialLimit),
+                                             maxLimit),
+                                    maxLimit,
+                                    Integer.getInteger(prefix + "queue", DEFAULT_MAX_QUEUED),
+                                    Long.getLong(prefix + "queueMillis", DEFAULT_QUEUE_MILLIS),
+                                    Long.getLong(prefix + "targetMillis", DEFAULT_TARGET_MILLIS));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param kind                The kind of operations, used in the message of a
+     *                            rejection.
+     * @param initialLimit        The initial maximum number of concurrent
+     *                            operations.
+     * @param maxLimit            The highest the limit may grow to.
+     * @param maxQueued           The maximum number of waiting operations.
+     * @param queueBudgetMillis   The longest time an operation may wait.
+     * @param latencyTargetMillis The longest time an operation may take without
+     *                            cutting the limit.
+     */
+    AdmissionLimiter(String kind, int initialLimit, int maxLimit, int maxQueued,
+                     long queueBudgetMillis, long latencyTargetMillis) {
+        this.kind = kind;
+        this.limit = Math.max(MIN_LIMIT, initialLimit);
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.maxQueued = maxQueued;
+        this.queueBudgetNanos = TimeUnit.MILLISECONDS.toNanos(queueBudgetMillis);
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+    }
+
+    /**
+     * Admits one operation, waiting if the limit is reached. The returned permit
+     * must be released when the operation is finished.
+     *
+     * @return The permit of the admitted operation.
+     * @throws BusyException If the queue is full, or if the operation was not
+     *                       admitted within the queue time budget.
+     */
+    Permit admit() throws BusyException {
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inFlight < currentLimit()) {
+                inFlight++;
+                return new Permit();
+            }
+            if (queue.size() >= maxQueued) {
+                throw busy();
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            queue.addLast(waiter);
+            long remainingNanos = queueBudgetNanos;
+            try {
+                while (!waiter.admitted && remainingNanos > 0) {
+                    remainingNanos = waiter.turn.awaitNanos(remainingNanos);
+                }
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (!waiter.admitted) {
+                queue.remove(waiter);
+                throw busy();
+            }
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int currentLimit() {
+        return (int)limit;
+    }
+
+    private BusyException busy() {
+        return new BusyException("The bank is busy with " + kind + ", try again later.");
+    }
+
+    private void finished(long startNanos) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            boolean limitReached = inFlight >= currentLimit();
+            inFlight--;
+            if (now - startNanos > latencyTargetNanos) {
+                if (startNanos - lastDecreaseNanos >= 0) {
+                    limit = Math.max(MIN_LIMIT, limit * DECREASE_FACTOR);
+                    lastDecreaseNanos = now;
+                }
+            } else if (limitReached) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            while (!queue.isEmpty() && inFlight < currentLimit()) {
+                Waiter next = queue.removeFirst();
+                next.admitted = true;
+                inFlight++;
+                next.turn.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An operation waiting to be admitted, guarded by the lock.
+     */
+    private static class Waiter {
+        private final Condition turn;
+        private boolean admitted;
+
+        Waiter(Condition turn) {
+            this.turn = turn;
+        }
+    }
+
+    /**
+     * The right of one admitted operation to run.
+     */
+    class Permit {
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        /**
+         * Tells that the operation is finished, and lets the next waiting operation
+         * run. Releasing the permit again has no effect.
+         */
+        void release() {
+            if (!released) {
+                released = true;
+                finished(startNanos);
+            }
+        }
+    }
+}
@@ -23,8 +23,13 @@
 
 package se.kth.iv1351.bankjdbc.controller;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import se.kth.iv1351.bankjdbc.integration.BankDAO;
 import se.kth.iv1351.bankjdbc.integration.BankDBException;
@@ -35,17 +40,88 @@ import se.kth.iv1351.bankjdbc.model.*;
  * The controller is also responsible for calling the DAO. Typically, the
  * controller first calls the DAO to retrieve data (if needed), then operates on
  * the data, and finally tells the DAO to store the updated data (if any).
+ * Reads, rentals, changes of accounts and changes of lessons are each admitted
+ * by an <code>AdmissionLimiter</code>, which throws <code>BusyException</code>
+ * instead of letting callers pile up when the database is saturated. Exports,
+ * snapshots and reports are admitted as reads, a restore as a change of
+ * accounts, and bookings, enrollments, applications, auditions and payments as
+ * changes of lessons. No limiter admits more operations than the DAO executes at
+ * the same time.
  */
 public class Controller {
+    private static final long AVAILABILITY_MAX_AGE_MILLIS = 60000;
+    private static final long CATALOG_MAX_AGE_MILLIS = 60000;
+    private static final long SEATS_MAX_AGE_MILLIS = 60000;
+    private static final int INITIAL_READ_LIMIT = 16;
+    private static final int INITIAL_RENTAL_LIMIT = 4;
+    private static final int INITIAL_BALANCE_LIMIT = 8;
+    private static final int INITIAL_LESSON_LIMIT = 4;
     private final BankDAO bankDb;
+    private final AdmissionLimiter reads;
+    private final AdmissionLimiter rentals;
+    private final AdmissionLimiter balances;
+    private final AdmissionLimiter lessons;
+    private final SingleFlight<String, List<Rental>> rentalsByType;
+    private final SingleFlight<String, Rental> rentalsByName;
+    private final Object availabilityLock = new Object();
+    private volatile InstructorAvailability availability;
+    private long availabilityLoadedAt;
+    private final Object seatsLock = new Object();
+    private LessonSeats seats;
+    private long seatsLoadedAt;
+    private volatile RentalCatalog catalog;
+    private long catalogLoadedAt;
 
     /**
-     * Creates a new instance, and retrieves a connection to the database.
+     * Creates a new instance using the DAO selected by the system property
+     * <code>bankdb.store</code>, which connects to the database unless the bank is
+     * kept in memory.
      * 
      * @throws BankDBException If unable to connect to the database.
      */
     public Controller() throws BankDBException {
-        bankDb = new BankDAO();
+        this(BankDAO.create());
+    }
+
+    /**
+     * Creates a new instance using the specified DAO. If the DAO can send
+     * notifications, the rental catalog is updated whenever a brand is rented or
+     * returned by another program, and is reloaded when notifications were lost.
+     *
+     * @param bankDb The DAO storing the bank.
+     * @throws BankDBException If unable to listen for changes.
+     */
+    public Controller(BankDAO bankDb) throws BankDBException {
+        this.bankDb = bankDb;
+        int maxConcurrentCalls = bankDb.getMaxConcurrentCalls();
+        reads = AdmissionLimiter.configured("reads", INITIAL_READ_LIMIT, maxConcurrentCalls);
+        rentals = AdmissionLimiter.configured("rentals", INITIAL_RENTAL_LIMIT,
+                                              maxConcurrentCalls);
+        balances = AdmissionLimiter.configured("balances", INITIAL_BALANCE_LIMIT,
+                                               maxConcurrentCalls);
+        lessons = AdmissionLimiter.configured("lessons", INITIAL_LESSON_LIMIT,
+                                              maxConcurrentCalls);
+        rentalsByType = new SingleFlight<>("available rentals by type", reads);
+        rentalsByName = new SingleFlight<>("rentals by brand", null);
+        bankDb.listenForChanges(new DataChangeObserver() {
+            @Override
+            public void rentalAvailabilityChanged(int instrumentId, int availableAmount) {
+                RentalCatalog current = catalog;
+                if (current != null) {
+                    current.setAvailable(instrumentId, availableAmount);
+                }
+            }
+
+            @Override
+            public void changesInterrupted() {
+                catalog = null;
+            }
+
+            @Override
+            public void changesResumed() {
+                catalog = null;
+            }
+        });
     }
 
     /**
@@ -61,10 +137,13 @@ public class Controller {
             throw new AccountException(failureMsg);
         }
 
+        AdmissionLimiter.Permit permit = balances.admit();
         try {
             bankDb.createAccount(new Account(holderName));
         } catch (Exception e) {
             throw new AccountException(failureMsg, e);
+        } finally {
+            permit.release();
         }
     }
 
@@ -76,10 +155,76 @@ public class Controller {
      * @throws AccountException If unable to retrieve accounts.
      */
     public List<? extends AccountDTO> getAllAccounts() throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
         try {
             return bankDb.findAllAccounts();
         } catch (Exception e) {
             throw new AccountException("Unable to list accounts.", e);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Writes all rows of the specified table to the specified file. The rows are
+     * streamed from the database to the file, so any number of rows can be
+     * exported. The file is compressed with gzip if its name ends with
+     * <code>.gz</code>.
+     *
+     * @param table  The data to export.
+     * @param file   The file to write.
+     * @param format The file's format.
+     * @return The number of exported rows.
+     * @throws AccountException If unable to export the data.
+     */
+    public long export(ExportTable table, Path file, ExportFormat format)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.export(table, file, format);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Unable to export " + table + ".", bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Writes all account holders, accounts, instrument brands and rentals to the
+     * specified snapshot file.
+     *
+     * @param file The file to write.
+     * @return The number of rows in the snapshot.
+     * @throws AccountException If unable to write the snapshot.
+     */
+    public long snapshot(Path file) throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.snapshot(file);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Unable to write a snapshot.", bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Replaces all account holders, accounts, instrument brands and rentals with
+     * those in the specified snapshot file. All waitlists are emptied.
+     *
+     * @param file The snapshot file.
+     * @return The number of restored rows.
+     * @throws AccountException If unable to restore the snapshot.
+     */
+    public long restore(Path file) throws AccountException {
+        AdmissionLimiter.Permit permit = balances.admit();
+        try {
+            return bankDb.restore(file);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Unable to restore the snapshot.", bdbe);
+        } finally {
+            catalog = null;
+            permit.release();
         }
     }
 
@@ -97,10 +242,13 @@ public class Controller {
             return new ArrayList<>();
         }
 
+        AdmissionLimiter.Permit permit = reads.admit();
         try {
             return bankDb.findAccountsByHolder(holderName);
         } catch (Exception e) {
             throw new AccountException("Could not search for account.", e);
+        } finally {
+            permit.release();
         }
     }
 
@@ -112,34 +260,543 @@ public class Controller {
 
         try {
             System.out.println("searching for rentals");
-            return bankDb.findRentalByType(type);
-        } catch (Exception e) {
+            return rentalsByType.read(type, () -> List.copyOf(bankDb.findRentalByType(type)));
+        } catch (BankDBException e) {
             throw new AccountException("Could not search for rentals.", e);
         }
     }
 
+    /**
+     * Lists the rentals of the specified student.
+     *
+     * @param studentID      The student whose rentals are listed.
+     * @param includeHistory <code>true</code> if also archived rentals shall be
+     *                       listed.
+     * @return The student's rentals, oldest first.
+     * @throws AccountException If unable to retrieve the rentals.
+     */
+    public List<? extends RentalRecordDTO> getRentalRecords(int studentID,
+                                                            boolean includeHistory)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.findRentalRecords(studentID, includeHistory);
+        } catch (Exception e) {
+            throw new AccountException("Could not list rentals.", e);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Lists the number of lessons of each type given in each month of the specified
+     * year.
+     *
+     * @param year The year to report.
+     * @return The number of lessons per month and lesson type, ordered by month.
+     * @throws AccountException If unable to retrieve the report.
+     */
+    public List<? extends MonthlyLessonsDTO> getLessonsPerMonth(int year)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.findLessonsPerMonth(year);
+        } catch (Exception e) {
+            throw new AccountException("Could not list lessons.", e);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Lists the instructors that gave more than the specified number of lessons
+     * during the specified month.
+     *
+     * @param month     The month to report.
+     * @param threshold The number of lessons an instructor must exceed to be listed.
+     * @return The instructors, those with most lessons first.
+     * @throws AccountException If unable to retrieve the report.
+     */
+    public List<? extends InstructorLessonsDTO> getBusyInstructors(YearMonth month,
+                                                                   int threshold)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.findBusyInstructors(month, threshold);
+        } catch (Exception e) {
+            throw new AccountException("Could not list instructors.", e);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Lists the number of rentals of each instrument brand started during the
+     * specified month.
+     *
+     * @param month The month to report.
+     * @return The instrument brands, most rented first.
+     * @throws AccountException If unable to retrieve the report.
+     */
+    public List<? extends InstrumentUtilizationDTO> getInstrumentUtilization(YearMonth month)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.findInstrumentUtilization(month);
+        } catch (Exception e) {
+            throw new AccountException("Could not list instrument utilization.", e);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Finds the instructors teaching the specified instrument, and the timeslots at
+     * the specified dates when they are available. The search is answered by an
+     * in-memory index, which is reloaded from the database when it is older than
+     * one minute, and is updated when an instructor is booked.
+     *
+     * @param instrument The instrument.
+     * @param dates      The dates.
+     * @return One element for each available instructor and timeslot.
+     * @throws AccountException If unable to load the index.
+     */
+    public List<? extends AvailableInstructorDTO> getAvailableInstructors(String instrument,
+                                                                          List<LocalDate> dates)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return currentAvailability().findAvailable(instrument, dates);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not search for available instructors.", bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Books the specified instructor at the specified timeslot.
+     *
+     * @param instructorId The instructor to book.
+     * @param timeslotId   The timeslot to book.
+     * @throws RejectedException If the instructor is not available at the timeslot.
+     * @throws AccountException  If unable to book the instructor.
+     */
+    public void bookInstructor(int instructorId, int timeslotId)
+            throws RejectedException, AccountException {
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            bankDb.bookInstructor(instructorId, timeslotId);
+            markBooked(instructorId, timeslotId);
+        } catch (RejectedException rejected) {
+            markBooked(instructorId, timeslotId);
+            throw rejected;
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not book instructor " + instructorId, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Marks the booking in the loaded availability. The lock of the reload is held,
+     * so a booking made while the availability is reloaded is marked in the
+     * reloaded availability, and not only in the one it replaces.
+     */
+    private void markBooked(int instructorId, int timeslotId) {
+        synchronized (availabilityLock) {
+            if (availability != null) {
+                availability.setBooked(instructorId, timeslotId);
+            }
+        }
+    }
+
+    private InstructorAvailability currentAvailability() throws BankDBException {
+        synchronized (availabilityLock) {
+            long now = System.currentTimeMillis();
+            if (availability == null
+                || now - availabilityLoadedAt > AVAILABILITY_MAX_AGE_MILLIS) {
+                availability = bankDb.loadInstructorAvailability();
+                availabilityLoadedAt = now;
+            }
+            return availability;
+        }
+    }
+
+    /**
+     * Enrolls the specified student into the specified lesson. A seat is first taken
+     * from in-memory counters, so students enrolling into a lesson that is known to
+     * be full are rejected without a database call. The counters are loaded from
+     * the database at the first enrollment, and reloaded when they are older than a
+     * minute, which picks up seats freed by students leaving a lesson. A lesson is
+     * marked as full when the database has no free seat.
+     *
+     * @param studentId The student to enroll.
+     * @param lessonId  The lesson.
+     * @throws RejectedException If the lesson is full, or if the student is already
+     *                           enrolled into the lesson.
+     * @throws AccountException  If unable to enroll the student.
+     */
+    public void enrollStudent(int studentId, int lessonId)
+            throws RejectedException, AccountException {
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            enrollTakingSeat(lessonId, "Could not enroll student " + studentId + " into lesson "
+                                       + lessonId, () -> bankDb.enrollStudent(lessonId, studentId));
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Takes a seat from the in-memory counters, and then enrolls with the
+     * specified database call. The seat is given back if the call fails, and the
+     * lesson is marked as full if the call finds no free seat.
+     */
+    private void enrollTakingSeat(int lessonId, String failureMsg, Enrollment enrollment)
+            throws RejectedException, AccountException {
+        LessonSeats currentSeats;
+        try {
+            currentSeats = currentSeats();
+        } catch (BankDBException bdbe) {
+            throw new AccountException(failureMsg, bdbe);
+        }
+        if (!currentSeats.tryTake(lessonId)) {
+            throw new RejectedException("Lesson " + lessonId + " is full.");
+        }
+        boolean seatSettled = false;
+        try {
+            if (!enrollment.enroll()) {
+                currentSeats.setFull(lessonId);
+                seatSettled = true;
+                throw new RejectedException("Lesson " + lessonId + " is full.");
+            }
+            seatSettled = true;
+        } catch (BankDBException bdbe) {
+            throw new AccountException(failureMsg, bdbe);
+        } finally {
+            if (!seatSettled) {
+                currentSeats.giveBack(lessonId);
+            }
+        }
+    }
+
+    /**
+     * A database call enrolling a student, which returns <code>false</code> if the
+     * lesson is full.
+     */
+    private interface Enrollment {
+        boolean enroll() throws BankDBException, RejectedException;
+    }
+
+    /**
+     * Submits a student's application to a lesson. The application is stored in the
+     * background, and an application that is already stored is not changed.
+     *
+     * @param studentId        The applying student.
+     * @param lessonId         The lesson applied to.
+     * @param auditionRequired <code>true</code> if the student must pass an audition
+     *                         before being enrolled.
+     * @param skill            The student's description of their skill.
+     * @throws RejectedException If too many applications are waiting to be stored.
+     * @throws AccountException  If unable to submit the application.
+     */
+    public void submitApplication(int studentId, int lessonId, boolean auditionRequired,
+                                  String skill) throws RejectedException, AccountException {
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            bankDb.submitApplication(new Application(lessonId, studentId, skill,
+                                                     auditionRequired, false));
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not submit the application of student "
+                                       + studentId, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Waits until all submitted applications are stored. No more applications can
+     * be submitted after this method is called.
+     *
+     * @throws AccountException If interrupted while waiting.
+     */
+    public void closeApplicationIntake() throws AccountException {
+        try {
+            bankDb.closeApplicationIntake();
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not store the submitted applications.", bdbe);
+        }
+    }
+
+    /**
+     * Removes and returns the submitted applications that could not be stored
+     * since the previous call, so that they can be corrected and submitted again.
+     *
+     * @return The applications that could not be stored.
+     */
+    public List<? extends ApplicationDTO> takeFailedApplications() {
+        return bankDb.takeFailedApplications();
+    }
+
+    /**
+     * Claims the next applications waiting for an audition, for the specified
+     * instructor to review.
+     *
+     * @param instructorId The reviewing instructor.
+     * @param pageSize     The maximum number of applications to claim.
+     * @return The claimed applications, the most urgent first.
+     * @throws AccountException If unable to claim applications.
+     */
+    public List<? extends ApplicationDTO> claimAuditions(int instructorId, int pageSize)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            return bankDb.claimAuditions(instructorId, pageSize);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not claim auditions for instructor "
+                                       + instructorId, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Records the result of an audition claimed by the specified instructor. A
+     * student who passed is enrolled into the lesson, and nothing is recorded if
+     * the student can not be enrolled.
+     *
+     * @param instructorId The instructor who held the audition.
+     * @param studentId    The auditioned student.
+     * @param lessonId     The lesson applied to.
+     * @param passed       <code>true</code> if the student passed the audition.
+     * @throws RejectedException If the audition is not claimed by the instructor, or
+     *                           if the student passed but the lesson is full.
+     * @throws AccountException  If unable to record the result.
+     */
+    public void recordAudition(int instructorId, int studentId, int lessonId, boolean passed)
+            throws RejectedException, AccountException {
+        String failureMsg = "Could not record the audition of student " + studentId;
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            if (passed) {
+                enrollTakingSeat(lessonId, failureMsg, () -> bankDb.recordAudition(
+                    instructorId, lessonId, studentId, true));
+                return;
+            }
+            bankDb.recordAudition(instructorId, lessonId, studentId, false);
+        } catch (BankDBException bdbe) {
+            throw new AccountException(failureMsg, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private LessonSeats currentSeats() throws BankDBException {
+        synchronized (seatsLock) {
+            long now = System.currentTimeMillis();
+            if (seats == null || now - seatsLoadedAt > SEATS_MAX_AGE_MILLIS) {
+                seats = new LessonSeats(bankDb.findRemainingSeats());
+                seatsLoadedAt = now;
+            }
+            return seats;
+        }
+    }
+
+    /**
+     * Computes and stores the payments of all students for the lessons they
+     * attended during the specified month. Payments stored earlier for the same
+     * month are replaced.
+     *
+     * @param month The month.
+     * @return The computed payments.
+     * @throws AccountException If unable to load the attended lessons or to store the
+     *                          payments.
+     */
+    public StudentPaymentsDTO computeStudentPayments(YearMonth month)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            StudentPayments payments = bankDb.findAttendedTimeslots(month);
+            payments.compute(bankDb.findLessonCosts(), bankDb.findStudentsWithSiblings(),
+                             ForkJoinPool.commonPool());
+            bankDb.storeStudentPayments(month, payments);
+            return payments;
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not compute the student payments.", bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Computes the payments of all instructors for the lessons they delivered during
+     * the specified month, and stores the payments that changed since the payroll was
+     * last computed.
+     *
+     * @param month The month.
+     * @return The computed payroll.
+     * @throws AccountException If unable to load the delivered lessons or to store
+     *                          the payments.
+     */
+    public InstructorPayroll computeInstructorPayroll(YearMonth month) throws AccountException {
+        AdmissionLimiter.Permit permit = lessons.admit();
+        try {
+            InstructorPayroll payroll = bankDb.findInstructorPayroll(month);
+            payroll.compute(bankDb.findLessonCosts());
+            bankDb.storeInstructorPayroll(payroll);
+            return payroll;
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not compute the instructor payroll.", bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
     public void newRental(int id, String brand) throws RejectedException, AccountException {
+        newRental(id, brand, false);
+    }
+
+    /**
+     * Rents an instrument of the specified brand to the specified student. If the
+     * brand has no available instruments and <code>wait</code> is set, the student
+     * is instead put last in the brand's waitlist, and is rented the next returned
+     * instrument of the brand.
+     *
+     * @param id    The student.
+     * @param brand The instrument brand.
+     * @param wait  <code>true</code> if the student shall wait for an instrument.
+     * @throws RejectedException If the student can not rent the brand now, and does
+     *                           not wait.
+     * @throws AccountException  If unable to rent the brand.
+     */
+    public void newRental(int id, String brand, boolean wait)
+            throws RejectedException, AccountException {
         String failureMsg = "Could not rent " +brand +" to account " + id;
+        AdmissionLimiter.Permit permit = rentals.admit();
         try {
-            StudentRentals sr = bankDb.findRentalNumberTot(id);
-            sr.newRental();
-            Rental rl = bankDb.findRental(brand);
-            rl.newRental();
-            bankDb.newRental(id,rl);
+            if (wait) {
+                Rental rl = rentalsByName.read(brand, () -> bankDb.findRental(brand));
+                if (rl != null && rl.getAvailableInstrumentAmount() <= 0
+                    && bankDb.joinWaitlist(id, rl)) {
+                    System.out.println("Student " + id + " is waiting for " + brand);
+                    return;
+                }
+            }
+            Rental rented = bankDb.rentInstrument(id, brand);
+            if (catalog != null) {
+                catalog.setAvailable(rented.getInstrumentID(),
+                                     rented.getAvailableInstrumentAmount());
+            }
             System.out.println("Brand has been rented");
         } catch (BankDBException bdbe) {
             throw new AccountException(failureMsg, bdbe);
+        } finally {
+            permit.release();
         }
     }
     public void closeRental(int id, String brand) throws RejectedException, AccountException {
         String failureMsg = "Could not close rental of " +brand +" on account " + id;
+        AdmissionLimiter.Permit permit = rentals.admit();
         try {
-            Rental rl = bankDb.findRental(brand);
-            int rentalID = bankDb.findRentalID(rl.getInstrumentID(), id);
-            bankDb.clostRental(id, rentalID, rl);
+            RentalReturn returned = bankDb.returnInstrument(id, brand);
+            if (returned.getWaiter() == null && catalog != null) {
+                catalog.setAvailable(returned.getInstrumentID(),
+                                     returned.getAvailableInstrumentAmount());
+            }
             System.out.println("Brand rental has been closed");
+            if (returned.getWaiter() != null) {
+                System.out.println("The instrument is now rented to student "
+                                   + returned.getWaiter());
+            }
         } catch (BankDBException bdbe) {
             throw new AccountException(failureMsg, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Tells how many of the reads of available rentals by type, and of rentals by
+     * brand, shared the query of a concurrent identical read.
+     *
+     * @return The statistics of each kind of coalesced reads.
+     */
+    public List<ReadCoalescing> getReadCoalescing() {
+        return List.of(rentalsByType.getStatistics(), rentalsByName.getStatistics());
+    }
+
+    /**
+     * Finds the students whose name contains the specified text, ignoring case, the
+     * students whose name starts with the text first.
+     *
+     * @param text       The searched part of the name.
+     * @param maxMatches The maximum number of students to find.
+     * @return The found students.
+     * @throws AccountException If unable to search for students.
+     */
+    public List<? extends StudentMatchDTO> findStudents(String text, int maxMatches)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            return bankDb.findStudentsByName(text, maxMatches);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not search for students named " + text, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Makes the specified observer be notified whenever a returned instrument is
+     * rented to a student waiting for its brand, also when the instrument is returned
+     * by another program.
+     *
+     * @param observer The observer, which is called by a background thread.
+     * @return <code>true</code> if the observer will be notified, <code>false</code>
+     *         if the database can not send notifications.
+     * @throws AccountException If unable to listen for notifications.
+     */
+    public boolean addRentalHandoverObserver(RentalHandoverObserver observer)
+            throws AccountException {
+        try {
+            return bankDb.listenForHandovers(observer);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not listen for rental handovers.", bdbe);
+        }
+    }
+
+    /**
+     * Searches for instrument brands matching all the specified filters. The search
+     * is answered by an in-memory catalog, which is reloaded from the database when
+     * it is older than one minute, and is updated whenever a brand is rented or
+     * returned, also by another program if the database can send notifications.
+     *
+     * @param type        The type of instrument, or <code>null</code> for all types.
+     * @param minCost     The lowest rental cost, or <code>null</code> for no limit.
+     * @param maxCost     The highest rental cost, or <code>null</code> for no limit.
+     * @param inStockOnly <code>true</code> if only brands with available instruments
+     *                    shall be found.
+     * @param order       The order of the found brands.
+     * @return The matching brands.
+     * @throws AccountException If unable to load the catalog.
+     */
+    public List<? extends RentalDTO> searchRentals(String type, Integer minCost,
+                                                   Integer maxCost, boolean inStockOnly,
+                                                   RentalCatalog.SortOrder order)
+            throws AccountException {
+        AdmissionLimiter.Permit permit = reads.admit();
+        try {
+            long now = System.currentTimeMillis();
+            if (catalog == null || now - catalogLoadedAt > CATALOG_MAX_AGE_MILLIS) {
+                catalog = bankDb.loadRentalCatalog();
+                catalogLoadedAt = now;
+            }
+            return catalog.search(type, minCost, maxCost, inStockOnly, order);
+        } catch (BankDBException bdbe) {
+            throw new AccountException("Could not search for rentals.", bdbe);
+        } finally {
+            permit.release();
         }
     }
 
@@ -156,10 +813,13 @@ public class Controller {
             return null;
         }
 
+        AdmissionLimiter.Permit permit = reads.admit();
         try {
-            return bankDb.findAccountByAcctNo(acctNo);
+            return bankDb.findAccountByAcctNo(acctNo, true);
         } catch (Exception e) {
             throw new AccountException("Could not search for account.", e);
+        } finally {
+            permit.release();
         }
     }
 
@@ -178,12 +838,15 @@ public class Controller {
             throw new AccountException(failureMsg);
         }
 
+        AdmissionLimiter.Permit permit = balances.admit();
         try {
-            Account acct = bankDb.findAccountByAcctNo(acctNo);
+            Account acct = bankDb.findAccountByAcctNo(acctNo, false);
             acct.deposit(amt);
             bankDb.updateAccount(acct);
         } catch (BankDBException bdbe) {
             throw new AccountException(failureMsg, bdbe);
+        } finally {
+            permit.release();
         }
     }
 
@@ -202,12 +865,59 @@ public class Controller {
             throw new AccountException(failureMsg);
         }
 
+        AdmissionLimiter.Permit permit = balances.admit();
         try {
-            Account acct = bankDb.findAccountByAcctNo(acctNo);
+            Account acct = bankDb.findAccountByAcctNo(acctNo, false);
             acct.withdraw(amt);
             bankDb.updateAccount(acct);
         } catch (BankDBException bdbe) {
             throw new AccountException("Could not withdraw from account: " + acctNo, bdbe);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Moves the specified amount from one account to another, in one transaction.
+     *
+     * @param fromAcctNo The number of the account from which to withdraw.
+     * @param toAcctNo   The number of the account to which to deposit.
+     * @param amt        The amount to move.
+     * @throws RejectedException If not allowed to move the specified amount.
+     * @throws AccountException  If failed to move the amount.
+     */
+    public void transfer(String fromAcctNo, String toAcctNo, int amt)
+            throws RejectedException, AccountException {
+        if (toAcctNo == null) {
+            throw new AccountException("Could not transfer from account: " + fromAcctNo);
+        }
+        transfer(fromAcctNo, Map.of(toAcctNo, amt));
+    }
+
+    /**
+     * Moves the specified amounts from one account to several other accounts, in
+     * one transaction. Either all amounts are moved, or none of them.
+     *
+     * @param fromAcctNo The number of the account from which to withdraw.
+     * @param amounts    The amount to deposit to each account, by account number.
+     * @throws RejectedException If not allowed to move the specified amounts.
+     * @throws AccountException  If failed to move the amounts.
+     */
+    public void transfer(String fromAcctNo, Map<String, Integer> amounts)
+            throws RejectedException, AccountException {
+        String failureMsg = "Could not transfer from account: " + fromAcctNo;
+
+        if (fromAcctNo == null || amounts.isEmpty()) {
+            throw new AccountException(failureMsg);
+        }
+
+        AdmissionLimiter.Permit permit = balances.admit();
+        try {
+            bankDb.transfer(fromAcctNo, amounts);
+        } catch (BankDBException bdbe) {
+            throw new AccountException(failureMsg, bdbe);
+        } finally {
+            permit.release();
         }
     }
 
@@ -224,10 +934,13 @@ public class Controller {
             throw new AccountException(failureMsg);
         }
 
+        AdmissionLimiter.Permit permit = balances.admit();
         try {
             bankDb.deleteAccount(acctNo);
         } catch (Exception e) {
             throw new AccountException(failureMsg, e);
+        } finally {
+            permit.release();
         }
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.kth.iv1351.bankjdbc.integration.BankDBException;
+import se.kth.iv1351.bankjdbc.model.BusyException;
+import se.kth.iv1351.bankjdbc.model.ReadCoalescing;
+
+/**
+ * Coalesces identical concurrent reads. The first caller reading a key executes
+ * the read, and callers reading the same key before it is finished wait for it and
+ * all get its result, or its failure, instead of executing the same query again. A
+ * read may therefore get the result of a query that started shortly before it was
+ * called. The results are shared, so they must not be changed. Each waiting caller
+ * gets its own exception, whose cause is the failure of the read it waited for,
+ * except that an <code>Error</code> is rethrown as it is. If the reads are
+ * limited by an <code>AdmissionLimiter</code>, only the read executing the query is
+ * admitted by it, and callers waiting for that read do not take any permits.
+ *
+ * @param <K> The type of the keys identifying the reads.
+ * @param <V> The type of the read results.
+ */
+class SingleFlight<K, V> {
+    private final String name;
+    private final AdmissionLimiter limiter;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight =
+        new ConcurrentHashMap<>();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name    The name of the coalesced reads, used in the statistics.
+     * @param limiter Admits the reads executing queries, or <code>null</code> if
+     *                they shall not be limited.
+     */
+    SingleFlight(String name, AdmissionLimiter limiter) {
+        this.name = name;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Returns the result of the specified read of the specified key, executing the
+     * read only if no read of the same key is in flight.
+     *
+     * @param key  Identifies the read.
+     * @param read The read, executed by the calling thread if no read of the same
+     *             key is in flight.
+     * @return The read result.
+     * @throws BankDBException If the read, executed by this or another caller,
+     *                         failed.
+     * @throws BusyException   If the read executing the query was not admitted.
+     */
+    V read(K key, Read<V> read) throws BankDBException, BusyException {
+        reads.increment();
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running == null) {
+            AdmissionLimiter.Permit permit = null;
+            try {
+                permit = limiter == null ? null : limiter.admit();
+                queries.increment();
+                V result = read.execute();
+                mine.complete(result);
+                return result;
+            } catch (BankDBException | BusyException | RuntimeException | Error failure) {
+                mine.completeExceptionally(failure);
+                throw failure;
+            } finally {
+                inFlight.remove(key, mine);
+                if (permit != null) {
+                    permit.release();
+                }
+            }
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException failed) {
+            Throwable cause = failed.getCause();
+            if (cause instanceof BankDBException) {
+                throw new BankDBException(cause.getMessage(), cause);
+            }
+            if (cause instanceof BusyException) {
+                throw new BusyException(cause.getMessage(), cause);
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new CompletionException(cause);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new BankDBException("Interrupted while waiting for " + name + ".",
+                                      interrupted);
+        }
+    }
+
+    /**
+     * @return The number of reads and executed queries so far.
+     */
+    ReadCoalescing getStatistics() {
+        return new ReadCoalescing(name, reads.sum(), queries.sum());
+    }
+
+    /**
+     * A read that may be coalesced.
+     */
+    interface Read<V> {
+        V execute() throws BankDBException;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * One of the databases holding the <code>holder</code> and <code>account</code>
+ * tables. Each account is stored in the shard selected by the hash of its account
+ * number, and each holder is stored in all shards where it has accounts. Shard
+ * number zero is the bank's main database, which also holds the rental tables.
+ */
+class AccountShard {
+    private final int shardNo;
+    private final SqlDialect dialect;
+    private final ReplicaRouter router;
+    private final ReadStatements primaryReads;
+    private final ReadStatements replicaReads;
+    private final PreparedStatement findOrCreateHolderStmt;
+    private final PreparedStatement createAccountStmt;
+    private final PreparedStatement changeBalanceStmt;
+    private final PreparedStatement addToBalanceStmt;
+    private final PreparedStatement deleteAccountStmt;
+    private final PreparedStatement deleteUnusedHolderStmt;
+
+    AccountShard(int shardNo, SqlDialect dialect, ReplicaRouter router,
+                 ReadStatements primaryReads, ReadStatements replicaReads,
+                 PreparedStatement findOrCreateHolderStmt, PreparedStatement createAccountStmt,
+                 PreparedStatement changeBalanceStmt, PreparedStatement addToBalanceStmt,
+                 PreparedStatement deleteAccountStmt,
+                 PreparedStatement deleteUnusedHolderStmt) {
+        this.shardNo = shardNo;
+        this.dialect = dialect;
+        this.router = router;
+        this.primaryReads = primaryReads;
+        this.replicaReads = replicaReads;
+        this.findOrCreateHolderStmt = findOrCreateHolderStmt;
+        this.createAccountStmt = createAccountStmt;
+        this.changeBalanceStmt = changeBalanceStmt;
+        this.addToBalanceStmt = addToBalanceStmt;
+        this.deleteAccountStmt = deleteAccountStmt;
+        this.deleteUnusedHolderStmt = deleteUnusedHolderStmt;
+    }
+
+    /**
+     * @return The number of this shard.
+     */
+    int getShardNo() {
+        return shardNo;
+    }
+
+    /**
+     * @return The SQL dialect of this shard's database.
+     */
+    SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return The connection to this shard's primary database.
+     */
+    Connection getConnection() {
+        return primaryReads.getConnection();
+    }
+
+    /**
+     * @return The router deciding if reads may use this shard's replica.
+     */
+    ReplicaRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * @return The read-only statements of the primary database.
+     */
+    ReadStatements primaryReads() {
+        return primaryReads;
+    }
+
+    /**
+     * @return The read-only statements that shall be used for the next read-only
+     *         operation, those of the replica if it is up to date, otherwise those
+     *         of the primary.
+     */
+    ReadStatements reads() {
+        return router.useReplica() ? replicaReads : primaryReads;
+    }
+
+    /**
+     * Commits the ongoing write transaction in this shard's primary database.
+     *
+     * @throws SQLException If unable to commit.
+     */
+    void commitWrite() throws SQLException {
+        getConnection().commit();
+        router.writeCommitted();
+    }
+
+    /**
+     * Rolls back the ongoing transactions in this shard's primary and replica.
+     *
+     * @throws SQLException If unable to rollback.
+     */
+    void rollback() throws SQLException {
+        getConnection().rollback();
+        if (replicaReads != null) {
+            replicaReads.getConnection().rollback();
+        }
+    }
+
+    PreparedStatement getFindOrCreateHolderStmt() {
+        return findOrCreateHolderStmt;
+    }
+
+    PreparedStatement getCreateAccountStmt() {
+        return createAccountStmt;
+    }
+
+    PreparedStatement getChangeBalanceStmt() {
+        return changeBalanceStmt;
+    }
+
+    PreparedStatement getAddToBalanceStmt() {
+        return addToBalanceStmt;
+    }
+
+    PreparedStatement getDeleteAccountStmt() {
+        return deleteAccountStmt;
+    }
+
+    PreparedStatement getDeleteUnusedHolderStmt() {
+        return deleteUnusedHolderStmt;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import se.kth.iv1351.bankjdbc.model.ApplicationDTO;
+
+/**
+ * Stores submitted applications in the background. Applications are buffered in
+ * a bounded queue, and a writer thread inserts all applications waiting in the
+ * queue, up to a configured batch size, in one batch and one transaction. A
+ * submission is rejected when the queue is full, instead of waiting for the
+ * database. An application that is already stored is not changed. Applications
+ * that could not be stored are kept until they are taken with
+ * <code>takeFailed</code>.
+ */
+class ApplicationIntake {
+    private static final String APPLICATION_TABLE_NAME = "application";
+    private static final String APPLICATION_LESSON_ID = "lesson_id";
+    private static final String APPLICATION_STUDENT_ID = "student_id";
+    private static final String APPLICATION_SKILL = "skill";
+    private static final String APPLICATION_AUDITION_REQUIRED = "audition_required";
+    private static final String APPLICATION_SAVE = "save_application";
+    private static final String APPLICATION_AUDITION_DUE = "audition_due";
+    private static final String TIMESLOT_TABLE_NAME = "timeslot";
+    private static final String TIMESLOT_LESSON_ID = "lesson_id";
+    private static final String TIMESLOT_DATE = "date";
+    private static final String NO_TIMESLOT_DATE = "DATE '9999-12-31'";
+    private static final long POLL_MILLIS = 100;
+
+    private final Connection connection;
+    private final SqlDialect dialect;
+    private final BlockingQueue<ApplicationDTO> queue;
+    private final Queue<ApplicationDTO> failed = new ConcurrentLinkedQueue<>();
+    private final int batchSize;
+    private final Thread writer;
+    private final Object closeLock = new Object();
+    private volatile boolean closed;
+    private PreparedStatement createApplicationStmt;
+
+    /**
+     * Creates a new instance, which does not store any applications until it is
+     * started.
+     *
+     * @param connection A connection used only by this intake.
+     * @param dialect    The SQL dialect of the database.
+     * @param capacity   The maximum number of applications waiting to be stored.
+     * @param batchSize  The maximum number of applications stored in one
+     *                   transaction.
+     * @throws SQLException If unable to prepare the statements.
+     */
+    ApplicationIntake(Connection connection, SqlDialect dialect, int capacity, int batchSize)
+            throws SQLException {
+        this.connection = connection;
+        this.dialect = dialect;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.writer = new Thread(this::writeBatches, "application-intake");
+        writer.setDaemon(true);
+        prepareStatements();
+    }
+
+    /**
+     * Starts storing submitted applications.
+     */
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * Queues the specified application to be stored, unless the queue is full.
+     *
+     * @param application The application to store.
+     * @return <code>true</code> if the application was queued, <code>false</code> if
+     *         the queue is full or the intake is closed.
+     */
+    boolean submit(ApplicationDTO application) {
+        synchronized (closeLock) {
+            return !closed && queue.offer(application);
+        }
+    }
+
+    /**
+     * Removes and returns the applications that could not be stored since the
+     * previous call.
+     *
+     * @return The applications that could not be stored, in order of submission.
+     */
+    List<ApplicationDTO> takeFailed() {
+        List<ApplicationDTO> taken = new ArrayList<>();
+        ApplicationDTO application;
+        while ((application = failed.poll()) != null) {
+            taken.add(application);
+        }
+        return taken;
+    }
+
+    /**
+     * Stops accepting applications, and waits until all queued applications are
+     * stored. Applications left in the queue when the writer stops, since it was
+     * interrupted, are kept with the applications that could not be stored.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void close() throws InterruptedException {
+        synchronized (closeLock) {
+            closed = true;
+        }
+        writer.join();
+        queue.drainTo(failed);
+    }
+
+    private void writeBatches() {
+        List<ApplicationDTO> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                ApplicationDTO first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException interrupted) {
+                closed = true;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<ApplicationDTO> batch) {
+        try {
+            for (ApplicationDTO application : batch) {
+                bindApplication(application);
+                createApplicationStmt.addBatch();
+            }
+            createApplicationStmt.executeBatch();
+            connection.commit();
+        } catch (SQLException batchFailed) {
+            try {
+                createApplicationStmt.clearBatch();
+                connection.rollback();
+            } catch (SQLException rollbackFailed) {
+                System.err.println("Could not roll back applications: "
+                                   + rollbackFailed.getMessage());
+                failed.addAll(batch);
+                return;
+            }
+            writeOneByOne(batch);
+        }
+    }
+
+    private void writeOneByOne(List<ApplicationDTO> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            ApplicationDTO application = batch.get(i);
+            try {
+                bindApplication(application);
+                createApplicationStmt.executeUpdate();
+                connection.commit();
+            } catch (SQLException sqle) {
+                System.err.println("Could not store the application of student "
+                                   + application.getStudentId() + " to lesson "
+                                   + application.getLessonId() + ": " + sqle.getMessage());
+                failed.add(application);
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailed) {
+                    failed.addAll(batch.subList(i + 1, batch.size()));
+                    return;
+                }
+            }
+        }
+    }
+
+    private void bindApplication(ApplicationDTO application) throws SQLException {
+        createApplicationStmt.setInt(1, application.getLessonId());
+        createApplicationStmt.setInt(2, application.getStudentId());
+        createApplicationStmt.setString(3, application.getSkill());
+        createApplicationStmt.setBoolean(4, application.isAuditionRequired());
+        createApplicationStmt.setBoolean(5, application.isSaved());
+        createApplicationStmt.setInt(6, application.getLessonId());
+    }
+
+    private void prepareStatements() throws SQLException {
+        String bit = "CASE WHEN ? THEN B'1' ELSE B'0' END";
+        createApplicationStmt = connection.prepareStatement(dialect.insertIgnoringDuplicates(
+            APPLICATION_TABLE_NAME,
+            new String[] {APPLICATION_LESSON_ID, APPLICATION_STUDENT_ID, APPLICATION_SKILL,
+                          APPLICATION_AUDITION_REQUIRED, APPLICATION_SAVE,
+                          APPLICATION_AUDITION_DUE},
+            new String[] {"?", "?", "?", bit, bit,
+                          "COALESCE((SELECT MIN(" + TIMESLOT_DATE + ") FROM "
+                          + TIMESLOT_TABLE_NAME + " WHERE " + TIMESLOT_LESSON_ID
+                          + " = ? AND " + TIMESLOT_DATE + " >= CURRENT_DATE), "
+                          + NO_TIMESLOT_DATE + ")"}));
+    }
+}
@@ -23,481 +23,536 @@
 
 package se.kth.iv1351.bankjdbc.integration;
 
-import java.sql.*;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
 
 import se.kth.iv1351.bankjdbc.model.Account;
 import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.Application;
+import se.kth.iv1351.bankjdbc.model.ApplicationDTO;
+import se.kth.iv1351.bankjdbc.model.DataChangeObserver;
+import se.kth.iv1351.bankjdbc.model.ExportFormat;
+import se.kth.iv1351.bankjdbc.model.ExportTable;
+import se.kth.iv1351.bankjdbc.model.InstructorAvailability;
+import se.kth.iv1351.bankjdbc.model.InstructorLessons;
+import se.kth.iv1351.bankjdbc.model.InstructorPayroll;
+import se.kth.iv1351.bankjdbc.model.InstrumentUtilization;
+import se.kth.iv1351.bankjdbc.model.MonthlyLessons;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
 import se.kth.iv1351.bankjdbc.model.Rental;
-import se.kth.iv1351.bankjdbc.model.StudentRentals;
+import se.kth.iv1351.bankjdbc.model.RentalCatalog;
+import se.kth.iv1351.bankjdbc.model.RentalHandoverObserver;
+import se.kth.iv1351.bankjdbc.model.RentalRecord;
+import se.kth.iv1351.bankjdbc.model.RentalReturn;
+import se.kth.iv1351.bankjdbc.model.StudentMatch;
+import se.kth.iv1351.bankjdbc.model.StudentPayments;
 
 /**
- * This data access object (DAO) encapsulates all database calls in the bank
- * application. No code outside this class shall have any knowledge about the
- * database.
+ * This data access object (DAO) stores everything in the bank application. No
+ * code outside the integration layer knows how the data is stored.
+ * <code>JdbcBankDAO</code> stores it in a database, <code>InMemoryBankDAO</code>
+ * keeps it in memory.
  */
-public class BankDAO {
-    private static final String RENTING_TABLE_NAME = "renting_instrument";
-    private static final String RENTING_PK = "renting_id";
-    private static final String RENTING_AVAILABLE_AMOUNT = "available_instrument_amount";
-    private static final String RENTING_INSTRUMENT_NAME = "instrument_name";
-    private static final String RENTING_INSTRUMENT_TYPE = "intsrument_type";
-    private static final String RENTING_RENTAL_COST = "rental_cost";
-
-    private static final String RENTED_TABLE_NAME = "rented_instrument";
-    private static final String RENTED_INSTRUMENT_ID = "instrument_id";
-    private static final String RENTED_STUDENT_ID = "student_id";
-    private static final String RENTED_DATE = "date";
-    private static final String RENTED_CURRENTLY_RENTING = "currently_renting";
-    private static final String RENTED_PK = "rented_id";
-
-    private static final String CURRENT_DATE = "CURRENT_DATE";
-
-
-    private static final String HOLDER_TABLE_NAME = "holder";
-    private static final String HOLDER_PK_COLUMN_NAME = "holder_id";
-    private static final String HOLDER_COLUMN_NAME = "name";
-    private static final String ACCT_TABLE_NAME = "account";
-    private static final String ACCT_NO_COLUMN_NAME = "account_no";
-    private static final String BALANCE_COLUMN_NAME = "balance";
-    private static final String HOLDER_FK_COLUMN_NAME = HOLDER_PK_COLUMN_NAME;
-
-    private Connection connection;
-    private PreparedStatement createHolderStmt;
-    private PreparedStatement findHolderPKStmt;
-    private PreparedStatement createAccountStmt;
-    private PreparedStatement findAccountByNameStmt;
-    private PreparedStatement findAccountByAcctNoStmt;
-    private PreparedStatement findAllAccountsStmt;
-    private PreparedStatement deleteAccountStmt;
-    private PreparedStatement changeBalanceStmt;
-
-    private PreparedStatement findRentalListType;
-    private PreparedStatement findRentalNumber;
-    private PreparedStatement findRentalName;
-    private PreparedStatement createRentalStmt;
-    private PreparedStatement changeRentalAmountStmt;
-    private PreparedStatement findRentalIDStmt;
-    private PreparedStatement closeRentalStmt;
-    private PreparedStatement findRentalIDNameStmt;
-
-    /**
-     * Constructs a new DAO object connected to the bank database.
-     */
-    public BankDAO() throws BankDBException {
-        try {
-            connectToBankDB();
-            prepareStatements();
-        } catch (ClassNotFoundException | SQLException exception) {
-            throw new BankDBException("Could not connect to datasource.", exception);
+public interface BankDAO {
+    /**
+     * The system property selecting where the bank is stored.
+     */
+    String STORE_PROPERTY = "bankdb.store";
+    /**
+     * The value of <code>bankdb.store</code> that keeps the bank in memory.
+     */
+    String MEMORY_STORE = "memory";
+    /**
+     * The system property naming the file the in-memory bank is seeded from.
+     */
+    String MEMORY_SEED_PROPERTY = "bankdb.memory.seed";
+
+    /**
+     * Creates the DAO selected by the system property <code>bankdb.store</code>. The
+     * bank is kept in memory if it is <code>memory</code>, and is then seeded from
+     * the file named by <code>bankdb.memory.seed</code>, if set. The bank is stored
+     * in the database otherwise.
+     *
+     * @return The new DAO.
+     * @throws BankDBException If unable to connect to the database, or to read the
+     *                         seed file.
+     */
+    static BankDAO create() throws BankDBException {
+        if (MEMORY_STORE.equals(System.getProperty(STORE_PROPERTY))) {
+            InMemoryBankDAO bank = new InMemoryBankDAO();
+            String seedFile = System.getProperty(MEMORY_SEED_PROPERTY);
+            if (seedFile != null) {
+                bank.seed(Path.of(seedFile));
+            }
+            return bank;
         }
+        return new JdbcBankDAO();
     }
 
+    /**
+     * Returns how many calls this DAO executes at the same time. Further concurrent
+     * calls wait inside the DAO until a running call is finished.
+     *
+     * @return The maximum number of calls executing at the same time.
+     */
+    int getMaxConcurrentCalls();
+
     /**
      * Creates a new account.
      *
      * @param account The account to create.
      * @throws BankDBException If failed to create the specified account.
      */
-    public void createAccount(AccountDTO account) throws BankDBException {
-        String failureMsg = "Could not create the account: " + account;
-        int updatedRows = 0;
-        try {
-            int holderPK = findHolderPKByName(account.getHolderName());
-            if (holderPK == 0) {
-                createHolderStmt.setString(1, account.getHolderName());
-                updatedRows = createHolderStmt.executeUpdate();
-                if (updatedRows != 1) {
-                    handleException(failureMsg, null);
-                }
-                holderPK = findHolderPKByName(account.getHolderName());
-            }
-
-            createAccountStmt.setInt(1, createAccountNo());
-            createAccountStmt.setInt(2, account.getBalance());
-            createAccountStmt.setInt(3, holderPK);
-            updatedRows = createAccountStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
-
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        }
-    }
+    void createAccount(AccountDTO account) throws BankDBException;
 
     /**
      * Searches for the account with the specified account number.
      *
-     * @param acctNo The account number.
-     * @return The account with the specified account number, or <code>null</code> if 
+     * @param acctNo   The account number.
+     * @param readOnly <code>true</code> if the account will not be updated.
+     * @return The account with the specified account number, or <code>null</code> if
      *         there is no such account.
      * @throws BankDBException If failed to search for the account.
      */
-    public Account findAccountByAcctNo(String acctNo) throws BankDBException {
-        String failureMsg = "Could not search for specified account.";
-        ResultSet result = null;
-        try {
-            findAccountByAcctNoStmt.setString(1, acctNo);
-            result = findAccountByAcctNoStmt.executeQuery();
-            if (result.next()) {
-                return new Account(result.getString(ACCT_NO_COLUMN_NAME),
-                                   result.getString(HOLDER_COLUMN_NAME),
-                                   result.getInt(BALANCE_COLUMN_NAME));
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        } finally {
-            closeResultSet(failureMsg, result);
-        }
-        return null;
-    }
+    Account findAccountByAcctNo(String acctNo, boolean readOnly) throws BankDBException;
 
     /**
      * Searches for all accounts whose holder has the specified name.
      *
      * @param holderName The account holder's name
-     * @return A list with all accounts whose holder has the specified name, 
+     * @return A list with all accounts whose holder has the specified name,
      *         the list is empty if there are no such account.
      * @throws BankDBException If failed to search for accounts.
      */
-    public List<Account> findAccountsByHolder(String holderName) throws BankDBException {
-        String failureMsg = "Could not search for specified accounts.";
-        ResultSet result = null;
-        List<Account> accounts = new ArrayList<>();
-        try {
-            findAccountByNameStmt.setString(1, holderName);
-            result = findAccountByNameStmt.executeQuery();
-            while (result.next()) {
-                accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
-                                         result.getString(HOLDER_COLUMN_NAME),
-                                         result.getInt(BALANCE_COLUMN_NAME)));
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        } finally {
-            closeResultSet(failureMsg, result);
-        }
-        return accounts;
-    }
+    List<Account> findAccountsByHolder(String holderName) throws BankDBException;
 
-    public List<Rental> findRentalByType(String type) throws BankDBException {
-        String failureMsg = "Could not find any available rentals.";
-        ResultSet result = null;
-        List<Rental> rentals = new ArrayList<>();
-        try {
-            findRentalListType.setString(1, type);
-            result = findRentalListType.executeQuery();
-            while (result.next()) {
-                rentals.add(new Rental(result.getString(RENTING_INSTRUMENT_NAME),
-                        type,
-                        result.getInt(RENTING_RENTAL_COST)));
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        } finally {
-            closeResultSet(failureMsg, result);
-        }
-        return rentals;
-    }
+    /**
+     * Retrieves all existing accounts.
+     *
+     * @return A list with all existing accounts. The list is empty if there are no
+     *         accounts.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    List<Account> findAllAccounts() throws BankDBException;
 
-    public StudentRentals findRentalNumberTot(int id) throws BankDBException {
-        String failureMsg = "Could not find any available rentals.";
-        ResultSet result = null;
-        try {
-            findRentalNumber.setInt(1, id);
-            result = findRentalNumber.executeQuery();
-            if (result.next()) {
-                return (new StudentRentals(
-                        id,result.getInt(1)));
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        } finally {
-            closeResultSet(failureMsg, result);
-        }
-        return null;
-    }
+    /**
+     * Retrieves the accounts following the specified account number, in order of
+     * account number. Reading all accounts a page at a time this way never holds
+     * more than one page in memory, and holds no connection between the pages.
+     *
+     * @param acctNo      The account number after which to start, or
+     *                    <code>null</code> to start with the first account.
+     * @param maxAccounts The maximum number of accounts to retrieve.
+     * @return The accounts. Fewer than <code>maxAccounts</code> accounts means that
+     *         there are no more accounts.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    List<Account> findAccountsAfter(String acctNo, int maxAccounts) throws BankDBException;
 
-    public Rental findRental(String name) throws BankDBException{
-        String failureMsg = "Could not find any available rentals.";
-        ResultSet result = null;
-        try {
-            findRentalName.setString(1, name);
-            result = findRentalName.executeQuery();
-            //ResultSetMetaData rsmd = result.getMetaData();
-            //String name2 = rsmd.getColumnName(1);
-            //System.out.println(name2);
-            if (result.next()) {
-                return (new Rental(result.getString(RENTING_INSTRUMENT_NAME),
-                        result.getInt(RENTING_AVAILABLE_AMOUNT),
-                        result.getInt(RENTING_PK)));
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        } finally {
-            closeResultSet(failureMsg, result);
-        }
-        return null;
-    }
+    /**
+     * Changes the balance of the account with the number of the specified
+     * <code>AccountDTO</code> object. The balance is set to the value in the specified
+     * <code>AccountDTO</code>. If the calling thread read the account with
+     * <code>findAccountByAcctNo</code> and <code>readOnly</code> unset, changes made
+     * by others since that read are kept, only the change between the balance read
+     * and the specified balance is applied.
+     *
+     * @param account The account to update.
+     * @throws BankDBException   If unable to update the specified account.
+     * @throws RejectedException If the balance would become negative because of
+     *                           updates made since the account was read.
+     */
+    void updateAccount(AccountDTO account) throws BankDBException, RejectedException;
 
-    public void newRental(int studentID, Rental rental) throws BankDBException {
-        String failureMsg = "Could not make the new rental";
-        int updatedRows = 0;
-        try {
-            createRentalStmt.setInt(1,rental.getInstrumentID());
-            createRentalStmt.setInt(2,studentID);
-            //createRentalStmt.setString(3,CURRENT_DATE);
-            updatedRows = createRentalStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
-            changeRentalAmountStmt.setInt(1,rental.getAvailableInstrumentAmount()-1);
-            System.out.println(rental.getInstrumentName());
+    /**
+     * Moves the specified amounts from one account to other accounts, in one
+     * transaction. Either all amounts are moved, or none of them. When accounts are
+     * spread over several databases, all accounts of a transfer must be stored in
+     * the same database, since no transaction spans databases.
+     *
+     * @param fromAcctNo The account from which all amounts are withdrawn.
+     * @param amounts    The amount deposited to each receiving account, by account
+     *                   number.
+     * @throws RejectedException If an account does not exist, if the sending account
+     *                           is also receiving, if an amount is negative, if the
+     *                           sum of the amounts is larger than the sender's
+     *                           balance, or if the accounts are stored in different
+     *                           databases.
+     * @throws BankDBException   If failed to move the amounts.
+     */
+    void transfer(String fromAcctNo, Map<String, Integer> amounts)
+            throws BankDBException, RejectedException;
 
-            changeRentalAmountStmt.setString(2,rental.getInstrumentName());
-            updatedRows = changeRentalAmountStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
+    /**
+     * Deletes the account with the specified account number.
+     *
+     * @param acctNo The account to delete.
+     * @throws BankDBException If unable to delete the specified account.
+     */
+    void deleteAccount(String acctNo) throws BankDBException;
 
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        }
-    }
+    /**
+     * Lists the brands of the specified instrument type that have available
+     * instruments.
+     *
+     * @param type The type of instrument.
+     * @return The brands' names and rental costs.
+     * @throws BankDBException If failed to search for brands.
+     */
+    List<Rental> findRentalByType(String type) throws BankDBException;
 
-    public  int findRentalID(int instrumentID, int studentId) throws BankDBException{
-        String failureMsg = "Could not find any rentals for that brand and ID.";
-        ResultSet result = null;
-        int id = -1;
-        try {
-            findRentalIDStmt.setInt(1, studentId);
-            findRentalIDStmt.setInt(2, instrumentID);
-            result = findRentalIDStmt.executeQuery();
-            if (result.next()) {
-                id = result.getInt(RENTED_PK);
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        } finally {
-            closeResultSet(failureMsg, result);
-        }
-        return id;
-    }
+    /**
+     * Finds the students whose name contains the specified text, ignoring case.
+     * Students whose name starts with the text are found first, in order of name.
+     *
+     * @param text       The searched part of the name.
+     * @param maxMatches The maximum number of students to find.
+     * @return The found students.
+     * @throws BankDBException If failed to search for students.
+     */
+    List<StudentMatch> findStudentsByName(String text, int maxMatches)
+            throws BankDBException;
 
-    public void clostRental(int studentID, int rentalID, Rental rental) throws BankDBException {
-        String failureMsg = "Could not close the rental";
-        int updatedRows = 0;
-        try {
-            closeRentalStmt.setInt(1,rentalID);
-            closeRentalStmt.setInt(2,studentID);
-            updatedRows = closeRentalStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
-            changeRentalAmountStmt.setInt(1,rental.getAvailableInstrumentAmount()+1);
-            changeRentalAmountStmt.setString(2,rental.getInstrumentName());
-            updatedRows = changeRentalAmountStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
+    /**
+     * Loads all instrument brands into a new catalog.
+     *
+     * @return The catalog.
+     * @throws BankDBException If failed to load the brands.
+     */
+    RentalCatalog loadRentalCatalog() throws BankDBException;
 
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        }
-    }
+    /**
+     * Finds the instrument brand with the specified name.
+     *
+     * @param name The brand's name.
+     * @return The brand's id, name and number of available instruments, or
+     *         <code>null</code> if there is no such brand.
+     * @throws BankDBException If failed to search for the brand.
+     */
+    Rental findRental(String name) throws BankDBException;
 
+    /**
+     * Rents an instrument of the specified brand to the specified student. The
+     * brand's number of available instruments and the student's number of active
+     * rentals are both checked and updated in the same transaction, so the checks
+     * hold also for concurrent rentals.
+     *
+     * @param studentID The student renting the instrument.
+     * @param brand     The name of the rented brand.
+     * @return The brand, with its id and its number of available instruments after
+     *         the rental.
+     * @throws RejectedException If there is no such brand, if it has no available
+     *                           instruments, or if the student does not exist or
+     *                           already rents the maximum number of instruments.
+     * @throws BankDBException   If failed to make the rental.
+     */
+    Rental rentInstrument(int studentID, String brand) throws BankDBException, RejectedException;
 
+    /**
+     * Lists the rentals of the specified student, both active and closed. Closed
+     * rentals that have been moved to the rental history are included only if
+     * <code>includeHistory</code> is <code>true</code>.
+     *
+     * @param studentID      The student whose rentals are listed.
+     * @param includeHistory <code>true</code> if also the rental history shall be
+     *                       searched.
+     * @return The rentals, oldest first. The list is empty if the student has no
+     *         rentals.
+     * @throws BankDBException If failed to search for rentals.
+     */
+    List<RentalRecord> findRentalRecords(int studentID, boolean includeHistory)
+            throws BankDBException;
 
     /**
-     * Retrieves all existing accounts.
+     * Closes the specified student's active rental of the specified brand. If
+     * students are waiting for the brand, the returned instrument is rented to the
+     * student who has waited longest, in the same transaction, and that student is
+     * notified. Otherwise, the brand's number of available instruments is
+     * incremented.
      *
-     * @return A list with all existing accounts. The list is empty if there are no
-     *         accounts.
-     * @throws BankDBException If failed to search for accounts.
+     * @param studentID The student returning the instrument.
+     * @param brand     The name of the returned brand.
+     * @return The outcome of the return.
+     * @throws RejectedException If there is no such brand, or if the student does
+     *                           not rent it.
+     * @throws BankDBException   If failed to close the rental.
      */
-    public List<Account> findAllAccounts() throws BankDBException {
-        String failureMsg = "Could not list accounts.";
-        List<Account> accounts = new ArrayList<>();
-        try (ResultSet result = findAllAccountsStmt.executeQuery()) {
-            while (result.next()) {
-                accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
-                                         result.getString(HOLDER_COLUMN_NAME),
-                                         result.getInt(BALANCE_COLUMN_NAME)));
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        }
-        return accounts;
-    }
+    RentalReturn returnInstrument(int studentID, String brand)
+            throws BankDBException, RejectedException;
 
     /**
-     * Changes the balance of the account with the number of the specified
-     * <code>AccountDTO</code> object. The balance is set to the value in the specified
-     * <code>AccountDTO</code>.
+     * Puts the specified student last in the waitlist of the specified brand,
+     * unless the brand has available instruments.
      *
-     * @param account The account to update.
-     * @throws BankDBException If unable to update the specified account.
-     */
-    public void updateAccount(AccountDTO account) throws BankDBException {
-        String failureMsg = "Could not update the account: " + account;
-        try {
-            changeBalanceStmt.setInt(1, account.getBalance());
-            changeBalanceStmt.setString(2, account.getAccountNo());
-            int updatedRows = changeBalanceStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        }
-    }
+     * @param studentID The waiting student.
+     * @param rental    The brand.
+     * @return <code>true</code> if the student waits for the brand,
+     *         <code>false</code> if the brand has available instruments.
+     * @throws BankDBException If failed to put the student in the waitlist.
+     */
+    boolean joinWaitlist(int studentID, Rental rental) throws BankDBException;
 
     /**
-     * Deletes the account with the specified account number.
+     * Makes the specified observer be notified whenever a returned instrument is
+     * rented to a waiting student.
      *
-     * @param acctNo The account to delete.
-     * @throws BankDBException If unable to delete the specified account.
+     * @param observer The observer.
+     * @return <code>true</code> if the observer will be notified, <code>false</code>
+     *         if handovers can not be observed.
+     * @throws BankDBException If failed to listen for handovers.
      */
-    public void deleteAccount(String acctNo) throws BankDBException {
-        String failureMsg = "Could not delete account: " + acctNo;
-        try {
-            deleteAccountStmt.setString(1, acctNo);
-            int updatedRows = deleteAccountStmt.executeUpdate();
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);
-            }
-            connection.commit();
-        } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);
-        }
-    }
+    boolean listenForHandovers(RentalHandoverObserver observer) throws BankDBException;
 
-    private void connectToBankDB() throws ClassNotFoundException, SQLException {
-        connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/data",
-                                                 "postgres", "example");
-        // connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/bankdb",
-        //                                          "root", "javajava");
-        connection.setAutoCommit(false);
-    }
+    /**
+     * Makes the specified observer be notified whenever an account or the number of
+     * available instruments of a brand is changed.
+     *
+     * @param observer The observer.
+     * @return <code>true</code> if the observer will be notified, <code>false</code>
+     *         if changes can not be observed.
+     * @throws BankDBException If failed to listen for changes.
+     */
+    boolean listenForChanges(DataChangeObserver observer) throws BankDBException;
 
-    private void prepareStatements() throws SQLException {
-        createHolderStmt = connection.prepareStatement("INSERT INTO " + HOLDER_TABLE_NAME
-            + "(" + HOLDER_COLUMN_NAME + ") VALUES (?)");
+    /**
+     * Writes all rows of the specified table to the specified file. The file is
+     * compressed with gzip if its name ends with <code>.gz</code>.
+     *
+     * @param table  The data to export.
+     * @param file   The file to write. It is created, or emptied if it exists.
+     * @param format The file's format.
+     * @return The number of exported rows.
+     * @throws BankDBException If failed to read the data or to write the file.
+     */
+    long export(ExportTable table, Path file, ExportFormat format) throws BankDBException;
 
-        createAccountStmt = connection.prepareStatement("INSERT INTO " + ACCT_TABLE_NAME
-            + "(" + ACCT_NO_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + ", "
-            + HOLDER_FK_COLUMN_NAME + ") VALUES (?, ?, ?)");
+    /**
+     * Moves all accounts that are not stored in the shard selected by the hash of
+     * their account number to that shard.
+     *
+     * @return The number of moved accounts.
+     * @throws BankDBException If unable to move an account.
+     */
+    int rebalanceShards() throws BankDBException;
 
+    /**
+     * Writes all account holders, accounts, instrument brands and rentals to the
+     * specified snapshot file, which can be restored by <code>restore</code>.
+     *
+     * @param file The file to write. It is created, or emptied if it exists.
+     * @return The number of rows in the snapshot.
+     * @throws BankDBException If failed to read the data or to write the file.
+     */
+    long snapshot(Path file) throws BankDBException;
 
+    /**
+     * Replaces all account holders, accounts, instrument brands and rentals with
+     * those in the specified snapshot file.
+     *
+     * @param file The snapshot file.
+     * @return The number of restored rows.
+     * @throws BankDBException If failed to read the file or to store the data.
+     */
+    long restore(Path file) throws BankDBException;
 
-        findRentalListType = connection.prepareStatement("SELECT rg."+ RENTING_INSTRUMENT_NAME+", rg." +
-                RENTING_RENTAL_COST + " from " + RENTING_TABLE_NAME+ " rg "+ "WHERE rg." + RENTING_AVAILABLE_AMOUNT +
-                " > 0 AND "+RENTING_INSTRUMENT_TYPE + " = ? "
-        );
+    /**
+     * Charges each student for the instruments rented during the specified month.
+     *
+     * @param month The billed month.
+     * @return The number of charged students. Zero if the month is already billed.
+     * @throws BankDBException If unable to bill the month.
+     */
+    int billRentals(YearMonth month) throws BankDBException;
 
-        findRentalName = connection.prepareStatement("SELECT rg."+ RENTING_INSTRUMENT_NAME+", rg." +
-                RENTING_AVAILABLE_AMOUNT +", rg." +RENTING_PK + " from " + RENTING_TABLE_NAME+ " rg "+
-                "WHERE rg."+RENTING_INSTRUMENT_NAME + " = ? "
-        );
+    /**
+     * Lists the number of lessons of each type given in each month of the specified
+     * year.
+     *
+     * @param year The year to report.
+     * @return The number of lessons per month and lesson type, ordered by month.
+     * @throws BankDBException If failed to read the report.
+     */
+    List<MonthlyLessons> findLessonsPerMonth(int year) throws BankDBException;
 
-        findRentalIDNameStmt = connection.prepareStatement("SELECT "+ RENTING_PK
-                +" from " + RENTING_TABLE_NAME + " WHERE rg."+RENTING_INSTRUMENT_NAME + " = ? "
-        );
+    /**
+     * Lists the instructors that gave more than the specified number of lessons
+     * during the specified month.
+     *
+     * @param month     The month to report.
+     * @param threshold The number of lessons an instructor must exceed to be listed.
+     * @return The instructors, those with most lessons first.
+     * @throws BankDBException If failed to read the report.
+     */
+    List<InstructorLessons> findBusyInstructors(YearMonth month, int threshold)
+            throws BankDBException;
 
-        changeRentalAmountStmt = connection.prepareStatement("UPDATE " + RENTING_TABLE_NAME
-                + " SET " + RENTING_AVAILABLE_AMOUNT + " = ? WHERE " + RENTING_INSTRUMENT_NAME + " = ? ");
+    /**
+     * Lists the number of rentals of each instrument brand started during the
+     * specified month.
+     *
+     * @param month The month to report.
+     * @return The instrument brands, most rented first.
+     * @throws BankDBException If failed to read the report.
+     */
+    List<InstrumentUtilization> findInstrumentUtilization(YearMonth month)
+            throws BankDBException;
 
-        closeRentalStmt = connection.prepareStatement("UPDATE " + RENTED_TABLE_NAME
-                + " SET " + RENTED_CURRENTLY_RENTING + " = '0' WHERE " + RENTED_PK + " = ? "
-                + " AND "+ RENTED_STUDENT_ID + " = ?");
+    /**
+     * Loads an index of when the instructors are available, and of which
+     * instruments they teach. Only timeslots from today and on are included.
+     *
+     * @return The index.
+     * @throws BankDBException If failed to load the index.
+     */
+    InstructorAvailability loadInstructorAvailability() throws BankDBException;
 
-        findRentalIDStmt = connection.prepareStatement("SELECT " + RENTED_PK + " FROM " + RENTED_TABLE_NAME +
-                " WHERE " + RENTED_STUDENT_ID + " = ? " + " AND " + RENTED_INSTRUMENT_ID + " = ?"
-                + " AND " + RENTED_CURRENTLY_RENTING + " = '1'");
+    /**
+     * Books the specified instructor at the specified timeslot, which makes the
+     * instructor teach the timeslot's lesson. An instructor can not be booked twice.
+     *
+     * @param instructorId The instructor to book.
+     * @param timeslotId   The timeslot to book.
+     * @throws RejectedException If the instructor is not available at the timeslot.
+     * @throws BankDBException   If failed to book the instructor.
+     */
+    void bookInstructor(int instructorId, int timeslotId)
+            throws BankDBException, RejectedException;
 
-        findRentalNumber = connection.prepareStatement("SELECT COUNT(*) as count" + " FROM " +
-                RENTED_TABLE_NAME +" rd " + " WHERE rd." + RENTED_STUDENT_ID +" = ?"
-                + " AND " + RENTED_CURRENTLY_RENTING+ " = '1'");
+    /**
+     * Loads the number of remaining seats of all lessons that have a maximum number
+     * of students.
+     *
+     * @return The number of remaining seats of each lesson, by lesson id.
+     * @throws BankDBException If failed to load the seats.
+     */
+    Map<Integer, Integer> findRemainingSeats() throws BankDBException;
 
-        createRentalStmt = connection.prepareStatement("INSERT INTO " + RENTED_TABLE_NAME
-                + "(" + RENTED_INSTRUMENT_ID + ", " + RENTED_STUDENT_ID + ", " + RENTED_DATE + ", "
-                +  RENTED_CURRENTLY_RENTING  + ") VALUES (?, ?, CURRENT_DATE, '1')");
+    /**
+     * Enrolls the specified student into the specified lesson. A lesson with a
+     * maximum number of students can not be overbooked.
+     *
+     * @param lessonId  The lesson.
+     * @param studentId The student.
+     * @return <code>true</code> if the student was enrolled, <code>false</code> if
+     *         the lesson is full.
+     * @throws RejectedException If the student is already enrolled into the lesson,
+     *                           or if the student or lesson does not exist.
+     * @throws BankDBException   If failed to enroll the student.
+     */
+    boolean enrollStudent(int lessonId, int studentId)
+            throws BankDBException, RejectedException;
 
+    /**
+     * Queues the specified application to be stored in the background, together
+     * with other applications submitted at about the same time.
+     *
+     * @param application The application to store.
+     * @throws RejectedException If too many applications are waiting to be stored.
+     * @throws BankDBException   If failed to start the intake.
+     */
+    void submitApplication(ApplicationDTO application)
+            throws BankDBException, RejectedException;
 
-        findHolderPKStmt = connection.prepareStatement("SELECT " + HOLDER_PK_COLUMN_NAME
-            + " FROM " + HOLDER_TABLE_NAME + " WHERE " + HOLDER_COLUMN_NAME + " = ?");
+    /**
+     * Waits until all applications submitted so far are stored, and stops accepting
+     * applications. Does nothing if no application was submitted.
+     *
+     * @throws BankDBException If interrupted while waiting.
+     */
+    void closeApplicationIntake() throws BankDBException;
 
-        findAccountByAcctNoStmt = connection.prepareStatement("SELECT a." + ACCT_NO_COLUMN_NAME
-            + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME + " from "
-            + ACCT_TABLE_NAME + " a INNER JOIN " + HOLDER_TABLE_NAME + " h ON a."
-            + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE a."
-            + ACCT_NO_COLUMN_NAME + " = ?");
+    /**
+     * Removes and returns the submitted applications that could not be stored
+     * since the previous call, for example because the student or lesson does not
+     * exist.
+     *
+     * @return The applications that could not be stored.
+     */
+    List<ApplicationDTO> takeFailedApplications();
 
-        findAccountByNameStmt = connection.prepareStatement("SELECT a." + ACCT_NO_COLUMN_NAME
-            + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME + " from "
-            + ACCT_TABLE_NAME + " a INNER JOIN "
-            + HOLDER_TABLE_NAME + " h ON a." + HOLDER_FK_COLUMN_NAME
-            + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE h." + HOLDER_COLUMN_NAME + " = ?");
+    /**
+     * Claims the next applications waiting for an audition, and assigns them to the
+     * specified instructor.
+     *
+     * @param instructorId The instructor reviewing the claimed applications.
+     * @param pageSize     The maximum number of applications to claim.
+     * @return The claimed applications.
+     * @throws BankDBException If failed to claim applications.
+     */
+    List<Application> claimAuditions(int instructorId, int pageSize)
+            throws BankDBException;
 
-        findAllAccountsStmt = connection.prepareStatement("SELECT h." + HOLDER_COLUMN_NAME
-            + ", a." + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + " FROM "
-            + HOLDER_TABLE_NAME + " h INNER JOIN " + ACCT_TABLE_NAME + " a ON a."
-            + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME);
+    /**
+     * Records the result of an audition claimed by the specified instructor. A
+     * student who passed is enrolled into the lesson in the same transaction.
+     *
+     * @param instructorId The instructor who held the audition.
+     * @param lessonId     The lesson applied to.
+     * @param studentId    The auditioned student.
+     * @param passed       <code>true</code> if the student passed the audition.
+     * @return <code>true</code> if the result was recorded, <code>false</code> if
+     *         the student passed but the lesson is full, and nothing was recorded.
+     * @throws RejectedException If the application is not claimed by the instructor,
+     *                           its result is already recorded, or the student who
+     *                           passed is already enrolled into the lesson.
+     * @throws BankDBException   If failed to record the result.
+     */
+    boolean recordAudition(int instructorId, int lessonId, int studentId, boolean passed)
+            throws BankDBException, RejectedException;
 
-        changeBalanceStmt = connection.prepareStatement("UPDATE " + ACCT_TABLE_NAME
-            + " SET " + BALANCE_COLUMN_NAME + " = ? WHERE " + ACCT_NO_COLUMN_NAME + " = ? ");
+    /**
+     * Loads the timeslots attended by each student during the specified month.
+     *
+     * @param month The month.
+     * @return The payments of the attended timeslots, which are not yet computed.
+     * @throws BankDBException If failed to load the attended timeslots.
+     */
+    StudentPayments findAttendedTimeslots(YearMonth month) throws BankDBException;
 
-        deleteAccountStmt = connection.prepareStatement("DELETE FROM " + ACCT_TABLE_NAME
-            + " WHERE " + ACCT_NO_COLUMN_NAME + " = ?");
-    }
-    private void handleException(String failureMsg, Exception cause) throws BankDBException {
-        String completeFailureMsg = failureMsg;
-        try {
-            connection.rollback();
-        } catch (SQLException rollbackExc) {
-            completeFailureMsg = completeFailureMsg + 
-            ". Also failed to rollback transaction because of: " + rollbackExc.getMessage();
-        }
+    /**
+     * @return The cost of a lesson at each level.
+     * @throws BankDBException If failed to load the lesson costs.
+     */
+    Map<String, Integer> findLessonCosts() throws BankDBException;
 
-        if (cause != null) {
-            throw new BankDBException(failureMsg, cause);
-        } else {
-            throw new BankDBException(failureMsg);
-        }
-    }
+    /**
+     * @return The students that have siblings at the school, indexed by student id.
+     * @throws BankDBException If failed to load the students.
+     */
+    BitSet findStudentsWithSiblings() throws BankDBException;
 
-    private void closeResultSet(String failureMsg, ResultSet result) throws BankDBException {
-        try {
-            result.close();
-        } catch (Exception e) {
-            throw new BankDBException(failureMsg + " Could not close result set.", e);
-        }
-    }
+    /**
+     * Replaces all student payments of the specified month with the specified
+     * payments.
+     *
+     * @param month    The month.
+     * @param payments The computed payments of the month.
+     * @throws BankDBException If failed to store the payments. No payment is then
+     *                         changed.
+     */
+    void storeStudentPayments(YearMonth month, StudentPayments payments)
+            throws BankDBException;
 
-    private int createAccountNo() {
-        return (int)Math.floor(Math.random() * Integer.MAX_VALUE);
-    }
+    /**
+     * Loads the timeslots delivered by each instructor during the specified month,
+     * and the instructor payments already stored for that month.
+     *
+     * @param month The month.
+     * @return The payroll of the month, which is not yet computed.
+     * @throws BankDBException If failed to load the payroll.
+     */
+    InstructorPayroll findInstructorPayroll(YearMonth month) throws BankDBException;
 
-    private int findHolderPKByName(String holderName) throws SQLException {
-        ResultSet result = null;
-        findHolderPKStmt.setString(1, holderName);
-        result = findHolderPKStmt.executeQuery();
-        if (result.next()) {
-            return result.getInt(HOLDER_PK_COLUMN_NAME);
-        }
-        return 0;
-    }
+    /**
+     * Writes the payments of the specified payroll that differ from the stored
+     * payments.
+     *
+     * @param payroll The computed payroll.
+     * @throws BankDBException If failed to store the payroll. No payment is then
+     *                         changed.
+     */
+    void storeInstructorPayroll(InstructorPayroll payroll) throws BankDBException;
 }
@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import se.kth.iv1351.bankjdbc.model.DataChangeObserver;
+
+/**
+ * Receives the change notifications sent by all programs using the databases,
+ * on one connection to each database, and passes them to the registered
+ * observers. The observers are told that changes may be lost as soon as one
+ * connection fails, and that they are received again when all have recovered.
+ * Notifications received during one coalescing interval are merged, keeping only
+ * the latest notification of each account or brand, so a burst of changes to the
+ * same row reaches the observers once. Changes of the number of available instruments of a brand are
+ * sent by the database functions renting and returning instruments, with the
+ * payload <code>r:&lt;brand id&gt;:&lt;available amount&gt;</code>.
+ */
+class ChangeListener {
+    static final String CHANGE_CHANNEL = "bank_change";
+    private static final String ACCOUNT_CHANGE = "a";
+    private static final String RENTAL_CHANGE = "r";
+    private static final String SEPARATOR = ":";
+    private static final long COALESCE_MILLIS = 50;
+
+    private final List<ChannelListener> channels = new ArrayList<>();
+    private final ScheduledExecutorService dispatcher;
+    private final List<DataChangeObserver> observers = new CopyOnWriteArrayList<>();
+    private Map<String, String> pending = new LinkedHashMap<>();
+    private int interruptedChannels;
+
+    /**
+     * Starts listening for change notifications, but does not pass them to any
+     * observer until started.
+     *
+     * @param dbs Open the connections used only by this listener, one for each
+     *            database.
+     * @throws SQLException If unable to listen, for example because the database has
+     *                      no notifications.
+     */
+    ChangeListener(List<ConnectionFactory> dbs) throws SQLException {
+        ChannelListener.Interruption interruption = new ChannelListener.Interruption() {
+            @Override
+            public void interrupted() {
+                if (channelInterrupted()) {
+                    tellObservers(DataChangeObserver::changesInterrupted, "interruption");
+                }
+            }
+
+            @Override
+            public void resumed() {
+                if (channelResumed()) {
+                    tellObservers(DataChangeObserver::changesResumed, "resumption");
+                }
+            }
+        };
+        for (ConnectionFactory db : dbs) {
+            channels.add(new ChannelListener(db, CHANGE_CHANNEL, this::receive,
+                                             interruption));
+        }
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "change-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts passing notifications to the observers.
+     */
+    void start() {
+        for (ChannelListener channel : channels) {
+            channel.start();
+        }
+        dispatcher.scheduleWithFixedDelay(this::dispatch, COALESCE_MILLIS, COALESCE_MILLIS,
+                                          TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes the specified observer be notified of all changes received from now on.
+     *
+     * @param observer The observer.
+     */
+    void addObserver(DataChangeObserver observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Creates the payload of a notification telling that an account changed.
+     *
+     * @param acctNo The account's number.
+     * @return The payload.
+     */
+    static String accountChange(String acctNo) {
+        return ACCOUNT_CHANGE + SEPARATOR + acctNo;
+    }
+
+    /**
+     * @return <code>true</code> if no other channel was interrupted.
+     */
+    private synchronized boolean channelInterrupted() {
+        return interruptedChannels++ == 0;
+    }
+
+    /**
+     * @return <code>true</code> if no other channel is still interrupted.
+     */
+    private synchronized boolean channelResumed() {
+        return --interruptedChannels == 0;
+    }
+
+    private void receive(String payload) {
+        int endOfKey = payload.startsWith(RENTAL_CHANGE + SEPARATOR)
+                       ? payload.lastIndexOf(SEPARATOR) : payload.length();
+        synchronized (this) {
+            pending.put(payload.substring(0, endOfKey), payload);
+        }
+    }
+
+    private void tellObservers(Consumer<DataChangeObserver> event, String description) {
+        for (DataChangeObserver observer : observers) {
+            try {
+                event.accept(observer);
+            } catch (RuntimeException observerFailed) {
+                System.err.println("Could not handle the " + description
+                                   + " of change notifications: " + observerFailed);
+            }
+        }
+    }
+
+    private void dispatch() {
+        Map<String, String> received;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            received = pending;
+            pending = new LinkedHashMap<>();
+        }
+        for (String payload : received.values()) {
+            String[] fields = payload.split(SEPARATOR);
+            for (DataChangeObserver observer : observers) {
+                try {
+                    if (ACCOUNT_CHANGE.equals(fields[0])) {
+                        observer.accountChanged(fields[1]);
+                    } else if (RENTAL_CHANGE.equals(fields[0])) {
+                        observer.rentalAvailabilityChanged(Integer.parseInt(fields[1]),
+                                                           Integer.parseInt(fields[2]));
+                    }
+                } catch (RuntimeException observerFailed) {
+                    System.err.println("Could not handle the change " + payload + ": "
+                                       + observerFailed);
+                }
+            }
+        }
+    }
+}
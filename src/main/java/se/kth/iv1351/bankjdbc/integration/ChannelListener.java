@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Receives the notifications sent on a channel, on a connection of its own, and
+ * passes each notification's payload to a handler in a background thread. When
+ * receiving fails, the failure is reported on <code>System.err</code>, the
+ * connection is closed, and a new connection is opened and starts listening after
+ * a pause, until that succeeds. Notifications sent in between are lost, which the
+ * listener is told about.
+ */
+class ChannelListener {
+    private static final int WAIT_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 5000;
+
+    private final ConnectionFactory db;
+    private final SqlDialect dialect;
+    private final String channel;
+    private final Consumer<String> handler;
+    private final Interruption interruption;
+    private final Thread receiver;
+    private Connection connection;
+
+    /**
+     * Is told when notifications may be lost, because the connection failed, and
+     * when they are received again.
+     */
+    interface Interruption {
+        /**
+         * Called by the background thread when receiving failed. Notifications are
+         * lost until <code>resumed</code> is called.
+         */
+        void interrupted();
+
+        /**
+         * Called by the background thread when listening on a new connection.
+         */
+        void resumed();
+    }
+
+    /**
+     * Starts listening on the specified channel, but does not call the handler
+     * until started. Lost notifications are not reported.
+     *
+     * @param db      Opens the connections used only by this listener.
+     * @param channel The channel.
+     * @param handler Is given the payload of each notification.
+     * @throws SQLException If unable to listen on the channel, for example because
+     *                      the database has no notifications.
+     */
+    ChannelListener(ConnectionFactory db, String channel, Consumer<String> handler)
+            throws SQLException {
+        this(db, channel, handler, new Interruption() {
+            @Override
+            public void interrupted() {
+            }
+
+            @Override
+            public void resumed() {
+            }
+        });
+    }
+
+    /**
+     * Starts listening on the specified channel, but does not call the handler
+     * until started.
+     *
+     * @param db           Opens the connections used only by this listener.
+     * @param channel      The channel.
+     * @param handler      Is given the payload of each notification.
+     * @param interruption Is told when notifications may be lost.
+     * @throws SQLException If unable to listen on the channel, for example because
+     *                      the database has no notifications.
+     */
+    ChannelListener(ConnectionFactory db, String channel, Consumer<String> handler,
+                    Interruption interruption) throws SQLException {
+        this.db = db;
+        this.dialect = db.getDialect();
+        this.channel = channel;
+        this.handler = handler;
+        this.interruption = interruption;
+        this.receiver = new Thread(this::receive, channel + "-listener");
+        receiver.setDaemon(true);
+        connection = listen();
+    }
+
+    /**
+     * Starts passing notifications to the handler.
+     */
+    void start() {
+        receiver.start();
+    }
+
+    private void receive() {
+        while (true) {
+            try {
+                for (String payload : dialect.awaitNotifications(connection, WAIT_MILLIS)) {
+                    handler.accept(payload);
+                }
+            } catch (SQLException sqle) {
+                System.err.println("Could not receive notifications on " + channel + ": "
+                                   + sqle.getMessage());
+                interruption.interrupted();
+                close(connection);
+                try {
+                    connection = relisten();
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                interruption.resumed();
+            }
+        }
+    }
+
+    private Connection relisten() throws InterruptedException {
+        while (true) {
+            Thread.sleep(RETRY_MILLIS);
+            try {
+                return listen();
+            } catch (SQLException sqle) {
+                System.err.println("Could not listen again on " + channel + ": "
+                                   + sqle.getMessage());
+            }
+        }
+    }
+
+    private Connection listen() throws SQLException {
+        Connection listening = db.open();
+        try {
+            dialect.listen(listening, channel);
+            return listening;
+        } catch (SQLException sqle) {
+            close(listening);
+            throw sqle;
+        }
+    }
+
+    private void close(Connection broken) {
+        try {
+            broken.close();
+        } catch (SQLException ignored) {
+            // The connection is already unusable, it is replaced anyway.
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+
+/**
+ * Opens connections to one database. The url and credentials are read from system
+ * properties, for example <code>-Dbankdb.url=jdbc:postgresql://localhost:5432/data</code>,
+ * so that the database can be changed without recompiling.
+ */
+class ConnectionFactory {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final SqlDialect dialect;
+
+    /**
+     * Creates a new instance that opens connections with the specified url and
+     * credentials.
+     *
+     * @param url      The JDBC url of the database.
+     * @param user     The database user.
+     * @param password The database user's password.
+     * @throws SQLFeatureNotSupportedException If the url is not that of a supported
+     *                                         database.
+     */
+    ConnectionFactory(String url, String user, String password)
+            throws SQLFeatureNotSupportedException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.dialect = SqlDialect.forUrl(url);
+    }
+
+    /**
+     * Creates a new instance configured by the system properties
+     * <code>&lt;prefix&gt;.url</code>, <code>&lt;prefix&gt;.user</code> and
+     * <code>&lt;prefix&gt;.password</code>.
+     *
+     * @param prefix   The prefix of the system properties.
+     * @param defaults Used for all properties that are not set, or <code>null</code>
+     *                 if there are no defaults.
+     * @return The new instance, or <code>null</code> if there is neither a url
+     *         property nor a default url.
+     * @throws SQLFeatureNotSupportedException If the url is not that of a supported
+     *                                         database.
+     */
+    static ConnectionFactory fromProperties(String prefix, ConnectionFactory defaults)
+            throws SQLFeatureNotSupportedException {
+        String url = System.getProperty(prefix + ".url", defaults == null ? null : defaults.url);
+        if (url == null) {
+            return null;
+        }
+        String user = System.getProperty(prefix + ".user", defaults == null ? null : defaults.user);
+        String password = System.getProperty(prefix + ".password",
+                                             defaults == null ? null : defaults.password);
+        return new ConnectionFactory(url, user, password);
+    }
+
+    /**
+     * Opens a new connection. Auto commit is turned off, all transactions must be
+     * committed explicitly.
+     *
+     * @return The new connection.
+     * @throws SQLException If unable to connect.
+     */
+    Connection open() throws SQLException {
+        Properties props = dialect.connectionProperties();
+        if (user != null) {
+            props.setProperty("user", user);
+        }
+        if (password != null) {
+            props.setProperty("password", password);
+        }
+        Connection connection = DriverManager.getConnection(url, props);
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    /**
+     * @return The JDBC url of the database.
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return The SQL dialect of the database, selected from the url.
+     */
+    SqlDialect getDialect() {
+        return dialect;
+    }
+}
@@ -0,0 +1,978 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.Application;
+import se.kth.iv1351.bankjdbc.model.ApplicationDTO;
+import se.kth.iv1351.bankjdbc.model.DataChangeObserver;
+import se.kth.iv1351.bankjdbc.model.ExportFormat;
+import se.kth.iv1351.bankjdbc.model.ExportTable;
+import se.kth.iv1351.bankjdbc.model.InstructorAvailability;
+import se.kth.iv1351.bankjdbc.model.InstructorLessons;
+import se.kth.iv1351.bankjdbc.model.InstructorPayroll;
+import se.kth.iv1351.bankjdbc.model.InstrumentUtilization;
+import se.kth.iv1351.bankjdbc.model.MonthlyLessons;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+import se.kth.iv1351.bankjdbc.model.Rental;
+import se.kth.iv1351.bankjdbc.model.RentalCatalog;
+import se.kth.iv1351.bankjdbc.model.RentalHandoverObserver;
+import se.kth.iv1351.bankjdbc.model.RentalRecord;
+import se.kth.iv1351.bankjdbc.model.RentalReturn;
+import se.kth.iv1351.bankjdbc.model.StudentMatch;
+import se.kth.iv1351.bankjdbc.model.StudentPayments;
+import se.kth.iv1351.bankjdbc.model.StudentRentals;
+
+/**
+ * Keeps accounts, students, instrument brands, rentals and lesson seats in
+ * memory, for load tests and as a reference when checking the database. The bank
+ * starts empty, and is filled with <code>seed</code>, or with
+ * <code>addStudent</code>, <code>addBrand</code>, <code>addLesson</code> and
+ * <code>addSiblings</code>. Instructors, applications, payments, reports of
+ * lessons, exports and snapshots are not kept, the operations using them throw
+ * <code>BankDBException</code>.
+ * <p>
+ * Each operation is atomic, as if it was one database transaction. A brand is
+ * locked while it is rented or returned, and a student while its rentals are
+ * changed, always in that order. Students and brands are stored in arrays
+ * indexed by their ids, so their ids should be small. Accounts are changed while
+ * holding one of a fixed set of locks, selected by the hash of the account number.
+ * A transfer takes the locks of all its accounts in the order of the locks. An
+ * account read for update is remembered by the reading thread, and its update
+ * adds the change of the balance to the current balance, which gives the same
+ * result as if the account had been locked in between.
+ */
+public class InMemoryBankDAO implements BankDAO {
+    private static final int MIN_TEXT_SEARCH_LENGTH = 3;
+    private static final char NAME_KEY_SEPARATOR = '\u0000';
+    private static final int ACCOUNT_LOCK_COUNT = 64;
+    private static final String SEED_SEPARATOR = ";";
+    private static final String SEED_COMMENT = "#";
+
+    private final ConcurrentNavigableMap<String, Account> accounts =
+        new ConcurrentSkipListMap<>();
+    private final Map<String, Set<String>> accountsOfHolder = new ConcurrentHashMap<>();
+    private final ReentrantLock[] accountLocks = new ReentrantLock[ACCOUNT_LOCK_COUNT];
+    private final ThreadLocal<Map<String, Integer>> balancesReadForUpdate =
+        ThreadLocal.withInitial(HashMap::new);
+    private final IdTable<Student> students = new IdTable<>();
+    private final ConcurrentNavigableMap<String, Student> studentsByName =
+        new ConcurrentSkipListMap<>();
+    private final IdTable<Brand> brands = new IdTable<>();
+    private final Map<String, Brand> brandsByName = new ConcurrentHashMap<>();
+    private final IdTable<Lesson> lessons = new IdTable<>();
+    private final BitSet studentsWithSiblings = new BitSet();
+    private final List<DataChangeObserver> changeObservers = new CopyOnWriteArrayList<>();
+    private final List<RentalHandoverObserver> handoverObservers =
+        new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a new, empty bank.
+     */
+    public InMemoryBankDAO() {
+        for (int i = 0; i < accountLocks.length; i++) {
+            accountLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adds a student, who can then rent instruments.
+     *
+     * @param studentId    The student's id, which must not be negative.
+     * @param personNumber The student's person number.
+     * @param name         The student's name.
+     * @throws IllegalArgumentException If the id is negative or already used.
+     */
+    public void addStudent(int studentId, String personNumber, String name) {
+        Student student = new Student(studentId, personNumber, name);
+        students.add(studentId, student);
+        studentsByName.put(name.toLowerCase() + NAME_KEY_SEPARATOR + studentId, student);
+    }
+
+    /**
+     * Adds an instrument brand, which can then be rented.
+     *
+     * @param instrumentId The brand's id, which must not be negative.
+     * @param name         The brand's name.
+     * @param type         The type of instrument.
+     * @param cost         The monthly cost of renting the brand.
+     * @param amount       The number of instruments of the brand.
+     * @throws IllegalArgumentException If the id is negative or already used.
+     */
+    public void addBrand(int instrumentId, String name, String type, int cost, int amount) {
+        Brand brand = new Brand(instrumentId, name, type, cost, amount);
+        brands.add(instrumentId, brand);
+        brandsByName.put(name, brand);
+    }
+
+    /**
+     * Adds a lesson, into which students can then be enrolled.
+     *
+     * @param lessonId        The lesson's id, which must not be negative.
+     * @param maximumStudents The maximum number of students, or <code>null</code>
+     *                        if the lesson has no limit.
+     * @throws IllegalArgumentException If the id is negative or already used.
+     */
+    public void addLesson(int lessonId, Integer maximumStudents) {
+        lessons.add(lessonId, new Lesson(lessonId, maximumStudents));
+    }
+
+    /**
+     * Tells that the specified students are siblings.
+     *
+     * @param studentId One of the siblings.
+     * @param siblingId The other sibling.
+     */
+    public void addSiblings(int studentId, int siblingId) {
+        synchronized (studentsWithSiblings) {
+            studentsWithSiblings.set(studentId);
+            studentsWithSiblings.set(siblingId);
+        }
+    }
+
+    /**
+     * Adds the students, instrument brands, accounts, lessons and siblings listed in
+     * the specified file. Each line holds one entry, with fields separated by
+     * <code>;</code>, in one of the following formats. Empty lines and lines
+     * starting with <code>#</code> are skipped.
+     * <pre>
+     * student;&lt;id&gt;;&lt;person number&gt;;&lt;name&gt;
+     * brand;&lt;id&gt;;&lt;name&gt;;&lt;type&gt;;&lt;monthly cost&gt;;&lt;amount&gt;
+     * account;&lt;holder&gt;;&lt;balance&gt;
+     * lesson;&lt;id&gt;[;&lt;maximum students&gt;]
+     * siblings;&lt;student id&gt;;&lt;student id&gt;
+     * </pre>
+     *
+     * @param file The seed file.
+     * @throws BankDBException If unable to read the file, or if a line is invalid.
+     *                         The entries of the lines before it are then kept.
+     */
+    public void seed(Path file) throws BankDBException {
+        int lineNo = 0;
+        String line = null;
+        try (BufferedReader lines = Files.newBufferedReader(file)) {
+            while ((line = lines.readLine()) != null) {
+                lineNo++;
+                if (!line.isBlank() && !line.startsWith(SEED_COMMENT)) {
+                    seedEntry(line.split(SEED_SEPARATOR, -1));
+                }
+            }
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not read the seed file " + file, ioe);
+        } catch (RuntimeException invalid) {
+            throw new BankDBException("Invalid line " + lineNo + " in the seed file " + file
+                                      + ": " + line, invalid);
+        }
+    }
+
+    private void seedEntry(String[] fields) throws BankDBException {
+        switch (fields[0]) {
+            case "student":
+                checkFieldCount(fields, 4);
+                addStudent(Integer.parseInt(fields[1]), fields[2], fields[3]);
+                break;
+            case "brand":
+                checkFieldCount(fields, 6);
+                addBrand(Integer.parseInt(fields[1]), fields[2], fields[3],
+                         Integer.parseInt(fields[4]), Integer.parseInt(fields[5]));
+                break;
+            case "account":
+                checkFieldCount(fields, 3);
+                createAccount(new Account(fields[1], Integer.parseInt(fields[2])));
+                break;
+            case "lesson":
+                if (fields.length == 2) {
+                    addLesson(Integer.parseInt(fields[1]), null);
+                } else {
+                    checkFieldCount(fields, 3);
+                    addLesson(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                }
+                break;
+            case "siblings":
+                checkFieldCount(fields, 3);
+                addSiblings(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown entry " + fields[0]);
+        }
+    }
+
+    private void checkFieldCount(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("A " + fields[0] + " has " + (count - 1)
+                                               + " fields");
+        }
+    }
+
+    @Override
+    public int getMaxConcurrentCalls() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void createAccount(AccountDTO account) throws BankDBException {
+        String acctNo;
+        do {
+            acctNo = Integer.toString(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+        } while (accounts.putIfAbsent(acctNo, new Account(acctNo, account.getHolderName(),
+                                                          account.getBalance())) != null);
+        accountsOfHolder.computeIfAbsent(account.getHolderName(),
+                                         holder -> ConcurrentHashMap.newKeySet()).add(acctNo);
+    }
+
+    @Override
+    public Account findAccountByAcctNo(String acctNo, boolean readOnly)
+            throws BankDBException {
+        Account account = accounts.get(acctNo);
+        if (account == null) {
+            return null;
+        }
+        if (!readOnly) {
+            balancesReadForUpdate.get().put(acctNo, account.getBalance());
+        }
+        return copyOf(account);
+    }
+
+    @Override
+    public List<Account> findAccountsByHolder(String holderName) throws BankDBException {
+        List<Account> found = new ArrayList<>();
+        for (String acctNo : accountsOfHolder.getOrDefault(holderName, Set.of())) {
+            Account account = accounts.get(acctNo);
+            if (account != null) {
+                found.add(copyOf(account));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Account> findAllAccounts() throws BankDBException {
+        List<Account> found = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            found.add(copyOf(account));
+        }
+        return found;
+    }
+
+    @Override
+    public List<Account> findAccountsAfter(String acctNo, int maxAccounts)
+            throws BankDBException {
+        List<Account> found = new ArrayList<>();
+        Map<String, Account> following = acctNo == null ? accounts
+                                                        : accounts.tailMap(acctNo, false);
+        for (Account account : following.values()) {
+            if (found.size() == maxAccounts) {
+                break;
+            }
+            found.add(copyOf(account));
+        }
+        return found;
+    }
+
+    /**
+     * Changes the balance of the account with the number of the specified
+     * <code>AccountDTO</code> object. If the account was read for update by this
+     * thread, the difference between the specified balance and the balance that
+     * was read is added to the current balance, which may have been changed by
+     * other threads since it was read. Otherwise, the balance is set to the
+     * specified balance.
+     *
+     * @param account The account to update.
+     * @throws BankDBException   If there is no such account.
+     * @throws RejectedException If the balance would become negative because of
+     *                           updates made since the account was read.
+     */
+    @Override
+    public void updateAccount(AccountDTO account) throws BankDBException, RejectedException {
+        String failureMsg = "Could not update the account: " + account;
+        String acctNo = account.getAccountNo();
+        Integer readBalance = balancesReadForUpdate.get().remove(acctNo);
+        ReentrantLock lock = accountLock(acctNo);
+        lock.lock();
+        try {
+            Account current = accounts.get(acctNo);
+            if (current == null) {
+                throw new BankDBException(failureMsg);
+            }
+            int balance = readBalance == null ? account.getBalance()
+                          : current.getBalance() + account.getBalance() - readBalance;
+            if (balance < 0) {
+                throw new RejectedException("Overdraft attempt, the balance of account "
+                                            + acctNo + " would become " + balance
+                                            + " because of concurrent updates");
+            }
+            accounts.put(acctNo, new Account(acctNo, current.getHolderName(), balance));
+        } finally {
+            lock.unlock();
+        }
+        notifyAccountChanged(acctNo);
+    }
+
+    @Override
+    public void transfer(String fromAcctNo, Map<String, Integer> amounts)
+            throws BankDBException, RejectedException {
+        if (amounts.containsKey(fromAcctNo)) {
+            throw new RejectedException("Can not transfer from account " + fromAcctNo
+                                        + " to itself");
+        }
+        List<String> acctNos = new ArrayList<>();
+        acctNos.add(fromAcctNo);
+        acctNos.addAll(amounts.keySet());
+        BitSet lockIndexes = new BitSet(ACCOUNT_LOCK_COUNT);
+        for (String acctNo : acctNos) {
+            lockIndexes.set(accountLockIndex(acctNo));
+        }
+        lockIndexes.stream().forEach(index -> accountLocks[index].lock());
+        try {
+            Map<String, Account> changed = new HashMap<>();
+            for (String acctNo : acctNos) {
+                Account account = accounts.get(acctNo);
+                if (account == null) {
+                    throw new RejectedException("Can not transfer, there is no account "
+                                                + acctNo);
+                }
+                changed.put(acctNo, copyOf(account));
+            }
+            Account from = changed.get(fromAcctNo);
+            for (Map.Entry<String, Integer> amount : amounts.entrySet()) {
+                from.transferTo(changed.get(amount.getKey()), amount.getValue());
+            }
+            accounts.putAll(changed);
+        } finally {
+            lockIndexes.stream().forEach(index -> accountLocks[index].unlock());
+        }
+        for (String acctNo : acctNos) {
+            notifyAccountChanged(acctNo);
+        }
+    }
+
+    @Override
+    public void deleteAccount(String acctNo) throws BankDBException {
+        ReentrantLock lock = accountLock(acctNo);
+        Account removed;
+        lock.lock();
+        try {
+            removed = accounts.remove(acctNo);
+        } finally {
+            lock.unlock();
+        }
+        if (removed == null) {
+            throw new BankDBException("Could not delete account: " + acctNo);
+        }
+        balancesReadForUpdate.get().remove(acctNo);
+        Set<String> acctNos = accountsOfHolder.get(removed.getHolderName());
+        if (acctNos != null) {
+            acctNos.remove(acctNo);
+        }
+        notifyAccountChanged(acctNo);
+    }
+
+    private int accountLockIndex(String acctNo) {
+        return Math.floorMod(acctNo.hashCode(), ACCOUNT_LOCK_COUNT);
+    }
+
+    private ReentrantLock accountLock(String acctNo) {
+        return accountLocks[accountLockIndex(acctNo)];
+    }
+
+    private void notifyAccountChanged(String acctNo) {
+        for (DataChangeObserver observer : changeObservers) {
+            observer.accountChanged(acctNo);
+        }
+    }
+
+    @Override
+    public List<Rental> findRentalByType(String type) throws BankDBException {
+        List<Rental> found = new ArrayList<>();
+        for (Brand brand : brands.values()) {
+            if (brand.type.equals(type) && brand.getAvailable() > 0) {
+                found.add(new Rental(brand.name, type, brand.cost));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<StudentMatch> findStudentsByName(String text, int maxMatches)
+            throws BankDBException {
+        String prefix = text.toLowerCase();
+        Set<Student> found = new LinkedHashSet<>();
+        addMatches(studentsByName.subMap(prefix, prefix + Character.MAX_VALUE).values()
+                   .iterator(), null, maxMatches, found);
+        if (found.size() < maxMatches && text.length() >= MIN_TEXT_SEARCH_LENGTH) {
+            addMatches(studentsByName.values().iterator(), prefix, maxMatches, found);
+        }
+        List<StudentMatch> matches = new ArrayList<>();
+        for (Student student : found) {
+            matches.add(new StudentMatch(student.id, student.personNumber, student.name));
+        }
+        return matches;
+    }
+
+    private void addMatches(Iterator<Student> candidates, String part, int maxMatches,
+                            Set<Student> found) {
+        while (found.size() < maxMatches && candidates.hasNext()) {
+            Student candidate = candidates.next();
+            if (part == null || candidate.name.toLowerCase().contains(part)) {
+                found.add(candidate);
+            }
+        }
+    }
+
+    @Override
+    public RentalCatalog loadRentalCatalog() throws BankDBException {
+        RentalCatalog catalog = new RentalCatalog();
+        for (Brand brand : brands.values()) {
+            catalog.addBrand(brand.id, brand.name, brand.type, brand.cost,
+                             brand.getAvailable());
+        }
+        return catalog;
+    }
+
+    @Override
+    public Rental findRental(String name) throws BankDBException {
+        Brand brand = brandsByName.get(name);
+        return brand == null ? null : new Rental(name, brand.getAvailable(), brand.id);
+    }
+
+    /**
+     * Rents an instrument of the specified brand to the specified student. The
+     * brand is locked while its number of available instruments is checked and
+     * decremented, and the student while its number of active rentals is checked
+     * and incremented, so neither can go past its limit because of concurrent
+     * rentals.
+     *
+     * @param studentID The student renting the instrument.
+     * @param brand     The name of the rented brand.
+     * @return The brand, with its id and its number of available instruments after
+     *         the rental.
+     * @throws RejectedException If there is no such brand, if it has no available
+     *                           instruments, or if the student does not exist or
+     *                           already rents the maximum number of instruments.
+     */
+    @Override
+    public Rental rentInstrument(int studentID, String brand) throws RejectedException {
+        Brand rented = brandNamed(brand);
+        Student student = students.get(studentID);
+        int availableAmount;
+        synchronized (rented) {
+            if (rented.available <= 0) {
+                throw new RejectedException("Can not rent, no available of this brand");
+            }
+            if (student == null || !student.startRental(rented)) {
+                throw new RejectedException("Can not rent, student " + studentID
+                                            + " does not exist or already rents "
+                                            + StudentRentals.MAX_RENTALS + " instruments");
+            }
+            availableAmount = --rented.available;
+        }
+        for (DataChangeObserver observer : changeObservers) {
+            observer.rentalAvailabilityChanged(rented.id, availableAmount);
+        }
+        return new Rental(brand, availableAmount, rented.id);
+    }
+
+    @Override
+    public List<RentalRecord> findRentalRecords(int studentID, boolean includeHistory)
+            throws BankDBException {
+        List<RentalRecord> records = new ArrayList<>();
+        Student student = students.get(studentID);
+        if (student == null) {
+            return records;
+        }
+        synchronized (student) {
+            for (RentedInstrument rented : student.rentals) {
+                records.add(new RentalRecord(rented.brand.name, rented.date,
+                                             rented.closedDate, rented.closedDate == null,
+                                             false));
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public RentalReturn returnInstrument(int studentID, String brand)
+            throws RejectedException {
+        Brand returned = brandNamed(brand);
+        Student student = students.get(studentID);
+        Student waiter;
+        int availableAmount;
+        synchronized (returned) {
+            if (student == null || !student.closeRental(returned)) {
+                throw new RejectedException("Can not return, student " + studentID
+                                            + " does not rent " + brand);
+            }
+            waiter = handOver(returned);
+            availableAmount = waiter == null ? ++returned.available : returned.available;
+        }
+        if (waiter != null) {
+            for (RentalHandoverObserver observer : handoverObservers) {
+                observer.rentalHandedOver(waiter.id, returned.name);
+            }
+            return new RentalReturn(returned.id, availableAmount, waiter.id);
+        }
+        for (DataChangeObserver observer : changeObservers) {
+            observer.rentalAvailabilityChanged(returned.id, availableAmount);
+        }
+        return new RentalReturn(returned.id, availableAmount, null);
+    }
+
+    /**
+     * Rents an instrument of the specified brand, which must be locked, to the
+     * student who has waited longest and may rent more instruments. The students
+     * skipped on the way keep their place in the waitlist.
+     */
+    private Student handOver(Brand brand) {
+        Iterator<Student> waiters = brand.waitlist.iterator();
+        while (waiters.hasNext()) {
+            Student waiter = waiters.next();
+            if (waiter.startRental(brand)) {
+                waiters.remove();
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean joinWaitlist(int studentID, Rental rental) throws BankDBException {
+        String failureMsg = "Could not put student " + studentID + " in the waitlist of "
+                            + rental.getInstrumentName();
+        Brand brand = brandOf(rental, failureMsg);
+        Student student = students.get(studentID);
+        if (student == null) {
+            throw new BankDBException(failureMsg);
+        }
+        synchronized (brand) {
+            if (brand.available > 0) {
+                return false;
+            }
+            brand.waitlist.add(student);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean listenForHandovers(RentalHandoverObserver observer)
+            throws BankDBException {
+        handoverObservers.add(observer);
+        return true;
+    }
+
+    @Override
+    public boolean listenForChanges(DataChangeObserver observer) throws BankDBException {
+        changeObservers.add(observer);
+        return true;
+    }
+
+    @Override
+    public long export(ExportTable table, Path file, ExportFormat format)
+            throws BankDBException {
+        throw notKept("Exports");
+    }
+
+    /**
+     * Does nothing, since the in-memory bank has no shards.
+     *
+     * @return Zero.
+     */
+    @Override
+    public int rebalanceShards() throws BankDBException {
+        return 0;
+    }
+
+    @Override
+    public long snapshot(Path file) throws BankDBException {
+        throw notKept("Snapshots");
+    }
+
+    @Override
+    public long restore(Path file) throws BankDBException {
+        throw notKept("Snapshots");
+    }
+
+    @Override
+    public int billRentals(YearMonth month) throws BankDBException {
+        throw notKept("Rental charges");
+    }
+
+    @Override
+    public List<MonthlyLessons> findLessonsPerMonth(int year) throws BankDBException {
+        throw notKept("Lessons");
+    }
+
+    @Override
+    public List<InstructorLessons> findBusyInstructors(YearMonth month, int threshold)
+            throws BankDBException {
+        throw notKept("Lessons");
+    }
+
+    @Override
+    public List<InstrumentUtilization> findInstrumentUtilization(YearMonth month)
+            throws BankDBException {
+        List<InstrumentUtilization> instruments = new ArrayList<>();
+        for (Brand brand : brands.values()) {
+            synchronized (brand) {
+                instruments.add(new InstrumentUtilization(
+                    brand.name, brand.rentalsPerMonth.getOrDefault(month, 0), brand.available));
+            }
+        }
+        instruments.sort(Comparator.comparingInt(InstrumentUtilization::getRentals).reversed()
+                         .thenComparing(InstrumentUtilization::getInstrumentName));
+        return instruments;
+    }
+
+    @Override
+    public InstructorAvailability loadInstructorAvailability() throws BankDBException {
+        throw notKept("Instructors");
+    }
+
+    @Override
+    public void bookInstructor(int instructorId, int timeslotId)
+            throws BankDBException, RejectedException {
+        throw notKept("Instructors");
+    }
+
+    @Override
+    public Map<Integer, Integer> findRemainingSeats() throws BankDBException {
+        Map<Integer, Integer> remainingSeats = new HashMap<>();
+        for (Lesson lesson : lessons.values()) {
+            synchronized (lesson) {
+                if (lesson.maximumStudents != null) {
+                    remainingSeats.put(lesson.id,
+                                       lesson.maximumStudents - lesson.enrolled.size());
+                }
+            }
+        }
+        return remainingSeats;
+    }
+
+    /**
+     * Enrolls the specified student into the specified lesson. The lesson is locked
+     * while its seats are counted and the student is added, so it can not be
+     * overbooked by concurrent enrollments.
+     *
+     * @param lessonId  The lesson.
+     * @param studentId The student.
+     * @return <code>true</code> if the student was enrolled, <code>false</code> if
+     *         the lesson is full.
+     * @throws RejectedException If the student is already enrolled into the lesson,
+     *                           or if the student or lesson does not exist.
+     */
+    @Override
+    public boolean enrollStudent(int lessonId, int studentId)
+            throws BankDBException, RejectedException {
+        Lesson lesson = lessons.get(lessonId);
+        if (lesson == null || students.get(studentId) == null) {
+            throw new RejectedException("Could not enroll student " + studentId
+                                        + " into lesson " + lessonId + ", the student or"
+                                        + " lesson does not exist.");
+        }
+        synchronized (lesson) {
+            if (lesson.enrolled.contains(studentId)) {
+                throw new RejectedException("Could not enroll student " + studentId
+                                            + " into lesson " + lessonId + ", the student"
+                                            + " is already enrolled.");
+            }
+            if (lesson.maximumStudents != null
+                && lesson.enrolled.size() >= lesson.maximumStudents) {
+                return false;
+            }
+            lesson.enrolled.add(studentId);
+            return true;
+        }
+    }
+
+    @Override
+    public void submitApplication(ApplicationDTO application)
+            throws BankDBException, RejectedException {
+        throw notKept("Applications");
+    }
+
+    /**
+     * Does nothing, since no application can be submitted.
+     */
+    @Override
+    public void closeApplicationIntake() throws BankDBException {
+    }
+
+    /**
+     * Returns an empty list, since no application can be submitted.
+     */
+    @Override
+    public List<ApplicationDTO> takeFailedApplications() {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Application> claimAuditions(int instructorId, int pageSize)
+            throws BankDBException {
+        throw notKept("Applications");
+    }
+
+    @Override
+    public boolean recordAudition(int instructorId, int lessonId, int studentId,
+                                  boolean passed)
+            throws BankDBException, RejectedException {
+        throw notKept("Applications");
+    }
+
+    @Override
+    public StudentPayments findAttendedTimeslots(YearMonth month) throws BankDBException {
+        throw notKept("Lessons");
+    }
+
+    @Override
+    public Map<String, Integer> findLessonCosts() throws BankDBException {
+        throw notKept("Lessons");
+    }
+
+    @Override
+    public BitSet findStudentsWithSiblings() throws BankDBException {
+        synchronized (studentsWithSiblings) {
+            return (BitSet)studentsWithSiblings.clone();
+        }
+    }
+
+    @Override
+    public void storeStudentPayments(YearMonth month, StudentPayments payments)
+            throws BankDBException {
+        throw notKept("Payments");
+    }
+
+    @Override
+    public InstructorPayroll findInstructorPayroll(YearMonth month) throws BankDBException {
+        throw notKept("Payments");
+    }
+
+    @Override
+    public void storeInstructorPayroll(InstructorPayroll payroll) throws BankDBException {
+        throw notKept("Payments");
+    }
+
+    private BankDBException notKept(String data) {
+        return new BankDBException(data + " are not kept by the in-memory bank.");
+    }
+
+    private Brand brandNamed(String name) throws RejectedException {
+        Brand brand = brandsByName.get(name);
+        if (brand == null) {
+            throw new RejectedException("There is no instrument brand named " + name);
+        }
+        return brand;
+    }
+
+    private Brand brandOf(Rental rental, String failureMsg) throws BankDBException {
+        Brand brand = brands.get(rental.getInstrumentID());
+        if (brand == null) {
+            throw new BankDBException(failureMsg + ", no instrument brand with id "
+                                      + rental.getInstrumentID());
+        }
+        return brand;
+    }
+
+    private Account copyOf(Account account) {
+        return new Account(account.getAccountNo(), account.getHolderName(),
+                           account.getBalance());
+    }
+
+    /**
+     * Objects indexed by non-negative <code>int</code> ids. Lookups do not lock or
+     * box the id, additions are serialized.
+     */
+    private static class IdTable<T> {
+        private static final int INITIAL_CAPACITY = 16;
+        private volatile AtomicReferenceArray<T> entries =
+            new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+        T get(int id) {
+            AtomicReferenceArray<T> current = entries;
+            return id >= 0 && id < current.length() ? current.get(id) : null;
+        }
+
+        synchronized void add(int id, T entry) {
+            if (id < 0 || get(id) != null) {
+                throw new IllegalArgumentException("The id " + id
+                                                   + " is negative or already used.");
+            }
+            if (id >= entries.length()) {
+                AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(
+                    Math.max(id + 1, 2 * entries.length()));
+                for (int i = 0; i < entries.length(); i++) {
+                    grown.set(i, entries.get(i));
+                }
+                entries = grown;
+            }
+            entries.set(id, entry);
+        }
+
+        /**
+         * @return All entries, in order of id.
+         */
+        List<T> values() {
+            AtomicReferenceArray<T> current = entries;
+            List<T> values = new ArrayList<>();
+            for (int id = 0; id < current.length(); id++) {
+                T entry = current.get(id);
+                if (entry != null) {
+                    values.add(entry);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * An instrument brand. The number of available instruments, the waitlist and
+     * the number of rentals per month are guarded by the brand's lock.
+     */
+    private static class Brand {
+        private final int id;
+        private final String name;
+        private final String type;
+        private final int cost;
+        private int available;
+        private final Set<Student> waitlist = new LinkedHashSet<>();
+        private final Map<YearMonth, Integer> rentalsPerMonth = new HashMap<>();
+
+        Brand(int id, String name, String type, int cost, int available) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.cost = cost;
+            this.available = available;
+        }
+
+        synchronized int getAvailable() {
+            return available;
+        }
+    }
+
+    /**
+     * A lesson, and the students enrolled into it, which are guarded by the lesson's
+     * lock.
+     */
+    private static class Lesson {
+        private final int id;
+        private final Integer maximumStudents;
+        private final Set<Integer> enrolled = new HashSet<>();
+
+        Lesson(int id, Integer maximumStudents) {
+            this.id = id;
+            this.maximumStudents = maximumStudents;
+        }
+    }
+
+    /**
+     * A student. The rentals are guarded by the student's lock, which is taken
+     * after the lock of the rented brand.
+     */
+    private class Student {
+        private final int id;
+        private final String personNumber;
+        private final String name;
+        private int activeRentals;
+        private final List<RentedInstrument> rentals = new ArrayList<>();
+
+        Student(int id, String personNumber, String name) {
+            this.id = id;
+            this.personNumber = personNumber;
+            this.name = name;
+        }
+
+        /**
+         * Rents an instrument of the specified brand, which must be locked, unless
+         * the student already rents the maximum number of instruments.
+         *
+         * @return <code>true</code> if the instrument was rented.
+         */
+        synchronized boolean startRental(Brand brand) {
+            if (activeRentals >= StudentRentals.MAX_RENTALS) {
+                return false;
+            }
+            activeRentals++;
+            RentedInstrument rented = new RentedInstrument(brand, LocalDate.now());
+            rentals.add(rented);
+            brand.rentalsPerMonth.merge(YearMonth.from(rented.date), 1, Integer::sum);
+            return true;
+        }
+
+        /**
+         * Closes the student's active rental of the specified brand, which must be
+         * locked.
+         *
+         * @return <code>false</code> if the student has no active rental of the
+         *         brand.
+         */
+        synchronized boolean closeRental(Brand brand) {
+            for (RentedInstrument rented : rentals) {
+                if (rented.brand == brand && rented.closedDate == null) {
+                    rented.closedDate = LocalDate.now();
+                    activeRentals--;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * One rental of an instrument, guarded by the lock of the renting student.
+     */
+    private static class RentedInstrument {
+        private final Brand brand;
+        private final LocalDate date;
+        private LocalDate closedDate;
+
+        RentedInstrument(Brand brand, LocalDate date) {
+            this.brand = brand;
+            this.date = date;
+        }
+    }
+}
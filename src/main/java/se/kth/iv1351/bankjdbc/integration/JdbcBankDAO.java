@@ -0,0 +1,2697 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.Application;
+import se.kth.iv1351.bankjdbc.model.ApplicationDTO;
+import se.kth.iv1351.bankjdbc.model.DataChangeObserver;
+import se.kth.iv1351.bankjdbc.model.ExportFormat;
+import se.kth.iv1351.bankjdbc.model.ExportTable;
+import se.kth.iv1351.bankjdbc.model.InstructorAvailability;
+import se.kth.iv1351.bankjdbc.model.InstructorLessons;
+import se.kth.iv1351.bankjdbc.model.InstructorPayroll;
+import se.kth.iv1351.bankjdbc.model.InstrumentUtilization;
+import se.kth.iv1351.bankjdbc.model.MonthlyLessons;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+import se.kth.iv1351.bankjdbc.model.Rental;
+import se.kth.iv1351.bankjdbc.model.RentalCatalog;
+import se.kth.iv1351.bankjdbc.model.RentalHandoverObserver;
+import se.kth.iv1351.bankjdbc.model.RentalRecord;
+import se.kth.iv1351.bankjdbc.model.RentalReturn;
+import se.kth.iv1351.bankjdbc.model.StudentMatch;
+import se.kth.iv1351.bankjdbc.model.StudentPayments;
+import se.kth.iv1351.bankjdbc.model.StudentRentals;
+
+/**
+ * Stores the bank in a PostgreSQL database, through JDBC. This class
+ * encapsulates all database calls in the bank application. No code outside this
+ * class shall have any knowledge about the database. The DAO keeps a pool of
+ * connection sets, each with one connection to each database and to each
+ * replica. Every call borrows a set that no other call uses until the call is
+ * finished, so as many calls as there are sets are executed at the same time,
+ * and a call waits for a set only when all are borrowed. Every call ends its
+ * transactions before the set is given back. An account read for update is
+ * therefore not locked until it is updated. Instead, the balance read is
+ * remembered by the reading thread, and the update adds the change of the
+ * balance to the current balance, whichever set it is executed on.
+ */
+public class JdbcBankDAO implements BankDAO {
+    private static final String RENTING_TABLE_NAME = "renting_instrument";
+    private static final String RENTING_PK = "renting_id";
+    private static final String RENTING_AVAILABLE_AMOUNT = "available_instrument_amount";
+    private static final String RENTING_INSTRUMENT_NAME = "instrument_name";
+    private static final String RENTING_INSTRUMENT_TYPE = "instrument_type";
+    private static final String RENTING_RENTAL_COST = "rental_cost";
+
+    private static final String RENTED_TABLE_NAME = "rented_instrument";
+    private static final String RENTED_INSTRUMENT_ID = "instrument_id";
+    private static final String RENTED_STUDENT_ID = "student_id";
+    private static final String RENTED_DATE = "date";
+    private static final String RENTED_CURRENTLY_RENTING = "currently_renting";
+    private static final String RENTED_PK = "rented_id";
+    private static final String RENTED_CLOSED_DATE = "closed_date";
+    private static final String RENTED_ACTIVE = "active";
+    private static final String RENTED_ARCHIVED = "archived";
+    private static final String HISTORY_TABLE_NAME = "rented_instrument_history";
+
+    private static final String CURRENT_DATE = "CURRENT_DATE";
+
+    private static final String INSTRUCTOR_TABLE_NAME = "instructor";
+    private static final String INSTRUCTOR_PK = "instructor_id";
+    private static final String INSTRUCTOR_PERSON_ID = "person_id";
+    private static final String PERSON_TABLE_NAME = "person";
+    private static final String PERSON_PK = "person_id";
+    private static final String PERSON_NAME = "name";
+    private static final String TIMESLOT_TABLE_NAME = "timeslot";
+    private static final String TIMESLOT_PK = "timeslot_id";
+    private static final String TIMESLOT_LESSON_ID = "lesson_id";
+    private static final String TIMESLOT_DATE = "date";
+    private static final String TIMESLOT_INSTRUCTOR_ID = "instructor_id";
+    private static final String TEACH_INSTRUMENT_TABLE_NAME = "teach_instrument";
+    private static final String TEACH_INSTRUMENT_ID = "instrument_id";
+    private static final String TEACH_INSTRUCTOR_ID = "instructor_id";
+    private static final String AVAILABLE_TABLE_NAME = "available_instructor";
+    private static final String AVAILABLE_INSTRUCTOR_ID = "instructor_id";
+    private static final String AVAILABLE_TIMESLOT_ID = "timeslot_id";
+    private static final String AVAILABLE_AVAILABLE = "instructor_available";
+    private static final String LESSON_TABLE_NAME = "lesson";
+    private static final String LESSON_PK = "lesson_id";
+    private static final String LESSON_INSTRUCTOR_ID = "instructor_id";
+    private static final String LESSON_LEVEL = "level";
+    private static final String STUDENT_LIST_TABLE_NAME = "student_list";
+    private static final String STUDENT_LIST_LESSON_ID = "lesson_id";
+    private static final String STUDENT_LIST_STUDENT_ID = "student_id";
+    private static final String SEAT_TABLE_NAME = "lesson_seat";
+    private static final String SEAT_LESSON_ID = "lesson_id";
+    private static final String SEAT_MAXIMUM_STUDENTS = "maximum_students";
+    private static final String SEAT_ENROLLED = "enrolled";
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+    private static final String RENTAL_REFUSED = "BK001";
+    private static final String RENT_FUNCTION = "rent_instrument";
+    private static final String RETURN_FUNCTION = "return_instrument";
+    private static final String APPLICATION_TABLE_NAME = "application";
+    private static final String APPLICATION_LESSON_ID = "lesson_id";
+    private static final String APPLICATION_STUDENT_ID = "student_id";
+    private static final String APPLICATION_SKILL = "skill";
+    private static final String APPLICATION_AUDITION_REQUIRED = "audition_required";
+    private static final String APPLICATION_SAVE = "save_application";
+    private static final String APPLICATION_SUBMITTED_AT = "submitted_at";
+    private static final String APPLICATION_AUDITION_DUE = "audition_due";
+    private static final String APPLICATION_REVIEWER_ID = "reviewer_id";
+    private static final String APPLICATION_AUDITION_PASSED = "audition_passed";
+    private static final String APPLICATION_CLAIMED_AT = "claimed_at";
+    private static final String STUDENT_SIBLINGS = "siblings";
+    private static final String LESSON_COSTS_TABLE_NAME = "lesson_costs";
+    private static final String LESSON_COSTS_LEVEL = "level_id";
+    private static final String LESSON_COSTS_COST = "lesson_cost";
+    private static final String EXTRA_COSTS_TABLE_NAME = "extra_costs";
+    private static final String EXTRA_COSTS_PK = "costs_id";
+    private static final String STUDENT_PAYMENT_TABLE_NAME = "student_payment";
+    private static final String STUDENT_PAYMENT_STUDENT_ID = "student_id";
+    private static final String STUDENT_PAYMENT_TIMESLOT_ID = "timeslot_id";
+    private static final String STUDENT_PAYMENT_COSTS = "costs_of_lessons";
+    private static final String STUDENT_PAYMENT_DISCOUNT = "discount_siblings";
+    private static final String STUDENT_PAYMENT_COST_ID = "cost_id";
+    private static final String STUDENT_PAYMENT_LESSON_COST = "lesson_cost";
+    private static final String INSTRUCTOR_PAYMENT_TABLE_NAME = "instructor_payment";
+    private static final String INSTRUCTOR_PAYMENT_INSTRUCTOR_ID = "instructor_id";
+    private static final String INSTRUCTOR_PAYMENT_TIMESLOT_ID = "timeslot_id";
+    private static final String INSTRUCTOR_PAYMENT_PAYMENT = "payment";
+    private static final String INSTRUCTOR_PAYMENT_COST_ID = "cost_id";
+    private static final String INSTRUCTOR_PAYMENT_LESSON_COST = "lesson_cost";
+    private static final int PAYMENT_FETCH_SIZE = 10000;
+    private static final int EXPORT_FETCH_SIZE = 10000;
+    private static final String EXPORT_HOLDER_LABEL = "holder";
+    private static final String EXPORT_ACCOUNTS_LABEL = "accounts";
+    private static final int PAYMENT_BATCH_SIZE = 1000;
+
+    private static final String STUDENT_TABLE_NAME = "student";
+    private static final String STUDENT_PK = "student_id";
+    private static final String STUDENT_PERSON_ID = "person_id";
+    private static final String PERSON_NUMBER = "person_number";
+    private static final int MIN_TEXT_SEARCH_LENGTH = 3;
+    private static final String WAITLIST_TABLE_NAME = "rental_waitlist";
+    private static final String WAITLIST_INSTRUMENT_ID = "instrument_id";
+    private static final String WAITLIST_STUDENT_ID = "student_id";
+    private static final String HANDOVER_CHANNEL = "rental_handover";
+    private static final String HANDOVER_SEPARATOR = ":";
+    private static final String STUDENT_ACTIVE_RENTALS = "active_rentals";
+
+
+    private static final String HOLDER_TABLE_NAME = "holder";
+    private static final String HOLDER_PK_COLUMN_NAME = "holder_id";
+    private static final String HOLDER_COLUMN_NAME = "name";
+    private static final String ACCT_TABLE_NAME = "account";
+    private static final String ACCT_NO_COLUMN_NAME = "account_no";
+    private static final String BALANCE_COLUMN_NAME = "balance";
+    private static final String HOLDER_FK_COLUMN_NAME = HOLDER_PK_COLUMN_NAME;
+    private static final String HOLDER_SHARD_TABLE_NAME = "holder_shard";
+    private static final String ACCT_PK_COLUMN_NAME = "account_id";
+    private static final String[] SNAPSHOT_ACCOUNT_TABLES = {HOLDER_TABLE_NAME, ACCT_TABLE_NAME};
+    private static final String[] SNAPSHOT_MAIN_TABLES = {HOLDER_SHARD_TABLE_NAME,
+                                                          RENTING_TABLE_NAME, RENTED_TABLE_NAME,
+                                                          HISTORY_TABLE_NAME};
+    private static final Map<String, String> SNAPSHOT_IDENTITY_COLUMNS = Map.of(
+        HOLDER_TABLE_NAME, HOLDER_PK_COLUMN_NAME, ACCT_TABLE_NAME, ACCT_PK_COLUMN_NAME,
+        RENTING_TABLE_NAME, RENTING_PK, RENTED_TABLE_NAME, RENTED_PK);
+    private static final String SNAPSHOT_COLUMN_PATTERN = "[A-Za-z_][A-Za-z0-9_]*";
+    private static final String HOLDER_SHARD_NAME_COLUMN_NAME = "name";
+    private static final String HOLDER_SHARD_NO_COLUMN_NAME = "shard_no";
+
+    private static final String DB_PROPERTY_PREFIX = "bankdb";
+    private static final String REPLICA_PROPERTY_SUFFIX = ".replica";
+    private static final String SHARD_COUNT_PROPERTY = DB_PROPERTY_PREFIX + ".shards";
+    private static final String SHARD_PROPERTY_PREFIX = DB_PROPERTY_PREFIX + ".shard.";
+    private static final String DEFAULT_URL = "jdbc:postgresql://localhost:5432/data";
+    private static final String DEFAULT_USER = "postgres";
+    private static final String DEFAULT_PASSWORD = "example";
+    private static final long DEFAULT_MAX_STALENESS_MILLIS = 1000;
+    private static final String POOL_SIZE_PROPERTY = DB_PROPERTY_PREFIX + ".pool.size";
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final String CACHE_TTL_PROPERTY = DB_PROPERTY_PREFIX + ".cache.ttlMillis";
+    private static final long DEFAULT_CACHE_TTL_MILLIS = 30000;
+    private static final String ARCHIVE_PROPERTY_PREFIX = DB_PROPERTY_PREFIX + ".archive.";
+    private static final long DEFAULT_ARCHIVE_INTERVAL_MINUTES = 60;
+    private static final int DEFAULT_ARCHIVE_CHUNK_SIZE = 500;
+    private static final String INTAKE_PROPERTY_PREFIX = DB_PROPERTY_PREFIX + ".intake.";
+    private static final int DEFAULT_INTAKE_CAPACITY = 10000;
+    private static final int DEFAULT_INTAKE_BATCH_SIZE = 500;
+    private static final String AUDITION_LEASE_PROPERTY = DB_PROPERTY_PREFIX
+                                                          + ".audition.leaseMinutes";
+    private static final long DEFAULT_AUDITION_LEASE_MINUTES = 60;
+
+    private final List<ConnectionFactory> shardDbs = new ArrayList<>();
+    private final int poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+    private final BlockingQueue<ConnectionSet> idleConnections = new LinkedBlockingQueue<>();
+    private ConnectionFactory mainDb;
+    private RentalArchiver archiver;
+    private volatile ApplicationIntake intake;
+    private final long auditionLeaseMillis = TimeUnit.MINUTES.toMillis(
+        Long.getLong(AUDITION_LEASE_PROPERTY, DEFAULT_AUDITION_LEASE_MINUTES));
+    private ChannelListener handoverListener;
+    private ChangeListener changeListener;
+    private volatile boolean cachingAccounts;
+    private final Map<String, CachedAccount> accountCache = new ConcurrentHashMap<>();
+    private final long cacheTtlMillis = Long.getLong(CACHE_TTL_PROPERTY,
+                                                     DEFAULT_CACHE_TTL_MILLIS);
+    private final ThreadLocal<Map<String, Integer>> balancesReadForUpdate =
+        ThreadLocal.withInitial(HashMap::new);
+    private long accountChanges;
+    private ExecutorService shardExecutor;
+    private SqlDialect dialect;
+
+    /**
+     * Constructs a new DAO object connected to the bank database. If the system
+     * property <code>bankdb.replica.url</code> is set, read-only operations are sent
+     * to that replica as long as its replication lag is below
+     * <code>bankdb.replica.maxStalenessMillis</code>. If the system property
+     * <code>bankdb.shards</code> is larger than one, accounts are spread over that
+     * many databases, where shard <code>n</code> is configured with the properties
+     * <code>bankdb.shard.n.url</code>, <code>bankdb.shard.n.user</code> and
+     * <code>bankdb.shard.n.password</code>, and may have a replica configured with
+     * <code>bankdb.shard.n.replica.url</code>. Shard zero is the main database.
+     * The schema of each shard is migrated to the latest version before it is used.
+     * If the system property <code>bankdb.archive.afterDays</code> is set, rentals
+     * that have been closed for that many days are moved to the rental history in
+     * the background, every <code>bankdb.archive.intervalMinutes</code> minutes in
+     * chunks of <code>bankdb.archive.chunkSize</code> rentals. The pool holds
+     * <code>bankdb.pool.size</code> connection sets (default 8).
+     */
+    public JdbcBankDAO() throws BankDBException {
+        try {
+            connectToBankDB();
+            migrateSchema();
+            openConnectionSets();
+            startArchiver();
+        } catch (ClassNotFoundException | SQLException exception) {
+            throw new BankDBException("Could not connect to datasource.", exception);
+        } catch (IOException exception) {
+            throw new BankDBException("Could not read the schema migrations.", exception);
+        }
+    }
+
+    /**
+     * Returns the number of connection sets in the pool, since each call uses a
+     * set of its own.
+     *
+     * @return The size of the connection pool.
+     */
+    @Override
+    public int getMaxConcurrentCalls() {
+        return poolSize;
+    }
+
+    /**
+     * Creates a new account.
+     *
+     * @param account The account to create.
+     * @throws BankDBException If failed to create the specified account.
+     */
+    @Override
+    public void createAccount(AccountDTO account) throws BankDBException {
+        String failureMsg = "Could not create the account: " + account;
+        ConnectionSet conns = borrow();
+        try {
+            String acctNo = Integer.toString(createAccountNo());
+            AccountShard shard = shardFor(conns, acctNo);
+            storeAccount(conns, shard, acctNo, account.getHolderName(), account.getBalance(),
+                         failureMsg);
+            registerHolderShard(conns, account.getHolderName(), shard);
+            shard.commitWrite();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    /**
+     * Searches for the account with the specified account number.
+     *
+     * @param acctNo   The account number.
+     * @param readOnly <code>true</code> if the account will not be updated. The
+     *                 account is then read from the replica, if there is one that
+     *                 is up to date. Otherwise, the balance is remembered by the
+     *                 calling thread, for its next update of the account.
+     * @return The account with the specified account number, or <code>null</code> if 
+     *         there is no such account.
+     * @throws BankDBException If failed to search for the account.
+     */
+    @Override
+    public Account findAccountByAcctNo(String acctNo, boolean readOnly)
+            throws BankDBException {
+        String failureMsg = "Could not search for specified account.";
+        boolean cached = readOnly && cachingAccounts;
+        long changesBeforeRead = 0;
+        if (cached) {
+            CachedAccount cachedAccount = accountCache.get(acctNo);
+            if (cachedAccount != null
+                && System.currentTimeMillis() < cachedAccount.expiresAtMillis) {
+                return copyOf(cachedAccount.account);
+            }
+            changesBeforeRead = accountChanges();
+        }
+        ConnectionSet conns = borrow();
+        try {
+            AccountShard shard = shardFor(conns, acctNo);
+            ReadStatements reads = readOnly && !cached ? shard.reads() : shard.primaryReads();
+            reads.getFindAccountByAcctNoStmt().setString(1, acctNo);
+            Account account = null;
+            try (ResultSet result = reads.getFindAccountByAcctNoStmt().executeQuery()) {
+                if (result.next()) {
+                    account = new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                          result.getString(HOLDER_COLUMN_NAME),
+                                          result.getInt(BALANCE_COLUMN_NAME));
+                }
+            }
+            reads.getConnection().commit();
+            if (!readOnly && account != null) {
+                balancesReadForUpdate.get().put(acctNo, account.getBalance());
+            }
+            if (cached && account != null) {
+                cacheAccount(account, changesBeforeRead);
+                return copyOf(account);
+            }
+            return account;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return null;
+    }
+
+    /**
+     * Searches for all accounts whose holder has the specified name.
+     *
+     * @param holderName The account holder's name
+     * @return A list with all accounts whose holder has the specified name, 
+     *         the list is empty if there are no such account.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    @Override
+    public List<Account> findAccountsByHolder(String holderName)
+            throws BankDBException {
+        String failureMsg = "Could not search for specified accounts.";
+        ConnectionSet conns = borrow();
+        try {
+            return queryShards(findHolderShards(conns, holderName), shard -> {
+                List<Account> accounts = new ArrayList<>();
+                ReadStatements reads = shard.reads();
+                reads.getFindAccountByNameStmt().setString(1, holderName);
+                try (ResultSet result = reads.getFindAccountByNameStmt().executeQuery()) {
+                    while (result.next()) {
+                        accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                                 result.getString(HOLDER_COLUMN_NAME),
+                                                 result.getInt(BALANCE_COLUMN_NAME)));
+                    }
+                }
+                reads.getConnection().commit();
+                return accounts;
+            });
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Rental> findRentalByType(String type) throws BankDBException {
+        String failureMsg = "Could not find any available rentals.";
+        List<Rental> rentals = new ArrayList<>();
+        ConnectionSet conns = borrow();
+        try {
+            ReadStatements reads = conns.shards.get(0).reads();
+            reads.getFindRentalListTypeStmt().setString(1, type);
+            try (ResultSet result = reads.getFindRentalListTypeStmt().executeQuery()) {
+                while (result.next()) {
+                    rentals.add(new Rental(result.getString(RENTING_INSTRUMENT_NAME),
+                            type,
+                            result.getInt(RENTING_RENTAL_COST)));
+                }
+            }
+            reads.getConnection().commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return rentals;
+    }
+
+    /**
+     * Finds the students whose name contains the specified text, ignoring case.
+     * Students whose name starts with the text are found first, in order of name,
+     * through an ordinary index. If they are fewer than the maximum, students whose
+     * name contains the text elsewhere are added, in no particular order, through
+     * the text search index. A text shorter than three characters only finds names
+     * starting with the text.
+     *
+     * @param text       The searched part of the name.
+     * @param maxMatches The maximum number of students to find.
+     * @return The found students.
+     * @throws BankDBException If failed to search for students.
+     */
+    @Override
+    public List<StudentMatch> findStudentsByName(String text, int maxMatches)
+            throws BankDBException {
+        String failureMsg = "Could not search for students named " + text;
+        Map<Integer, StudentMatch> students = new LinkedHashMap<>();
+        ConnectionSet conns = borrow();
+        try {
+            conns.findStudentsByNamePrefixStmt.setString(1,
+                SqlDialect.escapeLike(text.toLowerCase()) + "%");
+            conns.findStudentsByNamePrefixStmt.setInt(2, maxMatches);
+            addStudentMatches(conns.findStudentsByNamePrefixStmt, students);
+            if (students.size() < maxMatches && text.length() >= MIN_TEXT_SEARCH_LENGTH) {
+                dialect.bindTextMatch(conns.findStudentsByNamePartStmt, 1, text);
+                conns.findStudentsByNamePartStmt.setInt(2, maxMatches);
+                addStudentMatches(conns.findStudentsByNamePartStmt, students);
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>(students.values()).subList(0, Math.min(students.size(),
+                                                                       maxMatches));
+    }
+
+    private void addStudentMatches(PreparedStatement findStudentsStmt,
+                                   Map<Integer, StudentMatch> students) throws SQLException {
+        try (ResultSet result = findStudentsStmt.executeQuery()) {
+            while (result.next()) {
+                students.putIfAbsent(result.getInt(STUDENT_PK),
+                                     new StudentMatch(result.getInt(STUDENT_PK),
+                                                      result.getString(PERSON_NUMBER),
+                                                      result.getString(PERSON_NAME)));
+            }
+        }
+    }
+
+    /**
+     * Loads all instrument brands into a new catalog.
+     *
+     * @return The catalog.
+     * @throws BankDBException If failed to load the brands.
+     */
+    @Override
+    public RentalCatalog loadRentalCatalog() throws BankDBException {
+        String failureMsg = "Could not load the rental catalog.";
+        RentalCatalog catalog = new RentalCatalog();
+        ConnectionSet conns = borrow();
+        try (ResultSet result = conns.findRentalCatalogStmt.executeQuery()) {
+            while (result.next()) {
+                catalog.addBrand(result.getInt(RENTING_PK),
+                                 result.getString(RENTING_INSTRUMENT_NAME),
+                                 result.getString(RENTING_INSTRUMENT_TYPE),
+                                 result.getInt(RENTING_RENTAL_COST),
+                                 result.getInt(RENTING_AVAILABLE_AMOUNT));
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return catalog;
+    }
+
+    @Override
+    public Rental findRental(String name) throws BankDBException{
+        String failureMsg = "Could not find any available rentals.";
+        ConnectionSet conns = borrow();
+        try {
+            conns.findRentalName.setString(1, name);
+            Rental rental = null;
+            try (ResultSet result = conns.findRentalName.executeQuery()) {
+                if (result.next()) {
+                    rental = new Rental(result.getString(RENTING_INSTRUMENT_NAME),
+                            result.getInt(RENTING_AVAILABLE_AMOUNT),
+                            result.getInt(RENTING_PK));
+                }
+            }
+            conns.connection.commit();
+            return rental;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return null;
+    }
+
+    /**
+     * Rents an instrument of the specified brand to the specified student. The
+     * brand's number of available instruments and the student's number of active
+     * rentals are both checked and updated in the same transaction, so the checks
+     * hold also for concurrent rentals. All of it is done by the
+     * <code>rent_instrument</code> function, in a single call.
+     *
+     * @param studentID The student renting the instrument.
+     * @param brand     The name of the rented brand.
+     * @return The brand, with its id and its number of available instruments after
+     *         the rental.
+     * @throws RejectedException If there is no such brand, if it has no available
+     *                           instruments, or if the student does not exist or
+     *                           already rents the maximum number of instruments.
+     * @throws BankDBException   If failed to make the rental.
+     */
+    @Override
+    public Rental rentInstrument(int studentID, String brand)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not rent " + brand + " to student " + studentID;
+        ConnectionSet conns = borrow();
+        try {
+            conns.rentInstrumentStmt.setInt(1, studentID);
+            conns.rentInstrumentStmt.setString(2, brand);
+            conns.rentInstrumentStmt.setInt(3, StudentRentals.MAX_RENTALS);
+            conns.rentInstrumentStmt.execute();
+            Rental rental = new Rental(brand, conns.rentInstrumentStmt.getInt(5),
+                                       conns.rentInstrumentStmt.getInt(4));
+            conns.connection.commit();
+            conns.router.writeCommitted();
+            return rental;
+        } catch (SQLException sqle) {
+            rejectIfRefused(conns, sqle);
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return null;
+    }
+
+    /**
+     * Lists the rentals of the specified student, both active and closed. Closed
+     * rentals that have been moved to the rental history are included only if
+     * <code>includeHistory</code> is <code>true</code>.
+     *
+     * @param studentID      The student whose rentals are listed.
+     * @param includeHistory <code>true</code> if also the rental history shall be
+     *                       searched.
+     * @return The rentals, oldest first. The list is empty if the student has no
+     *         rentals.
+     * @throws BankDBException If failed to search for rentals.
+     */
+    @Override
+    public List<RentalRecord> findRentalRecords(int studentID, boolean includeHistory)
+            throws BankDBException {
+        String failureMsg = "Could not list the rentals of student " + studentID;
+        List<RentalRecord> records = new ArrayList<>();
+        ConnectionSet conns = borrow();
+        PreparedStatement stmt = includeHistory ? conns.findRentalRecordsWithHistoryStmt
+                                                : conns.findRentalRecordsStmt;
+        try {
+            stmt.setInt(1, studentID);
+            if (includeHistory) {
+                stmt.setInt(2, studentID);
+            }
+            try (ResultSet result = stmt.executeQuery()) {
+                while (result.next()) {
+                    Date rentalDate = result.getDate(RENTED_DATE);
+                    Date closedDate = result.getDate(RENTED_CLOSED_DATE);
+                    records.add(new RentalRecord(result.getString(RENTING_INSTRUMENT_NAME),
+                                                 rentalDate == null ? null : rentalDate.toLocalDate(),
+                                                 closedDate == null ? null : closedDate.toLocalDate(),
+                                                 result.getBoolean(RENTED_ACTIVE),
+                                                 result.getBoolean(RENTED_ARCHIVED)));
+                }
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return records;
+    }
+
+    /**
+     * Closes the specified student's active rental of the specified brand. If
+     * students are waiting for the brand, the returned instrument is rented to the
+     * student who has waited longest and may rent one more instrument, in the same
+     * transaction, and that student is notified. Waiting students who already rent
+     * the maximum number of instruments keep their place. If no waiting student may
+     * rent the instrument, the brand's number of available instruments is
+     * incremented. All of it is done by the <code>return_instrument</code>
+     * function, in a single call.
+     *
+     * @param studentID The student returning the instrument.
+     * @param brand     The name of the returned brand.
+     * @return The outcome of the return.
+     * @throws RejectedException If there is no such brand, or if the student does
+     *                           not rent it.
+     * @throws BankDBException   If failed to close the rental.
+     */
+    @Override
+    public RentalReturn returnInstrument(int studentID, String brand)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not close the rental of " + brand + " by student " + studentID;
+        ConnectionSet conns = borrow();
+        try {
+            conns.returnInstrumentStmt.setInt(1, studentID);
+            conns.returnInstrumentStmt.setString(2, brand);
+            conns.returnInstrumentStmt.setInt(3, StudentRentals.MAX_RENTALS);
+            conns.returnInstrumentStmt.execute();
+            int waiter = conns.returnInstrumentStmt.getInt(6);
+            Integer handedOverTo = conns.returnInstrumentStmt.wasNull() ? null : waiter;
+            RentalReturn returned = new RentalReturn(conns.returnInstrumentStmt.getInt(4),
+                                                     conns.returnInstrumentStmt.getInt(5),
+                                                     handedOverTo);
+            conns.connection.commit();
+            conns.router.writeCommitted();
+            return returned;
+        } catch (SQLException sqle) {
+            rejectIfRefused(conns, sqle);
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return null;
+    }
+
+    /**
+     * Puts the specified student last in the waitlist of the specified brand,
+     * unless the brand has available instruments. The brand is locked while its
+     * number of available instruments is checked, so an instrument returned at the
+     * same time is either seen here or handed over to the student. A student who
+     * rents the maximum number of instruments may also wait, but is handed an
+     * instrument only after returning one.
+     *
+     * @param studentID The waiting student.
+     * @param rental    The brand.
+     * @return <code>true</code> if the student waits for the brand,
+     *         <code>false</code> if the brand has available instruments.
+     * @throws BankDBException If failed to put the student in the waitlist.
+     */
+    @Override
+    public boolean joinWaitlist(int studentID, Rental rental) throws BankDBException {
+        String failureMsg = "Could not put student " + studentID + " in the waitlist of "
+                            + rental.getInstrumentName();
+        ConnectionSet conns = borrow();
+        try {
+            if (lockBrand(conns, rental.getInstrumentID()) > 0) {
+                conns.connection.commit();
+                return false;
+            }
+            conns.joinWaitlistStmt.setInt(1, rental.getInstrumentID());
+            conns.joinWaitlistStmt.setInt(2, studentID);
+            conns.joinWaitlistStmt.executeUpdate();
+            conns.connection.commit();
+            return true;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return false;
+    }
+
+    /**
+     * Makes the specified observer be notified whenever a returned instrument is
+     * rented to a waiting student, by any program using the database. Notifications
+     * are only sent by PostgreSQL.
+     *
+     * @param observer The observer.
+     * @return <code>true</code> if the observer will be notified, <code>false</code>
+     *         if the database has no notifications.
+     * @throws BankDBException If failed to listen for notifications.
+     */
+    @Override
+    public synchronized boolean listenForHandovers(RentalHandoverObserver observer)
+            throws BankDBException {
+        if (handoverListener != null) {
+            return true;
+        }
+        try {
+            handoverListener = new ChannelListener(mainDb, HANDOVER_CHANNEL, payload -> {
+                int separator = payload.indexOf(HANDOVER_SEPARATOR);
+                observer.rentalHandedOver(Integer.parseInt(payload.substring(0, separator)),
+                                          payload.substring(separator + 1));
+            });
+            handoverListener.start();
+            return true;
+        } catch (SQLFeatureNotSupportedException noNotifications) {
+            return false;
+        } catch (SQLException sqle) {
+            throw new BankDBException("Could not listen for rental handovers.", sqle);
+        }
+    }
+
+    /**
+     * Makes the specified observer be notified whenever an account or the number of
+     * available instruments of a brand is changed, by any program using the
+     * database. While changes are received, accounts read with
+     * <code>readOnly</code> set are kept in memory, and are removed from memory when
+     * they are changed, or at the latest after <code>bankdb.cache.ttlMillis</code>
+     * milliseconds (default 30000). Changes are received from every shard. When a
+     * connection receiving changes fails, all accounts are removed from memory, and
+     * none are kept until it has been replaced. Notifications are only sent by
+     * PostgreSQL.
+     *
+     * @param observer The observer.
+     * @return <code>true</code> if the observer will be notified, <code>false</code>
+     *         if the database has no notifications.
+     * @throws BankDBException If failed to listen for notifications.
+     */
+    @Override
+    public synchronized boolean listenForChanges(DataChangeObserver observer)
+            throws BankDBException {
+        if (changeListener == null) {
+            try {
+                ChangeListener listener = new ChangeListener(shardDbs);
+                listener.addObserver(new DataChangeObserver() {
+                    @Override
+                    public void accountChanged(String acctNo) {
+                        forgetAccounts(acctNo);
+                    }
+
+                    @Override
+                    public void changesInterrupted() {
+                        cachingAccounts = false;
+                        forgetAllAccounts();
+                    }
+
+                    @Override
+                    public void changesResumed() {
+                        cachingAccounts = true;
+                    }
+                });
+                listener.start();
+                changeListener = listener;
+                cachingAccounts = true;
+            } catch (SQLFeatureNotSupportedException noNotifications) {
+                return false;
+            } catch (SQLException sqle) {
+                throw new BankDBException("Could not listen for changes.", sqle);
+            }
+        }
+        changeListener.addObserver(observer);
+        return true;
+    }
+
+    private String[] snapshotTables(AccountShard shard) {
+        if (shard.getShardNo() != 0) {
+            return SNAPSHOT_ACCOUNT_TABLES;
+        }
+        String[] tables = Arrays.copyOf(SNAPSHOT_ACCOUNT_TABLES,
+                                        SNAPSHOT_ACCOUNT_TABLES.length
+                                        + SNAPSHOT_MAIN_TABLES.length);
+        System.arraycopy(SNAPSHOT_MAIN_TABLES, 0, tables, SNAPSHOT_ACCOUNT_TABLES.length,
+                         SNAPSHOT_MAIN_TABLES.length);
+        return tables;
+    }
+
+    /**
+     * Bulk loads the rows of the specified snapshot table, with the table's
+     * triggers disabled and its foreign keys and the indexes that do not enforce
+     * constraints dropped, where the database allows it.
+     */
+    private long loadSnapshotTable(ConnectionSet conns, SnapshotReader.Table table)
+            throws SQLException, IOException {
+        String name = table.getName();
+        if (table.getShardNo() < 0 || table.getShardNo() >= conns.shards.size()
+            || !Arrays.asList(snapshotTables(conns.shards.get(table.getShardNo())))
+                   .contains(name)) {
+            throw new IOException("The snapshot holds the unexpected table " + name
+                                  + " of shard " + table.getShardNo());
+        }
+        for (String column : table.getColumns()) {
+            if (!column.matches(SNAPSHOT_COLUMN_PATTERN)) {
+                throw new IOException("The snapshot holds the invalid column " + column);
+            }
+        }
+        AccountShard shard = conns.shards.get(table.getShardNo());
+        Connection conn = shard.getConnection();
+        SqlDialect shardDialect = shard.getDialect();
+        List<String> deferred = new ArrayList<>(shardDialect.dropSecondaryIndexes(conn, name));
+        deferred.addAll(shardDialect.dropForeignKeys(conn, name));
+        shardDialect.setTriggersEnabled(conn, name, false);
+        long rowCount;
+        try (InputStream csv = table.csvRows()) {
+            if (name.equals(HISTORY_TABLE_NAME)) {
+                rowCount = shardDialect.bulkLoadByYear(conn, name, RENTED_DATE,
+                                                       table.getColumns(), csv);
+            } else {
+                rowCount = shardDialect.bulkLoad(conn, name, table.getColumns(), csv);
+            }
+        }
+        shardDialect.setTriggersEnabled(conn, name, true);
+        try (Statement stmt = conn.createStatement()) {
+            for (String definition : deferred) {
+                stmt.execute(definition);
+            }
+        }
+        String identityColumn = SNAPSHOT_IDENTITY_COLUMNS.get(name);
+        if (identityColumn != null) {
+            shardDialect.resetIdentity(conn, name, identityColumn);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Tells other programs that the specified accounts are changed by the ongoing
+     * transaction of the specified shard. The notifications are sent in that
+     * transaction, so they are delivered if, and only if, the change is committed.
+     */
+    private void notifyAccountChange(AccountShard shard, String... acctNos)
+            throws SQLException {
+        for (String acctNo : acctNos) {
+            shard.getDialect().sendNotification(shard.getConnection(),
+                                                ChangeListener.CHANGE_CHANNEL,
+                                                ChangeListener.accountChange(acctNo));
+        }
+    }
+
+    /**
+     * Reads and locks the specified accounts, in order of account number, so that
+     * transactions locking several accounts can not deadlock.
+     */
+    private Map<String, Account> lockAccounts(AccountShard shard, String[] acctNos)
+            throws SQLException {
+        Map<String, Account> accounts = new HashMap<>();
+        Connection conn = shard.getConnection();
+        try (PreparedStatement lockAccountsStmt = conn.prepareStatement("SELECT a."
+                + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME
+                + " FROM " + ACCT_TABLE_NAME + " a INNER JOIN " + HOLDER_TABLE_NAME + " h ON a."
+                + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE "
+                + shard.getDialect().inList("a." + ACCT_NO_COLUMN_NAME, acctNos.length)
+                + " ORDER BY a." + ACCT_NO_COLUMN_NAME + " FOR UPDATE OF a")) {
+            shard.getDialect().bindInList(conn, lockAccountsStmt, 1, acctNos);
+            try (ResultSet result = lockAccountsStmt.executeQuery()) {
+                while (result.next()) {
+                    accounts.put(result.getString(ACCT_NO_COLUMN_NAME),
+                                 new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                             result.getString(HOLDER_COLUMN_NAME),
+                                             result.getInt(BALANCE_COLUMN_NAME)));
+                }
+            }
+        }
+        return accounts;
+    }
+
+    private long accountChanges() {
+        synchronized (accountCache) {
+            return accountChanges;
+        }
+    }
+
+    /**
+     * Keeps the specified account in memory, unless any account was changed after
+     * it was read, since the read value might then already be outdated.
+     */
+    private void cacheAccount(Account account, long changesBeforeRead) {
+        synchronized (accountCache) {
+            if (accountChanges == changesBeforeRead) {
+                accountCache.put(account.getAccountNo(), new CachedAccount(
+                    copyOf(account), System.currentTimeMillis() + cacheTtlMillis));
+            }
+        }
+    }
+
+    private void forgetAccounts(String... acctNos) {
+        synchronized (accountCache) {
+            accountChanges++;
+            for (String acctNo : acctNos) {
+                accountCache.remove(acctNo);
+            }
+        }
+    }
+
+    private void forgetAllAccounts() {
+        synchronized (accountCache) {
+            accountChanges++;
+            accountCache.clear();
+        }
+    }
+
+    private Account copyOf(Account account) {
+        return new Account(account.getAccountNo(), account.getHolderName(),
+                           account.getBalance());
+    }
+
+    private int lockBrand(ConnectionSet conns, int instrumentID) throws SQLException {
+        conns.lockBrandStmt.setInt(1, instrumentID);
+        try (ResultSet result = conns.lockBrandStmt.executeQuery()) {
+            if (!result.next()) {
+                throw new SQLException("No instrument brand with id " + instrumentID);
+            }
+            return result.getInt(RENTING_AVAILABLE_AMOUNT);
+        }
+    }
+
+    private void rejectIfRefused(ConnectionSet conns, SQLException sqle)
+            throws RejectedException {
+        if (RENTAL_REFUSED.equals(sqle.getSQLState())) {
+            try {
+                conns.connection.rollback();
+            } catch (SQLException rollbackExc) {
+                sqle.addSuppressed(rollbackExc);
+            }
+            throw new RejectedException(dialect.errorMessage(sqle));
+        }
+    }
+
+    /**
+     * Retrieves all existing accounts.
+     *
+     * @return A list with all existing accounts. The list is empty if there are no
+     *         accounts.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    @Override
+    public List<Account> findAllAccounts() throws BankDBException {
+        String failureMsg = "Could not list accounts.";
+        ConnectionSet conns = borrow();
+        try {
+            return queryShards(conns.shards, shard -> {
+                List<Account> accounts = new ArrayList<>();
+                ReadStatements reads = shard.reads();
+                try (ResultSet result = reads.getFindAllAccountsStmt().executeQuery()) {
+                    while (result.next()) {
+                        accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                                 result.getString(HOLDER_COLUMN_NAME),
+                                                 result.getInt(BALANCE_COLUMN_NAME)));
+                    }
+                }
+                reads.getConnection().commit();
+                return accounts;
+            });
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Retrieves the accounts following the specified account number, in order of
+     * account number. Each shard is searched, from its replica if there is one that
+     * is up to date, and the first accounts of all shards are merged.
+     *
+     * @param acctNo      The account number after which to start, or
+     *                    <code>null</code> to start with the first account.
+     * @param maxAccounts The maximum number of accounts to retrieve.
+     * @return The accounts. Fewer than <code>maxAccounts</code> accounts means that
+     *         there are no more accounts.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    @Override
+    public List<Account> findAccountsAfter(String acctNo, int maxAccounts)
+            throws BankDBException {
+        String failureMsg = "Could not list accounts after " + acctNo;
+        ConnectionSet conns = borrow();
+        try {
+            List<Account> accounts = queryShards(conns.shards, shard -> {
+                List<Account> found = new ArrayList<>();
+                ReadStatements reads = shard.reads();
+                PreparedStatement stmt = reads.getFindAccountsAfterStmt();
+                stmt.setString(1, acctNo == null ? "" : acctNo);
+                stmt.setInt(2, maxAccounts);
+                try (ResultSet result = stmt.executeQuery()) {
+                    while (result.next()) {
+                        found.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                              result.getString(HOLDER_COLUMN_NAME),
+                                              result.getInt(BALANCE_COLUMN_NAME)));
+                    }
+                }
+                reads.getConnection().commit();
+                return found;
+            });
+            accounts.sort(Comparator.comparing(Account::getAccountNo));
+            return accounts.size() > maxAccounts ? accounts.subList(0, maxAccounts) : accounts;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Writes all rows of the specified table to the specified file, while they are
+     * read from the database. Rentals are read from the main database, accounts and
+     * holders from every shard. Each database is read on a connection of its own, so
+     * a long export does not hold a connection set of the pool. The file is
+     * compressed with gzip if its name ends with <code>.gz</code>.
+     *
+     * @param table  The data to export.
+     * @param file   The file to write. It is created, or emptied if it exists.
+     * @param format The file's format.
+     * @return The number of exported rows.
+     * @throws BankDBException If failed to read the data or to write the file.
+     */
+    @Override
+    public long export(ExportTable table, Path file, ExportFormat format)
+            throws BankDBException {
+        String failureMsg = "Could not export " + table + " to " + file;
+        List<ConnectionFactory> exportedDbs = table == ExportTable.RENTALS ? List.of(mainDb)
+                                                                         : shardDbs;
+        TableExporter exporter = null;
+        try {
+            exporter = TableExporter.create(file, format);
+            for (ConnectionFactory db : exportedDbs) {
+                try (Connection conn = db.open()) {
+                    try (PreparedStatement stmt = db.getDialect().prepareStreamingQuery(
+                            conn, exportQuery(table), EXPORT_FETCH_SIZE);
+                         ResultSet rows = stmt.executeQuery()) {
+                        exporter.write(rows);
+                    }
+                    conn.commit();
+                }
+            }
+            long rowCount = exporter.close();
+            exporter = null;
+            return rowCount;
+        } catch (SQLException | IOException exception) {
+            throw new BankDBException(failureMsg, exception);
+        } finally {
+            if (exporter != null) {
+                exporter.abort();
+            }
+        }
+    }
+
+    private String exportQuery(ExportTable table) {
+        switch (table) {
+            case ACCOUNTS:
+                return "SELECT a." + ACCT_NO_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME + " AS "
+                    + EXPORT_HOLDER_LABEL + ", a." + BALANCE_COLUMN_NAME + " FROM "
+                    + ACCT_TABLE_NAME + " a INNER JOIN " + HOLDER_TABLE_NAME + " h ON a."
+                    + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME;
+            case HOLDERS:
+                return "SELECT h." + HOLDER_COLUMN_NAME + " AS " + EXPORT_HOLDER_LABEL
+                    + ", COUNT(a." + ACCT_NO_COLUMN_NAME + ") AS " + EXPORT_ACCOUNTS_LABEL
+                    + ", COALESCE(SUM(a." + BALANCE_COLUMN_NAME + "), 0) AS "
+                    + BALANCE_COLUMN_NAME + " FROM " + HOLDER_TABLE_NAME + " h LEFT JOIN "
+                    + ACCT_TABLE_NAME + " a ON a." + HOLDER_FK_COLUMN_NAME + " = h."
+                    + HOLDER_PK_COLUMN_NAME + " GROUP BY h." + HOLDER_PK_COLUMN_NAME + ", h."
+                    + HOLDER_COLUMN_NAME;
+            default:
+                return "SELECT r." + RENTED_STUDENT_ID + ", rg." + RENTING_INSTRUMENT_NAME
+                    + ", r." + RENTED_DATE + ", r." + RENTED_CLOSED_DATE + ", r."
+                    + RENTED_CURRENTLY_RENTING + " = B'1' AS " + RENTED_ACTIVE + ", FALSE AS "
+                    + RENTED_ARCHIVED + " FROM " + RENTED_TABLE_NAME + " r INNER JOIN "
+                    + RENTING_TABLE_NAME + " rg ON r." + RENTED_INSTRUMENT_ID + " = rg."
+                    + RENTING_PK + " UNION ALL SELECT h." + RENTED_STUDENT_ID + ", rg."
+                    + RENTING_INSTRUMENT_NAME + ", h." + RENTED_DATE + ", h."
+                    + RENTED_CLOSED_DATE + ", FALSE AS " + RENTED_ACTIVE + ", TRUE AS "
+                    + RENTED_ARCHIVED + " FROM " + HISTORY_TABLE_NAME + " h INNER JOIN "
+                    + RENTING_TABLE_NAME + " rg ON h." + RENTED_INSTRUMENT_ID + " = rg."
+                    + RENTING_PK;
+        }
+    }
+
+    /**
+     * Changes the balance of the account with the number of the specified
+     * <code>AccountDTO</code> object. If the calling thread read the account for
+     * update, the difference between the specified balance and the balance read is
+     * added to the current balance, in one statement, which gives the same result
+     * as if the account had been locked in between. Otherwise, the balance is set
+     * to the value in the specified <code>AccountDTO</code>.
+     *
+     * @param account The account to update.
+     * @throws BankDBException   If there is no such account, or if unable to update it.
+     * @throws RejectedException If the balance would become negative because of
+     *                           updates made since the account was read.
+     */
+    @Override
+    public void updateAccount(AccountDTO account)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not update the account: " + account;
+        Integer readBalance = balancesReadForUpdate.get().remove(account.getAccountNo());
+        ConnectionSet conns = borrow();
+        try {
+            AccountShard shard = shardFor(conns, account.getAccountNo());
+            PreparedStatement updateStmt;
+            if (readBalance == null) {
+                updateStmt = shard.getChangeBalanceStmt();
+                updateStmt.setInt(1, account.getBalance());
+                updateStmt.setString(2, account.getAccountNo());
+            } else {
+                int change = account.getBalance() - readBalance;
+                updateStmt = shard.getAddToBalanceStmt();
+                updateStmt.setInt(1, change);
+                updateStmt.setString(2, account.getAccountNo());
+                updateStmt.setInt(3, change);
+            }
+            int updatedRows = updateStmt.executeUpdate();
+            if (updatedRows != 1 && readBalance != null
+                && accountExists(shard, account.getAccountNo())) {
+                shard.rollback();
+                throw new RejectedException("Overdraft attempt, the balance of account "
+                                            + account.getAccountNo() + " would become "
+                                            + "negative because of concurrent updates");
+            }
+            if (updatedRows != 1) {
+                handleException(conns, failureMsg, null);
+            }
+            notifyAccountChange(shard, account.getAccountNo());
+            shard.commitWrite();
+            forgetAccounts(account.getAccountNo());
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    private boolean accountExists(AccountShard shard, String acctNo) throws SQLException {
+        PreparedStatement findAccountStmt = shard.primaryReads().getFindAccountByAcctNoStmt();
+        findAccountStmt.setString(1, acctNo);
+        try (ResultSet result = findAccountStmt.executeQuery()) {
+            return result.next();
+        }
+    }
+
+    /**
+     * Moves the specified amounts from one account to other accounts, in one
+     * transaction. All accounts are first read and locked by one query, in order of
+     * account number, so concurrent transfers can not deadlock. The new balances
+     * are then written in one batch. All accounts must be stored in the same shard.
+     *
+     * @param fromAcctNo The account from which all amounts are withdrawn.
+     * @param amounts    The amount deposited to each receiving account, by account
+     *                   number.
+     * @throws RejectedException If an account does not exist, if the sending account
+     *                           is also receiving, if an amount is negative, if the
+     *                           sum of the amounts is larger than the sender's
+     *                           balance, or if the accounts are stored in different
+     *                           shards.
+     * @throws BankDBException   If failed to move the amounts.
+     */
+    @Override
+    public void transfer(String fromAcctNo, Map<String, Integer> amounts)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not transfer from account " + fromAcctNo;
+        if (amounts.containsKey(fromAcctNo)) {
+            throw new RejectedException("Can not transfer from account " + fromAcctNo
+                                        + " to itself");
+        }
+        int shardNo = shardNo(fromAcctNo);
+        List<String> acctNos = new ArrayList<>();
+        acctNos.add(fromAcctNo);
+        for (String toAcctNo : amounts.keySet()) {
+            if (shardNo(toAcctNo) != shardNo) {
+                throw new RejectedException("Can not transfer from account " + fromAcctNo
+                                            + " to account " + toAcctNo + ", which is"
+                                            + " stored in another database.");
+            }
+            acctNos.add(toAcctNo);
+        }
+        ConnectionSet conns = borrow();
+        AccountShard shard = conns.shards.get(shardNo);
+        try {
+            Map<String, Account> accounts = lockAccounts(shard, acctNos.toArray(new String[0]));
+            try {
+                for (String acctNo : acctNos) {
+                    if (!accounts.containsKey(acctNo)) {
+                        throw new RejectedException("Can not transfer, there is no account "
+                                                    + acctNo);
+                    }
+                }
+                Account from = accounts.get(fromAcctNo);
+                for (Map.Entry<String, Integer> amount : amounts.entrySet()) {
+                    from.transferTo(accounts.get(amount.getKey()), amount.getValue());
+                }
+            } catch (RejectedException rejection) {
+                shard.rollback();
+                throw rejection;
+            }
+            PreparedStatement changeBalanceStmt = shard.getChangeBalanceStmt();
+            for (Account account : accounts.values()) {
+                changeBalanceStmt.setInt(1, account.getBalance());
+                changeBalanceStmt.setString(2, account.getAccountNo());
+                changeBalanceStmt.addBatch();
+            }
+            for (int updatedRows : changeBalanceStmt.executeBatch()) {
+                if (updatedRows != 1) {
+                    handleException(conns, failureMsg, null);
+                }
+            }
+            notifyAccountChange(shard, acctNos.toArray(new String[0]));
+            shard.commitWrite();
+            forgetAccounts(acctNos.toArray(new String[0]));
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    /**
+     * Deletes the account with the specified account number.
+     *
+     * @param acctNo The account to delete.
+     * @throws BankDBException If unable to delete the specified account.
+     */
+    @Override
+    public void deleteAccount(String acctNo) throws BankDBException {
+        String failureMsg = "Could not delete account: " + acctNo;
+        ConnectionSet conns = borrow();
+        try {
+            AccountShard shard = shardFor(conns, acctNo);
+            shard.getDeleteAccountStmt().setString(1, acctNo);
+            int updatedRows = shard.getDeleteAccountStmt().executeUpdate();
+            if (updatedRows != 1) {
+                handleException(conns, failureMsg, null);
+            }
+            notifyAccountChange(shard, acctNo);
+            shard.commitWrite();
+            forgetAccounts(acctNo);
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    /**
+     * Moves all accounts that are not stored in the shard selected by the hash of
+     * their account number to that shard. A holder left without accounts in the
+     * old shard is deleted there, together with the record that the holder has
+     * accounts in that shard. The shards of the holders of accounts that are not
+     * moved are recorded, if they were created with a single shard. This must be
+     * done after the number of shards has been changed, while the bank is not used
+     * by anyone else.
+     *
+     * @return The number of moved accounts.
+     * @throws BankDBException If unable to move an account. The accounts moved before
+     *                         the failure remain moved, and the failed account is
+     *                         still stored in its old shard.
+     */
+    @Override
+    public int rebalanceShards() throws BankDBException {
+        String failureMsg = "Could not rebalance the shards.";
+        int movedAccounts = 0;
+        ConnectionSet conns = borrow();
+        try {
+            for (AccountShard source : conns.shards) {
+                List<Account> accounts = new ArrayList<>();
+                ReadStatements reads = source.primaryReads();
+                try (ResultSet result = reads.getFindAllAccountsStmt().executeQuery()) {
+                    while (result.next()) {
+                        accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                                 result.getString(HOLDER_COLUMN_NAME),
+                                                 result.getInt(BALANCE_COLUMN_NAME)));
+                    }
+                }
+                source.getConnection().commit();
+                for (Account account : accounts) {
+                    AccountShard target = shardFor(conns, account.getAccountNo());
+                    if (target == source) {
+                        registerHolderShard(conns, account.getHolderName(), source);
+                        continue;
+                    }
+                    storeAccount(conns, target, account.getAccountNo(), account.getHolderName(),
+                                 account.getBalance(), failureMsg);
+                    registerHolderShard(conns, account.getHolderName(), target);
+                    target.commitWrite();
+                    source.getDeleteAccountStmt().setString(1, account.getAccountNo());
+                    source.getDeleteAccountStmt().executeUpdate();
+                    source.getDeleteUnusedHolderStmt().setString(1, account.getHolderName());
+                    boolean holderDeleted =
+                        source.getDeleteUnusedHolderStmt().executeUpdate() > 0;
+                    source.commitWrite();
+                    if (holderDeleted) {
+                        conns.deleteHolderShardStmt.setString(1, account.getHolderName());
+                        conns.deleteHolderShardStmt.setInt(2, source.getShardNo());
+                        conns.deleteHolderShardStmt.executeUpdate();
+                        conns.connection.commit();
+                    }
+                    movedAccounts++;
+                }
+            }
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return movedAccounts;
+    }
+
+    /**
+     * Writes all account holders, accounts, instrument brands, rentals and archived
+     * rentals to the specified snapshot file, which can be restored by <code>restore</code>. Each
+     * database is read in one repeatable read transaction, so the snapshot holds a
+     * consistent state of each database.
+     *
+     * @param file The file to write. It is created, or emptied if it exists.
+     * @return The number of rows in the snapshot.
+     * @throws BankDBException If failed to read the data or to write the file.
+     */
+    @Override
+    public long snapshot(Path file) throws BankDBException {
+        String failureMsg = "Could not write a snapshot to " + file;
+        SnapshotWriter writer = null;
+        ConnectionSet conns = borrow();
+        try {
+            writer = SnapshotWriter.create(file, conns.shards.size());
+            for (AccountShard shard : conns.shards) {
+                Connection conn = shard.getConnection();
+                int isolation = conn.getTransactionIsolation();
+                conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                try {
+                    for (String table : snapshotTables(shard)) {
+                        try (PreparedStatement stmt = shard.getDialect().prepareStreamingQuery(
+                                conn, "SELECT * FROM " + table, EXPORT_FETCH_SIZE);
+                             ResultSet rows = stmt.executeQuery()) {
+                            writer.write(table, shard.getShardNo(), rows);
+                        }
+                    }
+                    conn.commit();
+                } catch (SQLException | IOException failure) {
+                    conn.rollback();
+                    throw failure;
+                } finally {
+                    conn.setTransactionIsolation(isolation);
+                }
+            }
+            long rowCount = writer.close();
+            writer = null;
+            return rowCount;
+        } catch (SQLException | IOException exception) {
+            handleException(conns, failureMsg, exception);
+        } finally {
+            giveBack(conns);
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces all account holders, accounts, instrument brands, rentals and
+     * archived rentals with those in the specified snapshot file, written by
+     * <code>snapshot</code> with the same number of shards. The rows are bulk
+     * loaded, and the foreign keys and the indexes that do not enforce constraints
+     * are created after the load, where the database allows it. All waitlists are
+     * emptied, and the number of active rentals of each student is recounted. This
+     * must be done while the bank is not used by anyone else.
+     * <p>
+     * Each database is restored in a transaction of its own, and the transactions
+     * are committed one after the other. The restore is therefore not atomic when
+     * there is more than one shard. If a commit fails, the shards committed before
+     * it hold the snapshot while the others keep their previous rows, and the
+     * snapshot must be restored again.
+     *
+     * @param file The snapshot file.
+     * @return The number of restored rows.
+     * @throws BankDBException If failed to read the file or to store the data.
+     *                         Nothing is restored in a database whose restore
+     *                         failed.
+     */
+    @Override
+    public long restore(Path file) throws BankDBException {
+        String failureMsg = "Could not restore the snapshot " + file;
+        long rowCount = 0;
+        ConnectionSet conns = borrow();
+        try (SnapshotReader reader = SnapshotReader.open(file)) {
+            if (reader.getShardCount() != conns.shards.size()) {
+                throw new BankDBException(failureMsg + ", it was taken from "
+                                          + reader.getShardCount() + " shards, but there are "
+                                          + conns.shards.size());
+            }
+            for (AccountShard shard : conns.shards) {
+                List<String> tables = new ArrayList<>(Arrays.asList(snapshotTables(shard)));
+                if (shard.getShardNo() == 0) {
+                    tables.add(WAITLIST_TABLE_NAME);
+                }
+                Collections.reverse(tables);
+                shard.getDialect().emptyTables(shard.getConnection(),
+                                               tables.toArray(new String[0]));
+            }
+            SnapshotReader.Table table;
+            while ((table = reader.nextTable()) != null) {
+                rowCount += loadSnapshotTable(conns, table);
+            }
+            conns.recountActiveRentalsStmt.executeUpdate();
+            conns.reports.markAllRentalMonthsChanged();
+            for (int shardNo = conns.shards.size() - 1; shardNo >= 0; shardNo--) {
+                conns.shards.get(shardNo).commitWrite();
+            }
+            forgetAllAccounts();
+        } catch (SQLException | IOException exception) {
+            handleException(conns, failureMsg, exception);
+        } finally {
+            giveBack(conns);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Charges each student for the instruments rented during the specified month.
+     * The rentals are read and the charges are written on connections of their
+     * own, so the other operations of this DAO are not blocked.
+     *
+     * @param month The billed month.
+     * @return The number of charged students. Zero if the month is already billed.
+     * @throws BankDBException If unable to bill the month. The students charged
+     *                         before the failure remain charged, and billing the
+     *                         month again continues after them.
+     */
+    @Override
+    public int billRentals(YearMonth month) throws BankDBException {
+        String failureMsg = "Could not bill the rentals of " + month;
+        try (Connection readConn = mainDb.open(); Connection writeConn = mainDb.open()) {
+            return new RentalBilling(readConn, writeConn, dialect, ForkJoinPool.commonPool())
+                .bill(month);
+        } catch (SQLException sqle) {
+            throw new BankDBException(failureMsg, sqle);
+        }
+    }
+
+    /**
+     * Lists the number of lessons of each type given in each month of the specified
+     * year. The report is read from aggregates where only months with changed
+     * lessons are recomputed.
+     *
+     * @param year The year to report.
+     * @return The number of lessons per month and lesson type, ordered by month.
+     * @throws BankDBException If failed to read the report.
+     */
+    @Override
+    public List<MonthlyLessons> findLessonsPerMonth(int year) throws BankDBException {
+        String failureMsg = "Could not list the lessons of " + year;
+        ConnectionSet conns = borrow();
+        try {
+            conns.reports.refresh();
+            List<MonthlyLessons> lessons = conns.reports.findLessonsPerMonth(year);
+            conns.connection.commit();
+            return lessons;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Lists the instructors that gave more than the specified number of lessons
+     * during the specified month.
+     *
+     * @param month     The month to report.
+     * @param threshold The number of lessons an instructor must exceed to be listed.
+     * @return The instructors, those with most lessons first.
+     * @throws BankDBException If failed to read the report.
+     */
+    @Override
+    public List<InstructorLessons> findBusyInstructors(YearMonth month, int threshold)
+            throws BankDBException {
+        String failureMsg = "Could not list the instructors of " + month;
+        ConnectionSet conns = borrow();
+        try {
+            conns.reports.refresh();
+            List<InstructorLessons> instructors =
+                conns.reports.findBusyInstructors(month, threshold);
+            conns.connection.commit();
+            return instructors;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Lists the number of rentals of each instrument brand started during the
+     * specified month.
+     *
+     * @param month The month to report.
+     * @return The instrument brands, most rented first.
+     * @throws BankDBException If failed to read the report.
+     */
+    @Override
+    public List<InstrumentUtilization> findInstrumentUtilization(YearMonth month)
+            throws BankDBException {
+        String failureMsg = "Could not list the instrument utilization of " + month;
+        ConnectionSet conns = borrow();
+        try {
+            conns.reports.refresh();
+            List<InstrumentUtilization> instruments =
+                conns.reports.findInstrumentUtilization(month);
+            conns.connection.commit();
+            return instruments;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Loads an index of when the instructors are available, and of which
+     * instruments they teach. Only timeslots from today and on are included.
+     *
+     * @return The index.
+     * @throws BankDBException If failed to load the index.
+     */
+    @Override
+    public InstructorAvailability loadInstructorAvailability() throws BankDBException {
+        String failureMsg = "Could not load the instructor availability.";
+        InstructorAvailability availability = new InstructorAvailability();
+        ConnectionSet conns = borrow();
+        try {
+            try (ResultSet result = conns.findInstructorsStmt.executeQuery()) {
+                while (result.next()) {
+                    availability.addInstructor(result.getInt(INSTRUCTOR_PK),
+                                               result.getString(PERSON_NAME));
+                }
+            }
+            try (ResultSet result = conns.findFutureTimeslotsStmt.executeQuery()) {
+                while (result.next()) {
+                    availability.addTimeslot(result.getInt(TIMESLOT_PK),
+                                             result.getDate(TIMESLOT_DATE).toLocalDate());
+                }
+            }
+            try (ResultSet result = conns.findTeachersStmt.executeQuery()) {
+                while (result.next()) {
+                    availability.addTeacher(result.getString(TEACH_INSTRUMENT_ID),
+                                            result.getInt(TEACH_INSTRUCTOR_ID));
+                }
+            }
+            try (ResultSet result = conns.findAvailabilityStmt.executeQuery()) {
+                while (result.next()) {
+                    availability.setAvailable(result.getInt(AVAILABLE_INSTRUCTOR_ID),
+                                              result.getInt(AVAILABLE_TIMESLOT_ID));
+                }
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return availability;
+    }
+
+    /**
+     * Books the specified instructor at the specified timeslot, which makes the
+     * instructor teach that timeslot, but not the other timeslots of its lesson.
+     * The instructor is marked as not available only if it is still available, and
+     * the timeslot is booked only if no instructor is booked at it, so neither an
+     * instructor nor a timeslot can be booked twice.
+     *
+     * @param instructorId The instructor to book.
+     * @param timeslotId   The timeslot to book.
+     * @throws RejectedException If the instructor is not available at the timeslot,
+     *                           or if another instructor is booked at it.
+     * @throws BankDBException   If failed to book the instructor.
+     */
+    @Override
+    public void bookInstructor(int instructorId, int timeslotId)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not book instructor " + instructorId;
+        ConnectionSet conns = borrow();
+        try {
+            conns.bookAvailabilityStmt.setInt(1, instructorId);
+            conns.bookAvailabilityStmt.setInt(2, timeslotId);
+            if (conns.bookAvailabilityStmt.executeUpdate() != 1) {
+                conns.connection.rollback();
+                throw new RejectedException("Instructor " + instructorId
+                                            + " is not available at timeslot " + timeslotId);
+            }
+            conns.bookTimeslotStmt.setInt(1, instructorId);
+            conns.bookTimeslotStmt.setInt(2, timeslotId);
+            if (conns.bookTimeslotStmt.executeUpdate() != 1) {
+                conns.connection.rollback();
+                throw new RejectedException("Another instructor is booked at timeslot "
+                                            + timeslotId);
+            }
+            conns.connection.commit();
+            conns.router.writeCommitted();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    /**
+     * Loads the number of remaining seats of all lessons that have a maximum number
+     * of students.
+     *
+     * @return The number of remaining seats of each lesson, by lesson id.
+     * @throws BankDBException If failed to load the seats.
+     */
+    @Override
+    public Map<Integer, Integer> findRemainingSeats() throws BankDBException {
+        String failureMsg = "Could not load the remaining seats.";
+        Map<Integer, Integer> remainingSeats = new HashMap<>();
+        ConnectionSet conns = borrow();
+        try (ResultSet result = conns.findRemainingSeatsStmt.executeQuery()) {
+            while (result.next()) {
+                remainingSeats.put(result.getInt(SEAT_LESSON_ID),
+                                   result.getInt(SEAT_MAXIMUM_STUDENTS)
+                                   - result.getInt(SEAT_ENROLLED));
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return remainingSeats;
+    }
+
+    /**
+     * Enrolls the specified student into the specified lesson. If the lesson has a
+     * maximum number of students, a seat is taken with one conditional update of
+     * the lesson's seat counter, so the lesson can not be overbooked. The seat is
+     * taken last, so the counter's row is locked only until the commit.
+     *
+     * @param lessonId  The lesson.
+     * @param studentId The student.
+     * @return <code>true</code> if the student was enrolled, <code>false</code> if
+     *         the lesson is full.
+     * @throws RejectedException If the student is already enrolled into the lesson,
+     *                           or if the student or lesson does not exist.
+     * @throws BankDBException   If failed to enroll the student.
+     */
+    @Override
+    public boolean enrollStudent(int lessonId, int studentId)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not enroll student " + studentId + " into lesson " + lessonId;
+        ConnectionSet conns = borrow();
+        try {
+            if (!enroll(conns, lessonId, studentId, failureMsg)) {
+                return false;
+            }
+            conns.connection.commit();
+            conns.router.writeCommitted();
+            return true;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return false;
+    }
+
+    /**
+     * Enrolls the student and takes a seat, without committing. Rolls back if the
+     * lesson is full or if the student can not be enrolled.
+     */
+    private boolean enroll(ConnectionSet conns, int lessonId, int studentId, String failureMsg)
+            throws SQLException, RejectedException {
+        try {
+            conns.createEnrollmentStmt.setInt(1, lessonId);
+            conns.createEnrollmentStmt.setInt(2, studentId);
+            conns.createEnrollmentStmt.executeUpdate();
+        } catch (SQLException sqle) {
+            if (sqle.getSQLState() != null
+                && sqle.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+                try {
+                    conns.connection.rollback();
+                } catch (SQLException rollbackExc) {
+                    sqle.addSuppressed(rollbackExc);
+                }
+                throw new RejectedException(failureMsg + ", the student is already enrolled"
+                                            + " or does not exist.");
+            }
+            throw sqle;
+        }
+        conns.takeSeatStmt.setInt(1, lessonId);
+        if (conns.takeSeatStmt.executeUpdate() == 0 && hasSeatLimit(conns, lessonId)) {
+            conns.connection.rollback();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues the specified application to be stored in the background, together
+     * with other applications submitted at about the same time. The intake is
+     * started at the first submission, with a queue holding at most
+     * <code>bankdb.intake.capacity</code> applications, which are stored in batches
+     * of at most <code>bankdb.intake.batchSize</code> applications.
+     *
+     * @param application The application to store.
+     * @throws RejectedException If too many applications are waiting to be stored.
+     * @throws BankDBException   If failed to start the intake.
+     */
+    @Override
+    public void submitApplication(ApplicationDTO application)
+            throws BankDBException, RejectedException {
+        try {
+            if (!startIntake().submit(application)) {
+                throw new RejectedException("Too many applications are waiting to be stored,"
+                                            + " try again later.");
+            }
+        } catch (SQLException sqle) {
+            throw new BankDBException("Could not start the application intake.", sqle);
+        }
+    }
+
+    /**
+     * Waits until all applications submitted so far are stored, and stops accepting
+     * applications. Does nothing if no application was submitted.
+     *
+     * @throws BankDBException If interrupted while waiting.
+     */
+    @Override
+    public void closeApplicationIntake() throws BankDBException {
+        if (intake == null) {
+            return;
+        }
+        try {
+            intake.close();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new BankDBException("Interrupted while storing applications.", interrupted);
+        }
+    }
+
+    /**
+     * Removes and returns the submitted applications that the intake could not
+     * store since the previous call.
+     *
+     * @return The applications that could not be stored.
+     */
+    @Override
+    public List<ApplicationDTO> takeFailedApplications() {
+        if (intake == null) {
+            return new ArrayList<>();
+        }
+        return intake.takeFailed();
+    }
+
+    /**
+     * Claims the next applications waiting for an audition, in order of the date of
+     * the lesson's first upcoming timeslot and then in order of submission. The
+     * claimed applications are assigned to the specified instructor for
+     * <code>bankdb.audition.leaseMinutes</code> minutes (default 60), after which an
+     * application whose result is not recorded can be claimed again. Applications
+     * being claimed by other instructors at the same time are skipped instead of
+     * waited for, so instructors never block each other.
+     *
+     * @param instructorId The instructor reviewing the claimed applications.
+     * @param pageSize     The maximum number of applications to claim.
+     * @return The claimed applications.
+     * @throws BankDBException If failed to claim applications.
+     */
+    @Override
+    public List<Application> claimAuditions(int instructorId, int pageSize)
+            throws BankDBException {
+        String failureMsg = "Could not claim auditions for instructor " + instructorId;
+        List<Application> applications = new ArrayList<>();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ConnectionSet conns = borrow();
+        try {
+            conns.findAuditionsStmt.setTimestamp(1, new Timestamp(now.getTime()
+                                                                  - auditionLeaseMillis));
+            conns.findAuditionsStmt.setInt(2, pageSize);
+            try (ResultSet result = conns.findAuditionsStmt.executeQuery()) {
+                while (result.next()) {
+                    Application application = new Application(
+                        result.getInt(APPLICATION_LESSON_ID),
+                        result.getInt(APPLICATION_STUDENT_ID),
+                        result.getString(APPLICATION_SKILL), true,
+                        result.getBoolean(APPLICATION_SAVE),
+                        result.getDate(APPLICATION_AUDITION_DUE).toLocalDate());
+                    applications.add(application);
+                    conns.claimAuditionStmt.setInt(1, instructorId);
+                    conns.claimAuditionStmt.setTimestamp(2, now);
+                    conns.claimAuditionStmt.setInt(3, application.getLessonId());
+                    conns.claimAuditionStmt.setInt(4, application.getStudentId());
+                    conns.claimAuditionStmt.addBatch();
+                }
+            }
+            if (!applications.isEmpty()) {
+                conns.claimAuditionStmt.executeBatch();
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            try {
+                conns.claimAuditionStmt.clearBatch();
+            } catch (SQLException clearFailed) {
+                sqle.addSuppressed(clearFailed);
+            }
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return applications;
+    }
+
+    /**
+     * Records the result of an audition claimed by the specified instructor. A
+     * student who passed is enrolled into the lesson in the same transaction, so
+     * nothing is recorded if the lesson is full.
+     *
+     * @param instructorId The instructor who held the audition.
+     * @param lessonId     The lesson applied to.
+     * @param studentId    The auditioned student.
+     * @param passed       <code>true</code> if the student passed the audition.
+     * @return <code>true</code> if the result was recorded, <code>false</code> if
+     *         the student passed but the lesson is full.
+     * @throws RejectedException If the application is not claimed by the instructor,
+     *                           its result is already recorded, or the student who
+     *                           passed is already enrolled into the lesson.
+     * @throws BankDBException   If failed to record the result.
+     */
+    @Override
+    public boolean recordAudition(int instructorId, int lessonId, int studentId,
+                                               boolean passed)
+            throws BankDBException, RejectedException {
+        String failureMsg = "Could not record the audition of student " + studentId;
+        ConnectionSet conns = borrow();
+        try {
+            conns.recordAuditionStmt.setBoolean(1, passed);
+            conns.recordAuditionStmt.setInt(2, lessonId);
+            conns.recordAuditionStmt.setInt(3, studentId);
+            conns.recordAuditionStmt.setInt(4, instructorId);
+            if (conns.recordAuditionStmt.executeUpdate() != 1) {
+                conns.connection.rollback();
+                throw new RejectedException("Instructor " + instructorId + " has no pending"
+                                            + " audition of student " + studentId
+                                            + " for lesson " + lessonId);
+            }
+            if (passed && !enroll(conns, lessonId, studentId, failureMsg)) {
+                return false;
+            }
+            conns.connection.commit();
+            conns.router.writeCommitted();
+            return true;
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return false;
+    }
+
+    /**
+     * Loads the timeslots attended by each student during the specified month. The
+     * attended timeslots are streamed from the database, ordered by student.
+     *
+     * @param month The month.
+     * @return The payments of the attended timeslots, which are not yet computed.
+     * @throws BankDBException If failed to load the attended timeslots.
+     */
+    @Override
+    public StudentPayments findAttendedTimeslots(YearMonth month)
+            throws BankDBException {
+        String failureMsg = "Could not load the attended timeslots of " + month;
+        StudentPayments payments = new StudentPayments();
+        ConnectionSet conns = borrow();
+        try {
+            conns.findAttendedTimeslotsStmt.setDate(1, Date.valueOf(month.atDay(1)));
+            conns.findAttendedTimeslotsStmt.setDate(2, Date.valueOf(month.plusMonths(1).atDay(1)));
+            try (ResultSet result = conns.findAttendedTimeslotsStmt.executeQuery()) {
+                while (result.next()) {
+                    payments.addAttendance(result.getInt(STUDENT_LIST_STUDENT_ID),
+                                           result.getInt(TIMESLOT_PK),
+                                           result.getString(LESSON_LEVEL));
+                }
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return payments;
+    }
+
+    /**
+     * @return The cost of a lesson at each level.
+     * @throws BankDBException If failed to load the lesson costs.
+     */
+    @Override
+    public Map<String, Integer> findLessonCosts() throws BankDBException {
+        String failureMsg = "Could not load the lesson costs.";
+        Map<String, Integer> lessonCosts = new HashMap<>();
+        ConnectionSet conns = borrow();
+        try {
+            try (ResultSet result = conns.findLessonCostsStmt.executeQuery()) {
+                while (result.next()) {
+                    lessonCosts.put(result.getString(LESSON_COSTS_LEVEL),
+                                    result.getInt(LESSON_COSTS_COST));
+                }
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return lessonCosts;
+    }
+
+    /**
+     * @return The students that have siblings at the school, indexed by student id.
+     * @throws BankDBException If failed to load the students.
+     */
+    @Override
+    public BitSet findStudentsWithSiblings() throws BankDBException {
+        String failureMsg = "Could not load the students with siblings.";
+        BitSet withSiblings = new BitSet();
+        ConnectionSet conns = borrow();
+        try {
+            try (ResultSet result = conns.findStudentsWithSiblingsStmt.executeQuery()) {
+                while (result.next()) {
+                    withSiblings.set(result.getInt(STUDENT_PK));
+                }
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return withSiblings;
+    }
+
+    /**
+     * Replaces all student payments of the specified month with the specified
+     * payments. The payments are inserted in batches, and are committed together.
+     * Each payment refers to the newest row of <code>extra_costs</code>.
+     *
+     * @param month    The month.
+     * @param payments The computed payments of the month.
+     * @throws BankDBException If failed to store the payments. No payment is then
+     *                         changed.
+     */
+    @Override
+    public void storeStudentPayments(YearMonth month, StudentPayments payments)
+            throws BankDBException {
+        String failureMsg = "Could not store the student payments of " + month;
+        ConnectionSet conns = borrow();
+        try {
+            Integer costId = findCurrentExtraCostsId(conns);
+            conns.deleteStudentPaymentsStmt.setDate(1, Date.valueOf(month.atDay(1)));
+            conns.deleteStudentPaymentsStmt.setDate(2, Date.valueOf(month.plusMonths(1).atDay(1)));
+            conns.deleteStudentPaymentsStmt.executeUpdate();
+            for (int payment = 0; payment < payments.size(); payment++) {
+                conns.createStudentPaymentStmt.setInt(1, payments.getStudentId(payment));
+                conns.createStudentPaymentStmt.setInt(2, payments.getTimeslotId(payment));
+                conns.createStudentPaymentStmt.setInt(3, payments.getCost(payment));
+                conns.createStudentPaymentStmt.setDouble(4, payments.getDiscount(payment));
+                if (costId == null) {
+                    conns.createStudentPaymentStmt.setNull(5, Types.INTEGER);
+                } else {
+                    conns.createStudentPaymentStmt.setInt(5, costId);
+                }
+                conns.createStudentPaymentStmt.setString(6, payments.getLevel(payment));
+                conns.createStudentPaymentStmt.addBatch();
+                if ((payment + 1) % PAYMENT_BATCH_SIZE == 0) {
+                    conns.createStudentPaymentStmt.executeBatch();
+                }
+            }
+            conns.createStudentPaymentStmt.executeBatch();
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            try {
+                conns.createStudentPaymentStmt.clearBatch();
+            } catch (SQLException clearFailed) {
+                sqle.addSuppressed(clearFailed);
+            }
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    /**
+     * Loads the timeslots delivered by each instructor during the specified month,
+     * and the instructor payments already stored for that month. The delivered
+     * timeslots are streamed from the database, ordered by instructor. Only
+     * timeslots before today are delivered.
+     *
+     * @param month The month.
+     * @return The payroll of the month, which is not yet computed.
+     * @throws BankDBException If failed to load the payroll.
+     */
+    @Override
+    public InstructorPayroll findInstructorPayroll(YearMonth month)
+            throws BankDBException {
+        String failureMsg = "Could not load the instructor payroll of " + month;
+        InstructorPayroll payroll = new InstructorPayroll();
+        Date firstDay = Date.valueOf(month.atDay(1));
+        Date firstDayOfNextMonth = Date.valueOf(month.plusMonths(1).atDay(1));
+        ConnectionSet conns = borrow();
+        try {
+            conns.findDeliveredTimeslotsStmt.setDate(1, firstDay);
+            conns.findDeliveredTimeslotsStmt.setDate(2, firstDayOfNextMonth);
+            try (ResultSet result = conns.findDeliveredTimeslotsStmt.executeQuery()) {
+                while (result.next()) {
+                    payroll.addDelivered(result.getInt(LESSON_INSTRUCTOR_ID),
+                                         result.getInt(TIMESLOT_PK),
+                                         result.getString(LESSON_LEVEL));
+                }
+            }
+            conns.findStoredInstructorPaymentsStmt.setDate(1, firstDay);
+            conns.findStoredInstructorPaymentsStmt.setDate(2, firstDayOfNextMonth);
+            try (ResultSet result = conns.findStoredInstructorPaymentsStmt.executeQuery()) {
+                while (result.next()) {
+                    payroll.addStored(result.getInt(INSTRUCTOR_PAYMENT_INSTRUCTOR_ID),
+                                      result.getInt(INSTRUCTOR_PAYMENT_TIMESLOT_ID),
+                                      result.getInt(INSTRUCTOR_PAYMENT_PAYMENT),
+                                      result.getString(INSTRUCTOR_PAYMENT_LESSON_COST));
+                }
+            }
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+        return payroll;
+    }
+
+    /**
+     * Writes the payments of the specified payroll that differ from the stored
+     * payments. Added and changed payments are upserted, and payments of timeslots
+     * no longer delivered are deleted, in batches and in one transaction. Storing
+     * a payroll that has not changed writes nothing.
+     *
+     * @param payroll The computed payroll.
+     * @throws BankDBException If failed to store the payroll. No payment is then
+     *                         changed.
+     */
+    @Override
+    public void storeInstructorPayroll(InstructorPayroll payroll)
+            throws BankDBException {
+        String failureMsg = "Could not store the instructor payroll.";
+        ConnectionSet conns = borrow();
+        try {
+            Integer costId = findCurrentExtraCostsId(conns);
+            int batched = 0;
+            for (int row = 0; row < payroll.size(); row++) {
+                if (!payroll.isChanged(row)) {
+                    continue;
+                }
+                conns.upsertInstructorPaymentStmt.setInt(1, payroll.getInstructorId(row));
+                conns.upsertInstructorPaymentStmt.setInt(2, payroll.getTimeslotId(row));
+                conns.upsertInstructorPaymentStmt.setInt(3, payroll.getPayment(row));
+                if (costId == null) {
+                    conns.upsertInstructorPaymentStmt.setNull(4, Types.INTEGER);
+                } else {
+                    conns.upsertInstructorPaymentStmt.setInt(4, costId);
+                }
+                conns.upsertInstructorPaymentStmt.setString(5, payroll.getLevel(row));
+                conns.upsertInstructorPaymentStmt.addBatch();
+                if (++batched % PAYMENT_BATCH_SIZE == 0) {
+                    conns.upsertInstructorPaymentStmt.executeBatch();
+                }
+            }
+            conns.upsertInstructorPaymentStmt.executeBatch();
+            for (int removed = 0; removed < payroll.getRemovedCount(); removed++) {
+                conns.deleteInstructorPaymentStmt.setInt(1,
+                                                         payroll.getRemovedInstructorId(removed));
+                conns.deleteInstructorPaymentStmt.setInt(2, payroll.getRemovedTimeslotId(removed));
+                conns.deleteInstructorPaymentStmt.addBatch();
+            }
+            conns.deleteInstructorPaymentStmt.executeBatch();
+            conns.connection.commit();
+        } catch (SQLException sqle) {
+            try {
+                conns.upsertInstructorPaymentStmt.clearBatch();
+                conns.deleteInstructorPaymentStmt.clearBatch();
+            } catch (SQLException clearFailed) {
+                sqle.addSuppressed(clearFailed);
+            }
+            handleException(conns, failureMsg, sqle);
+        } finally {
+            giveBack(conns);
+        }
+    }
+
+    private void connectToBankDB() throws ClassNotFoundException, SQLException {
+        ConnectionFactory defaultDb = new ConnectionFactory(DEFAULT_URL, DEFAULT_USER,
+                                                            DEFAULT_PASSWORD);
+        mainDb = ConnectionFactory.fromProperties(DB_PROPERTY_PREFIX, defaultDb);
+        int shardCount = Integer.getInteger(SHARD_COUNT_PROPERTY, 1);
+        for (int shardNo = 0; shardNo < shardCount; shardNo++) {
+            shardDbs.add(ConnectionFactory.fromProperties(shardPropertyPrefix(shardNo), mainDb));
+        }
+        dialect = shardDbs.get(0).getDialect();
+        if (shardCount > 1) {
+            shardExecutor = Executors.newFixedThreadPool(shardCount * poolSize, task -> {
+                Thread thread = new Thread(task, "account-shard-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private String shardPropertyPrefix(int shardNo) {
+        return shardNo == 0 ? DB_PROPERTY_PREFIX : SHARD_PROPERTY_PREFIX + shardNo;
+    }
+
+    private void migrateSchema() throws SQLException, IOException {
+        for (ConnectionFactory shardDb : shardDbs) {
+            try (Connection conn = shardDb.open()) {
+                new SchemaMigrator(conn, shardDb.getDialect()).migrate();
+            }
+        }
+    }
+
+    private void openConnectionSets() throws SQLException {
+        List<ThreadLocal<String>> writePositions = new ArrayList<>();
+        for (int shardNo = 0; shardNo < shardDbs.size(); shardNo++) {
+            writePositions.add(ReplicaRouter.newWritePositions());
+        }
+        for (int set = 0; set < poolSize; set++) {
+            List<AccountShard> shards = new ArrayList<>();
+            for (int shardNo = 0; shardNo < shardDbs.size(); shardNo++) {
+                shards.add(openShard(shardNo, shardDbs.get(shardNo),
+                                     shardPropertyPrefix(shardNo),
+                                     writePositions.get(shardNo)));
+            }
+            idleConnections.add(new ConnectionSet(shards));
+        }
+    }
+
+    /**
+     * Borrows a connection set, waiting until one is given back if all are
+     * borrowed. The set must be given back with <code>giveBack</code>.
+     */
+    private ConnectionSet borrow() throws BankDBException {
+        try {
+            return idleConnections.take();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new BankDBException("Interrupted while waiting for a database connection.",
+                                      interrupted);
+        }
+    }
+
+    private void giveBack(ConnectionSet conns) {
+        idleConnections.add(conns);
+    }
+
+    private void startArchiver() throws SQLException {
+        Integer afterDays = Integer.getInteger(ARCHIVE_PROPERTY_PREFIX + "afterDays");
+        if (afterDays == null) {
+            return;
+        }
+        int chunkSize = Integer.getInteger(ARCHIVE_PROPERTY_PREFIX + "chunkSize",
+                                           DEFAULT_ARCHIVE_CHUNK_SIZE);
+        long intervalMinutes = Long.getLong(ARCHIVE_PROPERTY_PREFIX + "intervalMinutes",
+                                            DEFAULT_ARCHIVE_INTERVAL_MINUTES);
+        archiver = new RentalArchiver(mainDb.open(), dialect, afterDays, chunkSize);
+        archiver.start(intervalMinutes);
+    }
+
+    private synchronized ApplicationIntake startIntake() throws SQLException {
+        if (intake == null) {
+            int capacity = Integer.getInteger(INTAKE_PROPERTY_PREFIX + "capacity",
+                                              DEFAULT_INTAKE_CAPACITY);
+            int batchSize = Integer.getInteger(INTAKE_PROPERTY_PREFIX + "batchSize",
+                                               DEFAULT_INTAKE_BATCH_SIZE);
+            intake = new ApplicationIntake(mainDb.open(), dialect, capacity, batchSize);
+            intake.start();
+        }
+        return intake;
+    }
+
+    private AccountShard openShard(int shardNo, ConnectionFactory shardDb, String prefix,
+                                   ThreadLocal<String> writePositions) throws SQLException {
+        Connection conn = shardDb.open();
+        Connection replicaConn = null;
+        String replicaPrefix = prefix + REPLICA_PROPERTY_SUFFIX;
+        if (ConnectionFactory.fromProperties(replicaPrefix, null) != null) {
+            replicaConn = ConnectionFactory.fromProperties(replicaPrefix, shardDb).open();
+        }
+        long maxStalenessMillis = Long.getLong(replicaPrefix + ".maxStalenessMillis",
+                                               DEFAULT_MAX_STALENESS_MILLIS);
+        ReplicaRouter shardRouter = new ReplicaRouter(conn, replicaConn, maxStalenessMillis,
+                                                      writePositions);
+        boolean withRentals = shardNo == 0;
+        ReadStatements primaryReads = prepareReadStatements(conn, shardDb.getDialect(),
+                                                             withRentals);
+        ReadStatements replicaReads = null;
+        if (replicaConn != null) {
+            replicaReads = prepareReadStatements(replicaConn, shardDb.getDialect(), withRentals);
+        }
+
+        PreparedStatement findOrCreateHolder = shardDb.getDialect().prepareFindOrInsert(conn,
+            HOLDER_TABLE_NAME, HOLDER_COLUMN_NAME, HOLDER_PK_COLUMN_NAME);
+
+        PreparedStatement createAccount = conn.prepareStatement("INSERT INTO "
+            + ACCT_TABLE_NAME + "(" + ACCT_NO_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + ", "
+            + HOLDER_FK_COLUMN_NAME + ") VALUES (?, ?, ?)");
+
+        PreparedStatement changeBalance = conn.prepareStatement("UPDATE " + ACCT_TABLE_NAME
+            + " SET " + BALANCE_COLUMN_NAME + " = ? WHERE " + ACCT_NO_COLUMN_NAME + " = ? ");
+
+        PreparedStatement addToBalance = conn.prepareStatement("UPDATE " + ACCT_TABLE_NAME
+            + " SET " + BALANCE_COLUMN_NAME + " = " + BALANCE_COLUMN_NAME + " + ? WHERE "
+            + ACCT_NO_COLUMN_NAME + " = ? AND " + BALANCE_COLUMN_NAME + " + ? >= 0");
+
+        PreparedStatement deleteAccount = conn.prepareStatement("DELETE FROM "
+            + ACCT_TABLE_NAME + " WHERE " + ACCT_NO_COLUMN_NAME + " = ?");
+
+        PreparedStatement deleteUnusedHolder = conn.prepareStatement("DELETE FROM "
+            + HOLDER_TABLE_NAME + " WHERE " + HOLDER_COLUMN_NAME + " = ? AND NOT EXISTS (SELECT 1"
+            + " FROM " + ACCT_TABLE_NAME + " a WHERE a." + HOLDER_FK_COLUMN_NAME + " = "
+            + HOLDER_TABLE_NAME + "." + HOLDER_PK_COLUMN_NAME + ")");
+
+        return new AccountShard(shardNo, shardDb.getDialect(), shardRouter, primaryReads,
+                                replicaReads, findOrCreateHolder, createAccount,
+                                changeBalance, addToBalance, deleteAccount,
+                                deleteUnusedHolder);
+    }
+
+    private ReadStatements prepareReadStatements(Connection conn, SqlDialect connDialect,
+                                                 boolean withRentals) throws SQLException {
+        PreparedStatement findAccountByAcctNo = conn.prepareStatement("SELECT a."
+            + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME
+            + " from " + ACCT_TABLE_NAME + " a INNER JOIN " + HOLDER_TABLE_NAME + " h ON a."
+            + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE a."
+            + ACCT_NO_COLUMN_NAME + " = ?");
+
+        PreparedStatement findAccountByName = conn.prepareStatement("SELECT a."
+            + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME
+            + " from " + ACCT_TABLE_NAME + " a INNER JOIN "
+            + HOLDER_TABLE_NAME + " h ON a." + HOLDER_FK_COLUMN_NAME
+            + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE h." + HOLDER_COLUMN_NAME + " = ?");
+
+        PreparedStatement findAllAccounts = conn.prepareStatement("SELECT h."
+            + HOLDER_COLUMN_NAME + ", a." + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME
+            + " FROM " + HOLDER_TABLE_NAME + " h INNER JOIN " + ACCT_TABLE_NAME + " a ON a."
+            + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME);
+
+        PreparedStatement findAccountsAfter = conn.prepareStatement("SELECT h."
+            + HOLDER_COLUMN_NAME + ", a." + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME
+            + " FROM " + HOLDER_TABLE_NAME + " h INNER JOIN " + ACCT_TABLE_NAME + " a ON a."
+            + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE a."
+            + ACCT_NO_COLUMN_NAME + " > ? ORDER BY a." + ACCT_NO_COLUMN_NAME + " LIMIT ?");
+
+        PreparedStatement findRentalListType = null;
+        if (withRentals) {
+            findRentalListType = conn.prepareStatement("SELECT rg."
+                + RENTING_INSTRUMENT_NAME + ", rg." + RENTING_RENTAL_COST + " from "
+                + RENTING_TABLE_NAME + " rg " + "WHERE rg." + RENTING_AVAILABLE_AMOUNT
+                + " > 0 AND " + RENTING_INSTRUMENT_TYPE + " = ? ");
+        }
+
+        return new ReadStatements(conn, findAccountByAcctNo, findAccountByName,
+                                  findAllAccounts, findAccountsAfter, findRentalListType);
+    }
+
+    private boolean hasSeatLimit(ConnectionSet conns, int lessonId) throws SQLException {
+        conns.findSeatStmt.setInt(1, lessonId);
+        try (ResultSet result = conns.findSeatStmt.executeQuery()) {
+            return result.next();
+        }
+    }
+
+    private Integer findCurrentExtraCostsId(ConnectionSet conns) throws SQLException {
+        try (ResultSet result = conns.findCurrentExtraCostsStmt.executeQuery()) {
+            if (result.next()) {
+                int costId = result.getInt(1);
+                if (!result.wasNull()) {
+                    return costId;
+                }
+            }
+            return null;
+        }
+    }
+
+    private AccountShard shardFor(ConnectionSet conns, String acctNo) {
+        return conns.shards.get(shardNo(acctNo));
+    }
+
+    private int shardNo(String acctNo) {
+        if (shardDbs.size() == 1) {
+            return 0;
+        }
+        CRC32 hash = new CRC32();
+        hash.update(acctNo.getBytes(StandardCharsets.UTF_8));
+        return (int)(hash.getValue() % shardDbs.size());
+    }
+
+    /**
+     * Records and commits that the holder has accounts in the specified shard. Must
+     * be called after the account is written to the shard, but before that write is
+     * committed, so that a failure to register rolls back the account, and no
+     * holder is registered in a shard where the account was never written.
+     */
+    private void registerHolderShard(ConnectionSet conns, String holderName, AccountShard shard)
+            throws SQLException {
+        if (conns.shards.size() == 1) {
+            return;
+        }
+        conns.registerHolderShardStmt.setString(1, holderName);
+        conns.registerHolderShardStmt.setInt(2, shard.getShardNo());
+        conns.registerHolderShardStmt.executeUpdate();
+        conns.connection.commit();
+    }
+
+    private List<AccountShard> findHolderShards(ConnectionSet conns, String holderName)
+            throws SQLException {
+        if (conns.shards.size() == 1) {
+            return conns.shards;
+        }
+        List<AccountShard> holderShards = new ArrayList<>();
+        conns.findHolderShardsStmt.setString(1, holderName);
+        try (ResultSet result = conns.findHolderShardsStmt.executeQuery()) {
+            while (result.next()) {
+                holderShards.add(conns.shards.get(result.getInt(HOLDER_SHARD_NO_COLUMN_NAME)));
+            }
+        }
+        conns.connection.commit();
+        return holderShards;
+    }
+
+    private void storeAccount(ConnectionSet conns, AccountShard shard, String acctNo,
+                              String holderName, int balance, String failureMsg)
+            throws SQLException, BankDBException {
+        shard.getFindOrCreateHolderStmt().setString(1, holderName);
+        int holderPK = shard.getDialect().executeReturningKey(shard.getFindOrCreateHolderStmt());
+        shard.getCreateAccountStmt().setString(1, acctNo);
+        shard.getCreateAccountStmt().setInt(2, balance);
+        shard.getCreateAccountStmt().setInt(3, holderPK);
+        if (shard.getCreateAccountStmt().executeUpdate() != 1) {
+            handleException(conns, failureMsg, null);
+        }
+    }
+
+    /**
+     * Runs the specified query in all the specified shards, in parallel if there is
+     * more than one. The answer of each shard is merged into the returned list as
+     * soon as that shard has answered.
+     */
+    private List<Account> queryShards(List<AccountShard> targets, ShardQuery query)
+            throws SQLException {
+        if (targets.size() == 1) {
+            return query.execute(targets.get(0));
+        }
+        CompletionService<List<Account>> answers =
+            new ExecutorCompletionService<>(shardExecutor);
+        for (AccountShard target : targets) {
+            answers.submit(() -> query.execute(target));
+        }
+        List<Account> accounts = new ArrayList<>();
+        SQLException failure = null;
+        for (int i = 0; i < targets.size(); i++) {
+            try {
+                accounts.addAll(answers.take().get());
+            } catch (ExecutionException exc) {
+                if (failure == null) {
+                    failure = new SQLException("Shard query failed.", exc.getCause());
+                }
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new SQLException("Interrupted while querying shards.", exc);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return accounts;
+    }
+
+    /**
+     * A query that is executed in one shard.
+     */
+    private interface ShardQuery {
+        List<Account> execute(AccountShard shard) throws SQLException;
+    }
+
+    /**
+     * An account kept in memory, until it is changed or its time to live has passed.
+     */
+    private static class CachedAccount {
+        private final Account account;
+        private final long expiresAtMillis;
+
+        CachedAccount(Account account, long expiresAtMillis) {
+            this.account = account;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * One connection to each database, with the statements prepared on them. A
+     * set is used by one call at a time, which is why its statements can be
+     * reused without synchronization.
+     */
+    private static class ConnectionSet {
+        private final List<AccountShard> shards;
+        private final Connection connection;
+        private final ReplicaRouter router;
+        private final ReportAggregates reports;
+        private final PreparedStatement registerHolderShardStmt;
+        private final PreparedStatement deleteHolderShardStmt;
+        private final PreparedStatement findHolderShardsStmt;
+        private final PreparedStatement findRentalName;
+        private final PreparedStatement findRentalIDNameStmt;
+        private final PreparedStatement findRentalRecordsStmt;
+        private final PreparedStatement findAttendedTimeslotsStmt;
+        private final PreparedStatement findLessonCostsStmt;
+        private final PreparedStatement findStudentsWithSiblingsStmt;
+        private final PreparedStatement findCurrentExtraCostsStmt;
+        private final PreparedStatement deleteStudentPaymentsStmt;
+        private final PreparedStatement createStudentPaymentStmt;
+        private final PreparedStatement findDeliveredTimeslotsStmt;
+        private final PreparedStatement findStoredInstructorPaymentsStmt;
+        private final PreparedStatement upsertInstructorPaymentStmt;
+        private final PreparedStatement deleteInstructorPaymentStmt;
+        private final PreparedStatement findInstructorsStmt;
+        private final PreparedStatement findFutureTimeslotsStmt;
+        private final PreparedStatement findTeachersStmt;
+        private final PreparedStatement findAvailabilityStmt;
+        private final PreparedStatement bookAvailabilityStmt;
+        private final PreparedStatement bookTimeslotStmt;
+        private final PreparedStatement findRentalRecordsWithHistoryStmt;
+        private final PreparedStatement findRemainingSeatsStmt;
+        private final PreparedStatement createEnrollmentStmt;
+        private final PreparedStatement takeSeatStmt;
+        private final PreparedStatement findSeatStmt;
+        private final PreparedStatement findAuditionsStmt;
+        private final PreparedStatement findRentalCatalogStmt;
+        private final PreparedStatement findStudentsByNamePrefixStmt;
+        private final PreparedStatement lockBrandStmt;
+        private final CallableStatement rentInstrumentStmt;
+        private final CallableStatement returnInstrumentStmt;
+        private final PreparedStatement joinWaitlistStmt;
+        private final PreparedStatement findStudentsByNamePartStmt;
+        private final PreparedStatement claimAuditionStmt;
+        private final PreparedStatement recordAuditionStmt;
+        private final PreparedStatement recountActiveRentalsStmt;
+
+        ConnectionSet(List<AccountShard> shards) throws SQLException {
+            this.shards = shards;
+            connection = shards.get(0).getConnection();
+            router = shards.get(0).getRouter();
+            SqlDialect dialect = shards.get(0).getDialect();
+
+            registerHolderShardStmt = connection.prepareStatement(dialect.insertIgnoringDuplicates(
+                HOLDER_SHARD_TABLE_NAME, HOLDER_SHARD_NAME_COLUMN_NAME,
+                HOLDER_SHARD_NO_COLUMN_NAME));
+
+            deleteHolderShardStmt = connection.prepareStatement("DELETE FROM "
+                + HOLDER_SHARD_TABLE_NAME + " WHERE " + HOLDER_SHARD_NAME_COLUMN_NAME + " = ? AND "
+                + HOLDER_SHARD_NO_COLUMN_NAME + " = ?");
+
+            findHolderShardsStmt = connection.prepareStatement("SELECT "
+                + HOLDER_SHARD_NO_COLUMN_NAME + " FROM " + HOLDER_SHARD_TABLE_NAME + " WHERE "
+                + HOLDER_SHARD_NAME_COLUMN_NAME + " = ?");
+
+            findRentalName = connection.prepareStatement("SELECT rg."+ RENTING_INSTRUMENT_NAME
+                +", rg." + RENTING_AVAILABLE_AMOUNT +", rg." +RENTING_PK + " from "
+                + RENTING_TABLE_NAME+ " rg "+ "WHERE rg."+RENTING_INSTRUMENT_NAME + " = ? "
+            );
+
+            findRentalIDNameStmt = connection.prepareStatement("SELECT "+ RENTING_PK
+                +" from " + RENTING_TABLE_NAME + " WHERE rg."+RENTING_INSTRUMENT_NAME + " = ? "
+            );
+
+            recountActiveRentalsStmt = connection.prepareStatement("UPDATE " + STUDENT_TABLE_NAME
+                + " s SET " + STUDENT_ACTIVE_RENTALS + " = (SELECT COUNT(*) FROM "
+                + RENTED_TABLE_NAME + " r WHERE r." + RENTED_STUDENT_ID + " = s." + STUDENT_PK
+                + " AND r." + RENTED_CURRENTLY_RENTING + " = B'1')");
+
+            reports = new ReportAggregates(connection);
+
+            findAttendedTimeslotsStmt = dialect.prepareStreamingQuery(connection, "SELECT sl."
+                + STUDENT_LIST_STUDENT_ID + ", t." + TIMESLOT_PK + ", l." + LESSON_LEVEL + " FROM "
+                + STUDENT_LIST_TABLE_NAME + " sl INNER JOIN " + TIMESLOT_TABLE_NAME + " t ON t."
+                + TIMESLOT_LESSON_ID + " = sl." + STUDENT_LIST_LESSON_ID + " INNER JOIN "
+                + LESSON_TABLE_NAME + " l ON l." + LESSON_PK + " = sl." + STUDENT_LIST_LESSON_ID
+                + " WHERE t." + TIMESLOT_DATE + " >= ? AND t." + TIMESLOT_DATE + " < ? ORDER BY sl."
+                + STUDENT_LIST_STUDENT_ID + ", t." + TIMESLOT_PK, PAYMENT_FETCH_SIZE);
+
+            findLessonCostsStmt = connection.prepareStatement("SELECT " + LESSON_COSTS_LEVEL + ", "
+                + LESSON_COSTS_COST + " FROM " + LESSON_COSTS_TABLE_NAME);
+
+            findStudentsWithSiblingsStmt = connection.prepareStatement("SELECT " + STUDENT_PK
+                + " FROM " + STUDENT_TABLE_NAME + " WHERE " + STUDENT_SIBLINGS + " = B'1'");
+
+            findCurrentExtraCostsStmt = connection.prepareStatement("SELECT MAX(" + EXTRA_COSTS_PK
+                + ") FROM " + EXTRA_COSTS_TABLE_NAME);
+
+            deleteStudentPaymentsStmt = connection.prepareStatement("DELETE FROM "
+                + STUDENT_PAYMENT_TABLE_NAME + " WHERE " + STUDENT_PAYMENT_TIMESLOT_ID + " IN (SELECT "
+                + TIMESLOT_PK + " FROM " + TIMESLOT_TABLE_NAME + " WHERE " + TIMESLOT_DATE
+                + " >= ? AND " + TIMESLOT_DATE + " < ?)");
+
+            createStudentPaymentStmt = connection.prepareStatement("INSERT INTO "
+                + STUDENT_PAYMENT_TABLE_NAME + " (" + STUDENT_PAYMENT_STUDENT_ID + ", "
+                + STUDENT_PAYMENT_TIMESLOT_ID + ", " + STUDENT_PAYMENT_COSTS + ", "
+                + STUDENT_PAYMENT_DISCOUNT + ", " + STUDENT_PAYMENT_COST_ID + ", "
+                + STUDENT_PAYMENT_LESSON_COST + ") VALUES (?, ?, ?, ?, ?, ?)");
+
+            String timeslotInstructor = "COALESCE(t." + TIMESLOT_INSTRUCTOR_ID + ", l."
+                + LESSON_INSTRUCTOR_ID + ")";
+            findDeliveredTimeslotsStmt = dialect.prepareStreamingQuery(connection, "SELECT "
+                + timeslotInstructor + " AS " + LESSON_INSTRUCTOR_ID + ", t." + TIMESLOT_PK
+                + ", l." + LESSON_LEVEL + " FROM " + TIMESLOT_TABLE_NAME + " t INNER JOIN "
+                + LESSON_TABLE_NAME + " l ON l." + LESSON_PK + " = t." + TIMESLOT_LESSON_ID
+                + " WHERE " + timeslotInstructor + " IS NOT NULL AND t." + TIMESLOT_DATE
+                + " >= ? AND t." + TIMESLOT_DATE + " < ? AND t." + TIMESLOT_DATE + " < "
+                + CURRENT_DATE + " ORDER BY " + LESSON_INSTRUCTOR_ID + ", t." + TIMESLOT_PK,
+                PAYMENT_FETCH_SIZE);
+
+            findStoredInstructorPaymentsStmt = connection.prepareStatement("SELECT ip."
+                + INSTRUCTOR_PAYMENT_INSTRUCTOR_ID + ", ip." + INSTRUCTOR_PAYMENT_TIMESLOT_ID
+                + ", ip." + INSTRUCTOR_PAYMENT_PAYMENT + ", ip." + INSTRUCTOR_PAYMENT_LESSON_COST
+                + " FROM " + INSTRUCTOR_PAYMENT_TABLE_NAME + " ip INNER JOIN " + TIMESLOT_TABLE_NAME
+                + " t ON t." + TIMESLOT_PK + " = ip." + INSTRUCTOR_PAYMENT_TIMESLOT_ID + " WHERE t."
+                + TIMESLOT_DATE + " >= ? AND t." + TIMESLOT_DATE + " < ?");
+
+            upsertInstructorPaymentStmt = connection.prepareStatement(dialect.upsert(
+                INSTRUCTOR_PAYMENT_TABLE_NAME,
+                new String[] {INSTRUCTOR_PAYMENT_INSTRUCTOR_ID, INSTRUCTOR_PAYMENT_TIMESLOT_ID},
+                INSTRUCTOR_PAYMENT_PAYMENT, INSTRUCTOR_PAYMENT_COST_ID,
+                INSTRUCTOR_PAYMENT_LESSON_COST));
+
+            deleteInstructorPaymentStmt = connection.prepareStatement("DELETE FROM "
+                + INSTRUCTOR_PAYMENT_TABLE_NAME + " WHERE " + INSTRUCTOR_PAYMENT_INSTRUCTOR_ID
+                + " = ? AND " + INSTRUCTOR_PAYMENT_TIMESLOT_ID + " = ?");
+
+            findInstructorsStmt = connection.prepareStatement("SELECT i." + INSTRUCTOR_PK + ", p."
+                + PERSON_NAME + " FROM " + INSTRUCTOR_TABLE_NAME + " i INNER JOIN "
+                + PERSON_TABLE_NAME + " p ON p." + PERSON_PK + " = i." + INSTRUCTOR_PERSON_ID);
+
+            findFutureTimeslotsStmt = connection.prepareStatement("SELECT " + TIMESLOT_PK + ", "
+                + TIMESLOT_DATE + " FROM " + TIMESLOT_TABLE_NAME + " WHERE " + TIMESLOT_DATE
+                + " >= " + CURRENT_DATE);
+
+            findTeachersStmt = connection.prepareStatement("SELECT " + TEACH_INSTRUMENT_ID + ", "
+                + TEACH_INSTRUCTOR_ID + " FROM " + TEACH_INSTRUMENT_TABLE_NAME);
+
+            findAvailabilityStmt = connection.prepareStatement("SELECT " + AVAILABLE_INSTRUCTOR_ID
+                + ", " + AVAILABLE_TIMESLOT_ID + " FROM " + AVAILABLE_TABLE_NAME + " WHERE "
+                + AVAILABLE_AVAILABLE + " = B'1'");
+
+            bookAvailabilityStmt = connection.prepareStatement("UPDATE " + AVAILABLE_TABLE_NAME
+                + " SET " + AVAILABLE_AVAILABLE + " = B'0' WHERE " + AVAILABLE_INSTRUCTOR_ID
+                + " = ? AND " + AVAILABLE_TIMESLOT_ID + " = ? AND " + AVAILABLE_AVAILABLE
+                + " = B'1'");
+
+            bookTimeslotStmt = connection.prepareStatement("UPDATE " + TIMESLOT_TABLE_NAME
+                + " SET " + TIMESLOT_INSTRUCTOR_ID + " = ? WHERE " + TIMESLOT_PK + " = ? AND "
+                + TIMESLOT_INSTRUCTOR_ID + " IS NULL");
+
+            findRemainingSeatsStmt = connection.prepareStatement("SELECT " + SEAT_LESSON_ID + ", "
+                + SEAT_MAXIMUM_STUDENTS + ", " + SEAT_ENROLLED + " FROM " + SEAT_TABLE_NAME);
+
+            createEnrollmentStmt = connection.prepareStatement("INSERT INTO "
+                + STUDENT_LIST_TABLE_NAME + "(" + STUDENT_LIST_LESSON_ID + ", "
+                + STUDENT_LIST_STUDENT_ID + ") VALUES (?, ?)");
+
+            takeSeatStmt = connection.prepareStatement("UPDATE " + SEAT_TABLE_NAME + " SET "
+                + SEAT_ENROLLED + " = " + SEAT_ENROLLED + " + 1 WHERE " + SEAT_LESSON_ID
+                + " = ? AND " + SEAT_ENROLLED + " < " + SEAT_MAXIMUM_STUDENTS);
+
+            findSeatStmt = connection.prepareStatement("SELECT 1 FROM " + SEAT_TABLE_NAME
+                + " WHERE " + SEAT_LESSON_ID + " = ?");
+
+            String findStudentsByName = "SELECT s." + STUDENT_PK + ", p." + PERSON_NUMBER + ", p."
+                + PERSON_NAME + " FROM " + PERSON_TABLE_NAME + " p INNER JOIN "
+                + STUDENT_TABLE_NAME + " s ON s." + STUDENT_PERSON_ID + " = p." + PERSON_PK
+                + " WHERE ";
+            String nameIgnoringCase = dialect.ignoringCase("p." + PERSON_NAME);
+            findStudentsByNamePrefixStmt = connection.prepareStatement(findStudentsByName
+                + nameIgnoringCase + " LIKE ? ORDER BY " + nameIgnoringCase + " LIMIT ?");
+            findStudentsByNamePartStmt = connection.prepareStatement(findStudentsByName
+                + dialect.textMatch("p." + PERSON_NAME) + " LIMIT ?");
+
+            lockBrandStmt = connection.prepareStatement("SELECT " + RENTING_AVAILABLE_AMOUNT
+                + " FROM " + RENTING_TABLE_NAME + " WHERE " + RENTING_PK + " = ? FOR UPDATE");
+
+            rentInstrumentStmt = connection.prepareCall("{call " + RENT_FUNCTION
+                + "(?, ?, ?, ?, ?)}");
+            rentInstrumentStmt.registerOutParameter(4, Types.INTEGER);
+            rentInstrumentStmt.registerOutParameter(5, Types.INTEGER);
+
+            returnInstrumentStmt = connection.prepareCall("{call " + RETURN_FUNCTION
+                + "(?, ?, ?, ?, ?, ?)}");
+            returnInstrumentStmt.registerOutParameter(4, Types.INTEGER);
+            returnInstrumentStmt.registerOutParameter(5, Types.INTEGER);
+            returnInstrumentStmt.registerOutParameter(6, Types.INTEGER);
+
+            joinWaitlistStmt = connection.prepareStatement(dialect.insertIgnoringDuplicates(
+                WAITLIST_TABLE_NAME, WAITLIST_INSTRUMENT_ID, WAITLIST_STUDENT_ID));
+
+            findRentalCatalogStmt = connection.prepareStatement("SELECT " + RENTING_PK + ", "
+                + RENTING_INSTRUMENT_NAME + ", " + RENTING_INSTRUMENT_TYPE + ", "
+                + RENTING_RENTAL_COST + ", " + RENTING_AVAILABLE_AMOUNT + " FROM "
+                + RENTING_TABLE_NAME);
+
+            findAuditionsStmt = connection.prepareStatement("SELECT " + APPLICATION_LESSON_ID
+                + ", " + APPLICATION_STUDENT_ID + ", " + APPLICATION_SKILL + ", "
+                + APPLICATION_SAVE + " = B'1' AS " + APPLICATION_SAVE + ", "
+                + APPLICATION_AUDITION_DUE + " FROM " + APPLICATION_TABLE_NAME + " WHERE "
+                + APPLICATION_AUDITION_REQUIRED + " = B'1' AND " + APPLICATION_AUDITION_PASSED
+                + " IS NULL AND (" + APPLICATION_REVIEWER_ID + " IS NULL OR "
+                + APPLICATION_CLAIMED_AT + " < ?) ORDER BY " + APPLICATION_AUDITION_DUE + ", "
+                + APPLICATION_SUBMITTED_AT + " LIMIT ? FOR UPDATE SKIP LOCKED");
+
+            claimAuditionStmt = connection.prepareStatement("UPDATE " + APPLICATION_TABLE_NAME
+                + " SET " + APPLICATION_REVIEWER_ID + " = ?, " + APPLICATION_CLAIMED_AT
+                + " = ? WHERE " + APPLICATION_LESSON_ID + " = ? AND " + APPLICATION_STUDENT_ID
+                + " = ?");
+
+            recordAuditionStmt = connection.prepareStatement("UPDATE " + APPLICATION_TABLE_NAME
+                + " SET " + APPLICATION_AUDITION_PASSED + " = CASE WHEN ? THEN B'1' ELSE B'0'"
+                + " END WHERE " + APPLICATION_LESSON_ID + " = ? AND " + APPLICATION_STUDENT_ID
+                + " = ? AND " + APPLICATION_REVIEWER_ID + " = ? AND "
+                + APPLICATION_AUDITION_PASSED + " IS NULL");
+
+            String findRentalRecords = "SELECT rg." + RENTING_INSTRUMENT_NAME + ", r." + RENTED_DATE
+                + ", r." + RENTED_CLOSED_DATE + ", r." + RENTED_CURRENTLY_RENTING + " = B'1' AS "
+                + RENTED_ACTIVE + ", FALSE AS " + RENTED_ARCHIVED + " FROM " + RENTED_TABLE_NAME
+                + " r INNER JOIN " + RENTING_TABLE_NAME + " rg ON r." + RENTED_INSTRUMENT_ID
+                + " = rg." + RENTING_PK + " WHERE r." + RENTED_STUDENT_ID + " = ?";
+            String findArchivedRentalRecords = "SELECT rg." + RENTING_INSTRUMENT_NAME + ", h."
+                + RENTED_DATE + ", h." + RENTED_CLOSED_DATE + ", FALSE AS " + RENTED_ACTIVE
+                + ", TRUE AS " + RENTED_ARCHIVED + " FROM " + HISTORY_TABLE_NAME
+                + " h INNER JOIN " + RENTING_TABLE_NAME + " rg ON h." + RENTED_INSTRUMENT_ID
+                + " = rg." + RENTING_PK + " WHERE h." + RENTED_STUDENT_ID + " = ?";
+            String oldestFirst = " ORDER BY " + RENTED_DATE;
+
+            findRentalRecordsStmt = connection.prepareStatement(findRentalRecords + oldestFirst);
+
+            findRentalRecordsWithHistoryStmt = connection.prepareStatement(findRentalRecords
+                + " UNION ALL " + findArchivedRentalRecords + oldestFirst);
+        }
+    }
+    private void handleException(ConnectionSet conns, String failureMsg, Exception cause)
+            throws BankDBException {
+        String completeFailureMsg = failureMsg;
+        try {
+            for (AccountShard shard : conns.shards) {
+                shard.rollback();
+            }
+        } catch (SQLException rollbackExc) {
+            completeFailureMsg = completeFailureMsg + 
+            ". Also failed to rollback transaction because of: " + rollbackExc.getMessage();
+        }
+
+        if (cause != null) {
+            throw new BankDBException(failureMsg, cause);
+        } else {
+            throw new BankDBException(failureMsg);
+        }
+    }
+
+    private int createAccountNo() {
+        return (int)Math.floor(Math.random() * Integer.MAX_VALUE);
+    }
+}
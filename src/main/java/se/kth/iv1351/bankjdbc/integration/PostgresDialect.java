@@ -0,0 +1,354 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.postgresql.util.PSQLException;
+
+/**
+ * The PostgreSQL dialect. Keys are returned with <code>RETURNING</code>, duplicates
+ * are handled with <code>ON CONFLICT</code>, lists are bound as one array parameter
+ * and bulk loads use <code>COPY</code>.
+ */
+class PostgresDialect implements SqlDialect {
+    private static final long MIGRATION_LOCK_KEY = 1351;
+
+    @Override
+    public Properties connectionProperties() {
+        Properties props = new Properties();
+        props.setProperty("reWriteBatchedInserts", "true");
+        return props;
+    }
+
+    @Override
+    public String insertIgnoringDuplicates(String table, String... columns) {
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+            + placeholders(columns.length) + ") ON CONFLICT DO NOTHING";
+    }
+
+    @Override
+    public String insertIgnoringDuplicates(String table, String[] columns, String[] values) {
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+            + String.join(", ", values) + ") ON CONFLICT DO NOTHING";
+    }
+
+    @Override
+    public String upsert(String table, String[] keyColumns, String... valueColumns) {
+        StringBuilder updates = new StringBuilder();
+        for (String column : valueColumns) {
+            updates.append(updates.length() == 0 ? "" : ", ")
+                   .append(column).append(" = EXCLUDED.").append(column);
+        }
+        return "INSERT INTO " + table + " (" + String.join(", ", keyColumns) + ", "
+            + String.join(", ", valueColumns) + ") VALUES ("
+            + placeholders(keyColumns.length + valueColumns.length) + ") ON CONFLICT ("
+            + String.join(", ", keyColumns) + ") DO UPDATE SET " + updates;
+    }
+
+    @Override
+    public PreparedStatement prepareFindOrInsert(Connection connection, String table,
+                                                 String uniqueColumn, String keyColumn)
+            throws SQLException {
+        return connection.prepareStatement("INSERT INTO " + table + " (" + uniqueColumn
+            + ") VALUES (?) ON CONFLICT (" + uniqueColumn + ") DO UPDATE SET "
+            + uniqueColumn + " = EXCLUDED." + uniqueColumn + " RETURNING " + keyColumn);
+    }
+
+    @Override
+    public int executeReturningKey(PreparedStatement stmt) throws SQLException {
+        try (ResultSet result = stmt.executeQuery()) {
+            if (!result.next()) {
+                throw new SQLException("No key was returned.");
+            }
+            return result.getInt(1);
+        }
+    }
+
+    @Override
+    public String inList(String column, int valueCount) {
+        return column + " = ANY (?)";
+    }
+
+    @Override
+    public int bindInList(Connection connection, PreparedStatement stmt, int index,
+                          String[] values) throws SQLException {
+        stmt.setArray(index, connection.createArrayOf("varchar", values));
+        return index + 1;
+    }
+
+    @Override
+    public String ignoringCase(String column) {
+        return "lower(" + column + ") COLLATE \"C\"";
+    }
+
+    @Override
+    public String textMatch(String column) {
+        return column + " ILIKE ?";
+    }
+
+    @Override
+    public void bindTextMatch(PreparedStatement stmt, int index, String text)
+            throws SQLException {
+        stmt.setString(index, "%" + SqlDialect.escapeLike(text) + "%");
+    }
+
+    @Override
+    public String errorMessage(SQLException exception) {
+        if (exception instanceof PSQLException
+            && ((PSQLException)exception).getServerErrorMessage() != null) {
+            return ((PSQLException)exception).getServerErrorMessage().getMessage();
+        }
+        return exception.getMessage();
+    }
+
+    @Override
+    public void sendNotification(Connection connection, String channel, String payload)
+            throws SQLException {
+        try (PreparedStatement notify = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            notify.setString(1, channel);
+            notify.setString(2, payload);
+            notify.execute();
+        }
+    }
+
+    @Override
+    public void listen(Connection connection, String channel) throws SQLException {
+        try (Statement listen = connection.createStatement()) {
+            listen.execute("LISTEN " + channel);
+        }
+        connection.commit();
+    }
+
+    @Override
+    public List<String> awaitNotifications(Connection connection, int timeoutMillis)
+            throws SQLException {
+        PGNotification[] notifications = connection.unwrap(PGConnection.class)
+                                                   .getNotifications(timeoutMillis);
+        List<String> payloads = new ArrayList<>();
+        if (notifications != null) {
+            for (PGNotification notification : notifications) {
+                payloads.add(notification.getParameter());
+            }
+        }
+        return payloads;
+    }
+
+    @Override
+    public long bulkLoad(Connection connection, String table, String[] columns,
+                         InputStream csv) throws SQLException, IOException {
+        return connection.unwrap(PGConnection.class).getCopyAPI().copyIn("COPY " + table
+            + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)", csv);
+    }
+
+    /**
+     * Copies the rows into a temporary table, since a partition must exist before
+     * a row of its year is copied into the partitioned table.
+     */
+    @Override
+    public long bulkLoadByYear(Connection connection, String table, String dateColumn,
+                               String[] columns, InputStream csv)
+            throws SQLException, IOException {
+        String staging = table + "_load";
+        String columnList = String.join(", ", columns);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TEMPORARY TABLE " + staging + " (LIKE " + table + ")");
+            long rowCount = bulkLoad(connection, staging, columns, csv);
+            List<Integer> years = new ArrayList<>();
+            try (ResultSet result = stmt.executeQuery("SELECT DISTINCT CAST(EXTRACT(YEAR FROM "
+                    + dateColumn + ") AS int) FROM " + staging)) {
+                while (result.next()) {
+                    years.add(result.getInt(1));
+                }
+            }
+            for (int year : years) {
+                createYearPartition(connection, table, year);
+            }
+            stmt.executeUpdate("INSERT INTO " + table + " (" + columnList + ") SELECT "
+                               + columnList + " FROM " + staging);
+            stmt.execute("DROP TABLE " + staging);
+            return rowCount;
+        }
+    }
+
+    @Override
+    public void emptyTables(Connection connection, String... tables) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("TRUNCATE " + String.join(", ", tables));
+        }
+    }
+
+    @Override
+    public List<String> dropSecondaryIndexes(Connection connection, String table)
+            throws SQLException {
+        List<String> names = new ArrayList<>();
+        List<String> definitions = new ArrayList<>();
+        try (PreparedStatement find = connection.prepareStatement("SELECT c.relname,"
+                + " pg_get_indexdef(c.oid) FROM pg_index i INNER JOIN pg_class c ON c.oid ="
+                + " i.indexrelid WHERE i.indrelid = CAST(? AS regclass) AND NOT EXISTS (SELECT 1"
+                + " FROM pg_constraint k WHERE k.conindid = i.indexrelid)")) {
+            find.setString(1, table);
+            try (ResultSet result = find.executeQuery()) {
+                while (result.next()) {
+                    names.add(result.getString(1));
+                    // The index of a partitioned table is defined ON ONLY the table,
+                    // which would leave it without the indexes of the partitions.
+                    definitions.add(result.getString(2).replace(" ON ONLY ", " ON "));
+                }
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            for (String name : names) {
+                stmt.execute("DROP INDEX \"" + name + "\"");
+            }
+        }
+        return definitions;
+    }
+
+    @Override
+    public List<String> dropForeignKeys(Connection connection, String table)
+            throws SQLException {
+        List<String> names = new ArrayList<>();
+        List<String> definitions = new ArrayList<>();
+        try (PreparedStatement find = connection.prepareStatement("SELECT conname,"
+                + " pg_get_constraintdef(oid) FROM pg_constraint WHERE contype = 'f' AND conrelid"
+                + " = CAST(? AS regclass)")) {
+            find.setString(1, table);
+            try (ResultSet result = find.executeQuery()) {
+                while (result.next()) {
+                    names.add(result.getString(1));
+                    definitions.add("ALTER TABLE " + table + " ADD CONSTRAINT \""
+                                    + result.getString(1) + "\" " + result.getString(2));
+                }
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            for (String name : names) {
+                stmt.execute("ALTER TABLE " + table + " DROP CONSTRAINT \"" + name + "\"");
+            }
+        }
+        return definitions;
+    }
+
+    @Override
+    public void setTriggersEnabled(Connection connection, String table, boolean enabled)
+            throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + (enabled ? " ENABLE" : " DISABLE")
+                         + " TRIGGER USER");
+        }
+    }
+
+    @Override
+    public void resetIdentity(Connection connection, String table, String column)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT setval("
+                + "pg_get_serial_sequence(?, ?), COALESCE(MAX(" + column + "), 0) + 1, false)"
+                + " FROM " + table)) {
+            stmt.setString(1, table);
+            stmt.setString(2, column);
+            stmt.executeQuery().close();
+        }
+    }
+
+    /**
+     * Uses a cursor, which requires auto commit to be turned off.
+     */
+    @Override
+    public PreparedStatement prepareStreamingQuery(Connection connection, String sql,
+                                                   int fetchSize) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                                                             ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(fetchSize);
+        return stmt;
+    }
+
+    @Override
+    public void createYearPartition(Connection connection, String table, int year)
+            throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + table + "_" + year + " PARTITION OF "
+                         + table + " FOR VALUES FROM ('" + year + "-01-01') TO ('"
+                         + (year + 1) + "-01-01')");
+        }
+    }
+
+    @Override
+    public String migrationDirectory() {
+        return "postgres";
+    }
+
+    @Override
+    public void lockMigrations(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(" + MIGRATION_LOCK_KEY + ")");
+        }
+        connection.commit();
+    }
+
+    @Override
+    public void unlockMigrations(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK_KEY + ")");
+        }
+        connection.commit();
+    }
+
+    /**
+     * Explains the query with sequential scans disabled, and looks for the index in
+     * the plan.
+     */
+    @Override
+    public boolean canUseIndex(Connection connection, String indexName, String query)
+            throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SET LOCAL enable_seqscan = off");
+            try (ResultSet result = stmt.executeQuery("EXPLAIN " + query)) {
+                while (result.next()) {
+                    plan.append(result.getString(1)).append('\n');
+                }
+            }
+        } finally {
+            connection.rollback();
+        }
+        return plan.indexOf(" " + indexName + " ") >= 0;
+    }
+
+    private String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+import se.kth.iv1351.bankjdbc.model.Rental;
+import se.kth.iv1351.bankjdbc.model.RentalReturn;
+
+/**
+ * The account and rental operations of the bank, for servers with many concurrent
+ * sessions. Every operation returns a <code>Flow.Publisher</code> at once, without
+ * blocking the caller, and is executed when the publisher's subscriber requests
+ * items. The operations are executed by a few lanes, each one thread executing the
+ * operations of all its subscribers one after the other. All lanes share one
+ * <code>BankDAO</code>, so there is one set of connections and background jobs.
+ * <p>
+ * This is not a non-blocking database driver, such as R2DBC, and statements are
+ * not pipelined. Each lane makes ordinary blocking JDBC calls, so a lane is busy
+ * until the database has answered, and there are never more lanes than the DAO
+ * has connection sets, <code>bankdb.pool.size</code>. Only the callers are freed
+ * from waiting; the number of operations executed at the same time is bounded by
+ * the pool, as without this class.
+ * <p>
+ * A subscriber is never sent more items than it requested. All accounts are read
+ * a page at a time, as they are requested, so a slow subscriber does not make the
+ * accounts pile up in memory, and does not hold a lane between the pages.
+ * Failures are signalled with <code>onError</code>, with a
+ * <code>BankDBException</code>, or a <code>RejectedException</code> if the
+ * operation is not allowed.
+ */
+public class ReactiveBankDAO {
+    private static final int PAGE_SIZE = 500;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final List<Lane> lanes = new ArrayList<>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    /**
+     * Creates an instance whose lanes share one <code>BankDAO</code>, created by
+     * <code>BankDAO.create</code>.
+     *
+     * @param laneCount The number of lanes, which is reduced to the number of calls
+     *                  the DAO executes at the same time.
+     * @throws BankDBException If unable to create the DAO.
+     */
+    public ReactiveBankDAO(int laneCount) throws BankDBException {
+        this(BankDAO.create(), laneCount);
+    }
+
+    /**
+     * Creates an instance whose lanes share the specified DAO.
+     *
+     * @param dao       The DAO used by all lanes.
+     * @param laneCount The number of lanes, which is reduced to the number of calls
+     *                  the DAO executes at the same time.
+     */
+    public ReactiveBankDAO(BankDAO dao, int laneCount) {
+        int usableLanes = Math.max(1, Math.min(laneCount, dao.getMaxConcurrentCalls()));
+        for (int i = 0; i < usableLanes; i++) {
+            lanes.add(new Lane(dao, i));
+        }
+    }
+
+    /**
+     * Creates a new account for the specified holder.
+     *
+     * @param holderName The account holder's name.
+     * @return A publisher completing when the account is created.
+     */
+    public Flow.Publisher<Void> createAccount(String holderName) {
+        return single(dao -> {
+            dao.createAccount(new Account(holderName));
+            return null;
+        });
+    }
+
+    /**
+     * Searches for the account with the specified account number.
+     *
+     * @param acctNo The account number.
+     * @return A publisher of the account, completing without any item if there is
+     *         no such account.
+     */
+    public Flow.Publisher<Account> findAccountByAcctNo(String acctNo) {
+        return single(dao -> dao.findAccountByAcctNo(acctNo, true));
+    }
+
+    /**
+     * Searches for all accounts whose holder has the specified name.
+     *
+     * @param holderName The account holder's name.
+     * @return A publisher of the accounts.
+     */
+    public Flow.Publisher<Account> findAccountsByHolder(String holderName) {
+        return new LanePublisher<>((dao, last, maxItems) -> dao.findAccountsByHolder(holderName),
+                                   false);
+    }
+
+    /**
+     * Retrieves all existing accounts, in order of account number. The accounts are
+     * read a page at a time, when the subscriber has requested more accounts than
+     * have been read.
+     *
+     * @return A publisher of the accounts.
+     */
+    public Flow.Publisher<Account> findAllAccounts() {
+        return new LanePublisher<>((dao, last, maxItems) -> dao.findAccountsAfter(
+            last == null ? null : last.getAccountNo(), maxItems), true);
+    }
+
+    /**
+     * Deposits the specified amount to the account with the specified account number.
+     *
+     * @param acctNo The number of the account to which to deposit.
+     * @param amount The amount to deposit.
+     * @return A publisher of the account after the deposit.
+     */
+    public Flow.Publisher<Account> deposit(String acctNo, int amount) {
+        return single(dao -> {
+            Account account = accountToUpdate(dao, acctNo);
+            account.deposit(amount);
+            dao.updateAccount(account);
+            return account;
+        });
+    }
+
+    /**
+     * Withdraws the specified amount from the account with the specified account
+     * number.
+     *
+     * @param acctNo The number of the account from which to withdraw.
+     * @param amount The amount to withdraw.
+     * @return A publisher of the account after the withdrawal.
+     */
+    public Flow.Publisher<Account> withdraw(String acctNo, int amount) {
+        return single(dao -> {
+            Account account = accountToUpdate(dao, acctNo);
+            account.withdraw(amount);
+            dao.updateAccount(account);
+            return account;
+        });
+    }
+
+    /**
+     * Moves the specified amounts from one account to several other accounts, in
+     * one transaction.
+     *
+     * @param fromAcctNo The number of the account from which to withdraw.
+     * @param amounts    The amount to deposit to each account, by account number.
+     * @return A publisher completing when the amounts are moved.
+     */
+    public Flow.Publisher<Void> transfer(String fromAcctNo, Map<String, Integer> amounts) {
+        return single(dao -> {
+            dao.transfer(fromAcctNo, amounts);
+            return null;
+        });
+    }
+
+    /**
+     * Searches for the instrument brands of the specified type that have available
+     * instruments.
+     *
+     * @param type The instrument type.
+     * @return A publisher of the brands.
+     */
+    public Flow.Publisher<Rental> findRentalByType(String type) {
+        return new LanePublisher<>((dao, last, maxItems) -> dao.findRentalByType(type), false);
+    }
+
+    /**
+     * Searches for the instrument brand with the specified name.
+     *
+     * @param name The brand's name.
+     * @return A publisher of the brand, completing without any item if there is no
+     *         such brand.
+     */
+    public Flow.Publisher<Rental> findRental(String name) {
+        return single(dao -> dao.findRental(name));
+    }
+
+    /**
+     * Rents an instrument of the specified brand to the specified student.
+     *
+     * @param studentID The student renting the instrument.
+     * @param brand     The name of the rented brand.
+     * @return A publisher of the brand, with its number of available instruments
+     *         after the rental.
+     */
+    public Flow.Publisher<Rental> rentInstrument(int studentID, String brand) {
+        return single(dao -> dao.rentInstrument(studentID, brand));
+    }
+
+    /**
+     * Closes the specified student's active rental of the specified brand.
+     *
+     * @param studentID The student returning the instrument.
+     * @param brand     The name of the returned brand.
+     * @return A publisher of the outcome of the return.
+     */
+    public Flow.Publisher<RentalReturn> returnInstrument(int studentID, String brand) {
+        return single(dao -> dao.returnInstrument(studentID, brand));
+    }
+
+    /**
+     * Stops all lanes, after they have executed the operations already requested.
+     * Operations requested after this call fail.
+     *
+     * @throws InterruptedException If interrupted while waiting for the lanes.
+     */
+    public void close() throws InterruptedException {
+        for (Lane lane : lanes) {
+            lane.executor.shutdown();
+        }
+        for (Lane lane : lanes) {
+            lane.executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private Account accountToUpdate(BankDAO dao, String acctNo)
+            throws BankDBException, RejectedException {
+        Account account = dao.findAccountByAcctNo(acctNo, false);
+        if (account == null) {
+            throw new RejectedException("There is no account with number " + acctNo);
+        }
+        return account;
+    }
+
+    private <T> Flow.Publisher<T> single(Operation<T> operation) {
+        return new LanePublisher<>((dao, last, maxItems) -> {
+            T result = operation.execute(dao);
+            return result == null ? List.of() : List.of(result);
+        }, false);
+    }
+
+    private Lane nextLane() {
+        return lanes.get(Math.floorMod(nextLane.getAndIncrement(), lanes.size()));
+    }
+
+    /**
+     * An operation producing at most one item.
+     */
+    private interface Operation<T> {
+        T execute(BankDAO dao) throws BankDBException, RejectedException;
+    }
+
+    /**
+     * Reads the items of a publisher, all at once or a page at a time.
+     */
+    private interface PageSource<T> {
+        /**
+         * @param dao      The DAO shared by the lanes.
+         * @param last     The last item of the previous page, or <code>null</code>
+         *                 if this is the first page.
+         * @param maxItems The maximum number of items to read.
+         * @return The items. A paged source has no more items if they are fewer
+         *         than <code>maxItems</code>.
+         */
+        List<T> read(BankDAO dao, T last, int maxItems)
+                throws BankDBException, RejectedException;
+    }
+
+    /**
+     * One thread executing operations with the shared DAO.
+     */
+    private static class Lane {
+        private final BankDAO dao;
+        private final ExecutorService executor;
+
+        Lane(BankDAO dao, int number) {
+            this.dao = dao;
+            this.executor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "bank-lane-" + number);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * A cold publisher, which reads its items anew for every subscriber.
+     */
+    private class LanePublisher<T> implements Flow.Publisher<T> {
+        private final PageSource<T> source;
+        private final boolean paged;
+
+        LanePublisher(PageSource<T> source, boolean paged) {
+            this.source = source;
+            this.paged = paged;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            subscriber.onSubscribe(new LaneSubscription<>(subscriber, nextLane(), source,
+                                                          paged));
+        }
+    }
+
+    /**
+     * Reads items in the subscription's lane while the subscriber has requested
+     * more items than have been read, and sends them to the subscriber. All
+     * signals are sent by <code>drain</code>, by one thread at a time.
+     */
+    private static class LaneSubscription<T> implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Lane lane;
+        private final PageSource<T> source;
+        private final boolean paged;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger drains = new AtomicInteger();
+        private final Queue<T> items = new ConcurrentLinkedQueue<>();
+        private volatile boolean reading;
+        private volatile boolean exhausted;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+        private boolean terminated;
+        private T last;
+
+        LaneSubscription(Flow.Subscriber<? super T> subscriber, Lane lane,
+                         PageSource<T> source, boolean paged) {
+            this.subscriber = subscriber;
+            this.lane = lane;
+            this.source = source;
+            this.paged = paged;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Requested " + n + " items.");
+            } else {
+                requested.accumulateAndGet(n, (current, added) -> current + added < 0
+                                                                  ? Long.MAX_VALUE
+                                                                  : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void drain() {
+            if (drains.getAndIncrement() != 0) {
+                return;
+            }
+            while (true) {
+                while (!cancelled && !terminated && requested.get() > 0 && !items.isEmpty()) {
+                    subscriber.onNext(items.poll());
+                    requested.decrementAndGet();
+                }
+                if (cancelled || terminated) {
+                    items.clear();
+                } else if (failure != null) {
+                    terminated = true;
+                    subscriber.onError(failure);
+                } else if (items.isEmpty() && exhausted) {
+                    terminated = true;
+                    subscriber.onComplete();
+                } else if (items.isEmpty() && requested.get() > 0 && !reading
+                           && !startReading()) {
+                    continue;
+                }
+                if (drains.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+        }
+
+        private boolean startReading() {
+            reading = true;
+            try {
+                lane.executor.execute(this::read);
+                return true;
+            } catch (RejectedExecutionException closed) {
+                reading = false;
+                failure = new BankDBException("The bank is closed.", closed);
+                return false;
+            }
+        }
+
+        private void read() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                int maxItems = (int)Math.min(requested.get(), PAGE_SIZE);
+                List<T> page = source.read(lane.dao, last, maxItems);
+                if (!page.isEmpty()) {
+                    last = page.get(page.size() - 1);
+                }
+                items.addAll(page);
+                exhausted = !paged || page.size() < maxItems;
+            } catch (BankDBException | RejectedException | RuntimeException exc) {
+                failure = exc;
+            } finally {
+                reading = false;
+            }
+            drain();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * The read-only statements of the bank, prepared on one connection. There is one
+ * instance for the primary database and, if a replica is configured, one for the
+ * replica.
+ */
+class ReadStatements {
+    private final Connection connection;
+    private final PreparedStatement findAccountByAcctNoStmt;
+    private final PreparedStatement findAccountByNameStmt;
+    private final PreparedStatement findAllAccountsStmt;
+    private final PreparedStatement findAccountsAfterStmt;
+    private final PreparedStatement findRentalListTypeStmt;
+
+    ReadStatements(Connection connection, PreparedStatement findAccountByAcctNoStmt,
+                   PreparedStatement findAccountByNameStmt,
+                   PreparedStatement findAllAccountsStmt,
+                   PreparedStatement findAccountsAfterStmt,
+                   PreparedStatement findRentalListTypeStmt) {
+        this.connection = connection;
+        this.findAccountByAcctNoStmt = findAccountByAcctNoStmt;
+        this.findAccountByNameStmt = findAccountByNameStmt;
+        this.findAllAccountsStmt = findAllAccountsStmt;
+        this.findAccountsAfterStmt = findAccountsAfterStmt;
+        this.findRentalListTypeStmt = findRentalListTypeStmt;
+    }
+
+    /**
+     * @return The connection on which the statements are prepared.
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    PreparedStatement getFindAccountByAcctNoStmt() {
+        return findAccountByAcctNoStmt;
+    }
+
+    PreparedStatement getFindAccountByNameStmt() {
+        return findAccountByNameStmt;
+    }
+
+    PreparedStatement getFindAllAccountsStmt() {
+        return findAllAccountsStmt;
+    }
+
+    /**
+     * @return A query listing, in order of account number, at most the number of
+     *         accounts given by the second parameter, following the account number
+     *         given by the first parameter.
+     */
+    PreparedStatement getFindAccountsAfterStmt() {
+        return findAccountsAfterStmt;
+    }
+
+    PreparedStatement getFindRentalListTypeStmt() {
+        return findRentalListTypeStmt;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves closed rentals from <code>rented_instrument</code> to
+ * <code>rented_instrument_history</code> in the background, so that the table
+ * searched by the front desk only holds active and recently closed rentals.
+ * Rentals are moved in chunks, each in its own short transaction on a connection
+ * of its own. Rows locked by other transactions are skipped, and moved by a later
+ * run, which means the archiver never waits for the front desk.
+ */
+class RentalArchiver {
+    private static final String RENTED_TABLE_NAME = "rented_instrument";
+    private static final String HISTORY_TABLE_NAME = "rented_instrument_history";
+    private static final String RENTED_PK = "rented_id";
+    private static final String RENTED_INSTRUMENT_ID = "instrument_id";
+    private static final String RENTED_STUDENT_ID = "student_id";
+    private static final String RENTED_DATE = "date";
+    private static final String RENTED_CLOSED_DATE = "closed_date";
+    private static final String RENTED_CURRENTLY_RENTING = "currently_renting";
+
+    private final Connection connection;
+    private final SqlDialect dialect;
+    private final int afterDays;
+    private final int chunkSize;
+    private final Set<Integer> knownPartitions = new HashSet<>();
+    private final ScheduledExecutorService scheduler;
+    private PreparedStatement findClosedRentalsStmt;
+    private PreparedStatement insertHistoryStmt;
+    private PreparedStatement deleteRentalStmt;
+
+    /**
+     * Creates a new instance, which does not move any rentals until it is started.
+     *
+     * @param connection A connection used only by this archiver.
+     * @param dialect    The SQL dialect of the database.
+     * @param afterDays  The number of days a rental must have been closed before it
+     *                   is moved.
+     * @param chunkSize  The maximum number of rentals moved in one transaction.
+     * @throws SQLException If unable to prepare the statements.
+     */
+    RentalArchiver(Connection connection, SqlDialect dialect, int afterDays, int chunkSize)
+            throws SQLException {
+        this.connection = connection;
+        this.dialect = dialect;
+        this.afterDays = afterDays;
+        this.chunkSize = chunkSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "rental-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prepareStatements();
+    }
+
+    /**
+     * Moves closed rentals now, and then every <code>intervalMinutes</code>
+     * minutes. A failed run is reported on <code>System.err</code>, and does not
+     * stop the following runs.
+     *
+     * @param intervalMinutes The number of minutes between runs.
+     */
+    void start(long intervalMinutes) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archiveClosedRentals();
+            } catch (SQLException sqle) {
+                System.err.println("Could not archive closed rentals: " + sqle.getMessage());
+            }
+        }, 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Moves all rentals that have been closed for at least the configured number
+     * of days, except those locked by other transactions.
+     *
+     * @return The number of moved rentals.
+     * @throws SQLException If unable to move a chunk. The chunks moved before the
+     *                      failure remain moved.
+     */
+    int archiveClosedRentals() throws SQLException {
+        Date closedBefore = Date.valueOf(LocalDate.now().minusDays(afterDays));
+        int movedRentals = 0;
+        int movedInChunk;
+        do {
+            movedInChunk = moveChunk(closedBefore);
+            movedRentals += movedInChunk;
+        } while (movedInChunk == chunkSize);
+        return movedRentals;
+    }
+
+    private int moveChunk(Date closedBefore) throws SQLException {
+        int rentals = 0;
+        try {
+            findClosedRentalsStmt.setDate(1, closedBefore);
+            findClosedRentalsStmt.setInt(2, chunkSize);
+            try (ResultSet result = findClosedRentalsStmt.executeQuery()) {
+                while (result.next()) {
+                    Date rentalDate = result.getDate(RENTED_DATE);
+                    Date closedDate = result.getDate(RENTED_CLOSED_DATE);
+                    if (rentalDate == null) {
+                        rentalDate = closedDate;
+                    }
+                    createPartition(rentalDate.toLocalDate().getYear());
+                    insertHistoryStmt.setInt(1, result.getInt(RENTED_PK));
+                    insertHistoryStmt.setInt(2, result.getInt(RENTED_INSTRUMENT_ID));
+                    insertHistoryStmt.setInt(3, result.getInt(RENTED_STUDENT_ID));
+                    insertHistoryStmt.setDate(4, rentalDate);
+                    insertHistoryStmt.setDate(5, closedDate);
+                    insertHistoryStmt.addBatch();
+                    deleteRentalStmt.setInt(1, result.getInt(RENTED_PK));
+                    deleteRentalStmt.addBatch();
+                    rentals++;
+                }
+            }
+            if (rentals > 0) {
+                insertHistoryStmt.executeBatch();
+                deleteRentalStmt.executeBatch();
+            }
+            connection.commit();
+            return rentals;
+        } catch (SQLException sqle) {
+            insertHistoryStmt.clearBatch();
+            deleteRentalStmt.clearBatch();
+            knownPartitions.clear();
+            connection.rollback();
+            throw sqle;
+        }
+    }
+
+    private void createPartition(int year) throws SQLException {
+        if (knownPartitions.add(year)) {
+            dialect.createYearPartition(connection, HISTORY_TABLE_NAME, year);
+        }
+    }
+
+    private void prepareStatements() throws SQLException {
+        findClosedRentalsStmt = connection.prepareStatement("SELECT " + RENTED_PK + ", "
+            + RENTED_INSTRUMENT_ID + ", " + RENTED_STUDENT_ID + ", " + RENTED_DATE + ", "
+            + RENTED_CLOSED_DATE + " FROM " + RENTED_TABLE_NAME + " WHERE "
+            + RENTED_CURRENTLY_RENTING + " = B'0' AND " + RENTED_CLOSED_DATE + " < ? ORDER BY "
+            + RENTED_CLOSED_DATE + ", " + RENTED_PK + " LIMIT ? FOR UPDATE SKIP LOCKED");
+
+        insertHistoryStmt = connection.prepareStatement("INSERT INTO " + HISTORY_TABLE_NAME
+            + " (" + RENTED_PK + ", " + RENTED_INSTRUMENT_ID + ", " + RENTED_STUDENT_ID + ", "
+            + RENTED_DATE + ", " + RENTED_CLOSED_DATE + ") VALUES (?, ?, ?, ?, ?)");
+
+        deleteRentalStmt = connection.prepareStatement("DELETE FROM " + RENTED_TABLE_NAME
+            + " WHERE " + RENTED_PK + " = ?");
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import se.kth.iv1351.bankjdbc.model.StudentRangeTask;
+
+/**
+ * Charges each student for the instruments rented during a month. Active rentals
+ * are streamed from the database ordered by student, and cut into chunks of whole
+ * students. The totals of a chunk are computed on a fork/join pool while the next
+ * chunk is read, and are then written with one batched insert, in the same
+ * transaction as the checkpoint telling which student was billed last. A run that
+ * failed is resumed after that student.
+ */
+class RentalBilling {
+    private static final String RENTED_TABLE_NAME = "rented_instrument";
+    private static final String HISTORY_TABLE_NAME = "rented_instrument_history";
+    private static final String RENTED_INSTRUMENT_ID = "instrument_id";
+    private static final String RENTED_STUDENT_ID = "student_id";
+    private static final String RENTED_DATE = "date";
+    private static final String RENTED_CLOSED_DATE = "closed_date";
+    private static final String RENTED_CURRENTLY_RENTING = "currently_renting";
+    private static final String RENTING_TABLE_NAME = "renting_instrument";
+    private static final String RENTING_PK = "renting_id";
+    private static final String RENTING_RENTAL_COST = "rental_cost";
+    private static final String CHARGE_TABLE_NAME = "rental_charge";
+    private static final String CHARGE_STUDENT_ID = "student_id";
+    private static final String CHARGE_PERIOD = "period";
+    private static final String CHARGE_RENTALS = "rentals";
+    private static final String CHARGE_AMOUNT = "amount";
+    private static final String CHECKPOINT_TABLE_NAME = "billing_checkpoint";
+    private static final String CHECKPOINT_PERIOD = "period";
+    private static final String CHECKPOINT_LAST_STUDENT = "last_student_id";
+    private static final String CHECKPOINT_FINISHED = "finished";
+
+    private static final int FETCH_SIZE = 1000;
+    private static final int CHUNK_ROWS = 10000;
+    private static final int SEQUENTIAL_ROWS = 1000;
+
+    private final Connection readConnection;
+    private final Connection writeConnection;
+    private final SqlDialect dialect;
+    private final ForkJoinPool pool;
+    private PreparedStatement findRentalCostsStmt;
+    private PreparedStatement createCheckpointStmt;
+    private PreparedStatement findCheckpointStmt;
+    private PreparedStatement updateCheckpointStmt;
+    private PreparedStatement createChargeStmt;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param readConnection  A connection used only to stream the rentals.
+     * @param writeConnection A connection used only to write the charges.
+     * @param dialect         The SQL dialect of the database.
+     * @param pool            The pool computing the totals.
+     * @throws SQLException If unable to prepare the statements.
+     */
+    RentalBilling(Connection readConnection, Connection writeConnection, SqlDialect dialect,
+                  ForkJoinPool pool) throws SQLException {
+        this.readConnection = readConnection;
+        this.writeConnection = writeConnection;
+        this.dialect = dialect;
+        this.pool = pool;
+        prepareStatements();
+    }
+
+    /**
+     * Charges all students that rented instruments during the specified month, and
+     * that are not yet charged for that month. A rental is charged its full monthly
+     * cost if it was active at any time during the month.
+     *
+     * @param month The billed month.
+     * @return The number of students charged by this call. Zero if the month is
+     *         already billed.
+     * @throws SQLException If unable to read the rentals or to write the charges.
+     *                      The charges written before the failure remain, and the
+     *                      next call continues after them.
+     */
+    int bill(YearMonth month) throws SQLException {
+        Date period = Date.valueOf(month.atDay(1));
+        Date nextPeriod = Date.valueOf(month.plusMonths(1).atDay(1));
+        int lastStudent = startOrResume(period);
+        if (lastStudent < 0) {
+            return 0;
+        }
+        int chargedStudents = 0;
+        int param = 1;
+        for (int select = 0; select < 2; select++) {
+            findRentalCostsStmt.setInt(param++, lastStudent);
+            findRentalCostsStmt.setDate(param++, nextPeriod);
+            findRentalCostsStmt.setDate(param++, period);
+        }
+        try (ResultSet result = findRentalCostsStmt.executeQuery()) {
+            ForkJoinTask<List<Charge>> previousChunk = null;
+            Chunk chunk = new Chunk();
+            while (result.next()) {
+                int studentID = result.getInt(RENTED_STUDENT_ID);
+                if (chunk.size >= CHUNK_ROWS && studentID != chunk.lastStudent()) {
+                    chargedStudents += writeCharges(previousChunk, period);
+                    previousChunk = pool.submit(new ChunkTotals(chunk, 0, chunk.size));
+                    chunk = new Chunk();
+                }
+                chunk.add(studentID, result.getInt(RENTING_RENTAL_COST));
+            }
+            chargedStudents += writeCharges(previousChunk, period);
+            chargedStudents += writeCharges(pool.submit(new ChunkTotals(chunk, 0, chunk.size)),
+                                            period);
+            readConnection.commit();
+        } catch (SQLException sqle) {
+            readConnection.rollback();
+            writeConnection.rollback();
+            throw sqle;
+        }
+        finish(period);
+        return chargedStudents;
+    }
+
+    /**
+     * Returns the last student billed in a failed run, zero if there was no such
+     * run, or -1 if the period is already billed.
+     */
+    private int startOrResume(Date period) throws SQLException {
+        createCheckpointStmt.setDate(1, period);
+        createCheckpointStmt.setInt(2, 0);
+        createCheckpointStmt.setBoolean(3, false);
+        createCheckpointStmt.executeUpdate();
+        findCheckpointStmt.setDate(1, period);
+        try (ResultSet result = findCheckpointStmt.executeQuery()) {
+            result.next();
+            int lastStudent = result.getBoolean(CHECKPOINT_FINISHED)
+                              ? -1 : result.getInt(CHECKPOINT_LAST_STUDENT);
+            writeConnection.commit();
+            return lastStudent;
+        }
+    }
+
+    private int writeCharges(ForkJoinTask<List<Charge>> chunkTotals, Date period)
+            throws SQLException {
+        if (chunkTotals == null) {
+            return 0;
+        }
+        List<Charge> charges = joinChunk(chunkTotals);
+        if (charges.isEmpty()) {
+            return 0;
+        }
+        for (Charge charge : charges) {
+            createChargeStmt.setInt(1, charge.studentID);
+            createChargeStmt.setDate(2, period);
+            createChargeStmt.setInt(3, charge.rentals);
+            createChargeStmt.setInt(4, charge.amount);
+            createChargeStmt.addBatch();
+        }
+        createChargeStmt.executeBatch();
+        updateCheckpoint(period, charges.get(charges.size() - 1).studentID, false);
+        writeConnection.commit();
+        return charges.size();
+    }
+
+    private void finish(Date period) throws SQLException {
+        findCheckpointStmt.setDate(1, period);
+        int lastStudent;
+        try (ResultSet result = findCheckpointStmt.executeQuery()) {
+            result.next();
+            lastStudent = result.getInt(CHECKPOINT_LAST_STUDENT);
+        }
+        updateCheckpoint(period, lastStudent, true);
+        writeConnection.commit();
+    }
+
+    private void updateCheckpoint(Date period, int lastStudent, boolean finished)
+            throws SQLException {
+        updateCheckpointStmt.setInt(1, lastStudent);
+        updateCheckpointStmt.setBoolean(2, finished);
+        updateCheckpointStmt.setDate(3, period);
+        updateCheckpointStmt.executeUpdate();
+    }
+
+    private List<Charge> joinChunk(ForkJoinTask<List<Charge>> chunkTotals)
+            throws SQLException {
+        try {
+            return chunkTotals.get();
+        } catch (ExecutionException exc) {
+            throw new SQLException("Could not compute the charges.", exc.getCause());
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while computing the charges.", exc);
+        }
+    }
+
+    private void prepareStatements() throws SQLException {
+        String selectCosts = "SELECT r." + RENTED_STUDENT_ID + ", rg." + RENTING_RENTAL_COST
+            + " FROM %s r INNER JOIN " + RENTING_TABLE_NAME + " rg ON r."
+            + RENTED_INSTRUMENT_ID + " = rg." + RENTING_PK + " WHERE r." + RENTED_STUDENT_ID
+            + " > ? AND r." + RENTED_DATE + " < ? AND (%s r." + RENTED_CLOSED_DATE + " >= ?)";
+        String activeOrClosedDuringPeriod = "r." + RENTED_CURRENTLY_RENTING + " = B'1' OR";
+        String archivedDuringPeriod = "";
+        findRentalCostsStmt = dialect.prepareStreamingQuery(readConnection,
+            String.format(selectCosts, RENTED_TABLE_NAME, activeOrClosedDuringPeriod)
+            + " UNION ALL "
+            + String.format(selectCosts, HISTORY_TABLE_NAME, archivedDuringPeriod)
+            + " ORDER BY " + RENTED_STUDENT_ID, FETCH_SIZE);
+
+        createCheckpointStmt = writeConnection.prepareStatement(dialect.insertIgnoringDuplicates(
+            CHECKPOINT_TABLE_NAME, CHECKPOINT_PERIOD, CHECKPOINT_LAST_STUDENT,
+            CHECKPOINT_FINISHED));
+
+        findCheckpointStmt = writeConnection.prepareStatement("SELECT "
+            + CHECKPOINT_LAST_STUDENT + ", " + CHECKPOINT_FINISHED + " FROM "
+            + CHECKPOINT_TABLE_NAME + " WHERE " + CHECKPOINT_PERIOD + " = ?");
+
+        updateCheckpointStmt = writeConnection.prepareStatement("UPDATE "
+            + CHECKPOINT_TABLE_NAME + " SET " + CHECKPOINT_LAST_STUDENT + " = ?, "
+            + CHECKPOINT_FINISHED + " = ? WHERE " + CHECKPOINT_PERIOD + " = ?");
+
+        createChargeStmt = writeConnection.prepareStatement("INSERT INTO " + CHARGE_TABLE_NAME
+            + " (" + CHARGE_STUDENT_ID + ", " + CHARGE_PERIOD + ", " + CHARGE_RENTALS + ", "
+            + CHARGE_AMOUNT + ") VALUES (?, ?, ?, ?)");
+    }
+
+    /**
+     * The rental costs of a number of students, ordered by student.
+     */
+    private static class Chunk {
+        private int[] studentIDs = new int[CHUNK_ROWS];
+        private int[] costs = new int[CHUNK_ROWS];
+        private int size;
+
+        private void add(int studentID, int cost) {
+            if (size == studentIDs.length) {
+                studentIDs = Arrays.copyOf(studentIDs, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+            }
+            studentIDs[size] = studentID;
+            costs[size] = cost;
+            size++;
+        }
+
+        private int lastStudent() {
+            return studentIDs[size - 1];
+        }
+    }
+
+    /**
+     * The charge of one student.
+     */
+    private static class Charge {
+        private final int studentID;
+        private final int rentals;
+        private final int amount;
+
+        private Charge(int studentID, int rentals, int amount) {
+            this.studentID = studentID;
+            this.rentals = rentals;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Computes the charges of a range of rows of a chunk, one charge per student.
+     */
+    private static class ChunkTotals extends StudentRangeTask<List<Charge>> {
+        private final Chunk chunk;
+
+        private ChunkTotals(Chunk chunk, int from, int to) {
+            super(chunk.studentIDs, SEQUENTIAL_ROWS, from, to);
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected List<Charge> computeRange(int from, int to) {
+            List<Charge> charges = new ArrayList<>();
+            int row = from;
+            while (row < to) {
+                int studentID = chunk.studentIDs[row];
+                int rentals = 0;
+                int amount = 0;
+                while (row < to && chunk.studentIDs[row] == studentID) {
+                    rentals++;
+                    amount += chunk.costs[row];
+                    row++;
+                }
+                charges.add(new Charge(studentID, rentals, amount));
+            }
+            return charges;
+        }
+
+        @Override
+        protected ChunkTotals subrange(int from, int to) {
+            return new ChunkTotals(chunk, from, to);
+        }
+
+        @Override
+        protected List<Charge> merge(List<Charge> first, List<Charge> second) {
+            first.addAll(second);
+            return first;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Decides if a read-only operation may be sent to the replica, or if it must be
+ * sent to the primary. The replica is used only if its WAL receiver is streaming,
+ * if its replication lag is below the staleness bound, and if it has replayed the
+ * latest write made by the calling thread, which means a session always reads its
+ * own writes. The lag is zero only if the replica has replayed everything the
+ * primary has written, otherwise it is the age of the last replayed transaction.
+ * The replication state is read with PostgreSQL's WAL functions, a replica of any
+ * other database is never used.
+ */
+class ReplicaRouter {
+    private static final String NO_WRITE_LSN = "0/0";
+    private static final String UNKNOWN_WRITE_LSN = null;
+
+    private final Connection primary;
+    private final Connection replica;
+    private final long maxStalenessMillis;
+    private final ThreadLocal<String> lastWriteLsn;
+    private PreparedStatement findWriteLsnStmt;
+    private PreparedStatement findReplicaStateStmt;
+    private long replicaFreshUntilMillis;
+
+    /**
+     * Creates a new instance routing between the specified connections.
+     *
+     * @param primary            The connection to the primary database.
+     * @param replica            The connection to the replica, or <code>null</code>
+     *                           if there is no replica.
+     * @param maxStalenessMillis The maximum replication lag, in milliseconds, that
+     *                           is accepted for reads from the replica.
+     * @param lastWriteLsn       The WAL position of each thread's latest write,
+     *                           shared by all routers of the same database. It
+     *                           must be created with <code>newWritePositions</code>.
+     * @throws SQLException If unable to prepare the statements checking replication
+     *                      state.
+     */
+    ReplicaRouter(Connection primary, Connection replica, long maxStalenessMillis,
+                  ThreadLocal<String> lastWriteLsn) throws SQLException {
+        this.primary = primary;
+        this.replica = replica;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.lastWriteLsn = lastWriteLsn;
+        if (replica != null) {
+            findWriteLsnStmt = primary.prepareStatement("SELECT pg_current_wal_lsn()::text");
+            findReplicaStateStmt = replica.prepareStatement("SELECT pg_is_in_recovery()"
+                + " AND pg_last_wal_replay_lsn() >= ?::pg_lsn AS caught_up, EXISTS (SELECT 1"
+                + " FROM pg_stat_wal_receiver WHERE status = 'streaming') AS streaming, CASE"
+                + " WHEN pg_last_wal_replay_lsn() >= ?::pg_lsn THEN 0 ELSE"
+                + " (EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())"
+                + " * 1000)::bigint END AS lag_millis");
+        }
+    }
+
+    /**
+     * @return A new holder of each thread's latest write position, to be shared by
+     *         all routers of the same database.
+     */
+    static ThreadLocal<String> newWritePositions() {
+        return ThreadLocal.withInitial(() -> NO_WRITE_LSN);
+    }
+
+    /**
+     * @return <code>true</code> if there is a replica.
+     */
+    boolean hasReplica() {
+        return replica != null;
+    }
+
+    /**
+     * Tells if the next read-only operation of the calling thread may use the
+     * replica. The replica state is queried only when the previous answer can no
+     * longer be trusted, that is after a write by the calling thread or when the
+     * lag could have grown beyond the staleness bound.
+     *
+     * @return <code>true</code> if the replica shall be used, <code>false</code> if
+     *         the primary shall be used.
+     */
+    boolean useReplica() {
+        if (replica == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        String writeLsn = lastWriteLsn.get();
+        if (NO_WRITE_LSN.equals(writeLsn) && now < replicaFreshUntilMillis) {
+            return true;
+        }
+        replicaFreshUntilMillis = 0;
+        String primaryLsn = findWriteLsn();
+        if (primaryLsn == UNKNOWN_WRITE_LSN) {
+            return false;
+        }
+        if (writeLsn == UNKNOWN_WRITE_LSN) {
+            writeLsn = primaryLsn;
+            lastWriteLsn.set(writeLsn);
+        }
+        try {
+            findReplicaStateStmt.setString(1, writeLsn);
+            findReplicaStateStmt.setString(2, primaryLsn);
+            try (ResultSet result = findReplicaStateStmt.executeQuery()) {
+                if (!result.next() || !result.getBoolean("caught_up")
+                    || !result.getBoolean("streaming")) {
+                    replica.commit();
+                    return false;
+                }
+                long lagMillis = result.getLong("lag_millis");
+                boolean lagUnknown = result.wasNull();
+                replica.commit();
+                if (lagUnknown || lagMillis >= maxStalenessMillis) {
+                    return false;
+                }
+                lastWriteLsn.set(NO_WRITE_LSN);
+                replicaFreshUntilMillis = now + maxStalenessMillis - lagMillis;
+                return true;
+            }
+        } catch (SQLException replicaUnavailable) {
+            rollback(replica);
+            return false;
+        }
+    }
+
+    /**
+     * Must be called after each committed write to the primary. Following reads of
+     * the calling thread will not use the replica until it has replayed this write.
+     * The write is already committed, so a failure to read the primary's WAL
+     * position is not reported. The position is then unknown, and the next check
+     * waits for the replica to replay the primary's position at that time.
+     */
+    void writeCommitted() {
+        if (replica == null) {
+            return;
+        }
+        lastWriteLsn.set(findWriteLsn());
+    }
+
+    private String findWriteLsn() {
+        try (ResultSet result = findWriteLsnStmt.executeQuery()) {
+            String lsn = result.next() ? result.getString(1) : UNKNOWN_WRITE_LSN;
+            primary.commit();
+            return lsn;
+        } catch (SQLException primaryPositionUnavailable) {
+            rollback(primary);
+            return UNKNOWN_WRITE_LSN;
+        }
+    }
+
+    private void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+            // The connection is broken, the next check will fail the same way.
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import se.kth.iv1351.bankjdbc.model.InstructorLessons;
+import se.kth.iv1351.bankjdbc.model.InstrumentUtilization;
+import se.kth.iv1351.bankjdbc.model.MonthlyLessons;
+
+/**
+ * Reads the reports from the aggregate tables, which hold the number of lessons
+ * and rentals per month. Triggers in the database append each month whose
+ * lessons or rentals have changed to a change log, and only those months are
+ * recomputed when the aggregates are refreshed. Appending never waits, neither
+ * for other changes of the same month nor for a refresh. A refresh deletes the
+ * log rows it has read, and only those. One refresh at a time locks the refresh
+ * row, a refresh finding it locked is skipped, and the reports are then read as
+ * left by the previous refresh.
+ */
+class ReportAggregates {
+    private static final String CHANGE_TABLE_NAME = "report_change";
+    private static final String CHANGE_ID = "change_id";
+    private static final String CHANGE_REPORT = "report";
+    private static final String REFRESH_TABLE_NAME = "report_refresh";
+    private static final String REFRESH_ID = "refresh_id";
+    private static final String LESSONS_REPORT = "lessons";
+    private static final String RENTALS_REPORT = "rentals";
+    private static final String MONTH = "month";
+    private static final String LESSONS_TABLE_NAME = "report_lessons_month";
+    private static final String LESSON_TYPE = "lesson_type";
+    private static final String LESSONS = "lessons";
+    private static final String INSTRUCTOR_TABLE_NAME = "report_instructor_month";
+    private static final String INSTRUCTOR_ID = "instructor_id";
+    private static final String RENTALS_TABLE_NAME = "report_rentals_month";
+    private static final String INSTRUMENT_ID = "instrument_id";
+    private static final String RENTALS = "rentals";
+    private static final String PERSON_NAME = "name";
+    private static final String RENTING_INSTRUMENT_NAME = "instrument_name";
+    private static final String RENTING_AVAILABLE_AMOUNT = "available_instrument_amount";
+
+    private final Connection connection;
+    private PreparedStatement lockRefreshStmt;
+    private PreparedStatement findChangesStmt;
+    private PreparedStatement deleteChangeStmt;
+    private PreparedStatement deleteLessonsStmt;
+    private PreparedStatement computeLessonsStmt;
+    private PreparedStatement deleteInstructorLessonsStmt;
+    private PreparedStatement computeInstructorLessonsStmt;
+    private PreparedStatement deleteRentalsStmt;
+    private PreparedStatement computeRentalsStmt;
+    private PreparedStatement findLessonsStmt;
+    private PreparedStatement findBusyInstructorsStmt;
+    private PreparedStatement findUtilizationStmt;
+    private PreparedStatement findRentalDatesStmt;
+    private PreparedStatement markChangedMonthStmt;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param connection The connection used to refresh and read the aggregates.
+     *                   Transactions are committed by the caller.
+     * @throws SQLException If unable to prepare the statements.
+     */
+    ReportAggregates(Connection connection) throws SQLException {
+        this.connection = connection;
+        prepareStatements();
+    }
+
+    /**
+     * Recomputes the aggregates of all months in the change log, and deletes the
+     * log rows that were read. Does nothing if another refresh is running.
+     *
+     * @return The number of refreshed months.
+     * @throws SQLException If unable to refresh the aggregates.
+     */
+    int refresh() throws SQLException {
+        try (ResultSet result = lockRefreshStmt.executeQuery()) {
+            if (!result.next()) {
+                return 0;
+            }
+        }
+        Set<LocalDate> lessonMonths = new TreeSet<>();
+        Set<LocalDate> rentalMonths = new TreeSet<>();
+        List<Long> changeIds = new ArrayList<>();
+        try (ResultSet result = findChangesStmt.executeQuery()) {
+            while (result.next()) {
+                changeIds.add(result.getLong(CHANGE_ID));
+                LocalDate month = result.getDate(MONTH).toLocalDate();
+                if (LESSONS_REPORT.equals(result.getString(CHANGE_REPORT))) {
+                    lessonMonths.add(month);
+                } else {
+                    rentalMonths.add(month);
+                }
+            }
+        }
+        for (LocalDate month : lessonMonths) {
+            Date nextMonth = Date.valueOf(month.plusMonths(1));
+            recompute(deleteLessonsStmt, computeLessonsStmt, Date.valueOf(month), nextMonth);
+            recompute(deleteInstructorLessonsStmt, computeInstructorLessonsStmt,
+                      Date.valueOf(month), nextMonth);
+        }
+        for (LocalDate month : rentalMonths) {
+            recompute(deleteRentalsStmt, computeRentalsStmt, Date.valueOf(month),
+                      Date.valueOf(month.plusMonths(1)));
+        }
+        for (long changeId : changeIds) {
+            deleteChangeStmt.setLong(1, changeId);
+            deleteChangeStmt.addBatch();
+        }
+        deleteChangeStmt.executeBatch();
+        return lessonMonths.size() + rentalMonths.size();
+    }
+
+    /**
+     * Logs every month with rentals, or with rental aggregates, as changed. Used
+     * after rentals were changed without the triggers logging the changed months.
+     *
+     * @return The number of marked months.
+     * @throws SQLException If unable to mark the months.
+     */
+    int markAllRentalMonthsChanged() throws SQLException {
+        Set<LocalDate> months = new TreeSet<>();
+        try (ResultSet result = findRentalDatesStmt.executeQuery()) {
+            while (result.next()) {
+                months.add(result.getDate(1).toLocalDate().withDayOfMonth(1));
+            }
+        }
+        for (LocalDate month : months) {
+            markChangedMonthStmt.setString(1, RENTALS_REPORT);
+            markChangedMonthStmt.setDate(2, Date.valueOf(month));
+            markChangedMonthStmt.addBatch();
+        }
+        markChangedMonthStmt.executeBatch();
+        return months.size();
+    }
+
+    /**
+     * @param year The year to report.
+     * @return The number of lessons of each type given in each month of the
+     *         specified year, ordered by month.
+     * @throws SQLException If unable to read the report.
+     */
+    List<MonthlyLessons> findLessonsPerMonth(int year) throws SQLException {
+        List<MonthlyLessons> lessons = new ArrayList<>();
+        findLessonsStmt.setDate(1, Date.valueOf(LocalDate.of(year, 1, 1)));
+        findLessonsStmt.setDate(2, Date.valueOf(LocalDate.of(year + 1, 1, 1)));
+        try (ResultSet result = findLessonsStmt.executeQuery()) {
+            while (result.next()) {
+                lessons.add(new MonthlyLessons(
+                    YearMonth.from(result.getDate(MONTH).toLocalDate()),
+                    result.getString(LESSON_TYPE), result.getInt(LESSONS)));
+            }
+        }
+        return lessons;
+    }
+
+    /**
+     * @param month     The month to report.
+     * @param threshold The number of lessons an instructor must exceed to be listed.
+     * @return The instructors that gave more than <code>threshold</code> lessons
+     *         during the specified month, those with most lessons first.
+     * @throws SQLException If unable to read the report.
+     */
+    List<InstructorLessons> findBusyInstructors(YearMonth month, int threshold)
+            throws SQLException {
+        List<InstructorLessons> instructors = new ArrayList<>();
+        findBusyInstructorsStmt.setDate(1, Date.valueOf(month.atDay(1)));
+        findBusyInstructorsStmt.setInt(2, threshold);
+        try (ResultSet result = findBusyInstructorsStmt.executeQuery()) {
+            while (result.next()) {
+                instructors.add(new InstructorLessons(result.getString(PERSON_NAME),
+                                                      result.getInt(LESSONS)));
+            }
+        }
+        return instructors;
+    }
+
+    /**
+     * @param month The month to report.
+     * @return The number of rentals of each instrument brand started during the
+     *         specified month, most rented first.
+     * @throws SQLException If unable to read the report.
+     */
+    List<InstrumentUtilization> findInstrumentUtilization(YearMonth month)
+            throws SQLException {
+        List<InstrumentUtilization> instruments = new ArrayList<>();
+        findUtilizationStmt.setDate(1, Date.valueOf(month.atDay(1)));
+        try (ResultSet result = findUtilizationStmt.executeQuery()) {
+            while (result.next()) {
+                instruments.add(new InstrumentUtilization(
+                    result.getString(RENTING_INSTRUMENT_NAME), result.getInt(RENTALS),
+                    result.getInt(RENTING_AVAILABLE_AMOUNT)));
+            }
+        }
+        return instruments;
+    }
+
+    private void recompute(PreparedStatement deleteStmt, PreparedStatement computeStmt,
+                           Date month, Date nextMonth) throws SQLException {
+        deleteStmt.setDate(1, month);
+        deleteStmt.executeUpdate();
+        computeStmt.setDate(1, month);
+        computeStmt.setDate(2, month);
+        computeStmt.setDate(3, nextMonth);
+        computeStmt.executeUpdate();
+    }
+
+    private void prepareStatements() throws SQLException {
+        lockRefreshStmt = connection.prepareStatement("SELECT " + REFRESH_ID + " FROM "
+            + REFRESH_TABLE_NAME + " FOR UPDATE SKIP LOCKED");
+
+        findChangesStmt = connection.prepareStatement("SELECT " + CHANGE_ID + ", "
+            + CHANGE_REPORT + ", " + MONTH + " FROM " + CHANGE_TABLE_NAME);
+
+        deleteChangeStmt = connection.prepareStatement("DELETE FROM " + CHANGE_TABLE_NAME
+            + " WHERE " + CHANGE_ID + " = ?");
+
+        deleteLessonsStmt = connection.prepareStatement("DELETE FROM " + LESSONS_TABLE_NAME
+            + " WHERE " + MONTH + " = ?");
+
+        computeLessonsStmt = connection.prepareStatement("INSERT INTO " + LESSONS_TABLE_NAME
+            + " (" + MONTH + ", " + LESSON_TYPE + ", " + LESSONS + ") SELECT CAST(? AS DATE), CASE"
+            + " WHEN i.lesson_id IS NOT NULL THEN 'individual'"
+            + " WHEN g.lesson_id IS NOT NULL THEN 'group'"
+            + " WHEN e.lesson_id IS NOT NULL THEN 'ensemble' ELSE 'other' END AS "
+            + LESSON_TYPE + ", COUNT(*) FROM timeslot t"
+            + " LEFT JOIN individual_lesson i ON i.lesson_id = t.lesson_id"
+            + " LEFT JOIN group_lesson g ON g.lesson_id = t.lesson_id"
+            + " LEFT JOIN ensemble e ON e.lesson_id = t.lesson_id"
+            + " WHERE t.lesson_id IS NOT NULL AND t.date >= ? AND t.date < ?"
+            + " GROUP BY " + LESSON_TYPE);
+
+        deleteInstructorLessonsStmt = connection.prepareStatement("DELETE FROM "
+            + INSTRUCTOR_TABLE_NAME + " WHERE " + MONTH + " = ?");
+
+        computeInstructorLessonsStmt = connection.prepareStatement("INSERT INTO "
+            + INSTRUCTOR_TABLE_NAME + " (" + MONTH + ", " + INSTRUCTOR_ID + ", " + LESSONS
+            + ") SELECT CAST(? AS DATE), COALESCE(t.instructor_id, l.instructor_id), COUNT(*)"
+            + " FROM timeslot t INNER JOIN lesson l ON l.lesson_id = t.lesson_id"
+            + " WHERE COALESCE(t.instructor_id, l.instructor_id) IS NOT NULL"
+            + " AND t.date >= ? AND t.date < ?"
+            + " GROUP BY COALESCE(t.instructor_id, l.instructor_id)");
+
+        deleteRentalsStmt = connection.prepareStatement("DELETE FROM " + RENTALS_TABLE_NAME
+            + " WHERE " + MONTH + " = ?");
+
+        computeRentalsStmt = connection.prepareStatement("INSERT INTO " + RENTALS_TABLE_NAME
+            + " (" + MONTH + ", " + INSTRUMENT_ID + ", " + RENTALS + ") SELECT CAST(? AS DATE), "
+            + INSTRUMENT_ID + ", COUNT(*) FROM (SELECT instrument_id, date"
+            + " FROM rented_instrument UNION ALL SELECT instrument_id, date"
+            + " FROM rented_instrument_history) r WHERE date >= ? AND date < ?"
+            + " GROUP BY " + INSTRUMENT_ID);
+
+        findLessonsStmt = connection.prepareStatement("SELECT " + MONTH + ", " + LESSON_TYPE
+            + ", " + LESSONS + " FROM " + LESSONS_TABLE_NAME + " WHERE " + MONTH + " >= ? AND "
+            + MONTH + " < ? ORDER BY " + MONTH + ", " + LESSON_TYPE);
+
+        findBusyInstructorsStmt = connection.prepareStatement("SELECT p." + PERSON_NAME
+            + ", r." + LESSONS + " FROM " + INSTRUCTOR_TABLE_NAME + " r"
+            + " INNER JOIN instructor i ON i.instructor_id = r." + INSTRUCTOR_ID
+            + " INNER JOIN person p ON p.person_id = i.person_id WHERE r." + MONTH
+            + " = ? AND r." + LESSONS + " > ? ORDER BY r." + LESSONS + " DESC");
+
+        findUtilizationStmt = connection.prepareStatement("SELECT rg." + RENTING_INSTRUMENT_NAME
+            + ", COALESCE(r." + RENTALS + ", 0) AS " + RENTALS + ", rg."
+            + RENTING_AVAILABLE_AMOUNT + " FROM renting_instrument rg LEFT JOIN "
+            + RENTALS_TABLE_NAME + " r ON r." + INSTRUMENT_ID + " = rg.renting_id AND r."
+            + MONTH + " = ? ORDER BY " + RENTALS + " DESC, rg." + RENTING_INSTRUMENT_NAME);
+
+        findRentalDatesStmt = connection.prepareStatement("SELECT date FROM rented_instrument"
+            + " WHERE date IS NOT NULL UNION SELECT date FROM rented_instrument_history"
+            + " WHERE date IS NOT NULL UNION SELECT " + MONTH + " FROM " + RENTALS_TABLE_NAME);
+
+        markChangedMonthStmt = connection.prepareStatement("INSERT INTO " + CHANGE_TABLE_NAME
+            + " (" + CHANGE_REPORT + ", " + MONTH + ") VALUES (?, ?)");
+    }
+}
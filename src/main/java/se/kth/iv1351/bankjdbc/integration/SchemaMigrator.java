@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date when the program starts. The migrations
+ * are the scripts <code>V&lt;version&gt;__&lt;description&gt;.sql</code> listed, in
+ * order, in <code>db/migration/&lt;dialect&gt;/migrations.txt</code>. Each applied
+ * migration is recorded in the table <code>schema_version</code>, and is never
+ * applied again. After migrating, each index listed in
+ * <code>index-checks.txt</code> is verified to be usable by its query.
+ */
+class SchemaMigrator {
+    private static final String MIGRATION_ROOT = "db/migration/";
+    private static final String MIGRATION_LIST = "migrations.txt";
+    private static final String INDEX_CHECK_LIST = "index-checks.txt";
+    private static final String VERSION_TABLE_NAME = "schema_version";
+    private static final String VERSION_COLUMN_NAME = "version";
+    private static final String DESCRIPTION_COLUMN_NAME = "description";
+    private static final String INSTALLED_COLUMN_NAME = "installed_on";
+
+    private final Connection connection;
+    private final SqlDialect dialect;
+    private final String migrationDir;
+
+    /**
+     * Creates a new instance migrating the database reached by the specified
+     * connection.
+     *
+     * @param connection The connection to the database.
+     * @param dialect    The SQL dialect of the database.
+     */
+    SchemaMigrator(Connection connection, SqlDialect dialect) {
+        this.connection = connection;
+        this.dialect = dialect;
+        this.migrationDir = MIGRATION_ROOT + dialect.migrationDirectory() + "/";
+    }
+
+    /**
+     * Applies all migrations that are not yet applied, each in its own transaction,
+     * and then verifies the indexes.
+     *
+     * @return The number of applied migrations.
+     * @throws SQLException If a migration failed, or if an index can not be used
+     *                      by its query.
+     * @throws IOException  If unable to read a migration script.
+     */
+    int migrate() throws SQLException, IOException {
+        int appliedMigrations = 0;
+        dialect.lockMigrations(connection);
+        try {
+            createVersionTable();
+            int currentVersion = findCurrentVersion();
+            for (String script : readLines(MIGRATION_LIST)) {
+                int version = versionOf(script);
+                if (version <= currentVersion) {
+                    continue;
+                }
+                applyMigration(script, version);
+                appliedMigrations++;
+            }
+        } catch (SQLException | IOException migrationFailed) {
+            connection.rollback();
+            throw migrationFailed;
+        } finally {
+            dialect.unlockMigrations(connection);
+        }
+        verifyIndexes();
+        return appliedMigrations;
+    }
+
+    private void createVersionTable() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE_NAME + " ("
+                         + VERSION_COLUMN_NAME + " INT PRIMARY KEY, "
+                         + DESCRIPTION_COLUMN_NAME + " VARCHAR(200) NOT NULL, "
+                         + INSTALLED_COLUMN_NAME + " TIMESTAMP NOT NULL)");
+        }
+        connection.commit();
+    }
+
+    private int findCurrentVersion() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet result = stmt.executeQuery("SELECT MAX(" + VERSION_COLUMN_NAME
+                                                  + ") FROM " + VERSION_TABLE_NAME)) {
+            int version = result.next() ? result.getInt(1) : 0;
+            connection.commit();
+            return version;
+        }
+    }
+
+    private void applyMigration(String script, int version) throws SQLException, IOException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(readScript(script));
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT INTO "
+                + VERSION_TABLE_NAME + " (" + VERSION_COLUMN_NAME + ", "
+                + DESCRIPTION_COLUMN_NAME + ", " + INSTALLED_COLUMN_NAME
+                + ") VALUES (?, ?, CURRENT_TIMESTAMP)")) {
+            stmt.setInt(1, version);
+            stmt.setString(2, descriptionOf(script));
+            stmt.executeUpdate();
+        }
+        connection.commit();
+    }
+
+    private void verifyIndexes() throws SQLException, IOException {
+        for (String check : readLines(INDEX_CHECK_LIST)) {
+            int endOfIndexName = check.indexOf(' ');
+            String indexName = check.substring(0, endOfIndexName);
+            String query = check.substring(endOfIndexName + 1);
+            if (!dialect.canUseIndex(connection, indexName, query)) {
+                throw new SQLException("The index " + indexName + " is not used by: " + query);
+            }
+        }
+    }
+
+    private int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private String descriptionOf(String script) {
+        return script.substring(script.indexOf("__") + 2, script.lastIndexOf('.'))
+                     .replace('_', ' ');
+    }
+
+    private List<String> readLines(String resource) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                openResource(resource), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    lines.add(line.trim());
+                }
+            }
+        }
+        return lines;
+    }
+
+    private String readScript(String script) throws IOException {
+        try (InputStream in = openResource(script)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private InputStream openResource(String name) throws IOException {
+        InputStream in = SchemaMigrator.class.getClassLoader()
+                                             .getResourceAsStream(migrationDir + name);
+        if (in == null) {
+            throw new IOException("Missing migration resource: " + migrationDir + name);
+        }
+        return in;
+    }
+}
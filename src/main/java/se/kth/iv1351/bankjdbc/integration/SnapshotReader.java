@@ -0,0 +1,361 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Reads a snapshot file written by <code>SnapshotWriter</code>, which describes the
+ * format. Each group of rows is memory mapped and converted to CSV lines while
+ * they are read, so the memory used does not depend on the size of the file.
+ */
+class SnapshotReader implements Closeable {
+    private final FileChannel channel;
+    private final int shardCount;
+    private long position;
+
+    private SnapshotReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        byte[] magic = new byte[SnapshotWriter.MAGIC.length];
+        map(magic.length).get(magic);
+        if (!Arrays.equals(magic, SnapshotWriter.MAGIC)
+            || map(Integer.BYTES).getInt() != SnapshotWriter.VERSION) {
+            throw new IOException("Not a snapshot file.");
+        }
+        this.shardCount = map(Integer.BYTES).getInt();
+    }
+
+    /**
+     * Opens the specified snapshot file.
+     *
+     * @param file The file.
+     * @return A reader reading the file.
+     * @throws IOException If unable to open the file, or if it is not a snapshot.
+     */
+    static SnapshotReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new SnapshotReader(channel);
+        } catch (IOException | RuntimeException failure) {
+            channel.close();
+            throw failure;
+        }
+    }
+
+    /**
+     * @return The number of shards the snapshot was taken from.
+     */
+    int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Reads the next table. The rows of the previous table must have been read.
+     *
+     * @return The next table, or <code>null</code> if there are no more tables.
+     * @throws IOException If unable to read the file.
+     */
+    Table nextTable() throws IOException {
+        if (map(1).get() != SnapshotWriter.TABLE_FOLLOWS) {
+            return null;
+        }
+        String name = readString();
+        int shardNo = map(Integer.BYTES).getInt();
+        int columnCount = map(Short.BYTES).getShort();
+        String[] columns = new String[columnCount];
+        byte[] types = new byte[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = readString();
+            types[i] = map(1).get();
+        }
+        return new Table(name, shardNo, columns, types);
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If unable to close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String readString() throws IOException {
+        byte[] utf8 = new byte[map(Short.BYTES).getShort()];
+        map(utf8.length).get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private MappedByteBuffer map(long size) throws IOException {
+        if (position + size > channel.size()) {
+            throw new IOException("The snapshot file is truncated.");
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        position += size;
+        return mapped;
+    }
+
+    /**
+     * A table in the snapshot.
+     */
+    class Table {
+        private final String name;
+        private final int shardNo;
+        private final String[] columns;
+        private final byte[] types;
+
+        private Table(String name, int shardNo, String[] columns, byte[] types) {
+            this.name = name;
+            this.shardNo = shardNo;
+            this.columns = columns;
+            this.types = types;
+        }
+
+        /**
+         * @return The table's name.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return The shard the table was read from.
+         */
+        int getShardNo() {
+            return shardNo;
+        }
+
+        /**
+         * @return The names of the table's columns, in the order of the CSV fields.
+         */
+        String[] getColumns() {
+            return columns;
+        }
+
+        /**
+         * @return The table's rows as CSV lines in the format read by
+         *         <code>SqlDialect.bulkLoad</code>. The stream must be read to its
+         *         end before the next table is read.
+         */
+        InputStream csvRows() {
+            return new CsvRows(types);
+        }
+    }
+
+    /**
+     * Converts the groups of rows of one table to CSV lines, one group at a time.
+     */
+    private class CsvRows extends InputStream {
+        private static final int OUTPUT_SIZE = 1 << 16;
+
+        private final byte[] types;
+        private final int[] starts;
+        private final int[] textOffsets;
+        private ByteBuffer group;
+        private int groupRows;
+        private int row;
+        private boolean finished;
+        private byte[] output = new byte[OUTPUT_SIZE];
+        private int outputStart;
+        private int outputEnd;
+        private int cachedEpochDay = Integer.MIN_VALUE;
+        private byte[] cachedDate;
+
+        CsvRows(byte[] types) {
+            this.types = types;
+            this.starts = new int[types.length];
+            this.textOffsets = new int[types.length];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (outputStart == outputEnd && !fillOutput()) {
+                return -1;
+            }
+            int copied = Math.min(length, outputEnd - outputStart);
+            System.arraycopy(output, outputStart, target, offset, copied);
+            outputStart += copied;
+            return copied;
+        }
+
+        private boolean fillOutput() throws IOException {
+            outputStart = 0;
+            outputEnd = 0;
+            while (outputEnd < OUTPUT_SIZE / 2) {
+                if (row == groupRows && !nextGroup()) {
+                    break;
+                }
+                appendRow();
+                row++;
+            }
+            return outputEnd > 0;
+        }
+
+        private boolean nextGroup() throws IOException {
+            if (finished) {
+                return false;
+            }
+            int rows = map(Integer.BYTES).getInt();
+            if (rows == 0) {
+                finished = true;
+                return false;
+            }
+            groupRows = rows;
+            group = map(map(Integer.BYTES).getInt());
+            row = 0;
+            int start = 0;
+            for (int i = 0; i < types.length; i++) {
+                starts[i] = start;
+                int bitmapBytes = (groupRows + 7) / 8;
+                if (types[i] == SnapshotWriter.BIT_COLUMN) {
+                    start += 2 * bitmapBytes;
+                } else if (types[i] == SnapshotWriter.TEXT_COLUMN) {
+                    int textStart = start + bitmapBytes + Integer.BYTES * groupRows;
+                    textOffsets[i] = textStart;
+                    int textBytes = 0;
+                    for (int r = 0; r < groupRows; r++) {
+                        textBytes += group.getInt(start + bitmapBytes + Integer.BYTES * r);
+                    }
+                    start = textStart + textBytes;
+                } else {
+                    start += bitmapBytes + Integer.BYTES * groupRows;
+                }
+            }
+            return true;
+        }
+
+        private void appendRow() {
+            int bitmapBytes = (groupRows + 7) / 8;
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) {
+                    append((byte)',');
+                }
+                int valueStart = starts[i] + bitmapBytes;
+                if (types[i] == SnapshotWriter.TEXT_COLUMN) {
+                    int length = group.getInt(valueStart + Integer.BYTES * row);
+                    if (!isBitSet(starts[i], row)) {
+                        appendText(textOffsets[i], length);
+                    }
+                    textOffsets[i] += length;
+                } else if (isBitSet(starts[i], row)) {
+                    continue;
+                } else if (types[i] == SnapshotWriter.BIT_COLUMN) {
+                    append(isBitSet(valueStart, row) ? (byte)'1' : (byte)'0');
+                } else if (types[i] == SnapshotWriter.DATE_COLUMN) {
+                    appendDate(group.getInt(valueStart + Integer.BYTES * row));
+                } else {
+                    appendInt(group.getInt(valueStart + Integer.BYTES * row));
+                }
+            }
+            append((byte)'\n');
+        }
+
+        private boolean isBitSet(int bitmapStart, int bit) {
+            return (group.get(bitmapStart + bit / 8) >> (bit % 8) & 1) != 0;
+        }
+
+        private void appendText(int start, int length) {
+            boolean quoted = length == 0;
+            for (int i = 0; i < length && !quoted; i++) {
+                byte b = group.get(start + i);
+                quoted = b == ',' || b == '"' || b == '\n' || b == '\r';
+            }
+            ensureOutput(2 * length + 2);
+            if (quoted) {
+                output[outputEnd++] = '"';
+            }
+            for (int i = 0; i < length; i++) {
+                byte b = group.get(start + i);
+                if (b == '"') {
+                    output[outputEnd++] = '"';
+                }
+                output[outputEnd++] = b;
+            }
+            if (quoted) {
+                output[outputEnd++] = '"';
+            }
+        }
+
+        private void appendDate(int epochDay) {
+            if (epochDay != cachedEpochDay) {
+                cachedDate = LocalDate.ofEpochDay(epochDay).toString()
+                                      .getBytes(StandardCharsets.US_ASCII);
+                cachedEpochDay = epochDay;
+            }
+            ensureOutput(cachedDate.length);
+            System.arraycopy(cachedDate, 0, output, outputEnd, cachedDate.length);
+            outputEnd += cachedDate.length;
+        }
+
+        private void appendInt(int value) {
+            ensureOutput(11);
+            long remaining = value;
+            if (remaining < 0) {
+                output[outputEnd++] = '-';
+                remaining = -remaining;
+            }
+            int digitsStart = outputEnd;
+            do {
+                output[outputEnd++] = (byte)('0' + remaining % 10);
+                remaining /= 10;
+            } while (remaining > 0);
+            for (int i = digitsStart, j = outputEnd - 1; i < j; i++, j--) {
+                byte digit = output[i];
+                output[i] = output[j];
+                output[j] = digit;
+            }
+        }
+
+        private void append(byte b) {
+            ensureOutput(1);
+            output[outputEnd++] = b;
+        }
+
+        private void ensureOutput(int bytes) {
+            if (outputEnd + bytes > output.length) {
+                output = Arrays.copyOf(output, Math.max(2 * output.length, outputEnd + bytes));
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Writes tables to a snapshot file, which is read by <code>SnapshotReader</code>.
+ * All numbers are big-endian, and all strings are UTF-8 prefixed with their length
+ * as a short. The file starts with the magic bytes <code>BANKSNAP</code>, the
+ * format version and the number of shards, followed by the tables. Each table
+ * starts with the byte <code>1</code>, its name, its shard, its number of columns
+ * and the name and type of each column. The rows follow in groups of at most
+ * 65536 rows, each starting with its number of rows and its length in bytes, and
+ * holding one block per column. A block starts with a bitmap of the rows that are
+ * <code>NULL</code>, followed by the values: integers and dates, as days since
+ * 1970-01-01, as ints, bits as a bitmap, and texts as the length of each text
+ * followed by all texts. A group of zero rows ends the table, and the byte
+ * <code>0</code> ends the file.
+ */
+class SnapshotWriter {
+    static final byte[] MAGIC = "BANKSNAP".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final byte TABLE_FOLLOWS = 1;
+    static final byte END_OF_FILE = 0;
+    static final byte INT_COLUMN = 1;
+    static final byte TEXT_COLUMN = 2;
+    static final byte DATE_COLUMN = 3;
+    static final byte BIT_COLUMN = 4;
+    static final int ROWS_PER_GROUP = 65536;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long rowCount;
+
+    private SnapshotWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Creates the specified snapshot file, or empties it if it exists.
+     *
+     * @param file       The file.
+     * @param shardCount The number of shards the tables are read from.
+     * @return A writer writing to the file.
+     * @throws IOException If unable to create the file.
+     */
+    static SnapshotWriter create(Path file, int shardCount) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE));
+        writer.buffer.put(MAGIC).putInt(VERSION).putInt(shardCount);
+        return writer;
+    }
+
+    /**
+     * Writes all remaining rows of the specified result set as the specified table.
+     *
+     * @param table   The table's name.
+     * @param shardNo The shard the table is read from.
+     * @param rows    The table's rows.
+     * @throws SQLException If unable to read the rows, or if a column has a type
+     *                      that can not be written.
+     * @throws IOException  If unable to write the file.
+     */
+    void write(String table, int shardNo, ResultSet rows) throws SQLException, IOException {
+        ResultSetMetaData metaData = rows.getMetaData();
+        ColumnBuffer[] columns = new ColumnBuffer[metaData.getColumnCount()];
+        ensureRemaining(1);
+        buffer.put(TABLE_FOLLOWS);
+        putString(table);
+        ensureRemaining(Integer.BYTES + Short.BYTES);
+        buffer.putInt(shardNo).putShort((short)columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnBuffer(typeOf(metaData, i + 1));
+            putString(metaData.getColumnLabel(i + 1));
+            ensureRemaining(1);
+            buffer.put(columns[i].type);
+        }
+        int groupRows = 0;
+        while (rows.next()) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].add(rows, i + 1);
+            }
+            if (++groupRows == ROWS_PER_GROUP) {
+                writeGroup(columns, groupRows);
+                groupRows = 0;
+            }
+        }
+        if (groupRows > 0) {
+            writeGroup(columns, groupRows);
+        }
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Completes and closes the file.
+     *
+     * @return The number of rows written.
+     * @throws IOException If unable to write the file.
+     */
+    long close() throws IOException {
+        try {
+            ensureRemaining(1);
+            buffer.put(END_OF_FILE);
+            flush();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Closes the file without completing it, after a failed snapshot.
+     */
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // The snapshot has already failed.
+        }
+    }
+
+    private byte typeOf(ResultSetMetaData metaData, int column) throws SQLException {
+        switch (metaData.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return INT_COLUMN;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return TEXT_COLUMN;
+            case Types.DATE:
+                return DATE_COLUMN;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return BIT_COLUMN;
+            default:
+                throw new SQLException("Can not write the column "
+                                       + metaData.getColumnLabel(column) + " of type "
+                                       + metaData.getColumnTypeName(column));
+        }
+    }
+
+    private void writeGroup(ColumnBuffer[] columns, int groupRows) throws IOException {
+        int groupBytes = 0;
+        for (ColumnBuffer column : columns) {
+            groupBytes += column.size();
+        }
+        ensureRemaining(2 * Integer.BYTES + groupBytes);
+        buffer.putInt(groupRows).putInt(groupBytes);
+        for (ColumnBuffer column : columns) {
+            column.writeTo(buffer);
+            column.clear();
+        }
+        rowCount += groupRows;
+    }
+
+    private void putString(String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        ensureRemaining(Short.BYTES + utf8.length);
+        buffer.putShort((short)utf8.length).put(utf8);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        flush();
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocate(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The values of one column in the current group of rows.
+     */
+    private static class ColumnBuffer {
+        private final byte type;
+        private final BitSet nulls = new BitSet(ROWS_PER_GROUP);
+        private final BitSet bits = new BitSet(ROWS_PER_GROUP);
+        private final int[] ints = new int[ROWS_PER_GROUP];
+        private byte[] texts = new byte[0];
+        private int textBytes;
+        private int rows;
+
+        ColumnBuffer(byte type) {
+            this.type = type;
+            if (type == TEXT_COLUMN) {
+                texts = new byte[ROWS_PER_GROUP * 16];
+            }
+        }
+
+        void add(ResultSet result, int column) throws SQLException {
+            switch (type) {
+                case INT_COLUMN:
+                    ints[rows] = result.getInt(column);
+                    nulls.set(rows, result.wasNull());
+                    break;
+                case DATE_COLUMN:
+                    Date date = result.getDate(column);
+                    ints[rows] = date == null ? 0 : (int)date.toLocalDate().toEpochDay();
+                    nulls.set(rows, date == null);
+                    break;
+                case BIT_COLUMN:
+                    bits.set(rows, result.getBoolean(column));
+                    nulls.set(rows, result.wasNull());
+                    break;
+                default:
+                    String text = result.getString(column);
+                    nulls.set(rows, text == null);
+                    byte[] utf8 = text == null ? new byte[0]
+                                               : text.getBytes(StandardCharsets.UTF_8);
+                    if (textBytes + utf8.length > texts.length) {
+                        texts = Arrays.copyOf(texts, Math.max(2 * texts.length,
+                                                              textBytes + utf8.length));
+                    }
+                    System.arraycopy(utf8, 0, texts, textBytes, utf8.length);
+                    textBytes += utf8.length;
+                    ints[rows] = utf8.length;
+            }
+            rows++;
+        }
+
+        int size() {
+            int bitmapBytes = (rows + 7) / 8;
+            switch (type) {
+                case BIT_COLUMN:
+                    return 2 * bitmapBytes;
+                case TEXT_COLUMN:
+                    return bitmapBytes + Integer.BYTES * rows + textBytes;
+                default:
+                    return bitmapBytes + Integer.BYTES * rows;
+            }
+        }
+
+        void writeTo(ByteBuffer target) {
+            putBitmap(target, nulls);
+            if (type == BIT_COLUMN) {
+                putBitmap(target, bits);
+                return;
+            }
+            for (int i = 0; i < rows; i++) {
+                target.putInt(ints[i]);
+            }
+            if (type == TEXT_COLUMN) {
+                target.put(texts, 0, textBytes);
+            }
+        }
+
+        void clear() {
+            nulls.clear();
+            bits.clear();
+            textBytes = 0;
+            rows = 0;
+        }
+
+        private void putBitmap(ByteBuffer target, BitSet bitmap) {
+            byte[] bytes = bitmap.toByteArray();
+            int bitmapBytes = (rows + 7) / 8;
+            target.put(bytes, 0, Math.min(bytes.length, bitmapBytes));
+            for (int i = bytes.length; i < bitmapBytes; i++) {
+                target.put((byte)0);
+            }
+        }
+    }
+}
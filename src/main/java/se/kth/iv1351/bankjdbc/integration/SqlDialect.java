@@ -0,0 +1,401 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The SQL that is specific to the database. Each method gives the fastest form of
+ * an operation that the database supports, for example <code>RETURNING</code> in
+ * PostgreSQL. Only PostgreSQL is supported.
+ */
+interface SqlDialect {
+    /**
+     * Selects the dialect of the database with the specified url.
+     *
+     * @param jdbcUrl The JDBC url of the database.
+     * @return The dialect of the database.
+     * @throws SQLFeatureNotSupportedException If the database is not PostgreSQL.
+     */
+    static SqlDialect forUrl(String jdbcUrl) throws SQLFeatureNotSupportedException {
+        if (jdbcUrl.startsWith("jdbc:postgresql:")) {
+            return new PostgresDialect();
+        }
+        throw new SQLFeatureNotSupportedException("Unsupported database: " + jdbcUrl);
+    }
+
+    /**
+     * @return Driver properties that must be set when connecting, in addition to user
+     *         and password.
+     */
+    Properties connectionProperties();
+
+    /**
+     * Creates an insert statement that does nothing if the inserted row would
+     * violate a unique constraint.
+     *
+     * @param table   The table to insert into.
+     * @param columns The columns that get values, there is one parameter per column.
+     * @return The insert statement.
+     */
+    String insertIgnoringDuplicates(String table, String... columns);
+
+    /**
+     * Creates an insert statement that does nothing if the inserted row would
+     * violate a unique constraint, where each column gets the value of an SQL
+     * expression.
+     *
+     * @param table   The table to insert into.
+     * @param columns The columns that get values.
+     * @param values  The expression giving the value of each column, which may
+     *                contain parameters.
+     * @return The insert statement.
+     */
+    String insertIgnoringDuplicates(String table, String[] columns, String[] values);
+
+    /**
+     * Creates an insert statement that updates the existing row instead, if the
+     * inserted row would violate the primary key.
+     *
+     * @param table        The table to insert into.
+     * @param keyColumns   The primary key columns.
+     * @param valueColumns The other columns, which are updated if the row exists.
+     * @return The statement, which has one parameter per key column followed by one
+     *         parameter per value column.
+     */
+    String upsert(String table, String[] keyColumns, String... valueColumns);
+
+    /**
+     * Prepares a statement that inserts a value into a column with a unique
+     * constraint, unless the value is already present, and returns the key of the
+     * new or existing row. The statement shall be executed with
+     * {@link #executeReturningKey(PreparedStatement)}.
+     *
+     * @param connection   The connection on which to prepare the statement.
+     * @param table        The table to insert into.
+     * @param uniqueColumn The column with the unique constraint, this is the only
+     *                     parameter of the statement.
+     * @param keyColumn    The generated key column.
+     * @return The prepared statement.
+     * @throws SQLException If unable to prepare the statement.
+     */
+    PreparedStatement prepareFindOrInsert(Connection connection, String table,
+                                          String uniqueColumn, String keyColumn)
+            throws SQLException;
+
+    /**
+     * Executes a statement created by one of the methods preparing a statement that
+     * returns a key.
+     *
+     * @param stmt The statement, with all parameters set.
+     * @return The key of the inserted or found row.
+     * @throws SQLException If unable to execute the statement, or if it did not
+     *                      return a key.
+     */
+    int executeReturningKey(PreparedStatement stmt) throws SQLException;
+
+    /**
+     * Creates a condition that is true if the specified column has one of a list of
+     * values. The values are set with
+     * {@link #bindInList(Connection, PreparedStatement, int, String[])}.
+     *
+     * @param column     The column that shall have one of the values.
+     * @param valueCount The number of values. A dialect binding the values as an
+     *                   array returns the same condition for all value counts.
+     * @return The condition.
+     */
+    String inList(String column, int valueCount);
+
+    /**
+     * Sets the values of a condition created by {@link #inList(String, int)}.
+     *
+     * @param connection The connection on which <code>stmt</code> is prepared.
+     * @param stmt       The statement containing the condition.
+     * @param index      The index of the condition's first parameter.
+     * @param values     The values.
+     * @return The index of the first parameter after the condition.
+     * @throws SQLException If unable to set the values.
+     */
+    int bindInList(Connection connection, PreparedStatement stmt, int index, String[] values)
+            throws SQLException;
+
+    /**
+     * Creates an expression that compares and sorts the values of the specified
+     * column ignoring case, and is served by an ordinary index on the column. The
+     * expression shall be compared with lower case values.
+     *
+     * @param column The column.
+     * @return The expression.
+     */
+    String ignoringCase(String column);
+
+    /**
+     * Creates a condition that is true if the specified column contains a text
+     * anywhere, ignoring case. The condition is served by the column's text search
+     * index, which is a trigram index in PostgreSQL, and can only be used for texts
+     * of at least three characters. The text
+     * is set with {@link #bindTextMatch(PreparedStatement, int, String)}.
+     *
+     * @param column The searched column.
+     * @return The condition, which has one parameter.
+     */
+    String textMatch(String column);
+
+    /**
+     * Sets the text of a condition created by {@link #textMatch(String)}.
+     *
+     * @param stmt  The statement containing the condition.
+     * @param index The index of the condition's parameter.
+     * @param text  The searched text.
+     * @throws SQLException If unable to set the text.
+     */
+    void bindTextMatch(PreparedStatement stmt, int index, String text) throws SQLException;
+
+    /**
+     * Returns the message of an error raised by a function or procedure in the
+     * database, without the context the driver adds to it.
+     *
+     * @param exception The exception thrown for the error.
+     * @return The message the function or procedure raised the error with.
+     */
+    String errorMessage(SQLException exception);
+
+    /**
+     * Sends a notification on the specified channel, which is delivered to all
+     * connections listening on the channel when the transaction commits. Does
+     * nothing in databases without notifications.
+     *
+     * @param connection The connection whose transaction sends the notification.
+     * @param channel    The channel.
+     * @param payload    The notification's payload.
+     * @throws SQLException If unable to send the notification.
+     */
+    void sendNotification(Connection connection, String channel, String payload)
+            throws SQLException;
+
+    /**
+     * Makes the specified connection receive the notifications sent on the
+     * specified channel.
+     *
+     * @param connection The connection that shall receive notifications. It shall
+     *                   not be used for anything else.
+     * @param channel    The channel.
+     * @throws SQLException                    If unable to listen on the channel.
+     * @throws SQLFeatureNotSupportedException If the database has no notifications.
+     */
+    void listen(Connection connection, String channel) throws SQLException;
+
+    /**
+     * Waits for notifications on the channels the connection listens to.
+     *
+     * @param connection    The listening connection.
+     * @param timeoutMillis The maximum number of milliseconds to wait.
+     * @return The payloads of the received notifications, which is empty if none
+     *         arrived before the timeout.
+     * @throws SQLException If unable to receive notifications.
+     */
+    List<String> awaitNotifications(Connection connection, int timeoutMillis)
+            throws SQLException;
+
+    /**
+     * Escapes the wildcards of <code>LIKE</code> in the specified text, using the
+     * default escape character, backslash.
+     *
+     * @param text The text.
+     * @return The text, matching only itself in a <code>LIKE</code> pattern.
+     */
+    static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Loads CSV formatted rows into a table, using the database's bulk load
+     * command. The rows are not committed.
+     *
+     * @param connection The connection to load through.
+     * @param table      The table to load into.
+     * @param columns    The columns of each CSV line, in order.
+     * @param csv        The CSV lines, UTF-8 encoded, fields quoted with double
+     *                   quotes where needed. An empty field that is not quoted is
+     *                   read as <code>NULL</code>, and bits are written as
+     *                   <code>0</code> or <code>1</code>.
+     * @return The number of loaded rows.
+     * @throws SQLException If the database rejected the rows.
+     * @throws IOException  If unable to read <code>csv</code>.
+     */
+    long bulkLoad(Connection connection, String table, String[] columns, InputStream csv)
+            throws SQLException, IOException;
+
+    /**
+     * Loads CSV formatted rows like <code>bulkLoad</code> into a table partitioned
+     * by year, in the databases where it is partitioned, first creating the
+     * partitions of all years found in the rows. The rows are not committed.
+     *
+     * @param connection The connection to load through.
+     * @param table      The partitioned table to load into.
+     * @param dateColumn The date column the table is partitioned on.
+     * @param columns    The columns of each CSV line, in order.
+     * @param csv        The CSV lines, in the format read by <code>bulkLoad</code>.
+     * @return The number of loaded rows.
+     * @throws SQLException If the database rejected the rows.
+     * @throws IOException  If unable to read <code>csv</code>.
+     */
+    long bulkLoadByYear(Connection connection, String table, String dateColumn,
+                        String[] columns, InputStream csv) throws SQLException, IOException;
+
+    /**
+     * Deletes all rows of the specified tables, as fast as the database can. The
+     * deletion is not committed.
+     *
+     * @param connection The connection whose transaction deletes the rows.
+     * @param tables     The tables, those with foreign keys before the tables they
+     *                   refer to. All tables referring to a table must be included.
+     * @throws SQLException If unable to delete the rows.
+     */
+    void emptyTables(Connection connection, String... tables) throws SQLException;
+
+    /**
+     * Drops the indexes of the specified table that do not belong to a primary
+     * key, unique or exclusion constraint, so that a bulk load does not update
+     * them row by row. The indexes are recreated by executing the returned
+     * statements. Databases that can not drop indexes inside a transaction drop
+     * nothing.
+     *
+     * @param connection The connection whose transaction drops the indexes.
+     * @param table      The table.
+     * @return The statements creating the dropped indexes.
+     * @throws SQLException If unable to drop the indexes.
+     */
+    List<String> dropSecondaryIndexes(Connection connection, String table)
+            throws SQLException;
+
+    /**
+     * Drops the foreign keys of the specified table, so that a bulk load does not
+     * check them row by row. The foreign keys are recreated, and all rows checked
+     * at once, by executing the returned statements. Databases that can not drop
+     * foreign keys inside a transaction drop nothing.
+     *
+     * @param connection The connection whose transaction drops the foreign keys.
+     * @param table      The table.
+     * @return The statements creating the dropped foreign keys.
+     * @throws SQLException If unable to drop the foreign keys.
+     */
+    List<String> dropForeignKeys(Connection connection, String table) throws SQLException;
+
+    /**
+     * Disables or enables the triggers of the specified table, except those
+     * checking foreign keys. Databases that can not disable triggers do nothing.
+     *
+     * @param connection The connection whose transaction changes the triggers.
+     * @param table      The table.
+     * @param enabled    <code>true</code> to enable the triggers,
+     *                   <code>false</code> to disable them.
+     * @throws SQLException If unable to change the triggers.
+     */
+    void setTriggersEnabled(Connection connection, String table, boolean enabled)
+            throws SQLException;
+
+    /**
+     * Makes the generated keys of the specified column continue after the largest
+     * key in the table, after rows have been inserted with explicit keys.
+     *
+     * @param connection The connection whose transaction resets the key generator.
+     * @param table      The table.
+     * @param column     The column with generated keys.
+     * @throws SQLException If unable to reset the key generator.
+     */
+    void resetIdentity(Connection connection, String table, String column)
+            throws SQLException;
+
+    /**
+     * Prepares a query whose rows are streamed from the database while they are
+     * read, instead of all being fetched when the query is executed. The connection
+     * must not be used for anything else until the result set is closed.
+     *
+     * @param connection The connection on which to prepare the query.
+     * @param sql        The query.
+     * @param fetchSize  The number of rows to fetch in each round trip, if the
+     *                   database fetches more than one row at a time.
+     * @return The prepared query.
+     * @throws SQLException If unable to prepare the query.
+     */
+    PreparedStatement prepareStreamingQuery(Connection connection, String sql, int fetchSize)
+            throws SQLException;
+
+    /**
+     * Makes sure that a table partitioned by year, in the databases where it is
+     * partitioned, has a partition holding the rows of the specified year.
+     *
+     * @param connection The connection to use. The partition is not committed.
+     * @param table      The partitioned table.
+     * @param year       The year that shall have a partition.
+     * @throws SQLException If unable to create the partition.
+     */
+    void createYearPartition(Connection connection, String table, int year)
+            throws SQLException;
+
+    /**
+     * @return The name of the directory, below <code>db/migration</code>, holding
+     *         the schema migrations written for this database.
+     */
+    String migrationDirectory();
+
+    /**
+     * Waits until no other program is migrating the schema, and then stops all
+     * other programs from doing so until {@link #unlockMigrations(Connection)} is
+     * called.
+     *
+     * @param connection The connection used for the migration.
+     * @throws SQLException If unable to take the lock.
+     */
+    void lockMigrations(Connection connection) throws SQLException;
+
+    /**
+     * Releases the lock taken by {@link #lockMigrations(Connection)}.
+     *
+     * @param connection The connection used for the migration.
+     * @throws SQLException If unable to release the lock.
+     */
+    void unlockMigrations(Connection connection) throws SQLException;
+
+    /**
+     * Tells if the specified index exists and can be used to answer the specified
+     * query.
+     *
+     * @param connection The connection to check with.
+     * @param indexName  The name of the index.
+     * @param query      A query that shall be answered with the index.
+     * @return <code>true</code> if the index can be used.
+     * @throws SQLException If unable to check the index.
+     */
+    boolean canUseIndex(Connection connection, String indexName, String query)
+            throws SQLException;
+}
@@ -0,0 +1,294 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.zip.GZIPOutputStream;
+
+import se.kth.iv1351.bankjdbc.model.ExportFormat;
+
+/**
+ * Writes the rows of result sets to a file, while they are read. Each row is
+ * formatted in a reused string builder and encoded into a large reused buffer,
+ * which is written to the file only when it is full, so the memory used does
+ * not depend on the number of rows. The file is compressed with gzip if its name
+ * ends with <code>.gz</code>.
+ */
+class TableExporter {
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ExportFormat format;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder row = new StringBuilder();
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private boolean headerWritten;
+    private long rowCount;
+
+    private TableExporter(WritableByteChannel channel, ExportFormat format) {
+        this.channel = channel;
+        this.format = format;
+    }
+
+    /**
+     * Creates the specified file, or empties it if it exists, and prepares to
+     * write rows to it.
+     *
+     * @param file   The file.
+     * @param format The format of the file.
+     * @return An exporter writing to the file.
+     * @throws IOException If unable to create the file.
+     */
+    static TableExporter create(Path file, ExportFormat format) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                                   StandardOpenOption.WRITE);
+        if (!file.getFileName().toString().endsWith(GZIP_SUFFIX)) {
+            return new TableExporter(fileChannel, format);
+        }
+        GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(fileChannel),
+                                                     GZIP_BUFFER_SIZE);
+        return new TableExporter(Channels.newChannel(gzip), format);
+    }
+
+    /**
+     * Writes all remaining rows of the specified result set. The column names are
+     * taken from the first result set written, all result sets must have the same
+     * columns.
+     *
+     * @param rows The rows to write.
+     * @throws SQLException If unable to read the rows.
+     * @throws IOException  If unable to write the file.
+     */
+    void write(ResultSet rows) throws SQLException, IOException {
+        ResultSetMetaData metaData = rows.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] names = new String[columnCount];
+        int[] types = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = metaData.getColumnLabel(i + 1);
+            types[i] = metaData.getColumnType(i + 1);
+        }
+        if (!headerWritten && format == ExportFormat.CSV) {
+            row.setLength(0);
+            for (int i = 0; i < columnCount; i++) {
+                appendCsv(i, names[i]);
+            }
+            row.append('\n');
+            encode();
+        }
+        headerWritten = true;
+        while (rows.next()) {
+            row.setLength(0);
+            if (format == ExportFormat.CSV) {
+                for (int i = 0; i < columnCount; i++) {
+                    appendCsv(i, valueOf(rows, i + 1, types[i]));
+                }
+                row.append('\n');
+            } else {
+                row.append(rowCount == 0 ? "[\n{" : ",\n{");
+                for (int i = 0; i < columnCount; i++) {
+                    appendJson(i, names[i], valueOf(rows, i + 1, types[i]), types[i]);
+                }
+                row.append('}');
+            }
+            encode();
+            rowCount++;
+        }
+    }
+
+    /**
+     * Completes and closes the file.
+     *
+     * @return The number of rows written.
+     * @throws IOException If unable to write the file.
+     */
+    long close() throws IOException {
+        try {
+            row.setLength(0);
+            if (format == ExportFormat.JSON) {
+                row.append(rowCount == 0 ? "[]\n" : "\n]\n");
+            }
+            encode();
+            flush();
+        } finally {
+            channel.close();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Closes the file without completing it, after a failed export.
+     */
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // The export has already failed.
+        }
+    }
+
+    private String valueOf(ResultSet rows, int column, int type) throws SQLException {
+        if (type == Types.BOOLEAN || type == Types.BIT) {
+            boolean value = rows.getBoolean(column);
+            return rows.wasNull() ? null : Boolean.toString(value);
+        }
+        return rows.getString(column);
+    }
+
+    private void appendCsv(int column, String value) {
+        if (column > 0) {
+            row.append(',');
+        }
+        if (value == null) {
+            return;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            row.append(value);
+            return;
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        row.append('"');
+    }
+
+    private void appendJson(int column, String name, String value, int type) {
+        if (column > 0) {
+            row.append(',');
+        }
+        appendJsonString(name);
+        row.append(':');
+        if (value == null) {
+            row.append("null");
+        } else if (isUnquoted(type)) {
+            row.append(value);
+        } else {
+            appendJsonString(value);
+        }
+    }
+
+    private boolean isUnquoted(int type) {
+        switch (type) {
+            case Types.BOOLEAN:
+            case Types.BIT:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void appendJsonString(String value) {
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    row.append("\\\"");
+                    break;
+                case '\\':
+                    row.append("\\\\");
+                    break;
+                case '\n':
+                    row.append("\\n");
+                    break;
+                case '\r':
+                    row.append("\\r");
+                    break;
+                case '\t':
+                    row.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        row.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        row.append(c);
+                    }
+            }
+        }
+        row.append('"');
+    }
+
+    private void encode() throws IOException {
+        int length = row.length();
+        if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(Math.max(length, 2 * chars.capacity()));
+        }
+        chars.clear();
+        row.getChars(0, length, chars.array(), 0);
+        chars.limit(length);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flush();
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
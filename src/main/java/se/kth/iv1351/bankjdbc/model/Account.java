@@ -123,6 +123,20 @@ public class Account implements AccountDTO {
         balance = balance - amount;
     }
 
+    /**
+     * Moves the specified amount from this account to the specified account.
+     *
+     * @param receiver The account to which the amount is moved.
+     * @param amount   The amount to move.
+     * @throws RejectedException If the specified amount is negative, or if it is
+     *                           larger than the balance. Neither account is then
+     *                           changed.
+     */
+    public void transferTo(Account receiver, int amount) throws RejectedException {
+        withdraw(amount);
+        receiver.deposit(amount);
+    }
+
     /**
      * @return A string representation of all fields in this object.
      */
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.time.LocalDate;
+
+/**
+ * A student's application to a lesson.
+ */
+public class Application implements ApplicationDTO {
+    private final int lessonId;
+    private final int studentId;
+    private final String skill;
+    private final boolean auditionRequired;
+    private final boolean saved;
+    private final LocalDate auditionDue;
+
+    /**
+     * Creates a new application, which is not yet stored.
+     *
+     * @param lessonId         The id of the lesson applied to.
+     * @param studentId        The id of the applying student.
+     * @param skill            The student's description of their skill.
+     * @param auditionRequired <code>true</code> if the student must pass an audition.
+     * @param saved            <code>true</code> if the student asked for the
+     *                         application to be saved.
+     */
+    public Application(int lessonId, int studentId, String skill, boolean auditionRequired,
+                       boolean saved) {
+        this(lessonId, studentId, skill, auditionRequired, saved, null);
+    }
+
+    /**
+     * Creates an instance representing a stored application.
+     *
+     * @param lessonId         The id of the lesson applied to.
+     * @param studentId        The id of the applying student.
+     * @param skill            The student's description of their skill.
+     * @param auditionRequired <code>true</code> if the student must pass an audition.
+     * @param saved            <code>true</code> if the student asked for the
+     *                         application to be saved.
+     * @param auditionDue      The date before which the audition should be held.
+     */
+    public Application(int lessonId, int studentId, String skill, boolean auditionRequired,
+                       boolean saved, LocalDate auditionDue) {
+        this.lessonId = lessonId;
+        this.studentId = studentId;
+        this.skill = skill;
+        this.auditionRequired = auditionRequired;
+        this.saved = saved;
+        this.auditionDue = auditionDue;
+    }
+
+    @Override
+    public int getLessonId() {
+        return lessonId;
+    }
+
+    @Override
+    public int getStudentId() {
+        return studentId;
+    }
+
+    @Override
+    public String getSkill() {
+        return skill;
+    }
+
+    @Override
+    public boolean isAuditionRequired() {
+        return auditionRequired;
+    }
+
+    @Override
+    public boolean isSaved() {
+        return saved;
+    }
+
+    @Override
+    public LocalDate getAuditionDue() {
+        return auditionDue;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.time.LocalDate;
+
+/**
+ * Specifies a read-only view of a student's application to a lesson.
+ */
+public interface ApplicationDTO {
+    /**
+     * @return The id of the lesson applied to.
+     */
+    public int getLessonId();
+
+    /**
+     * @return The id of the applying student.
+     */
+    public int getStudentId();
+
+    /**
+     * @return The student's description of their skill.
+     */
+    public String getSkill();
+
+    /**
+     * @return <code>true</code> if the student must pass an audition before being
+     *         enrolled.
+     */
+    public boolean isAuditionRequired();
+
+    /**
+     * @return <code>true</code> if the student asked for the application to be saved.
+     */
+    public boolean isSaved();
+
+    /**
+     * @return The date before which the audition should be held, or
+     *         <code>null</code> if the application is not yet stored.
+     */
+    public LocalDate getAuditionDue();
+}
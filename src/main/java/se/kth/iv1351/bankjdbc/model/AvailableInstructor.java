@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.time.LocalDate;
+
+/**
+ * A timeslot when an instructor is available.
+ */
+public class AvailableInstructor implements AvailableInstructorDTO {
+    private final int instructorId;
+    private final String instructorName;
+    private final int timeslotId;
+    private final LocalDate date;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param instructorId   The instructor's id.
+     * @param instructorName The instructor's name.
+     * @param timeslotId     The id of the timeslot when the instructor is available.
+     * @param date           The date of the timeslot.
+     */
+    public AvailableInstructor(int instructorId, String instructorName, int timeslotId,
+                               LocalDate date) {
+        this.instructorId = instructorId;
+        this.instructorName = instructorName;
+        this.timeslotId = timeslotId;
+        this.date = date;
+    }
+
+    @Override
+    public int getInstructorId() {
+        return instructorId;
+    }
+
+    @Override
+    public String getInstructorName() {
+        return instructorName;
+    }
+
+    @Override
+    public int getTimeslotId() {
+        return timeslotId;
+    }
+
+    @Override
+    public LocalDate getDate() {
+        return date;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * Is notified when data that may be cached is changed, by this or by another
+ * program using the same database. Notifications arriving close together are
+ * coalesced, so an observer is only told about the latest change of each
+ * account or brand.
+ */
+public interface DataChangeObserver {
+    /**
+     * Called when the specified account was updated or deleted. Called by a
+     * background thread.
+     *
+     * @param acctNo The account's number.
+     */
+    default void accountChanged(String acctNo) {
+    }
+
+    /**
+     * Called when the number of available instruments of the specified brand
+     * changed. Called by a background thread.
+     *
+     * @param instrumentId    The brand's id.
+     * @param availableAmount The new number of available instruments.
+     */
+    default void rentalAvailabilityChanged(int instrumentId, int availableAmount) {
+    }
+
+    /**
+     * Called when changes can no longer be received, because the connection
+     * receiving them failed. Until <code>changesResumed</code> is called, changes are
+     * not notified, and anything cached may be outdated. Called by a background
+     * thread.
+     */
+    default void changesInterrupted() {
+    }
+
+    /**
+     * Called when changes are received again, after <code>changesInterrupted</code>.
+     * Changes made in between were not notified. Called by a background thread.
+     */
+    default void changesResumed() {
+    }
+}
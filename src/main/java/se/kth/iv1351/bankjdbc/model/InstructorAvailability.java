@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of when instructors are available, and of which instruments
+ * they teach. Instructors and timeslots are numbered densely in the order they are
+ * added. Each instructor has a bitset of the timeslots when it is available, each
+ * date a bitset of its timeslots, and each instrument a bitset of the instructors
+ * teaching it. A search is answered by intersecting those bitsets, without
+ * calling the database.
+ */
+public class InstructorAvailability {
+    private final Map<Integer, Integer> instructorIndexes = new HashMap<>();
+    private final List<Integer> instructorIds = new ArrayList<>();
+    private final List<String> instructorNames = new ArrayList<>();
+    private final List<BitSet> availableTimeslots = new ArrayList<>();
+    private final Map<Integer, Integer> timeslotIndexes = new HashMap<>();
+    private final List<Integer> timeslotIds = new ArrayList<>();
+    private final List<LocalDate> timeslotDates = new ArrayList<>();
+    private final Map<LocalDate, BitSet> timeslotsByDate = new HashMap<>();
+    private final Map<String, BitSet> instructorsByInstrument = new HashMap<>();
+
+    /**
+     * Adds an instructor, who is not available at any timeslot and does not teach
+     * any instrument.
+     *
+     * @param instructorId   The instructor's id.
+     * @param instructorName The instructor's name.
+     */
+    public synchronized void addInstructor(int instructorId, String instructorName) {
+        if (instructorIndexes.putIfAbsent(instructorId, instructorIds.size()) == null) {
+            instructorIds.add(instructorId);
+            instructorNames.add(instructorName);
+            availableTimeslots.add(new BitSet());
+        }
+    }
+
+    /**
+     * Adds a timeslot.
+     *
+     * @param timeslotId The timeslot's id.
+     * @param date       The date of the timeslot.
+     */
+    public synchronized void addTimeslot(int timeslotId, LocalDate date) {
+        if (timeslotIndexes.putIfAbsent(timeslotId, timeslotIds.size()) == null) {
+            timeslotIds.add(timeslotId);
+            timeslotDates.add(date);
+            timeslotsByDate.computeIfAbsent(date, unused -> new BitSet())
+                           .set(timeslotIds.size() - 1);
+        }
+    }
+
+    /**
+     * Records that the specified instructor teaches the specified instrument. Does
+     * nothing if the instructor has not been added.
+     *
+     * @param instrument   The instrument.
+     * @param instructorId The instructor's id.
+     */
+    public synchronized void addTeacher(String instrument, int instructorId) {
+        Integer instructor = instructorIndexes.get(instructorId);
+        if (instructor != null) {
+            instructorsByInstrument.computeIfAbsent(instrument, unused -> new BitSet())
+                                   .set(instructor);
+        }
+    }
+
+    /**
+     * Records that the specified instructor is available at the specified
+     * timeslot. Does nothing if the instructor or the timeslot has not been added.
+     *
+     * @param instructorId The instructor's id.
+     * @param timeslotId   The timeslot's id.
+     */
+    public synchronized void setAvailable(int instructorId, int timeslotId) {
+        Integer instructor = instructorIndexes.get(instructorId);
+        Integer timeslot = timeslotIndexes.get(timeslotId);
+        if (instructor != null && timeslot != null) {
+            availableTimeslots.get(instructor).set(timeslot);
+        }
+    }
+
+    /**
+     * Records that the specified instructor is booked, and thereby no longer
+     * available, at the specified timeslot.
+     *
+     * @param instructorId The instructor's id.
+     * @param timeslotId   The timeslot's id.
+     */
+    public synchronized void setBooked(int instructorId, int timeslotId) {
+        Integer instructor = instructorIndexes.get(instructorId);
+        Integer timeslot = timeslotIndexes.get(timeslotId);
+        if (instructor != null && timeslot != null) {
+            availableTimeslots.get(instructor).clear(timeslot);
+        }
+    }
+
+    /**
+     * Finds the instructors teaching the specified instrument, and the timeslots
+     * at the specified dates when they are available.
+     *
+     * @param instrument The instrument.
+     * @param dates      The dates.
+     * @return One element for each available instructor and timeslot, ordered by
+     *         instructor. The list is empty if no instructor is available.
+     */
+    public synchronized List<AvailableInstructor> findAvailable(String instrument,
+                                                                List<LocalDate> dates) {
+        List<AvailableInstructor> available = new ArrayList<>();
+        BitSet teachers = instructorsByInstrument.get(instrument);
+        if (teachers == null) {
+            return available;
+        }
+        BitSet wantedTimeslots = new BitSet();
+        for (LocalDate date : dates) {
+            BitSet timeslots = timeslotsByDate.get(date);
+            if (timeslots != null) {
+                wantedTimeslots.or(timeslots);
+            }
+        }
+        for (int instructor = teachers.nextSetBit(0); instructor >= 0;
+             instructor = teachers.nextSetBit(instructor + 1)) {
+            BitSet timeslots = availableTimeslots.get(instructor);
+            if (!timeslots.intersects(wantedTimeslots)) {
+                continue;
+            }
+            for (int timeslot = wantedTimeslots.nextSetBit(0); timeslot >= 0;
+                 timeslot = wantedTimeslots.nextSetBit(timeslot + 1)) {
+                if (timeslots.get(timeslot)) {
+                    available.add(new AvailableInstructor(instructorIds.get(instructor),
+                                                          instructorNames.get(instructor),
+                                                          timeslotIds.get(timeslot),
+                                                          timeslotDates.get(timeslot)));
+                }
+            }
+        }
+        return available;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * The number of lessons given by one instructor during one month.
+ */
+public class InstructorLessons implements InstructorLessonsDTO {
+    private final String instructorName;
+    private final int lessons;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param instructorName The instructor's name.
+     * @param lessons        The number of lessons.
+     */
+    public InstructorLessons(String instructorName, int lessons) {
+        this.instructorName = instructorName;
+        this.lessons = lessons;
+    }
+
+    @Override
+    public String getInstructorName() {
+        return instructorName;
+    }
+
+    @Override
+    public int getLessons() {
+        return lessons;
+    }
+}
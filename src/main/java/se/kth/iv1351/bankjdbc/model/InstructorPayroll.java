@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The payroll of all instructors for a period, one payment per instructor and
+ * delivered timeslot. The payments stored by an earlier run for the same period
+ * are compared with the newly computed payments, so that only payments that were
+ * added, changed or removed since then have to be written. Payments are keyed by
+ * instructor and timeslot ids packed into one <code>long</code>, and are
+ * aggregated in primitive hash maps. A stored payment is kept as its amount and
+ * the index of its level, which are both compared exactly.
+ */
+public class InstructorPayroll {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_LEVEL = -1;
+
+    private int[] instructorIds = new int[INITIAL_CAPACITY];
+    private int[] timeslotIds = new int[INITIAL_CAPACITY];
+    private String[] levels = new String[INITIAL_CAPACITY];
+    private int[] payments;
+    private boolean[] changed;
+    private int size;
+    private final LongIntHashMap storedPayments = new LongIntHashMap();
+    private final LongIntHashMap storedLevels = new LongIntHashMap();
+    private final Map<String, Integer> levelIndexes = new HashMap<>();
+    private final LongIntHashMap deliveredRows = new LongIntHashMap();
+    private final LongIntHashMap totals = new LongIntHashMap();
+    private final LongIntHashMap changedInstructors = new LongIntHashMap();
+    private long[] removedPayments = new long[0];
+
+    /**
+     * Adds a timeslot delivered by an instructor during the period.
+     *
+     * @param instructorId The instructor.
+     * @param timeslotId   The delivered timeslot.
+     * @param level        The level of the timeslot's lesson, which decides the
+     *                     payment.
+     */
+    public void addDelivered(int instructorId, int timeslotId, String level) {
+        if (size == instructorIds.length) {
+            instructorIds = Arrays.copyOf(instructorIds, size * 2);
+            timeslotIds = Arrays.copyOf(timeslotIds, size * 2);
+            levels = Arrays.copyOf(levels, size * 2);
+        }
+        instructorIds[size] = instructorId;
+        timeslotIds[size] = timeslotId;
+        levels[size] = level;
+        deliveredRows.put(key(instructorId, timeslotId), size);
+        size++;
+    }
+
+    /**
+     * Adds a payment stored by an earlier run for the same period.
+     *
+     * @param instructorId The instructor.
+     * @param timeslotId   The timeslot.
+     * @param payment      The stored payment.
+     * @param level        The stored lesson level.
+     */
+    public void addStored(int instructorId, int timeslotId, int payment, String level) {
+        long key = key(instructorId, timeslotId);
+        storedPayments.put(key, payment);
+        storedLevels.put(key, levelIndex(level));
+    }
+
+    /**
+     * Computes the payment of each delivered timeslot, and compares it with the
+     * stored payment.
+     *
+     * @param lessonCosts The payment of a lesson at each level. Lessons at levels
+     *                    without cost are not paid.
+     */
+    public void compute(Map<String, Integer> lessonCosts) {
+        payments = new int[size];
+        changed = new boolean[size];
+        for (int row = 0; row < size; row++) {
+            if (!lessonCosts.containsKey(levels[row])) {
+                levels[row] = null;
+            }
+            int payment = lessonCosts.getOrDefault(levels[row], 0);
+            long key = key(instructorIds[row], timeslotIds[row]);
+            payments[row] = payment;
+            totals.add(instructorIds[row], payment);
+            if (!storedPayments.containsKey(key) || storedPayments.get(key, 0) != payment
+                || storedLevels.get(key, NO_LEVEL) != levelIndex(levels[row])) {
+                changed[row] = true;
+                changedInstructors.put(instructorIds[row], 1);
+            }
+        }
+        long[] storedKeys = storedPayments.keys();
+        int removed = 0;
+        removedPayments = new long[storedKeys.length];
+        for (long key : storedKeys) {
+            if (!deliveredRows.containsKey(key)) {
+                removedPayments[removed++] = key;
+                changedInstructors.put(instructorOf(key), 1);
+            }
+        }
+        removedPayments = Arrays.copyOf(removedPayments, removed);
+    }
+
+    /**
+     * @return The number of delivered timeslots.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row The index of a delivered timeslot.
+     * @return The instructor that delivered it.
+     */
+    public int getInstructorId(int row) {
+        return instructorIds[row];
+    }
+
+    /**
+     * @param row The index of a delivered timeslot.
+     * @return The id of the timeslot.
+     */
+    public int getTimeslotId(int row) {
+        return timeslotIds[row];
+    }
+
+    /**
+     * @param row The index of a delivered timeslot.
+     * @return The level of the timeslot's lesson, or <code>null</code> if that
+     *         level has no cost.
+     */
+    public String getLevel(int row) {
+        return levels[row];
+    }
+
+    /**
+     * @param row The index of a delivered timeslot.
+     * @return The payment for the timeslot.
+     */
+    public int getPayment(int row) {
+        return payments[row];
+    }
+
+    /**
+     * @param row The index of a delivered timeslot.
+     * @return <code>true</code> if the payment is not stored, or differs from the
+     *         stored payment.
+     */
+    public boolean isChanged(int row) {
+        return changed[row];
+    }
+
+    /**
+     * @return The number of stored payments whose timeslots are no longer
+     *         delivered.
+     */
+    public int getRemovedCount() {
+        return removedPayments.length;
+    }
+
+    /**
+     * @param removed The index of a removed payment.
+     * @return The instructor of the removed payment.
+     */
+    public int getRemovedInstructorId(int removed) {
+        return instructorOf(removedPayments[removed]);
+    }
+
+    /**
+     * @param removed The index of a removed payment.
+     * @return The timeslot of the removed payment.
+     */
+    public int getRemovedTimeslotId(int removed) {
+        return (int)removedPayments[removed];
+    }
+
+    /**
+     * @return The number of instructors with at least one added, changed or removed
+     *         payment.
+     */
+    public int getChangedInstructorCount() {
+        return changedInstructors.size();
+    }
+
+    /**
+     * @return The ids of all instructors with delivered timeslots.
+     */
+    public int[] getInstructorIds() {
+        long[] keys = totals.keys();
+        int[] ids = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ids[i] = (int)keys[i];
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @param instructorId An instructor.
+     * @return The sum of the instructor's payments for the period.
+     */
+    public int getTotalPayment(int instructorId) {
+        return totals.get(instructorId, 0);
+    }
+
+    private static long key(int instructorId, int timeslotId) {
+        return ((long)instructorId << 32) | (timeslotId & 0xFFFFFFFFL);
+    }
+
+    private static int instructorOf(long key) {
+        return (int)(key >>> 32);
+    }
+
+    private int levelIndex(String level) {
+        if (level == null) {
+            return NO_LEVEL;
+        }
+        return levelIndexes.computeIfAbsent(level, newLevel -> levelIndexes.size());
+    }
+}
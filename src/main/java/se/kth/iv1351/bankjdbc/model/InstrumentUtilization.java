@@ -0,0 +1,61 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * The number of rentals of one instrument brand started during one month.
+ */
+public class InstrumentUtilization implements InstrumentUtilizationDTO {
+    private final String instrumentName;
+    private final int rentals;
+    private final int availableAmount;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param instrumentName  The instrument brand.
+     * @param rentals         The number of rentals started during the month.
+     * @param availableAmount The number of instruments that are currently not rented.
+     */
+    public InstrumentUtilization(String instrumentName, int rentals, int availableAmount) {
+        this.instrumentName = instrumentName;
+        this.rentals = rentals;
+        this.availableAmount = availableAmount;
+    }
+
+    @Override
+    public String getInstrumentName() {
+        return instrumentName;
+    }
+
+    @Override
+    public int getRentals() {
+        return rentals;
+    }
+
+    @Override
+    public int getAvailableAmount() {
+        return availableAmount;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The remaining seats of the group lessons and ensembles that have a maximum
+ * number of students. A seat is taken here before the enrollment is written to
+ * the database, so that students enrolling into a full lesson are rejected
+ * without a database call. The database still decides whether a seat is free,
+ * these counters only keep the number of students competing for the last seats
+ * of a lesson down to the number of seats.
+ */
+public class LessonSeats {
+    private final Map<Integer, AtomicInteger> remaining = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an instance with the specified number of remaining seats.
+     *
+     * @param remainingSeats The number of remaining seats of each lesson that has a
+     *                       maximum number of students.
+     */
+    public LessonSeats(Map<Integer, Integer> remainingSeats) {
+        for (Map.Entry<Integer, Integer> seats : remainingSeats.entrySet()) {
+            remaining.put(seats.getKey(), new AtomicInteger(Math.max(seats.getValue(), 0)));
+        }
+    }
+
+    /**
+     * Takes a seat of the specified lesson, if there is any left.
+     *
+     * @param lessonId The lesson.
+     * @return <code>true</code> if a seat was taken, or if the lesson has no maximum
+     *         number of students, <code>false</code> if the lesson is full.
+     */
+    public boolean tryTake(int lessonId) {
+        AtomicInteger seats = remaining.get(lessonId);
+        if (seats == null) {
+            return true;
+        }
+        int left = seats.get();
+        while (left > 0) {
+            if (seats.compareAndSet(left, left - 1)) {
+                return true;
+            }
+            left = seats.get();
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a seat taken by <code>tryTake</code>, when the enrollment failed.
+     *
+     * @param lessonId The lesson.
+     */
+    public void giveBack(int lessonId) {
+        AtomicInteger seats = remaining.get(lessonId);
+        if (seats != null) {
+            seats.incrementAndGet();
+        }
+    }
+
+    /**
+     * Marks the specified lesson as full, when the database found no free seat
+     * although a seat was taken here.
+     *
+     * @param lessonId The lesson.
+     */
+    public void setFull(int lessonId) {
+        remaining.computeIfAbsent(lessonId, id -> new AtomicInteger()).set(0);
+    }
+}
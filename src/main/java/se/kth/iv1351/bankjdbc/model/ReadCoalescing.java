@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * How many reads of one kind have shared the query of another, concurrent read
+ * instead of executing their own.
+ */
+public class ReadCoalescing {
+    private final String name;
+    private final long reads;
+    private final long queries;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name    The name of the kind of reads.
+     * @param reads   The number of reads.
+     * @param queries The number of queries executed by the reads.
+     */
+    public ReadCoalescing(String name, long reads, long queries) {
+        this.name = name;
+        this.reads = reads;
+        this.queries = queries;
+    }
+
+    /**
+     * @return The name of the kind of reads.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of reads.
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * @return The number of queries executed by the reads.
+     */
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return The average number of reads answered by each query, one if no reads
+     *         were coalesced.
+     */
+    public double getReadsPerQuery() {
+        return queries == 0 ? 1 : (double)reads / queries;
+    }
+}
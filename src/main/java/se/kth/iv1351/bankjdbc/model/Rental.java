@@ -25,16 +25,34 @@ package se.kth.iv1351.bankjdbc.model;
 public class Rental implements RentalDTO {
     private int availableInstrumentAmount;
     private String instrumentName;
-    private String intsrumentType;
+    private String instrumentType;
     private int rentalCost;
     private int instrumentID;
 
-    public Rental(String instrumentName, String intsrumentType, int rentalCost){
+    public Rental(String instrumentName, String instrumentType, int rentalCost){
         this.instrumentName = instrumentName;
-        this.intsrumentType = intsrumentType;
+        this.instrumentType = instrumentType;
         this.rentalCost = rentalCost;
     }
 
+    /**
+     * Creates an instance with all properties of the instrument brand.
+     *
+     * @param instrumentID              The brand's id.
+     * @param instrumentName            The brand's name.
+     * @param instrumentType            The type of instrument.
+     * @param rentalCost                The monthly cost of renting the brand.
+     * @param availableInstrumentAmount The number of instruments that are not rented.
+     */
+    public Rental(int instrumentID, String instrumentName, String instrumentType,
+                  int rentalCost, int availableInstrumentAmount) {
+        this.instrumentID = instrumentID;
+        this.instrumentName = instrumentName;
+        this.instrumentType = instrumentType;
+        this.rentalCost = rentalCost;
+        this.availableInstrumentAmount = availableInstrumentAmount;
+    }
+
     public Rental(String instrumentName, int availableInstrumentAmount, int instrumentID){
         this.instrumentID = instrumentID;
         this.instrumentName = instrumentName;
@@ -48,8 +66,8 @@ public class Rental implements RentalDTO {
         return rentalCost;
     }
 
-    public String getIntsrumentType() {
-        return intsrumentType;
+    public String getInstrumentType() {
+        return instrumentType;
     }
 
     public int getAvailableInstrumentAmount(){ return availableInstrumentAmount;}
@@ -58,12 +76,6 @@ public class Rental implements RentalDTO {
         return instrumentID;
     }
 
-    public void newRental() throws  RejectedException{
-        if (availableInstrumentAmount <= 0) {
-            throw new RejectedException("Can not rent, no available of this brand");
-        }
-    }
-
     /**
      * @return A string representation of all fields in this object.
      */
@@ -74,7 +86,7 @@ public class Rental implements RentalDTO {
         stringRepresentation.append("instrument brand: ");
         stringRepresentation.append(instrumentName);
         stringRepresentation.append(", instrument type ");
-        stringRepresentation.append(intsrumentType);
+        stringRepresentation.append(instrumentType);
         stringRepresentation.append(", cost: ");
         stringRepresentation.append(rentalCost);
         stringRepresentation.append("]");
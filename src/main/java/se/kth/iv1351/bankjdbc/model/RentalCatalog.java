@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of all rentable instrument brands, answering searches
+ * combining instrument type, cost range and availability without database
+ * calls. Each property is stored in an array indexed by the brand's position,
+ * the brands of each type and the brands in stock are bitmaps over the same
+ * positions, and the positions are presorted by cost and by name. The number of
+ * available instruments must be updated whenever a brand is rented or returned.
+ * The catalog may be updated and searched by different threads.
+ */
+public class RentalCatalog {
+    /**
+     * The orders in which search results can be sorted.
+     */
+    public enum SortOrder {
+        /**
+         * By brand name.
+         */
+        NAME,
+        /**
+         * By rental cost, the cheapest first.
+         */
+        COST,
+        /**
+         * By rental cost, the most expensive first.
+         */
+        COST_DESCENDING
+    }
+
+    private int size;
+    private int[] ids = new int[16];
+    private String[] names = new String[16];
+    private String[] types = new String[16];
+    private int[] costs = new int[16];
+    private int[] available = new int[16];
+    private final Map<Integer, Integer> positions = new HashMap<>();
+    private final Map<String, BitSet> brandsOfType = new HashMap<>();
+    private final BitSet inStock = new BitSet();
+    private int[] byName;
+    private int[] byCost;
+
+    /**
+     * Adds an instrument brand to the catalog.
+     *
+     * @param instrumentId The brand's id.
+     * @param name         The brand's name.
+     * @param type         The type of instrument.
+     * @param cost         The monthly cost of renting the brand.
+     * @param amount       The number of instruments that are not rented.
+     */
+    public synchronized void addBrand(int instrumentId, String name, String type, int cost,
+                                      int amount) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            costs = Arrays.copyOf(costs, capacity);
+            available = Arrays.copyOf(available, capacity);
+        }
+        ids[size] = instrumentId;
+        names[size] = name;
+        types[size] = type;
+        costs[size] = cost;
+        positions.put(instrumentId, size);
+        brandsOfType.computeIfAbsent(type, key -> new BitSet()).set(size);
+        size++;
+        setAvailable(instrumentId, amount);
+        byName = null;
+        byCost = null;
+    }
+
+    /**
+     * Updates the number of available instruments of the specified brand. Does
+     * nothing if the brand is not in the catalog.
+     *
+     * @param instrumentId The brand's id.
+     * @param amount       The number of instruments that are not rented.
+     */
+    public synchronized void setAvailable(int instrumentId, int amount) {
+        Integer position = positions.get(instrumentId);
+        if (position == null) {
+            return;
+        }
+        available[position] = amount;
+        inStock.set(position, amount > 0);
+    }
+
+    /**
+     * Finds the brands matching all the specified filters.
+     *
+     * @param type        The type of instrument, or <code>null</code> for all types.
+     * @param minCost     The lowest rental cost, or <code>null</code> for no limit.
+     * @param maxCost     The highest rental cost, or <code>null</code> for no limit.
+     * @param inStockOnly <code>true</code> if only brands with available instruments
+     *                    shall be found.
+     * @param order       The order of the found brands.
+     * @return The matching brands.
+     */
+    public synchronized List<Rental> search(String type, Integer minCost, Integer maxCost,
+                                            boolean inStockOnly, SortOrder order) {
+        BitSet matching;
+        if (type == null) {
+            matching = new BitSet(size);
+            matching.set(0, size);
+        } else {
+            BitSet ofType = brandsOfType.get(type);
+            matching = ofType == null ? new BitSet() : (BitSet)ofType.clone();
+        }
+        if (inStockOnly) {
+            matching.and(inStock);
+        }
+        int low = minCost == null ? Integer.MIN_VALUE : minCost;
+        int high = maxCost == null ? Integer.MAX_VALUE : maxCost;
+        int[] sorted = sortedPositions(order);
+        List<Rental> found = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int position = order == SortOrder.COST_DESCENDING ? sorted[size - 1 - i] : sorted[i];
+            if (matching.get(position) && costs[position] >= low && costs[position] <= high) {
+                found.add(new Rental(ids[position], names[position], types[position],
+                                     costs[position], available[position]));
+            }
+        }
+        return found;
+    }
+
+    private int[] sortedPositions(SortOrder order) {
+        if (order == SortOrder.NAME) {
+            if (byName == null) {
+                byName = sortPositions(Comparator.comparing(position -> names[position]));
+            }
+            return byName;
+        }
+        if (byCost == null) {
+            byCost = sortPositions(Comparator.<Integer>comparingInt(position -> costs[position])
+                                   .thenComparing(position -> names[position]));
+        }
+        return byCost;
+    }
+
+    private int[] sortPositions(Comparator<Integer> comparator) {
+        Integer[] sorted = new Integer[size];
+        for (int position = 0; position < size; position++) {
+            sorted[position] = position;
+        }
+        Arrays.sort(sorted, comparator);
+        return Arrays.stream(sorted).mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -31,7 +31,7 @@ public interface RentalDTO {
 
     public int getRentalCost();
 
-    public String getIntsrumentType();
+    public String getInstrumentType();
 
     public int getAvailableInstrumentAmount();
 }
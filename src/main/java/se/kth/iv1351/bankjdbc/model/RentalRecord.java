@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.time.LocalDate;
+
+/**
+ * One rental of an instrument, active or closed.
+ */
+public class RentalRecord implements RentalRecordDTO {
+    private final String instrumentName;
+    private final LocalDate rentalDate;
+    private final LocalDate closedDate;
+    private final boolean active;
+    private final boolean archived;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param instrumentName The name of the rented instrument.
+     * @param rentalDate     The date the instrument was rented.
+     * @param closedDate     The date the rental was closed, or <code>null</code> if
+     *                       it is active.
+     * @param active         <code>true</code> if the student still rents the
+     *                       instrument.
+     * @param archived       <code>true</code> if the rental has been moved to the
+     *                       rental history.
+     */
+    public RentalRecord(String instrumentName, LocalDate rentalDate, LocalDate closedDate,
+                        boolean active, boolean archived) {
+        this.instrumentName = instrumentName;
+        this.rentalDate = rentalDate;
+        this.closedDate = closedDate;
+        this.active = active;
+        this.archived = archived;
+    }
+
+    @Override
+    public String getInstrumentName() {
+        return instrumentName;
+    }
+
+    @Override
+    public LocalDate getRentalDate() {
+        return rentalDate;
+    }
+
+    @Override
+    public LocalDate getClosedDate() {
+        return closedDate;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public boolean isArchived() {
+        return archived;
+    }
+
+    /**
+     * @return A string representation of all fields in this object.
+     */
+    @Override
+    public String toString() {
+        StringBuilder stringRepresentation = new StringBuilder();
+        stringRepresentation.append("RentalRecord: [");
+        stringRepresentation.append("instrument brand: ");
+        stringRepresentation.append(instrumentName);
+        stringRepresentation.append(", rented: ");
+        stringRepresentation.append(rentalDate);
+        stringRepresentation.append(", closed: ");
+        stringRepresentation.append(closedDate);
+        stringRepresentation.append(", archived: ");
+        stringRepresentation.append(archived);
+        stringRepresentation.append("]");
+        return stringRepresentation.toString();
+    }
+}
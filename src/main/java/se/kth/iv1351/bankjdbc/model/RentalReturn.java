@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * The outcome of returning a rented instrument: the brand's number of available
+ * instruments after the return, and the student the instrument was handed over
+ * to, if any student waited for the brand.
+ */
+public class RentalReturn {
+    private final int instrumentID;
+    private final int availableInstrumentAmount;
+    private final Integer waiter;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param instrumentID              The returned brand.
+     * @param availableInstrumentAmount The brand's number of available instruments
+     *                                  after the return.
+     * @param waiter                    The student who now rents the returned
+     *                                  instrument, or <code>null</code> if no
+     *                                  student waited for it.
+     */
+    public RentalReturn(int instrumentID, int availableInstrumentAmount, Integer waiter) {
+        this.instrumentID = instrumentID;
+        this.availableInstrumentAmount = availableInstrumentAmount;
+        this.waiter = waiter;
+    }
+
+    /**
+     * @return The returned brand.
+     */
+    public int getInstrumentID() {
+        return instrumentID;
+    }
+
+    /**
+     * @return The brand's number of available instruments after the return.
+     */
+    public int getAvailableInstrumentAmount() {
+        return availableInstrumentAmount;
+    }
+
+    /**
+     * @return The student who now rents the returned instrument, or
+     *         <code>null</code> if no student waited for it.
+     */
+    public Integer getWaiter() {
+        return waiter;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * A student whose name matched a search.
+ */
+public class StudentMatch implements StudentMatchDTO {
+    private final int studentId;
+    private final String personNumber;
+    private final String name;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param studentId    The student's id.
+     * @param personNumber The student's person number.
+     * @param name         The student's name.
+     */
+    public StudentMatch(int studentId, String personNumber, String name) {
+        this.studentId = studentId;
+        this.personNumber = personNumber;
+        this.name = name;
+    }
+
+    @Override
+    public int getStudentId() {
+        return studentId;
+    }
+
+    @Override
+    public String getPersonNumber() {
+        return personNumber;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The payments of all students for the lessons they attended during a period, one
+ * payment per student and timeslot. The attended timeslots are added ordered by
+ * student, and all payments are then computed at once. Students are split into
+ * ranges of student ids, which are computed in parallel on a fork/join pool.
+ * Students with siblings at the school get a discount on each lesson.
+ */
+public class StudentPayments implements StudentPaymentsDTO {
+    /**
+     * The share of the lesson cost deducted for students with siblings.
+     */
+    public static final double SIBLING_DISCOUNT = 0.1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int SEQUENTIAL_PAYMENTS = 4096;
+
+    private final Map<String, Integer> levelCodes = new HashMap<>();
+    private String[] levels = new String[0];
+    private int[] studentIds = new int[INITIAL_CAPACITY];
+    private int[] timeslotIds = new int[INITIAL_CAPACITY];
+    private int[] levelsOfPayments = new int[INITIAL_CAPACITY];
+    private int[] costs;
+    private boolean[] pricedLevels;
+    private double[] discounts;
+    private int size;
+    private int students;
+    private double totalCharged;
+
+    /**
+     * Adds a timeslot attended by a student. Timeslots must be added ordered by
+     * student id.
+     *
+     * @param studentId  The student.
+     * @param timeslotId The attended timeslot.
+     * @param level      The level of the timeslot's lesson, which decides its cost.
+     */
+    public void addAttendance(int studentId, int timeslotId, String level) {
+        if (size == studentIds.length) {
+            studentIds = Arrays.copyOf(studentIds, size * 2);
+            timeslotIds = Arrays.copyOf(timeslotIds, size * 2);
+            levelsOfPayments = Arrays.copyOf(levelsOfPayments, size * 2);
+        }
+        if (size == 0 || studentIds[size - 1] != studentId) {
+            students++;
+        }
+        Integer levelCode = levelCodes.get(level);
+        if (levelCode == null) {
+            levelCode = levels.length;
+            levelCodes.put(level, levelCode);
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            levels[levelCode] = level;
+        }
+        studentIds[size] = studentId;
+        timeslotIds[size] = timeslotId;
+        levelsOfPayments[size] = levelCode;
+        size++;
+    }
+
+    /**
+     * Computes the cost and sibling discount of each payment.
+     *
+     * @param lessonCosts  The cost of a lesson at each level. Lessons at levels
+     *                     without cost are free.
+     * @param withSiblings The students with siblings, indexed by student id.
+     * @param pool         The pool computing the payments.
+     */
+    public void compute(Map<String, Integer> lessonCosts, BitSet withSiblings,
+                        ForkJoinPool pool) {
+        int[] costOfLevel = new int[levels.length];
+        pricedLevels = new boolean[levels.length];
+        for (int level = 0; level < levels.length; level++) {
+            costOfLevel[level] = lessonCosts.getOrDefault(levels[level], 0);
+            pricedLevels[level] = lessonCosts.containsKey(levels[level]);
+        }
+        costs = new int[size];
+        discounts = new double[size];
+        totalCharged = pool.invoke(new StudentRange(costOfLevel, withSiblings, 0, size));
+    }
+
+    /**
+     * @return The number of payments.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of students with at least one payment.
+     */
+    @Override
+    public int getStudentCount() {
+        return students;
+    }
+
+    /**
+     * @return The sum of all payments, after discounts.
+     */
+    @Override
+    public double getTotalCharged() {
+        return totalCharged;
+    }
+
+    /**
+     * @param payment The index of a payment.
+     * @return The student paying.
+     */
+    @Override
+    public int getStudentId(int payment) {
+        return studentIds[payment];
+    }
+
+    /**
+     * @param payment The index of a payment.
+     * @return The attended timeslot.
+     */
+    @Override
+    public int getTimeslotId(int payment) {
+        return timeslotIds[payment];
+    }
+
+    /**
+     * @param payment The index of a payment.
+     * @return The level of the lesson, or <code>null</code> if that level has no
+     *         cost.
+     */
+    @Override
+    public String getLevel(int payment) {
+        int level = levelsOfPayments[payment];
+        return pricedLevels[level] ? levels[level] : null;
+    }
+
+    /**
+     * @param payment The index of a payment.
+     * @return The cost of the lesson, before discounts.
+     */
+    @Override
+    public int getCost(int payment) {
+        return costs[payment];
+    }
+
+    /**
+     * @param payment The index of a payment.
+     * @return The sibling discount deducted from the cost.
+     */
+    @Override
+    public double getDiscount(int payment) {
+        return discounts[payment];
+    }
+
+    /**
+     * Computes the cost and sibling discount of the payments of a range of students.
+     */
+    private class StudentRange extends StudentRangeTask<Double> {
+        private final int[] costOfLevel;
+        private final BitSet withSiblings;
+
+        private StudentRange(int[] costOfLevel, BitSet withSiblings, int from, int to) {
+            super(studentIds, SEQUENTIAL_PAYMENTS, from, to);
+            this.costOfLevel = costOfLevel;
+            this.withSiblings = withSiblings;
+        }
+
+        @Override
+        protected Double computeRange(int from, int to) {
+            double charged = 0;
+            for (int payment = from; payment < to; payment++) {
+                int cost = costOfLevel[levelsOfPayments[payment]];
+                double discount = withSiblings.get(studentIds[payment])
+                                  ? cost * SIBLING_DISCOUNT : 0;
+                costs[payment] = cost;
+                discounts[payment] = discount;
+                charged += cost - discount;
+            }
+            return charged;
+        }
+
+        @Override
+        protected StudentRange subrange(int from, int to) {
+            return new StudentRange(costOfLevel, withSiblings, from, to);
+        }
+
+        @Override
+        protected Double merge(Double first, Double second) {
+            return first + second;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * Specifies a read-only view of the payments of all students for the lessons they
+ * attended during a period, one payment per student and timeslot.
+ */
+public interface StudentPaymentsDTO {
+    /**
+     * @return The number of payments.
+     */
+    public int size();
+
+    /**
+     * @return The number of students with at least one payment.
+     */
+    public int getStudentCount();
+
+    /**
+     * @return The sum of all payments, after discounts.
+     */
+    public double getTotalCharged();
+
+    /**
+     * @param payment The index of a payment.
+     * @return The student paying.
+     */
+    public int getStudentId(int payment);
+
+    /**
+     * @param payment The index of a payment.
+     * @return The attended timeslot.
+     */
+    public int getTimeslotId(int payment);
+
+    /**
+     * @param payment The index of a payment.
+     * @return The level of the lesson, or <code>null</code> if that level has no
+     *         cost.
+     */
+    public String getLevel(int payment);
+
+    /**
+     * @param payment The index of a payment.
+     * @return The cost of the lesson, before discounts.
+     */
+    public int getCost(int payment);
+
+    /**
+     * @param payment The index of a payment.
+     * @return The sibling discount deducted from the cost.
+     */
+    public double getDiscount(int payment);
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A fork/join task handling the rows <code>from</code> (inclusive) to
+ * <code>to</code> (exclusive) of rows ordered by student id. Larger ranges are
+ * split in two at a student boundary, so that all rows of a student are handled
+ * by one task, and the results of the two halves are merged.
+ *
+ * @param <T> The result of a range.
+ */
+public abstract class StudentRangeTask<T> extends RecursiveTask<T> {
+    private final int[] studentIds;
+    private final int sequentialRows;
+    private final int from;
+    private final int to;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param studentIds     The student of each row, ordered by student id.
+     * @param sequentialRows The largest range that is not split.
+     * @param from           The first row of the range.
+     * @param to             The row after the last row of the range.
+     */
+    protected StudentRangeTask(int[] studentIds, int sequentialRows, int from, int to) {
+        this.studentIds = studentIds;
+        this.sequentialRows = sequentialRows;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected final T compute() {
+        int middle = (from + to) >>> 1;
+        while (middle < to && middle > from && studentIds[middle] == studentIds[middle - 1]) {
+            middle++;
+        }
+        if (to - from <= sequentialRows || middle == to) {
+            return computeRange(from, to);
+        }
+        StudentRangeTask<T> firstHalf = subrange(from, middle);
+        firstHalf.fork();
+        T secondHalf = subrange(middle, to).compute();
+        return merge(firstHalf.join(), secondHalf);
+    }
+
+    /**
+     * Handles a range without splitting it.
+     *
+     * @param from The first row of the range.
+     * @param to   The row after the last row of the range.
+     * @return The result of the range.
+     */
+    protected abstract T computeRange(int from, int to);
+
+    /**
+     * Creates a task handling a part of this task's range.
+     *
+     * @param from The first row of the part.
+     * @param to   The row after the last row of the part.
+     * @return The task handling the part.
+     */
+    protected abstract StudentRangeTask<T> subrange(int from, int to);
+
+    /**
+     * Merges the results of two adjacent ranges.
+     *
+     * @param first  The result of the first range.
+     * @param second The result of the range following the first.
+     * @return The result of both ranges.
+     */
+    protected abstract T merge(T first, T second);
+}
@@ -23,6 +23,11 @@
 
 package se.kth.iv1351.bankjdbc.model;
 public class StudentRentals implements StudentRentalsDTO {
+    /**
+     * The maximum number of instruments a student may rent at the same time.
+     */
+    public static final int MAX_RENTALS = 2;
+
     private int studentID;
     private int numberOfRentals;
     private int rentalID;
@@ -44,13 +49,6 @@ public class StudentRentals implements StudentRentalsDTO {
         return studentID;
     }
 
-    public void newRental() throws RejectedException{
-        if (numberOfRentals >= 2) {
-            throw new RejectedException("Can not rent more then 2 at the same time");
-        }
-        numberOfRentals ++;
-    }
-
     /**
      * @return A string representation of all fields in this object.
      */
@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.startup;
+
+import java.time.YearMonth;
+
+import se.kth.iv1351.bankjdbc.controller.Controller;
+import se.kth.iv1351.bankjdbc.integration.BankDBException;
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.StudentPaymentsDTO;
+
+/**
+ * Computes the payments of all students for the lessons attended during a month.
+ */
+public class ComputeStudentPayments {
+    /**
+     * @param args The month, as <code>yyyy-mm</code>. The current month is used if
+     *             there is no argument.
+     */
+    public static void main(String[] args) {
+        YearMonth month = args.length > 0 ? YearMonth.parse(args[0]) : YearMonth.now();
+        try {
+            long start = System.nanoTime();
+            StudentPaymentsDTO payments = new Controller().computeStudentPayments(month);
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println("Computed " + payments.size() + " payments of "
+                               + payments.getStudentCount() + " students for " + month
+                               + ", total " + payments.getTotalCharged() + ", in " + millis
+                               + " ms.");
+        } catch (BankDBException | AccountException exc) {
+            System.out.println("Could not compute the student payments.");
+            exc.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.startup;
+
+import se.kth.iv1351.bankjdbc.integration.JdbcBankDAO;
+import se.kth.iv1351.bankjdbc.integration.BankDBException;
+
+/**
+ * Moves accounts to the shards selected by the current number of shards. Run this
+ * offline, after changing the system property <code>bankdb.shards</code>.
+ */
+public class RebalanceShards {
+    /**
+     * @param args There are no command line arguments.
+     */
+    public static void main(String[] args) {
+        try {
+            int movedAccounts = new JdbcBankDAO().rebalanceShards();
+            System.out.println("Moved " + movedAccounts + " accounts.");
+        } catch (BankDBException bdbe) {
+            System.out.println("Could not rebalance the account shards.");
+            bdbe.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.startup;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import se.kth.iv1351.bankjdbc.model.StudentPayments;
+
+/**
+ * Measures the time to compute the student payments of a month, without using the
+ * database. The attended lessons are generated randomly.
+ */
+public class StudentPaymentBenchmark {
+    private static final String[] LEVELS = {"beginner", "intermediate", "advanced"};
+    private static final int LESSONS_PER_STUDENT = 8;
+    private static final int ROUNDS = 10;
+
+    /**
+     * @param args The number of students, 100000 if there is no argument.
+     */
+    public static void main(String[] args) {
+        int studentCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(1351);
+        Map<String, Integer> lessonCosts = new HashMap<>();
+        for (int level = 0; level < LEVELS.length; level++) {
+            lessonCosts.put(LEVELS[level], 200 + 100 * level);
+        }
+        BitSet withSiblings = new BitSet(studentCount);
+        for (int student = 1; student <= studentCount; student++) {
+            if (random.nextInt(4) == 0) {
+                withSiblings.set(student);
+            }
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            StudentPayments payments = new StudentPayments();
+            for (int student = 1; student <= studentCount; student++) {
+                for (int lesson = 0; lesson < LESSONS_PER_STUDENT; lesson++) {
+                    payments.addAttendance(student, lesson,
+                                           LEVELS[random.nextInt(LEVELS.length)]);
+                }
+            }
+            long start = System.nanoTime();
+            payments.compute(lessonCosts, withSiblings, ForkJoinPool.commonPool());
+            long micros = (System.nanoTime() - start) / 1000;
+            System.out.println("Round " + round + ": " + payments.size() + " payments of "
+                               + payments.getStudentCount() + " students in " + micros
+                               + " us, total " + payments.getTotalCharged());
+        }
+    }
+}
@@ -24,12 +24,30 @@
 
 package se.kth.iv1351.bankjdbc.view;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import se.kth.iv1351.bankjdbc.controller.Controller;
 import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.ApplicationDTO;
+import se.kth.iv1351.bankjdbc.model.AvailableInstructorDTO;
+import se.kth.iv1351.bankjdbc.model.ExportFormat;
+import se.kth.iv1351.bankjdbc.model.ExportTable;
+import se.kth.iv1351.bankjdbc.model.InstructorLessonsDTO;
+import se.kth.iv1351.bankjdbc.model.InstrumentUtilizationDTO;
+import se.kth.iv1351.bankjdbc.model.MonthlyLessonsDTO;
+import se.kth.iv1351.bankjdbc.model.ReadCoalescing;
+import se.kth.iv1351.bankjdbc.model.RentalCatalog;
 import se.kth.iv1351.bankjdbc.model.RentalDTO;
+import se.kth.iv1351.bankjdbc.model.RentalRecordDTO;
+import se.kth.iv1351.bankjdbc.model.StudentMatchDTO;
 
 /**
  * Reads and interprets user commands. This command interpreter is blocking, the user
@@ -37,6 +55,9 @@ import se.kth.iv1351.bankjdbc.model.RentalDTO;
  */
 public class BlockingInterpreter {
     private static final String PROMPT = "> ";
+    private static final int MAX_STUDENT_MATCHES = 10;
+    private static final String WAIT_OPTION = "--wait";
+    private static final String AMOUNT_SEPARATOR = ":";
     private final Scanner console = new Scanner(System.in);
     private Controller ctrl;
     private boolean keepReceivingCmds = false;
@@ -64,6 +85,13 @@ public class BlockingInterpreter {
      */
     public void handleCmds() {
         keepReceivingCmds = true;
+        try {
+            ctrl.addRentalHandoverObserver((studentId, instrumentName) ->
+                System.out.print("\nStudent " + studentId + " now rents the returned "
+                                 + instrumentName + "\n" + PROMPT));
+        } catch (AccountException listenFailed) {
+            System.out.println("Rental handovers will not be shown.");
+        }
         while (keepReceivingCmds) {
             try {
                 CmdLine cmdLine = new CmdLine(readNextLine());
@@ -73,11 +101,12 @@ public class BlockingInterpreter {
                             if (command == Command.ILLEGAL_COMMAND) {
                                 continue;
                             }
-                            System.out.println(command.toString().toLowerCase());
+                            System.out.println(command.toString().toLowerCase().replace('_', '-'));
                         }
                         break;
                     case QUIT:
                         keepReceivingCmds = false;
+                        ctrl.closeApplicationIntake();
                         break;
                     case NEW:
                         ctrl.createAccount(cmdLine.getParameter(0));
@@ -85,6 +114,28 @@ public class BlockingInterpreter {
                     case DELETE:
                         ctrl.deleteAccount(cmdLine.getParameter(0));
                         break;
+                    case EXPORT:
+                        ExportTable table = ExportTable.valueOf(
+                            cmdLine.getParameter(0).toUpperCase());
+                        ExportFormat format = cmdLine.getParameter(2) == null
+                                              ? ExportFormat.CSV
+                                              : ExportFormat.valueOf(
+                                                  cmdLine.getParameter(2).toUpperCase());
+                        long exported = ctrl.export(table, Path.of(cmdLine.getParameter(1)),
+                                                    format);
+                        System.out.println("Exported " + exported + " rows to "
+                                           + cmdLine.getParameter(1));
+                        break;
+                    case SNAPSHOT:
+                        long saved = ctrl.snapshot(Path.of(cmdLine.getParameter(0)));
+                        System.out.println("Wrote " + saved + " rows to "
+                                           + cmdLine.getParameter(0));
+                        break;
+                    case RESTORE:
+                        long restored = ctrl.restore(Path.of(cmdLine.getParameter(0)));
+                        System.out.println("Restored " + restored + " rows from "
+                                           + cmdLine.getParameter(0));
+                        break;
                     case LIST:
                         List<? extends AccountDTO> accounts = null;
                         if (cmdLine.getParameter(0).equals("")) {
@@ -106,9 +157,55 @@ public class BlockingInterpreter {
                                     " Cost" +rental.getRentalCost());
                         }
                         break;
+                    case FIND_STUDENT:
+                        StringBuilder name = new StringBuilder();
+                        for (int i = 0; cmdLine.getParameter(i) != null; i++) {
+                            name.append(name.length() == 0 ? "" : " ")
+                                .append(cmdLine.getParameter(i));
+                        }
+                        for (StudentMatchDTO student : ctrl.findStudents(name.toString(),
+                                                                         MAX_STUDENT_MATCHES)) {
+                            System.out.println("student: " + student.getStudentId() + ", "
+                                             + "person number: " + student.getPersonNumber()
+                                             + ", name: " + student.getName());
+                        }
+                        break;
+                    case SEARCH:
+                        String type = null;
+                        Integer minCost = null;
+                        Integer maxCost = null;
+                        boolean inStockOnly = false;
+                        RentalCatalog.SortOrder order = RentalCatalog.SortOrder.NAME;
+                        for (int i = 0; cmdLine.getParameter(i) != null; i++) {
+                            String filter = cmdLine.getParameter(i);
+                            String value = filter.substring(filter.indexOf('=') + 1);
+                            if (filter.startsWith("type=")) {
+                                type = value;
+                            } else if (filter.startsWith("min=")) {
+                                minCost = Integer.parseInt(value);
+                            } else if (filter.startsWith("max=")) {
+                                maxCost = Integer.parseInt(value);
+                            } else if (filter.equals("instock")) {
+                                inStockOnly = true;
+                            } else if (filter.startsWith("sort=")) {
+                                order = RentalCatalog.SortOrder.valueOf(
+                                    value.toUpperCase().replace('-', '_'));
+                            }
+                        }
+                        for (RentalDTO rental : ctrl.searchRentals(type, minCost, maxCost,
+                                                                   inStockOnly, order)) {
+                            System.out.println("Brand: " + rental.getInstrumentName() + ", "
+                                             + "type: " + rental.getInstrumentType() + ", "
+                                             + "cost: " + rental.getRentalCost() + ", "
+                                             + "available: "
+                                             + rental.getAvailableInstrumentAmount());
+                        }
+                        break;
                     case RENT:
-                        ctrl.newRental(Integer.parseInt(cmdLine.getParameter(0)),
-                                        cmdLine.getParameter(1));
+                        boolean wait = WAIT_OPTION.equals(cmdLine.getParameter(0));
+                        int firstParam = wait ? 1 : 0;
+                        ctrl.newRental(Integer.parseInt(cmdLine.getParameter(firstParam)),
+                                       cmdLine.getParameter(firstParam + 1), wait);
 
                         break;
 
@@ -117,6 +214,100 @@ public class BlockingInterpreter {
                                          cmdLine.getParameter(1));
                         break;
 
+                    case HISTORY:
+                        List<? extends RentalRecordDTO> records = ctrl.getRentalRecords(
+                            Integer.parseInt(cmdLine.getParameter(0)),
+                            "all".equals(cmdLine.getParameter(1)));
+                        for (RentalRecordDTO record : records) {
+                            System.out.println("Brand: " + record.getInstrumentName() + ", "
+                                             + "rented: " + record.getRentalDate() + ", "
+                                             + (record.isActive() ? "active"
+                                                : "closed: " + record.getClosedDate())
+                                             + (record.isArchived() ? ", archived" : ""));
+                        }
+                        break;
+
+                    case LESSONS:
+                        for (MonthlyLessonsDTO lessons : ctrl.getLessonsPerMonth(
+                                Integer.parseInt(cmdLine.getParameter(0)))) {
+                            System.out.println(lessons.getMonth() + ", "
+                                             + lessons.getLessonType() + ": "
+                                             + lessons.getLessons());
+                        }
+                        break;
+                    case INSTRUCTORS:
+                        for (InstructorLessonsDTO instructor : ctrl.getBusyInstructors(
+                                YearMonth.parse(cmdLine.getParameter(0)),
+                                Integer.parseInt(cmdLine.getParameter(1)))) {
+                            System.out.println(instructor.getInstructorName() + ": "
+                                             + instructor.getLessons() + " lessons");
+                        }
+                        break;
+                    case UTILIZATION:
+                        for (InstrumentUtilizationDTO instrument : ctrl.getInstrumentUtilization(
+                                YearMonth.parse(cmdLine.getParameter(0)))) {
+                            System.out.println("Brand: " + instrument.getInstrumentName() + ", "
+                                             + "rentals: " + instrument.getRentals() + ", "
+                                             + "available: " + instrument.getAvailableAmount());
+                        }
+                        break;
+
+                    case AVAILABLE:
+                        List<LocalDate> dates = new ArrayList<>();
+                        for (int i = 1; cmdLine.getParameter(i) != null; i++) {
+                            dates.add(LocalDate.parse(cmdLine.getParameter(i)));
+                        }
+                        for (AvailableInstructorDTO instructor : ctrl.getAvailableInstructors(
+                                cmdLine.getParameter(0), dates)) {
+                            System.out.println("instructor: " + instructor.getInstructorId()
+                                             + " " + instructor.getInstructorName() + ", "
+                                             + "timeslot: " + instructor.getTimeslotId()
+                                             + " " + instructor.getDate());
+                        }
+                        break;
+                    case BOOK:
+                        ctrl.bookInstructor(Integer.parseInt(cmdLine.getParameter(0)),
+                                            Integer.parseInt(cmdLine.getParameter(1)));
+                        break;
+                    case ENROLL:
+                        ctrl.enrollStudent(Integer.parseInt(cmdLine.getParameter(0)),
+                                           Integer.parseInt(cmdLine.getParameter(1)));
+                        break;
+                    case APPLY:
+                        StringBuilder skill = new StringBuilder();
+                        for (int i = 3; cmdLine.getParameter(i) != null; i++) {
+                            skill.append(skill.length() == 0 ? "" : " ")
+                                 .append(cmdLine.getParameter(i));
+                        }
+                        ctrl.submitApplication(Integer.parseInt(cmdLine.getParameter(0)),
+                                               Integer.parseInt(cmdLine.getParameter(1)),
+                                               "audition".equals(cmdLine.getParameter(2)),
+                                               skill.toString());
+                        break;
+                    case FAILED:
+                        for (ApplicationDTO application : ctrl.takeFailedApplications()) {
+                            System.out.println("student: " + application.getStudentId() + ", "
+                                             + "lesson: " + application.getLessonId() + ", "
+                                             + "skill: " + application.getSkill());
+                        }
+                        break;
+                    case AUDITIONS:
+                        for (ApplicationDTO application : ctrl.claimAuditions(
+                                Integer.parseInt(cmdLine.getParameter(0)),
+                                Integer.parseInt(cmdLine.getParameter(1)))) {
+                            System.out.println("student: " + application.getStudentId() + ", "
+                                             + "lesson: " + application.getLessonId() + ", "
+                                             + "due: " + application.getAuditionDue() + ", "
+                                             + "skill: " + application.getSkill());
+                        }
+                        break;
+                    case AUDITION:
+                        ctrl.recordAudition(Integer.parseInt(cmdLine.getParameter(0)),
+                                            Integer.parseInt(cmdLine.getParameter(1)),
+                                            Integer.parseInt(cmdLine.getParameter(2)),
+                                            "pass".equals(cmdLine.getParameter(3)));
+                        break;
+
                     case DEPOSIT:
                         ctrl.deposit(cmdLine.getParameter(0), 
                                      Integer.parseInt(cmdLine.getParameter(1)));
@@ -125,6 +316,21 @@ public class BlockingInterpreter {
                         ctrl.withdraw(cmdLine.getParameter(0), 
                                       Integer.parseInt(cmdLine.getParameter(1)));
                         break;
+                    case TRANSFER:
+                        if (cmdLine.getParameter(1).contains(AMOUNT_SEPARATOR)) {
+                            Map<String, Integer> amounts = new LinkedHashMap<>();
+                            for (int i = 1; cmdLine.getParameter(i) != null; i++) {
+                                String[] receiver = cmdLine.getParameter(i)
+                                                           .split(AMOUNT_SEPARATOR);
+                                amounts.merge(receiver[0], Integer.parseInt(receiver[1]),
+                                              Integer::sum);
+                            }
+                            ctrl.transfer(cmdLine.getParameter(0), amounts);
+                        } else {
+                            ctrl.transfer(cmdLine.getParameter(0), cmdLine.getParameter(1),
+                                          Integer.parseInt(cmdLine.getParameter(2)));
+                        }
+                        break;
                     case BALANCE:
                         AccountDTO acct = ctrl.getAccount(cmdLine.getParameter(0));
                         if (acct != null) {
@@ -133,6 +339,13 @@ public class BlockingInterpreter {
                             System.out.println("No such account");
                         }
                         break;
+                    case STATS:
+                        for (ReadCoalescing reads : ctrl.getReadCoalescing()) {
+                            System.out.printf("%s: %d reads, %d queries, %.1f reads per query%n",
+                                              reads.getName(), reads.getReads(),
+                                              reads.getQueries(), reads.getReadsPerQuery());
+                        }
+                        break;
                     default:
                         System.out.println("illegal command");
                 }
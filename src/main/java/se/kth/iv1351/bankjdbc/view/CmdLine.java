@@ -94,7 +94,7 @@ class CmdLine {
                 return;
             }
             String[] enteredTokens = trimmed.split(PARAM_DELIMETER);
-            cmd = Command.valueOf(enteredTokens[cmdNameIndex].toUpperCase());
+            cmd = Command.valueOf(commandName(enteredTokens[cmdNameIndex]));
         } catch (Exception failedToReadCmd) {
             cmd = Command.ILLEGAL_COMMAND;
         }
@@ -113,11 +113,15 @@ class CmdLine {
         params = paramPartOfCmd.split(PARAM_DELIMETER);
     }
 
+    private String commandName(String enteredText) {
+        return enteredText.toUpperCase().replace('-', '_');
+    }
+
     private String removeCmd(String enteredLine) {
         if (cmd == Command.ILLEGAL_COMMAND) {
             return enteredLine;
         }
-        int indexAfterCmd = enteredLine.toUpperCase().indexOf(cmd.name()) + cmd.name().length();
+        int indexAfterCmd = commandName(enteredLine).indexOf(cmd.name()) + cmd.name().length();
         String withoutCmd = enteredLine.substring(indexAfterCmd, enteredLine.length());
         return withoutCmd.trim();
     }
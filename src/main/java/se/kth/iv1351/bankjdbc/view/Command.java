@@ -30,10 +30,71 @@ package se.kth.iv1351.bankjdbc.view;
 public enum Command {
 
     RENTALS,
+    /**
+     * Lists the instrument brands matching the specified filters, which are
+     * <code>type=</code>, <code>min=</code>, <code>max=</code> and
+     * <code>instock</code>, sorted as specified by <code>sort=</code>.
+     */
+    SEARCH,
+    /**
+     * Lists the students whose name contains the specified text. Entered as
+     * <code>find-student</code>.
+     */
+    FIND_STUDENT,
 
     RENT,
 
     CLOSE,
+    /**
+     * Lists the rentals of the specified student. Archived rentals are included if
+     * the second parameter is "all".
+     */
+    HISTORY,
+    /**
+     * Lists the number of lessons of each type in each month of the specified year.
+     */
+    LESSONS,
+    /**
+     * Lists the instructors that gave more than the specified number of lessons
+     * during the specified month.
+     */
+    INSTRUCTORS,
+    /**
+     * Lists the number of rentals of each instrument brand during the specified
+     * month.
+     */
+    UTILIZATION,
+    /**
+     * Lists the instructors teaching the specified instrument that are available at
+     * any of the specified dates.
+     */
+    AVAILABLE,
+    /**
+     * Books the specified instructor at the specified timeslot.
+     */
+    BOOK,
+    /**
+     * Enrolls the specified student into the specified group lesson or ensemble.
+     */
+    ENROLL,
+    /**
+     * Submits the specified student's application to the specified lesson.
+     */
+    APPLY,
+    /**
+     * Lists the submitted applications that could not be stored.
+     */
+    FAILED,
+    /**
+     * Claims the next applications waiting for an audition, for the specified
+     * instructor.
+     */
+    AUDITIONS,
+    /**
+     * Records whether the specified student passed the audition held by the
+     * specified instructor.
+     */
+    AUDITION,
     /**
      * Creates a new account.
      */
@@ -42,6 +103,20 @@ public enum Command {
      * Lists all existing accounts.
      */
     LIST,
+    /**
+     * Writes the specified table to the specified file, as <code>csv</code> or
+     * <code>json</code>.
+     */
+    EXPORT,
+    /**
+     * Writes all holders, accounts, brands and rentals to the specified file.
+     */
+    SNAPSHOT,
+    /**
+     * Replaces all holders, accounts, brands and rentals with those in the
+     * specified snapshot file.
+     */
+    RESTORE,
     /**
      * Deletes the specified account.
      */
@@ -54,10 +129,21 @@ public enum Command {
      * Withdraws the specified amount from the specified account
      */
     WITHDRAW,
+    /**
+     * Moves the specified amounts from the specified account to one or more
+     * other accounts, in one transaction. When accounts are spread over several
+     * databases, a transfer between accounts stored in different databases is
+     * refused.
+     */
+    TRANSFER,
     /**
      * Lists the balance of the specified account.
      */
     BALANCE,
+    /**
+     * Lists how many identical concurrent reads shared one query.
+     */
+    STATS,
     /**
      * Lists all commands.
      */
@@ -0,0 +1,16 @@
+-- Students waiting for an instrument brand that has no available instruments.
+-- When an instrument of the brand is returned, it is rented to the student who
+-- has waited longest, in the same transaction as the return, and the waiting
+-- student is notified on the rental_handover channel.
+
+CREATE TABLE IF NOT EXISTS "rental_waitlist"
+(
+	"waitlist_id" serial PRIMARY KEY,
+	"instrument_id" int NOT NULL REFERENCES "renting_instrument" ON DELETE CASCADE,
+	"student_id" int NOT NULL REFERENCES "student" ON DELETE CASCADE,
+	"enqueued_at" timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	UNIQUE ("instrument_id", "student_id")
+);
+
+CREATE INDEX IF NOT EXISTS "rental_waitlist_queue_idx"
+  ON "rental_waitlist" ("instrument_id", "waitlist_id");
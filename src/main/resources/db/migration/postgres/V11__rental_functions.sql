@@ -0,0 +1,79 @@
+-- Renting and returning an instrument, each with all its checks, in a single
+-- call, which JdbcBankDAO makes instead of sending the statements one at a time.
+-- A rental that is not allowed is rejected with SQLSTATE BK001, which JdbcBankDAO
+-- maps to RejectedException. The brand is locked before the student, as when a
+-- student joins a waitlist. The notifications use the same channels and payloads
+-- as ChangeListener and JdbcBankDAO.
+
+CREATE OR REPLACE FUNCTION "rent_instrument"(renting_student int, brand varchar,
+  max_rentals int, OUT brand_id int, OUT brand_available int) AS $$
+BEGIN
+  SELECT "renting_id", "available_instrument_amount" INTO brand_id, brand_available
+    FROM "renting_instrument" WHERE "instrument_name" = brand FOR UPDATE;
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'There is no instrument brand named %', brand USING ERRCODE = 'BK001';
+  END IF;
+  IF brand_available <= 0 THEN
+    RAISE EXCEPTION 'Can not rent, no available of this brand' USING ERRCODE = 'BK001';
+  END IF;
+  UPDATE "student" SET "active_rentals" = "active_rentals" + 1
+    WHERE "student_id" = renting_student AND "active_rentals" < max_rentals;
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'Can not rent, student % does not exist or already rents % instruments',
+      renting_student, max_rentals USING ERRCODE = 'BK001';
+  END IF;
+  INSERT INTO "rented_instrument" ("instrument_id", "student_id", "date", "currently_renting")
+    VALUES (brand_id, renting_student, CURRENT_DATE, B'1');
+  brand_available := brand_available - 1;
+  UPDATE "renting_instrument" SET "available_instrument_amount" = brand_available
+    WHERE "renting_id" = brand_id;
+  PERFORM pg_notify('bank_change', 'r:' || brand_id || ':' || brand_available);
+END $$ LANGUAGE plpgsql;
+
+-- If students wait for the brand, the returned instrument is rented to the
+-- student who has waited longest and may rent one more instrument, whose id is
+-- returned in waiter_id. Otherwise waiter_id is null, and the brand's number of
+-- available instruments is incremented.
+CREATE OR REPLACE FUNCTION "return_instrument"(returning_student int, brand varchar,
+  max_rentals int, OUT brand_id int, OUT brand_available int, OUT waiter_id int) AS $$
+DECLARE
+  next_waitlist_id int;
+  next_waiter int;
+BEGIN
+  SELECT "renting_id", "available_instrument_amount" INTO brand_id, brand_available
+    FROM "renting_instrument" WHERE "instrument_name" = brand FOR UPDATE;
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'There is no instrument brand named %', brand USING ERRCODE = 'BK001';
+  END IF;
+  UPDATE "rented_instrument" SET "currently_renting" = B'0', "closed_date" = CURRENT_DATE
+    WHERE "rented_id" = (SELECT r."rented_id" FROM "rented_instrument" r
+                         WHERE r."student_id" = returning_student
+                           AND r."instrument_id" = brand_id
+                           AND r."currently_renting" = B'1' LIMIT 1);
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'Can not return, student % does not rent %', returning_student, brand
+      USING ERRCODE = 'BK001';
+  END IF;
+  UPDATE "student" SET "active_rentals" = "active_rentals" - 1
+    WHERE "student_id" = returning_student;
+  LOOP
+    SELECT w."waitlist_id", w."student_id" INTO next_waitlist_id, next_waiter
+      FROM "rental_waitlist" w WHERE w."instrument_id" = brand_id
+      ORDER BY w."waitlist_id" LIMIT 1;
+    EXIT WHEN NOT FOUND;
+    DELETE FROM "rental_waitlist" WHERE "waitlist_id" = next_waitlist_id;
+    UPDATE "student" SET "active_rentals" = "active_rentals" + 1
+      WHERE "student_id" = next_waiter AND "active_rentals" < max_rentals;
+    IF FOUND THEN
+      INSERT INTO "rented_instrument" ("instrument_id", "student_id", "date", "currently_renting")
+        VALUES (brand_id, next_waiter, CURRENT_DATE, B'1');
+      PERFORM pg_notify('rental_handover', next_waiter || ':' || brand);
+      waiter_id := next_waiter;
+      RETURN;
+    END IF;
+  END LOOP;
+  brand_available := brand_available + 1;
+  UPDATE "renting_instrument" SET "available_instrument_amount" = brand_available
+    WHERE "renting_id" = brand_id;
+  PERFORM pg_notify('bank_change', 'r:' || brand_id || ':' || brand_available);
+END $$ LANGUAGE plpgsql;
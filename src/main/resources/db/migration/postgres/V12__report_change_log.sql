@@ -0,0 +1,34 @@
+-- Replaces the dirty month marks of V6 by an append-only log of changed months.
+-- Marking a month updated its single row, so all rentals of a month waited for
+-- each other, and for a refresh of that month. A change now only inserts a new
+-- row, which never waits. ReportAggregates recomputes each month found in the
+-- log and deletes exactly the rows it read. Refreshes are serialized by locking
+-- the only row of report_refresh, which no change touches.
+
+CREATE TABLE IF NOT EXISTS "report_change"
+(
+	"change_id" bigint GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+	"report" varchar(20) NOT NULL,
+	"month" date NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "report_refresh"
+(
+	"refresh_id" int PRIMARY KEY
+);
+
+INSERT INTO "report_refresh" ("refresh_id") VALUES (1) ON CONFLICT DO NOTHING;
+
+CREATE OR REPLACE FUNCTION "mark_report_month"(changed_report varchar, changed_day date)
+  RETURNS void AS $$
+BEGIN
+  IF changed_day IS NOT NULL THEN
+    INSERT INTO "report_change" ("report", "month")
+      VALUES (changed_report, date_trunc('month', changed_day)::date);
+  END IF;
+END $$ LANGUAGE plpgsql;
+
+INSERT INTO "report_change" ("report", "month")
+  SELECT "report", "month" FROM "report_dirty_month";
+
+DROP TABLE "report_dirty_month";
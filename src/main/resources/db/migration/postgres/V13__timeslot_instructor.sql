@@ -0,0 +1,7 @@
+-- The instructor booked for a single timeslot. Booking an instructor at a
+-- timeslot sets this column, instead of changing the instructor of the whole
+-- lesson. A timeslot without a booked instructor is taught by its lesson's
+-- instructor.
+
+ALTER TABLE "timeslot" ADD COLUMN IF NOT EXISTS "instructor_id" int
+  REFERENCES "instructor" ON DELETE SET NULL;
@@ -0,0 +1,14 @@
+-- A claimed audition is leased to its reviewer from the time it was claimed.
+-- An application whose result is not recorded before the lease runs out
+-- returns to the queue, and can be claimed by another instructor.
+
+ALTER TABLE "application" ADD COLUMN IF NOT EXISTS "claimed_at" timestamp;
+
+UPDATE "application" SET "claimed_at" = CURRENT_TIMESTAMP
+  WHERE "reviewer_id" IS NOT NULL AND "claimed_at" IS NULL;
+
+DROP INDEX IF EXISTS "application_audition_queue_idx";
+
+CREATE INDEX IF NOT EXISTS "application_audition_queue_idx"
+  ON "application" ("audition_due", "submitted_at")
+  WHERE "audition_required" = B'1' AND "audition_passed" IS NULL;
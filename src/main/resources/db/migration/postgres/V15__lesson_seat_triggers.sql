@@ -0,0 +1,35 @@
+-- Keeps lesson_seat in step with the maximum number of students of group
+-- lessons and ensembles. V7 only created the seats of the lessons existing at
+-- the time, so a lesson created later could be overbooked. A lesson whose
+-- maximum is removed gets no seat row, and enrolling into it is unlimited.
+
+CREATE OR REPLACE FUNCTION "sync_lesson_seat"() RETURNS trigger AS $$
+BEGIN
+  IF NEW."maximum_students" IS NULL THEN
+    DELETE FROM "lesson_seat" WHERE "lesson_id" = NEW."lesson_id";
+  ELSE
+    INSERT INTO "lesson_seat" ("lesson_id", "maximum_students", "enrolled")
+      VALUES (NEW."lesson_id", NEW."maximum_students",
+              (SELECT COUNT(*) FROM "student_list" sl WHERE sl."lesson_id" = NEW."lesson_id"))
+      ON CONFLICT ("lesson_id")
+      DO UPDATE SET "maximum_students" = EXCLUDED."maximum_students";
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS "group_lesson_seat" ON "group_lesson";
+CREATE TRIGGER "group_lesson_seat" AFTER INSERT OR UPDATE OF "maximum_students"
+  ON "group_lesson" FOR EACH ROW EXECUTE FUNCTION "sync_lesson_seat"();
+
+DROP TRIGGER IF EXISTS "ensemble_seat" ON "ensemble";
+CREATE TRIGGER "ensemble_seat" AFTER INSERT OR UPDATE OF "maximum_students"
+  ON "ensemble" FOR EACH ROW EXECUTE FUNCTION "sync_lesson_seat"();
+
+INSERT INTO "lesson_seat" ("lesson_id", "maximum_students", "enrolled")
+  SELECT l."lesson_id", l."maximum_students",
+         (SELECT COUNT(*) FROM "student_list" sl WHERE sl."lesson_id" = l."lesson_id")
+  FROM (SELECT "lesson_id", "maximum_students" FROM "group_lesson"
+        UNION ALL SELECT "lesson_id", "maximum_students" FROM "ensemble") l
+  WHERE l."maximum_students" IS NOT NULL
+  ON CONFLICT DO NOTHING;
@@ -0,0 +1,45 @@
+-- A returned instrument is handed over to the student who has waited longest
+-- and may rent one more instrument. V11 deleted the waiters it skipped because
+-- they already rented the maximum number of instruments, without telling them.
+-- They now keep their place in the waitlist, and get a later returned
+-- instrument once they have returned one of their own.
+
+CREATE OR REPLACE FUNCTION "return_instrument"(returning_student int, brand varchar,
+  max_rentals int, OUT brand_id int, OUT brand_available int, OUT waiter_id int) AS $$
+DECLARE
+  waiter record;
+BEGIN
+  SELECT "renting_id", "available_instrument_amount" INTO brand_id, brand_available
+    FROM "renting_instrument" WHERE "instrument_name" = brand FOR UPDATE;
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'There is no instrument brand named %', brand USING ERRCODE = 'BK001';
+  END IF;
+  UPDATE "rented_instrument" SET "currently_renting" = B'0', "closed_date" = CURRENT_DATE
+    WHERE "rented_id" = (SELECT r."rented_id" FROM "rented_instrument" r
+                         WHERE r."student_id" = returning_student
+                           AND r."instrument_id" = brand_id
+                           AND r."currently_renting" = B'1' LIMIT 1);
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'Can not return, student % does not rent %', returning_student, brand
+      USING ERRCODE = 'BK001';
+  END IF;
+  UPDATE "student" SET "active_rentals" = "active_rentals" - 1
+    WHERE "student_id" = returning_student;
+  FOR waiter IN SELECT w."waitlist_id", w."student_id" FROM "rental_waitlist" w
+                WHERE w."instrument_id" = brand_id ORDER BY w."waitlist_id" LOOP
+    UPDATE "student" SET "active_rentals" = "active_rentals" + 1
+      WHERE "student_id" = waiter."student_id" AND "active_rentals" < max_rentals;
+    IF FOUND THEN
+      DELETE FROM "rental_waitlist" WHERE "waitlist_id" = waiter."waitlist_id";
+      INSERT INTO "rented_instrument" ("instrument_id", "student_id", "date", "currently_renting")
+        VALUES (brand_id, waiter."student_id", CURRENT_DATE, B'1');
+      PERFORM pg_notify('rental_handover', waiter."student_id" || ':' || brand);
+      waiter_id := waiter."student_id";
+      RETURN;
+    END IF;
+  END LOOP;
+  brand_available := brand_available + 1;
+  UPDATE "renting_instrument" SET "available_instrument_amount" = brand_available
+    WHERE "renting_id" = brand_id;
+  PERFORM pg_notify('bank_change', 'r:' || brand_id || ':' || brand_available);
+END $$ LANGUAGE plpgsql;
@@ -0,0 +1,19 @@
+-- Gives back the seat of a student who is removed from a lesson. Enrolling
+-- takes a seat by incrementing lesson_seat.enrolled, but nothing decremented it
+-- when a row of student_list was deleted, so a lesson whose students left stayed
+-- full. The seats already lost that way are recounted.
+
+CREATE OR REPLACE FUNCTION "release_lesson_seat"() RETURNS trigger AS $$
+BEGIN
+  UPDATE "lesson_seat" SET "enrolled" = "enrolled" - 1
+    WHERE "lesson_id" = OLD."lesson_id" AND "enrolled" > 0;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS "student_list_release_seat" ON "student_list";
+CREATE TRIGGER "student_list_release_seat" AFTER DELETE ON "student_list"
+  FOR EACH ROW EXECUTE FUNCTION "release_lesson_seat"();
+
+UPDATE "lesson_seat" s SET "enrolled" =
+  (SELECT COUNT(*) FROM "student_list" sl WHERE sl."lesson_id" = s."lesson_id");
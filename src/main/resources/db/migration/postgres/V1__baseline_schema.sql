@@ -0,0 +1,225 @@
+-- The bank tables and the music school tables of datalagring.sql. All tables
+-- are created only if they do not exist, so that this migration can be applied
+-- to a database that was created from the old schema files.
+
+CREATE TABLE IF NOT EXISTS "holder"
+(
+  "holder_id" SERIAL PRIMARY KEY,
+  "name" VARCHAR(100) UNIQUE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "account"
+(
+  "account_id" SERIAL PRIMARY KEY,
+  "account_no" VARCHAR(10),
+  "balance" INT,
+  "holder_id" INT NOT NULL REFERENCES "holder" ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS "holder_shard"
+(
+  "name" VARCHAR(100) NOT NULL,
+  "shard_no" INT NOT NULL,
+  PRIMARY KEY ("name", "shard_no")
+);
+
+CREATE TABLE IF NOT EXISTS "person"
+(
+  "person_id" serial PRIMARY KEY,
+  "person_number" varchar(12) UNIQUE,
+  "name" varchar(100),
+  "street" varchar(100),
+  "zip" varchar(5),
+  "city" varchar(50),
+  "age" int
+);
+
+CREATE TABLE IF NOT EXISTS "contact_details"
+(
+  "person_id" int NOT NULL REFERENCES "person" ON DELETE CASCADE,
+  "contact" varchar(100) NOT NULL,
+  PRIMARY KEY ("person_id")
+);
+
+CREATE TABLE IF NOT EXISTS "genres"
+(
+	"genre_id" serial PRIMARY KEY,
+    "genre" varchar(100) UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS "instruments"
+(
+	"instrument_name" varchar(100) PRIMARY KEY
+);
+
+CREATE TABLE IF NOT EXISTS "levels"
+(
+	"level" varchar(100) PRIMARY KEY
+);
+
+CREATE TABLE IF NOT EXISTS "extra_costs"
+(
+	"costs_id" serial PRIMARY KEY,
+    "date_fee" int,
+    "rent_cost" int
+);
+
+CREATE TABLE IF NOT EXISTS "student"
+(
+  "student_id" serial PRIMARY KEY,
+  "person_id" int NOT NULL REFERENCES "person" UNIQUE,
+  "siblings" BIT
+);
+
+CREATE TABLE IF NOT EXISTS "contact_details_parents"
+(
+  "student_id" int NOT NULL REFERENCES "student" ON DELETE CASCADE,
+  "contact" varchar(100) NOT NULL,
+  PRIMARY KEY ("student_id")
+);
+
+
+CREATE TABLE IF NOT EXISTS "instructor"
+(
+  "instructor_id" serial PRIMARY KEY,
+  "person_id" int NOT NULL REFERENCES "person" UNIQUE,
+  "employment_id" varchar(10) UNIQUE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "teach_ensemble"
+(
+  "genre_id" int NOT NULL REFERENCES "genres" ON DELETE CASCADE,
+  "instructor_id" int NOT NULL REFERENCES "instructor" ON DELETE CASCADE,
+  PRIMARY KEY("genre_id", "instructor_id")
+);
+
+CREATE TABLE IF NOT EXISTS "teach_instrument"
+(	
+  "instrument_id" varchar(100) NOT NULL REFERENCES "instruments" ON DELETE CASCADE,
+  "instructor_id" int NOT NULL REFERENCES "instructor" ON DELETE CASCADE,
+  PRIMARY KEY("instrument_id", "instructor_id")
+);
+
+CREATE TABLE IF NOT EXISTS "renting_instrument"
+(
+	"renting_id" serial PRIMARY KEY,
+    "available_instrument_amount" int ,
+	"instrument_type" varchar(100) REFERENCES "instruments" ON DELETE SET NULL,
+	"instrument_name" varchar(100) UNIQUE,
+	"rental_cost" int
+);
+
+CREATE TABLE IF NOT EXISTS "rented_instrument"
+(
+	"rented_id" serial PRIMARY KEY,
+	"instrument_id" int NOT NULL REFERENCES "renting_instrument" ON DELETE CASCADE,
+	"student_id" int NOT NULL REFERENCES "student" ON DELETE CASCADE,
+    "date" date,
+	"currently_renting" bit
+);
+
+CREATE TABLE IF NOT EXISTS "lesson"
+(
+	"lesson_id" serial PRIMARY KEY,
+    "level" varchar(100) REFERENCES "levels" ON DELETE SET NULL,
+	"instructor_id" int REFERENCES "instructor" ON DELETE SET NULL
+);
+
+CREATE TABLE IF NOT EXISTS "individual_lesson"
+(
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+    PRIMARY KEY ("lesson_id"),
+    "instrument_id" varchar(100) REFERENCES "instruments" ON DELETE SET NULL
+);
+
+CREATE TABLE IF NOT EXISTS "group_lesson"
+(
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+    PRIMARY KEY ("lesson_id"),
+    "minimum_students" int,
+    "maximum_students" int,
+    "instrument_id" varchar(100) REFERENCES "instruments" ON DELETE SET NULL
+);
+
+CREATE TABLE IF NOT EXISTS "ensemble"
+(
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+    PRIMARY KEY ("lesson_id"),
+    "minimum_students" int,
+    "maximum_students" int,
+    "genre_id" int REFERENCES "genres" ON DELETE SET NULL
+);
+
+CREATE TABLE IF NOT EXISTS "student_list"
+(
+	"list_id" serial PRIMARY KEY,
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+   	"student_id" int REFERENCES "student" ON DELETE CASCADE,
+	UNIQUE ("lesson_id","student_id")	
+);
+
+CREATE TABLE IF NOT EXISTS "application"
+(
+	"lesson_id" int REFERENCES "lesson" ON DELETE CASCADE,
+	"student_id" int REFERENCES "student" ON DELETE CASCADE,
+	PRIMARY KEY ("lesson_id","student_id"),
+    "skill" varchar(500),
+    "audition_required" bit,
+    "save_application" bit
+);
+
+CREATE TABLE IF NOT EXISTS "timeslot"
+(
+	"timeslot_id" serial PRIMARY KEY,
+    "lesson_id" int REFERENCES "lesson" ON DELETE SET NULL,
+    "date" date
+);
+
+CREATE TABLE IF NOT EXISTS "available_instructor"
+(
+	"instructor_id" int REFERENCES "instructor" ON DELETE CASCADE,
+	"timeslot_id" int REFERENCES "timeslot" ON DELETE CASCADE,
+	PRIMARY KEY ("instructor_id","timeslot_id"),
+    "instructor_available" bit
+);
+
+CREATE TABLE IF NOT EXISTS "lesson_costs"
+(
+	"level_id" varchar(100) PRIMARY KEY REFERENCES "levels" ON DELETE CASCADE,
+	"lesson_cost" int
+);
+
+CREATE TABLE IF NOT EXISTS "instructor_payment"
+(
+	"instructor_id" int REFERENCES "instructor" ON DELETE CASCADE,
+	"timeslot_id" int REFERENCES "timeslot" ON DELETE CASCADE,
+
+	PRIMARY KEY ("instructor_id", "timeslot_id"),
+    "payment" int,
+    "cost_id" int REFERENCES "extra_costs" ON DELETE SET NULL,
+    "lesson_cost" varchar(100) REFERENCES "lesson_costs" ON DELETE SET NULL
+);
+
+
+CREATE TABLE IF NOT EXISTS "student_payment"
+(
+	"student_id" int REFERENCES "student" ON DELETE CASCADE,
+    "timeslot_id" int REFERENCES "timeslot" ON DELETE CASCADE,
+
+	PRIMARY KEY ("student_id","timeslot_id"),
+    "costs_of_lessons" int,
+    "discount_siblings" float,
+    "cost_id" int REFERENCES "extra_costs" ON DELETE SET NULL,
+    "lesson_cost" varchar(100) REFERENCES "lesson_costs" ON DELETE SET NULL
+);
+
+-- Databases created before the schema was fixed have the misspelled column
+-- intsrument_type.
+DO $$
+BEGIN
+  IF EXISTS (SELECT 1 FROM information_schema.columns
+             WHERE table_schema = current_schema() AND table_name = 'renting_instrument'
+               AND column_name = 'intsrument_type') THEN
+    ALTER TABLE "renting_instrument" RENAME COLUMN "intsrument_type" TO "instrument_type";
+  END IF;
+END $$;
@@ -0,0 +1,14 @@
+-- Indexes for the access paths of BankDAO. The account number is the business
+-- id of an account, all rental lookups are by student, and only active rentals
+-- and instruments in stock are ever searched.
+
+CREATE UNIQUE INDEX IF NOT EXISTS "account_account_no_key" ON "account" ("account_no");
+
+CREATE INDEX IF NOT EXISTS "rented_instrument_student_renting_idx"
+  ON "rented_instrument" ("student_id", "currently_renting");
+
+CREATE INDEX IF NOT EXISTS "rented_instrument_active_idx"
+  ON "rented_instrument" ("student_id", "instrument_id") WHERE "currently_renting" = B'1';
+
+CREATE INDEX IF NOT EXISTS "renting_instrument_available_type_idx"
+  ON "renting_instrument" ("instrument_type") WHERE "available_instrument_amount" > 0;
@@ -0,0 +1,11 @@
+-- The number of active rentals of each student, maintained by BankDAO in the
+-- same transaction as each rental is created or closed. The two-rental limit is
+-- enforced by incrementing it only while it is below the limit.
+
+ALTER TABLE "student" ADD COLUMN IF NOT EXISTS "active_rentals" INT NOT NULL DEFAULT 0;
+
+UPDATE "student" s SET "active_rentals" =
+  (SELECT COUNT(*) FROM "rented_instrument" r
+   WHERE r."student_id" = s."student_id" AND r."currently_renting" = B'1');
+
+ALTER TABLE "student" ADD CONSTRAINT "student_active_rentals_check" CHECK ("active_rentals" >= 0);
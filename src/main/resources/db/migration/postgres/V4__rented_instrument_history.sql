@@ -0,0 +1,26 @@
+-- Closed rentals are moved by RentalArchiver from rented_instrument to
+-- rented_instrument_history when they have been closed for a configured number
+-- of days. The history is partitioned by year of the rental date, and the
+-- archiver creates the partition of a year before moving the first rental of
+-- that year.
+
+ALTER TABLE "rented_instrument" ADD COLUMN IF NOT EXISTS "closed_date" date;
+
+UPDATE "rented_instrument" SET "closed_date" = COALESCE("date", CURRENT_DATE)
+  WHERE "currently_renting" = B'0' AND "closed_date" IS NULL;
+
+CREATE INDEX IF NOT EXISTS "rented_instrument_closed_idx"
+  ON "rented_instrument" ("closed_date", "rented_id") WHERE "closed_date" IS NOT NULL;
+
+CREATE TABLE IF NOT EXISTS "rented_instrument_history"
+(
+	"rented_id" int NOT NULL,
+	"instrument_id" int NOT NULL,
+	"student_id" int NOT NULL,
+	"date" date NOT NULL,
+	"closed_date" date,
+	PRIMARY KEY ("rented_id", "date")
+) PARTITION BY RANGE ("date");
+
+CREATE INDEX IF NOT EXISTS "rented_instrument_history_student_idx"
+  ON "rented_instrument_history" ("student_id");
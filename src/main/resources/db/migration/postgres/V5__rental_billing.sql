@@ -0,0 +1,20 @@
+-- The monthly rental charges made by RentalBilling, one row per student and
+-- period, in the style of student_payment. The period is the first day of the
+-- billed month. billing_checkpoint holds the last student billed in a period,
+-- so that a billing run that failed is resumed after that student.
+
+CREATE TABLE IF NOT EXISTS "rental_charge"
+(
+	"student_id" int NOT NULL REFERENCES "student" ON DELETE CASCADE,
+	"period" date NOT NULL,
+	PRIMARY KEY ("student_id", "period"),
+	"rentals" int NOT NULL,
+	"amount" int NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "billing_checkpoint"
+(
+	"period" date PRIMARY KEY,
+	"last_student_id" int NOT NULL,
+	"finished" boolean NOT NULL
+);
@@ -0,0 +1,119 @@
+-- Aggregates of lessons and rentals per month, used by the reports. Triggers
+-- record each month whose lessons or rentals changed in report_dirty_month, and
+-- ReportAggregates recomputes only those months before a report is read.
+
+CREATE TABLE IF NOT EXISTS "report_dirty_month"
+(
+	"report" varchar(20) NOT NULL,
+	"month" date NOT NULL,
+	PRIMARY KEY ("report", "month")
+);
+
+CREATE TABLE IF NOT EXISTS "report_lessons_month"
+(
+	"month" date NOT NULL,
+	"lesson_type" varchar(20) NOT NULL,
+	"lessons" int NOT NULL,
+	PRIMARY KEY ("month", "lesson_type")
+);
+
+CREATE TABLE IF NOT EXISTS "report_instructor_month"
+(
+	"month" date NOT NULL,
+	"instructor_id" int NOT NULL,
+	"lessons" int NOT NULL,
+	PRIMARY KEY ("month", "instructor_id")
+);
+
+CREATE TABLE IF NOT EXISTS "report_rentals_month"
+(
+	"month" date NOT NULL,
+	"instrument_id" int NOT NULL,
+	"rentals" int NOT NULL,
+	PRIMARY KEY ("month", "instrument_id")
+);
+
+-- Updating the mark, instead of doing nothing, waits for a refresh of the same
+-- month to commit, so that a change is never lost by a concurrent refresh.
+CREATE OR REPLACE FUNCTION "mark_report_month"(changed_report varchar, changed_day date)
+  RETURNS void AS $$
+BEGIN
+  IF changed_day IS NOT NULL THEN
+    INSERT INTO "report_dirty_month" ("report", "month")
+      VALUES (changed_report, date_trunc('month', changed_day)::date)
+      ON CONFLICT ("report", "month") DO UPDATE SET "report" = EXCLUDED."report";
+  END IF;
+END $$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION "mark_timeslot_month"() RETURNS trigger AS $$
+BEGIN
+  IF TG_OP <> 'INSERT' THEN
+    PERFORM "mark_report_month"('lessons', OLD."date");
+  END IF;
+  IF TG_OP <> 'DELETE' THEN
+    PERFORM "mark_report_month"('lessons', NEW."date");
+  END IF;
+  RETURN NULL;
+END $$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION "mark_lesson_months"() RETURNS trigger AS $$
+DECLARE
+  changed_lesson int;
+BEGIN
+  IF TG_OP = 'DELETE' THEN
+    changed_lesson := OLD."lesson_id";
+  ELSE
+    changed_lesson := NEW."lesson_id";
+  END IF;
+  PERFORM "mark_report_month"('lessons', t."date")
+    FROM (SELECT DISTINCT "date" FROM "timeslot" WHERE "lesson_id" = changed_lesson) t;
+  RETURN NULL;
+END $$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION "mark_rental_month"() RETURNS trigger AS $$
+BEGIN
+  IF TG_OP <> 'INSERT' THEN
+    PERFORM "mark_report_month"('rentals', OLD."date");
+  END IF;
+  IF TG_OP <> 'DELETE' THEN
+    PERFORM "mark_report_month"('rentals', NEW."date");
+  END IF;
+  RETURN NULL;
+END $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS "timeslot_report" ON "timeslot";
+CREATE TRIGGER "timeslot_report" AFTER INSERT OR UPDATE OR DELETE ON "timeslot"
+  FOR EACH ROW EXECUTE FUNCTION "mark_timeslot_month"();
+
+DROP TRIGGER IF EXISTS "lesson_report" ON "lesson";
+CREATE TRIGGER "lesson_report" AFTER UPDATE ON "lesson"
+  FOR EACH ROW EXECUTE FUNCTION "mark_lesson_months"();
+
+DROP TRIGGER IF EXISTS "individual_lesson_report" ON "individual_lesson";
+CREATE TRIGGER "individual_lesson_report" AFTER INSERT OR UPDATE OR DELETE ON "individual_lesson"
+  FOR EACH ROW EXECUTE FUNCTION "mark_lesson_months"();
+
+DROP TRIGGER IF EXISTS "group_lesson_report" ON "group_lesson";
+CREATE TRIGGER "group_lesson_report" AFTER INSERT OR UPDATE OR DELETE ON "group_lesson"
+  FOR EACH ROW EXECUTE FUNCTION "mark_lesson_months"();
+
+DROP TRIGGER IF EXISTS "ensemble_report" ON "ensemble";
+CREATE TRIGGER "ensemble_report" AFTER INSERT OR UPDATE OR DELETE ON "ensemble"
+  FOR EACH ROW EXECUTE FUNCTION "mark_lesson_months"();
+
+DROP TRIGGER IF EXISTS "rented_instrument_report" ON "rented_instrument";
+CREATE TRIGGER "rented_instrument_report" AFTER INSERT OR UPDATE OF "date", "instrument_id" OR DELETE
+  ON "rented_instrument" FOR EACH ROW EXECUTE FUNCTION "mark_rental_month"();
+
+-- All months that already have lessons or rentals are computed by the first refresh.
+INSERT INTO "report_dirty_month" ("report", "month")
+  SELECT DISTINCT 'lessons', date_trunc('month', "date")::date FROM "timeslot"
+  WHERE "date" IS NOT NULL
+  ON CONFLICT DO NOTHING;
+
+INSERT INTO "report_dirty_month" ("report", "month")
+  SELECT DISTINCT 'rentals', date_trunc('month', "date")::date
+  FROM (SELECT "date" FROM "rented_instrument"
+        UNION ALL SELECT "date" FROM "rented_instrument_history") r
+  WHERE "date" IS NOT NULL
+  ON CONFLICT DO NOTHING;
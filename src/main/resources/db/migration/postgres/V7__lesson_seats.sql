@@ -0,0 +1,19 @@
+-- The seats of each group lesson and ensemble that has a maximum number of
+-- students. Enrolling a student reserves a seat with one conditional update of
+-- the lesson's row, so a full lesson is rejected without counting student_list.
+-- A group lesson or ensemble created later needs a row here to be limited.
+
+CREATE TABLE IF NOT EXISTS "lesson_seat"
+(
+	"lesson_id" int PRIMARY KEY REFERENCES "lesson" ON DELETE CASCADE,
+	"maximum_students" int NOT NULL,
+	"enrolled" int NOT NULL
+);
+
+INSERT INTO "lesson_seat" ("lesson_id", "maximum_students", "enrolled")
+  SELECT l."lesson_id", l."maximum_students",
+         (SELECT COUNT(*) FROM "student_list" sl WHERE sl."lesson_id" = l."lesson_id")
+  FROM (SELECT "lesson_id", "maximum_students" FROM "group_lesson"
+        UNION ALL SELECT "lesson_id", "maximum_students" FROM "ensemble") l
+  WHERE l."maximum_students" IS NOT NULL
+  ON CONFLICT DO NOTHING;
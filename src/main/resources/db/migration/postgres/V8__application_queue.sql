@@ -0,0 +1,17 @@
+-- Applications are written in batches by ApplicationIntake. Applications that
+-- require an audition form a queue, ordered by the date of the lesson's first
+-- upcoming timeslot and then by submission time. An instructor claims a page of
+-- the queue by becoming its reviewer, and later records whether the audition
+-- was passed. An application whose reviewer is removed returns to the queue.
+
+ALTER TABLE "application" ADD COLUMN IF NOT EXISTS "submitted_at" timestamp NOT NULL
+  DEFAULT CURRENT_TIMESTAMP;
+ALTER TABLE "application" ADD COLUMN IF NOT EXISTS "audition_due" date NOT NULL
+  DEFAULT DATE '9999-12-31';
+ALTER TABLE "application" ADD COLUMN IF NOT EXISTS "reviewer_id" int
+  REFERENCES "instructor" ON DELETE SET NULL;
+ALTER TABLE "application" ADD COLUMN IF NOT EXISTS "audition_passed" bit;
+
+CREATE INDEX IF NOT EXISTS "application_audition_queue_idx"
+  ON "application" ("audition_due", "submitted_at")
+  WHERE "audition_required" = B'1' AND "reviewer_id" IS NULL;
@@ -0,0 +1,12 @@
+-- Students are found by a part of their name. Names starting with the searched
+-- text are found in name order through the prefix index, which compares the
+-- lower case names bytewise. Names containing a text of at least three
+-- characters anywhere are found through the trigram index.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS "person_name_trgm_idx"
+  ON "person" USING gin ("name" gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS "person_name_prefix_idx"
+  ON "person" ((lower("name") COLLATE "C"));
@@ -11,3 +11,15 @@ CREATE TABLE "account"
   "balance" INT,
   "holder_id" INT NOT NULL REFERENCES "holder" ON DELETE CASCADE
 );
+
+-- Tells in which account shards each holder has accounts. Only used when the
+-- accounts are spread over more than one database, and only stored in the main
+-- database (shard zero).
+CREATE TABLE "holder_shard"
+(
+  "name" VARCHAR(100) NOT NULL,
+  "shard_no" INT NOT NULL,
+  PRIMARY KEY ("name", "shard_no")
+);
+
+CREATE UNIQUE INDEX "account_account_no_key" ON "account" ("account_no");
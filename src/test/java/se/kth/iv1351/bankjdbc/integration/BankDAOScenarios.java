@@ -0,0 +1,235 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+import se.kth.iv1351.bankjdbc.model.Rental;
+import se.kth.iv1351.bankjdbc.model.RentalCatalog;
+import se.kth.iv1351.bankjdbc.model.RentalRecord;
+import se.kth.iv1351.bankjdbc.model.RentalReturn;
+import se.kth.iv1351.bankjdbc.model.StudentMatch;
+import se.kth.iv1351.bankjdbc.model.StudentRentals;
+
+/**
+ * Runs the same rental and account scenarios against each specified DAO, to check
+ * that the in-memory bank behaves as the database. The arguments are the stores to
+ * check, <code>memory</code> and <code>jdbc</code>, both if there is no argument.
+ * The in-memory bank is seeded from <code>memory-seed.txt</code>. The scenarios
+ * find their students and brands through the DAO, the database must therefore
+ * have a student without active rentals, and
+ * <code>StudentRentals.MAX_RENTALS + 1</code> brands with available instruments.
+ * Everything a scenario changes is changed back. The program exits with status 1
+ * if any scenario failed.
+ */
+public class BankDAOScenarios {
+    private static final String SEED_RESOURCE = "/memory-seed.txt";
+    private static final int MAX_STUDENTS = 100;
+    private static final int INITIAL_BALANCE = 100;
+    private static final int WITHDRAWAL = 80;
+
+    private final BankDAO bankDb;
+    private final List<String> failures = new ArrayList<>();
+
+    private BankDAOScenarios(BankDAO bankDb) {
+        this.bankDb = bankDb;
+    }
+
+    /**
+     * @param args The stores to check, <code>memory</code> and <code>jdbc</code>.
+     * @throws Exception If a DAO could not be created.
+     */
+    public static void main(String[] args) throws Exception {
+        String[] stores = args.length == 0 ? new String[] {"memory", "jdbc"} : args;
+        boolean passed = true;
+        for (String store : stores) {
+            BankDAOScenarios scenarios = new BankDAOScenarios(create(store));
+            scenarios.run("rent and close", scenarios::rentAndClose);
+            scenarios.run("rental limit", scenarios::rentalLimit);
+            scenarios.run("overdraft", scenarios::overdraft);
+            System.out.println(store + ": " + (scenarios.failures.isEmpty() ? "passed"
+                               : "failed " + String.join(", ", scenarios.failures)));
+            passed &= scenarios.failures.isEmpty();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static BankDAO create(String store) throws BankDBException, URISyntaxException {
+        if ("jdbc".equals(store)) {
+            return new JdbcBankDAO();
+        }
+        if (!"memory".equals(store)) {
+            throw new IllegalArgumentException("Unknown store " + store);
+        }
+        InMemoryBankDAO bank = new InMemoryBankDAO();
+        bank.seed(Path.of(BankDAOScenarios.class.getResource(SEED_RESOURCE).toURI()));
+        return bank;
+    }
+
+    private interface Scenario {
+        void run() throws Exception;
+    }
+
+    private void run(String name, Scenario scenario) {
+        try {
+            scenario.run();
+        } catch (Exception | AssertionError failure) {
+            System.err.println(name + " failed: " + failure);
+            failures.add(name);
+        }
+    }
+
+    /**
+     * Rents an instrument, which decrements the brand's available instruments and
+     * gives the student an active rental, and returns it, which undoes both.
+     */
+    private void rentAndClose() throws Exception {
+        int studentId = studentWithoutRentals();
+        Rental brand = brandsInStock(1).get(0);
+        Rental rented = bankDb.rentInstrument(studentId, brand.getInstrumentName());
+        check(rented.getAvailableInstrumentAmount()
+              == brand.getAvailableInstrumentAmount() - 1, "the rental took one instrument");
+        check(activeRentals(studentId) == 1, "the student has one active rental");
+        RentalReturn returned = bankDb.returnInstrument(studentId, brand.getInstrumentName());
+        check(returned.getWaiter() != null
+              || returned.getAvailableInstrumentAmount() == brand.getAvailableInstrumentAmount(),
+              "the return gave the instrument back");
+        check(activeRentals(studentId) == 0, "the student has no active rental");
+    }
+
+    /**
+     * Rents as many instruments as a student may, and checks that one more is
+     * refused without taking an instrument.
+     */
+    private void rentalLimit() throws Exception {
+        int studentId = studentWithoutRentals();
+        List<Rental> brands = brandsInStock(StudentRentals.MAX_RENTALS + 1);
+        try {
+            for (int i = 0; i < StudentRentals.MAX_RENTALS; i++) {
+                bankDb.rentInstrument(studentId, brands.get(i).getInstrumentName());
+            }
+            Rental refused = brands.get(StudentRentals.MAX_RENTALS);
+            try {
+                bankDb.rentInstrument(studentId, refused.getInstrumentName());
+                check(false, "a rental over the limit is refused");
+            } catch (RejectedException expected) {
+                check(bankDb.findRental(refused.getInstrumentName())
+                      .getAvailableInstrumentAmount() == refused.getAvailableInstrumentAmount(),
+                      "the refused rental took no instrument");
+            }
+        } finally {
+            for (RentalRecord record : bankDb.findRentalRecords(studentId, false)) {
+                if (record.isActive()) {
+                    bankDb.returnInstrument(studentId, record.getInstrumentName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets two threads read the same account for update and withdraw more than half
+     * the balance each, and checks that the second update is refused.
+     */
+    private void overdraft() throws Exception {
+        String holder = "scenario-" + System.nanoTime();
+        bankDb.createAccount(new Account(holder, INITIAL_BALANCE));
+        String acctNo = bankDb.findAccountsByHolder(holder).get(0).getAccountNo();
+        ExecutorService first = Executors.newSingleThreadExecutor();
+        ExecutorService second = Executors.newSingleThreadExecutor();
+        try {
+            Account readByFirst = call(first, () -> bankDb.findAccountByAcctNo(acctNo, false));
+            Account readBySecond = call(second, () -> bankDb.findAccountByAcctNo(acctNo, false));
+            readByFirst.withdraw(WITHDRAWAL);
+            readBySecond.withdraw(WITHDRAWAL);
+            call(first, () -> {
+                bankDb.updateAccount(readByFirst);
+                return null;
+            });
+            try {
+                call(second, () -> {
+                    bankDb.updateAccount(readBySecond);
+                    return null;
+                });
+                check(false, "the second withdrawal is refused");
+            } catch (ExecutionException expected) {
+                check(expected.getCause() instanceof RejectedException,
+                      "the second withdrawal is refused, not failed: " + expected.getCause());
+            }
+            check(bankDb.findAccountByAcctNo(acctNo, true).getBalance()
+                  == INITIAL_BALANCE - WITHDRAWAL, "only the first withdrawal is made");
+        } finally {
+            first.shutdown();
+            second.shutdown();
+            bankDb.deleteAccount(acctNo);
+        }
+    }
+
+    private <T> T call(ExecutorService thread, Callable<T> task) throws Exception {
+        return thread.submit(task).get();
+    }
+
+    private int studentWithoutRentals() throws BankDBException {
+        for (StudentMatch student : bankDb.findStudentsByName("", MAX_STUDENTS)) {
+            if (activeRentals(student.getStudentId()) == 0) {
+                return student.getStudentId();
+            }
+        }
+        throw new AssertionError("There is no student without active rentals.");
+    }
+
+    private List<Rental> brandsInStock(int count) throws BankDBException {
+        List<Rental> brands = bankDb.loadRentalCatalog().search(null, null, null, true,
+                                                                RentalCatalog.SortOrder.NAME);
+        if (brands.size() < count) {
+            throw new AssertionError("There are less than " + count + " brands in stock.");
+        }
+        return brands.subList(0, count);
+    }
+
+    private int activeRentals(int studentId) throws BankDBException {
+        int active = 0;
+        for (RentalRecord record : bankDb.findRentalRecords(studentId, false)) {
+            if (record.isActive()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    private void check(boolean condition, String expectation) {
+        if (!condition) {
+            throw new AssertionError("Expected that " + expectation);
+        }
+    }
+}